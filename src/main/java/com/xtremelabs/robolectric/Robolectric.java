@@ -81,7 +81,7 @@ public class Robolectric {
     }
 
     public static void bindDefaultShadowClasses() {
-        bindShadowClasses(getDefaultShadowClasses());
+        RobolectricInternals.bindDefaultShadowClasses(getDefaultShadowClasses());
     }
 
     public static void bindShadowClasses(List<Class<?>> shadowClasses) {
@@ -315,6 +315,7 @@ public class Robolectric {
         ShadowContext.clearFilesAndCache();
         ShadowLooper.resetThreadLoopers();
         ShadowDialog.reset();
+        ShadowSQLiteDatabase.reset();
     }
 
     public static <T> T directlyOn(T shadowedObject) {
@@ -2,18 +2,24 @@ package com.xtremelabs.robolectric;
 
 import android.app.Application;
 import android.net.Uri__FromAndroid;
+import com.xtremelabs.robolectric.bytecode.AndroidTranslator;
 import com.xtremelabs.robolectric.bytecode.ClassHandler;
 import com.xtremelabs.robolectric.bytecode.RobolectricClassLoader;
+import com.xtremelabs.robolectric.bytecode.Sandbox;
 import com.xtremelabs.robolectric.bytecode.ShadowWrangler;
 import com.xtremelabs.robolectric.internal.RealObject;
 import com.xtremelabs.robolectric.internal.RobolectricTestRunnerInterface;
 import com.xtremelabs.robolectric.res.ResourceLoader;
 import com.xtremelabs.robolectric.shadows.ShadowApplication;
+import com.xtremelabs.robolectric.shadows.ShadowSQLiteDatabase;
 import com.xtremelabs.robolectric.util.DatabaseConfig;
 import com.xtremelabs.robolectric.util.DatabaseConfig.DatabaseMap;
+import com.xtremelabs.robolectric.util.DatabaseConfig.FileDatabaseMap;
 import com.xtremelabs.robolectric.util.DatabaseConfig.UsingDatabaseMap;
+import com.xtremelabs.robolectric.util.Profiler;
 import com.xtremelabs.robolectric.util.SQLiteMap;
 import javassist.Loader;
+import org.junit.runner.notification.RunNotifier;
 import org.junit.runners.BlockJUnit4ClassRunner;
 import org.junit.runners.model.FrameworkMethod;
 import org.junit.runners.model.InitializationError;
@@ -52,12 +58,43 @@ public class RobolectricTestRunner extends BlockJUnit4ClassRunner implements Rob
     protected RobolectricConfig robolectricConfig;
 
     private static RobolectricClassLoader getDefaultLoader() {
+        Sandbox sandbox = Sandbox.getCurrent();
+        if (sandbox != null) {
+            if (sandbox.getClassLoader() == null) {
+                sandbox.setClassLoader(createDefaultLoader(RobolectricClassLoader.class.getClassLoader()));
+            }
+            return sandbox.getClassLoader();
+        }
+
         if (defaultLoader == null) {
-            defaultLoader = new RobolectricClassLoader(ShadowWrangler.getInstance());
+            defaultLoader = createDefaultLoader(RobolectricClassLoader.class.getClassLoader());
         }
         return defaultLoader;
     }
 
+    private static RobolectricClassLoader createDefaultLoader(ClassLoader parent) {
+        RobolectricClassLoader robolectricClassLoader = new RobolectricClassLoader(ShadowWrangler.getInstance(), null, parent);
+        if (AndroidTranslator.useSelectiveInstrumentationByDefault()) {
+            robolectricClassLoader.instrumentOnlyMethodsShadowedBy(Robolectric.getDefaultShadowClasses());
+        }
+        return robolectricClassLoader;
+    }
+
+    /**
+     * Replaces the default robolectricClassLoader with a new one that loads classes from {@code parent}, so test runners
+     * created from now on see fresh copies of the application's classes. Used by
+     * {@link com.xtremelabs.robolectric.daemon.RobolectricDaemon} to pick up changes between runs.
+     *
+     * @param parent the class loader to load the application and Android classes from
+     */
+    public static void resetDefaultLoader(ClassLoader parent) {
+        ShadowWrangler.getInstance().clearCaches();
+        if (defaultLoader != null) {
+            defaultLoader.close();
+        }
+        defaultLoader = createDefaultLoader(parent);
+    }
+
     public static void setDefaultLoader(Loader robolectricClassLoader) {
     	//used by the RoboSpecs project to allow for mixed scala\java tests to be run with Maven Surefire (see the RoboSpecs project on github)
         if (defaultLoader == null) {
@@ -74,7 +111,7 @@ public class RobolectricTestRunner extends BlockJUnit4ClassRunner implements Rob
      */
     protected static void addClassOrPackageToInstrument(String classOrPackageToBeInstrumented) {
         if (!isInstrumented()) {
-            defaultLoader.addCustomShadowClass(classOrPackageToBeInstrumented);
+            getDefaultLoader().addCustomShadowClass(classOrPackageToBeInstrumented);
         }
     }
 
@@ -202,7 +239,7 @@ public class RobolectricTestRunner extends BlockJUnit4ClassRunner implements Rob
      * @throws InitializationError if junit says so
      */
     protected RobolectricTestRunner(final Class<?> testClass, final ClassHandler classHandler, final RobolectricClassLoader classLoader, final RobolectricConfig robolectricConfig, final DatabaseMap map) throws InitializationError {
-        super(isInstrumented() ? testClass : classLoader.bootstrap(testClass));
+        super(isInstrumented() ? testClass : bootstrap(classLoader, testClass));
                 
         if (!isInstrumented()) {
             this.classHandler = classHandler;
@@ -218,6 +255,7 @@ public class RobolectricTestRunner extends BlockJUnit4ClassRunner implements Rob
             delegateLoadingOf(ShadowWrangler.class.getName());
             delegateLoadingOf(RobolectricConfig.class.getName());
             delegateLoadingOf(DatabaseMap.class.getName());
+            delegateLoadingOf(FileDatabaseMap.class.getName());
             delegateLoadingOf(android.R.class.getName());
 
             Class<?> delegateClass = classLoader.bootstrap(this.getClass());
@@ -228,10 +266,18 @@ public class RobolectricTestRunner extends BlockJUnit4ClassRunner implements Rob
                 this.delegate.setDatabaseMap(databaseMap);
             } catch (Exception e) {
                 throw new RuntimeException(e);
+            } finally {
+                Profiler.setTestClass(null);
             }
         }
     }
 
+    private static Class<?> bootstrap(RobolectricClassLoader classLoader, Class<?> testClass) {
+        // charge the classes loaded while setting up the runner to its test class
+        Profiler.setTestClass(testClass.getName());
+        return classLoader.bootstrap(testClass);
+    }
+
     protected static boolean isInstrumented() {
         return RobolectricTestRunner.class.getClassLoader().getClass().getName().contains(RobolectricClassLoader.class.getName());
     }
@@ -267,6 +313,15 @@ public class RobolectricTestRunner extends BlockJUnit4ClassRunner implements Rob
         classLoader.delegateLoadingOf(className);
     }
 
+    @Override public void run(RunNotifier notifier) {
+        String previousTestClassName = Profiler.setTestClass(getTestClass().getName());
+        try {
+            super.run(notifier);
+        } finally {
+            Profiler.setTestClass(previousTestClassName);
+        }
+    }
+
     @Override protected Statement methodBlock(final FrameworkMethod method) {
         setupI18nStrictState(method.getMethod(), robolectricConfig);
 
@@ -280,9 +335,11 @@ public class RobolectricTestRunner extends BlockJUnit4ClassRunner implements Rob
         return new Statement() {
             @Override public void evaluate() throws Throwable {
                 // todo: this try/finally probably isn't right -- should mimic RunAfters? [xw]
+                long start = Profiler.start();
                 try {
                     statement.evaluate();
                 } finally {
+                    Profiler.end("test", start);
                     delegate.internalAfterTest(method.getMethod());
                     if (classHandler != null) {
                         classHandler.afterTest();
@@ -303,6 +360,8 @@ public class RobolectricTestRunner extends BlockJUnit4ClassRunner implements Rob
 
     @Override public void internalAfterTest(final Method method) {
         afterTest(method);
+
+        ShadowSQLiteDatabase.reportLeaks(method.getDeclaringClass().getSimpleName() + "." + method.getName());
     }
 
     @Override public void setRobolectricConfig(final RobolectricConfig robolectricConfig) {
@@ -345,17 +404,38 @@ public class RobolectricTestRunner extends BlockJUnit4ClassRunner implements Rob
     }
 
     public void setupApplicationState(final RobolectricConfig robolectricConfig) {
-        ResourceLoader resourceLoader = createResourceLoader(robolectricConfig);
+        long start = Profiler.start();
+        ResourceLoader resourceLoader;
+        try {
+            resourceLoader = createResourceLoader(robolectricConfig);
+        } finally {
+            Profiler.end("resourceLoaderCreation", start);
+        }
 
-        Robolectric.bindDefaultShadowClasses();
-        bindShadowClasses();
+        start = Profiler.start();
+        try {
+            Robolectric.bindDefaultShadowClasses();
+            bindShadowClasses();
+        } finally {
+            Profiler.end("shadowBinding", start);
+        }
+
+        start = Profiler.start();
+        try {
+            Robolectric.resetStaticState();
+            resetStaticState();
+        } finally {
+            Profiler.end("staticStateReset", start);
+        }
 
-        Robolectric.resetStaticState();
-        resetStaticState();
-        
         DatabaseConfig.setDatabaseMap(this.databaseMap);//Set static DatabaseMap in DBConfig
-        
-        Robolectric.application = ShadowApplication.bind(createApplication(), resourceLoader);
+
+        start = Profiler.start();
+        try {
+            Robolectric.application = ShadowApplication.bind(createApplication(), resourceLoader);
+        } finally {
+            Profiler.end("applicationCreation", start);
+        }
     }
 
     
@@ -469,6 +549,8 @@ public class RobolectricTestRunner extends BlockJUnit4ClassRunner implements Rob
             } catch (Exception e) {
                 throw new RuntimeException(e);
             }
+        } else {
+            resourceLoader.reloadChangedResources();
         }
 
         resourceLoader.setStrictI18n(robolectricConfig.getStrictI18n());
@@ -0,0 +1,187 @@
+package com.xtremelabs.robolectric;
+
+import com.xtremelabs.robolectric.bytecode.Sandbox;
+import org.junit.Test;
+import org.junit.internal.builders.AllDefaultPossibilitiesBuilder;
+import org.junit.runner.Description;
+import org.junit.runner.Runner;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+import org.junit.runner.notification.RunNotifier;
+import org.junit.runners.Suite;
+import org.junit.runners.model.FrameworkMethod;
+import org.junit.runners.model.InitializationError;
+import org.junit.runners.model.TestClass;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Runs the test classes named by a {@link Suite.SuiteClasses} annotation several at a time, each in one of a fixed
+ * number of {@link Sandbox}es, so that a suite can use more than one core without forking more JVMs. Each sandbox
+ * instruments and loads Android classes through its own class loader, but classes instrumented by one are read
+ * from the shared {@link com.xtremelabs.robolectric.bytecode.ClassCache} by the others.
+ * <p/>
+ * Test classes are handed out to whichever sandbox is free next, and their results are reported one test class at a
+ * time, once each has finished. Set the {@code robolectric.sandboxes} system property to choose how many sandboxes
+ * to use; the default is one per processor.
+ * <pre>
+ * &#64;RunWith(SandboxedSuite.class)
+ * &#64;Suite.SuiteClasses({FooActivityTest.class, BarViewTest.class})
+ * public class AllTests {
+ * }
+ * </pre>
+ */
+public class SandboxedSuite extends Runner {
+    public static final String SANDBOX_COUNT_PROPERTY = "robolectric.sandboxes";
+
+    private final List<Class<?>> testClasses = new ArrayList<Class<?>>();
+    private final Description description;
+
+    public SandboxedSuite(Class<?> suiteClass) throws InitializationError {
+        Suite.SuiteClasses suiteClasses = suiteClass.getAnnotation(Suite.SuiteClasses.class);
+        if (suiteClasses == null) {
+            throw new InitializationError("class " + suiteClass.getName() + " must have a SuiteClasses annotation");
+        }
+
+        description = Description.createSuiteDescription(suiteClass);
+        for (Class<?> testClass : suiteClasses.value()) {
+            testClasses.add(testClass);
+            description.addChild(describe(testClass));
+        }
+    }
+
+    public static int getSandboxCount() {
+        return Integer.getInteger(SANDBOX_COUNT_PROPERTY, Runtime.getRuntime().availableProcessors());
+    }
+
+    // the same tests BlockJUnit4ClassRunner would run, found without instrumenting anything
+    private static Description describe(Class<?> testClass) {
+        Description testClassDescription = Description.createSuiteDescription(testClass);
+        for (FrameworkMethod method : new TestClass(testClass).getAnnotatedMethods(Test.class)) {
+            testClassDescription.addChild(Description.createTestDescription(testClass, method.getName(), method.getAnnotations()));
+        }
+        return testClassDescription;
+    }
+
+    @Override public Description getDescription() {
+        return description;
+    }
+
+    @Override public void run(final RunNotifier notifier) {
+        final Queue<Class<?>> remainingTestClasses = new ConcurrentLinkedQueue<Class<?>>(testClasses);
+        int sandboxCount = Math.max(1, Math.min(getSandboxCount(), testClasses.size()));
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < sandboxCount; i++) {
+            final Sandbox sandbox = new Sandbox();
+            Thread thread = new Thread("robolectric-sandbox-" + i) {
+                @Override public void run() {
+                    try {
+                        sandbox.run(new Callable<Void>() {
+                            @Override public Void call() throws Exception {
+                                Class<?> testClass;
+                                while ((testClass = remainingTestClasses.poll()) != null) {
+                                    runTestClass(testClass, notifier);
+                                }
+                                return null;
+                            }
+                        });
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    } finally {
+                        sandbox.close();
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private void runTestClass(Class<?> testClass, RunNotifier notifier) {
+        EventRecorder eventRecorder = new EventRecorder();
+        RunNotifier sandboxNotifier = new RunNotifier();
+        sandboxNotifier.addListener(eventRecorder);
+
+        try {
+            Runner runner = new AllDefaultPossibilitiesBuilder(true).runnerForClass(testClass);
+            runner.run(sandboxNotifier);
+        } catch (Throwable e) {
+            sandboxNotifier.fireTestFailure(new Failure(describe(testClass), e));
+        }
+
+        // listeners generally aren't thread-safe, and expect a test class's events to arrive together
+        synchronized (notifier) {
+            eventRecorder.replay(notifier);
+        }
+    }
+
+    /**
+     * Holds on to a test class's events until they can be passed on to the real notifier.
+     */
+    private static class EventRecorder extends RunListener {
+        private final List<Event> events = new ArrayList<Event>();
+
+        @Override public void testStarted(final Description description) throws Exception {
+            events.add(new Event() {
+                @Override void fire(RunNotifier notifier) {
+                    notifier.fireTestStarted(description);
+                }
+            });
+        }
+
+        @Override public void testFinished(final Description description) throws Exception {
+            events.add(new Event() {
+                @Override void fire(RunNotifier notifier) {
+                    notifier.fireTestFinished(description);
+                }
+            });
+        }
+
+        @Override public void testFailure(final Failure failure) throws Exception {
+            events.add(new Event() {
+                @Override void fire(RunNotifier notifier) {
+                    notifier.fireTestFailure(failure);
+                }
+            });
+        }
+
+        @Override public void testAssumptionFailure(final Failure failure) {
+            events.add(new Event() {
+                @Override void fire(RunNotifier notifier) {
+                    notifier.fireTestAssumptionFailed(failure);
+                }
+            });
+        }
+
+        @Override public void testIgnored(final Description description) throws Exception {
+            events.add(new Event() {
+                @Override void fire(RunNotifier notifier) {
+                    notifier.fireTestIgnored(description);
+                }
+            });
+        }
+
+        void replay(RunNotifier notifier) {
+            for (Event event : events) {
+                event.fire(notifier);
+            }
+        }
+    }
+
+    private static abstract class Event {
+        abstract void fire(RunNotifier notifier);
+    }
+}
@@ -0,0 +1,317 @@
+package com.xtremelabs.robolectric.bytecode;
+
+import com.xtremelabs.robolectric.Robolectric;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.LoaderClassPath;
+import javassist.NotFoundException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Runs {@link AndroidTranslator} over every class in android.jar (and maps.jar, etc.) ahead of time, on all available
+ * cores, and writes the instrumented classes to a jar. Point {@link RobolectricClassLoader} at that jar with
+ * {@code -Drobolectric.instrumentedJar=path/to/jar} and it'll define classes straight from it instead of instrumenting
+ * them in every JVM.
+ * <p/>
+ * Run it with {@code -Drobolectric.selectiveInstrumentation=true} to build a jar for use with that option. The jar
+ * records digests of the jars it was instrumented from, and isn't used once the class path has different ones.
+ * <p/>
+ * Usage: {@code java com.xtremelabs.robolectric.bytecode.AndroidJarInstrumenter output.jar android.jar [maps.jar ...]}
+ */
+public class AndroidJarInstrumenter {
+    public static final Attributes.Name INSTRUMENTATION_VERSION_ATTRIBUTE = new Attributes.Name("Robolectric-Instrumentation-Version");
+    /**
+     * Names a class from each input jar, and the digest of the jar it came from, as {@code path/to/Class.class=digest}
+     * separated by spaces.
+     */
+    public static final Attributes.Name INPUT_JARS_ATTRIBUTE = new Attributes.Name("Robolectric-Input-Jars");
+
+    private static final Map<File, JarDigest> jarDigests = new HashMap<File, JarDigest>();
+
+    private final List<File> inputJars;
+    private final int threadCount;
+    private final Map<String, byte[]> instrumentedClasses = Collections.synchronizedMap(new TreeMap<String, byte[]>());
+    private final List<String> failedClassNames = Collections.synchronizedList(new ArrayList<String>());
+    private ShadowedMethodIndex shadowedMethodIndex;
+    private boolean useBytecodeTranslator = AndroidTranslator.useBytecodeTranslatorByDefault();
+    private String instrumentationVersion;
+    private String inputJarsDescription;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("usage: " + AndroidJarInstrumenter.class.getName() + " <output jar> <input jar> [<input jar> ...]");
+            System.exit(1);
+        }
+
+        List<File> inputJars = new ArrayList<File>();
+        for (int i = 1; i < args.length; i++) {
+            File inputJar = new File(args[i]);
+            if (inputJar.exists()) {
+                inputJars.add(inputJar);
+            } else {
+                System.out.println("Skipping missing jar " + inputJar);
+            }
+        }
+
+        AndroidJarInstrumenter instrumenter = new AndroidJarInstrumenter(inputJars, Runtime.getRuntime().availableProcessors());
+        long start = System.currentTimeMillis();
+        instrumenter.instrument();
+        instrumenter.write(new File(args[0]));
+        System.out.println("Instrumented " + instrumenter.getInstrumentedClassCount() + " classes into " + args[0]
+                + " in " + (System.currentTimeMillis() - start) + "ms");
+        if (!instrumenter.failedClassNames.isEmpty()) {
+            System.out.println(instrumenter.failedClassNames.size() + " classes couldn't be instrumented and will be instrumented at runtime instead");
+        }
+    }
+
+    public AndroidJarInstrumenter(List<File> inputJars, int threadCount) {
+        this.inputJars = inputJars;
+        this.threadCount = threadCount;
+        if (AndroidTranslator.useSelectiveInstrumentationByDefault()) {
+            shadowedMethodIndex = RobolectricClassLoader.newShadowedMethodIndex(newClassPool(), Robolectric.getDefaultShadowClasses());
+        }
+    }
+
+    public void setUseBytecodeTranslator(boolean useBytecodeTranslator) {
+        this.useBytecodeTranslator = useBytecodeTranslator;
+    }
+
+    /**
+     * @return the number of classes instrumented so far
+     */
+    public int getInstrumentedClassCount() {
+        return instrumentedClasses.size();
+    }
+
+    public void instrument() throws IOException, InterruptedException {
+        final ConcurrentLinkedQueue<String> classNames = new ConcurrentLinkedQueue<String>();
+        StringBuilder inputJarsDescription = new StringBuilder();
+        for (File inputJar : inputJars) {
+            List<String> inputJarClassNames = getClassNames(inputJar);
+            if (!inputJarClassNames.isEmpty()) {
+                if (inputJarsDescription.length() > 0) {
+                    inputJarsDescription.append(' ');
+                }
+                inputJarsDescription.append(inputJarClassNames.get(0).replace('.', '/')).append(".class=")
+                        .append(getJarDigest(inputJar));
+            }
+            classNames.addAll(inputJarClassNames);
+        }
+        this.inputJarsDescription = inputJarsDescription.toString();
+
+        // javassist class pools aren't thread-safe, so each worker gets its own pool and translator
+        ClassHandler classHandler = ShadowWrangler.getInstance();
+        List<Worker> workers = new ArrayList<Worker>();
+        for (int i = 0; i < threadCount; i++) {
+            workers.add(new Worker(classHandler, classNames));
+        }
+        instrumentationVersion = workers.get(0).androidTranslator.getInstrumentationVersion();
+
+        ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (Worker worker : workers) {
+                futures.add(executorService.submit(worker));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    public void write(File outputJar) throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(INSTRUMENTATION_VERSION_ATTRIBUTE, instrumentationVersion);
+        manifest.getMainAttributes().put(INPUT_JARS_ATTRIBUTE, inputJarsDescription);
+
+        File outputDir = outputJar.getAbsoluteFile().getParentFile();
+        if (!outputDir.exists()) {
+            outputDir.mkdirs();
+        }
+
+        JarOutputStream jarOutputStream = new JarOutputStream(new FileOutputStream(outputJar), manifest);
+        try {
+            for (Map.Entry<String, byte[]> entry : instrumentedClasses.entrySet()) {
+                jarOutputStream.putNextEntry(new JarEntry(entry.getKey().replace('.', '/') + ".class"));
+                jarOutputStream.write(entry.getValue());
+                jarOutputStream.closeEntry();
+            }
+        } finally {
+            jarOutputStream.close();
+        }
+    }
+
+    /**
+     * Jars are only read again if they've changed since they were last digested, so checking the input jars of an
+     * instrumented jar costs each JVM one read of them.
+     *
+     * @return a hash of the contents of {@code jar}
+     */
+    static String getJarDigest(File jar) throws IOException {
+        File file = jar.getAbsoluteFile();
+        synchronized (jarDigests) {
+            JarDigest jarDigest = jarDigests.get(file);
+            if (jarDigest != null && jarDigest.length == file.length() && jarDigest.lastModified == file.lastModified()) {
+                return jarDigest.digest;
+            }
+        }
+
+        JarDigest jarDigest = new JarDigest(file);
+        synchronized (jarDigests) {
+            jarDigests.put(file, jarDigest);
+        }
+        return jarDigest.digest;
+    }
+
+    private ClassPool newClassPool() {
+        ClassPool classPool = new ClassPool();
+        classPool.appendClassPath(new LoaderClassPath(AndroidJarInstrumenter.class.getClassLoader()));
+        for (File inputJar : inputJars) {
+            try {
+                classPool.insertClassPath(inputJar.getAbsolutePath());
+            } catch (NotFoundException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return classPool;
+    }
+
+    private List<String> getClassNames(File inputJar) throws IOException {
+        List<String> classNames = new ArrayList<String>();
+        JarFile jarFile = new JarFile(inputJar);
+        try {
+            Enumeration<JarEntry> entries = jarFile.entries();
+            while (entries.hasMoreElements()) {
+                String entryName = entries.nextElement().getName();
+                if (entryName.endsWith(".class")) {
+                    classNames.add(entryName.substring(0, entryName.length() - ".class".length()).replace('/', '.'));
+                }
+            }
+        } finally {
+            jarFile.close();
+        }
+        return classNames;
+    }
+
+    private class Worker implements Runnable {
+        private final ClassPool classPool;
+        private final AndroidTranslator androidTranslator;
+        private final ConcurrentLinkedQueue<String> classNames;
+
+        Worker(ClassHandler classHandler, ConcurrentLinkedQueue<String> classNames) {
+            this.classNames = classNames;
+
+            classPool = newClassPool();
+            androidTranslator = useBytecodeTranslator
+                    ? new BytecodeAndroidTranslator(classHandler, new InstrumentedClassCollector())
+                    : new AndroidTranslator(classHandler, new InstrumentedClassCollector());
+            androidTranslator.setShadowedMethodIndex(shadowedMethodIndex);
+        }
+
+        @Override
+        public void run() {
+            String className;
+            while ((className = classNames.poll()) != null) {
+                try {
+                    androidTranslator.onLoad(classPool, className);
+                } catch (Exception e) {
+                    failedClassNames.add(className);
+                    System.out.println("Couldn't instrument " + className + ": " + e);
+                }
+
+                // later classes should see this one as it was, just as they would when instrumented lazily, and
+                // dropping it keeps the pool from growing to hold the whole jar
+                CtClass ctClass = classPool.getOrNull(className);
+                if (ctClass != null) {
+                    ctClass.detach();
+                }
+            }
+        }
+    }
+
+    /**
+     * Collects the classes {@link AndroidTranslator} instruments instead of caching them on disk.
+     */
+    private class InstrumentedClassCollector extends ClassCache {
+        InstrumentedClassCollector() {
+            super(ClassCache.getDefaultCacheDirectory(), AndroidJarInstrumenter.class.getClassLoader());
+        }
+
+        // the classes are collected by name, so there's no need to read and hash their originals
+        @Override
+        public String getEntryName(String className, String instrumentationConfig) {
+            return className;
+        }
+
+        @Override
+        public void addClass(String className, String entryName, byte[] classBytes) {
+            instrumentedClasses.put(className, classBytes);
+        }
+    }
+
+    private static class JarDigest {
+        final long length;
+        final long lastModified;
+        final String digest;
+
+        JarDigest(File file) throws IOException {
+            length = file.length();
+            lastModified = file.lastModified();
+
+            MessageDigest messageDigest;
+            try {
+                messageDigest = MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+            InputStream inputStream = new FileInputStream(file);
+            try {
+                byte[] buffer = new byte[65536];
+                int count;
+                while ((count = inputStream.read(buffer)) != -1) {
+                    messageDigest.update(buffer, 0, count);
+                }
+            } finally {
+                inputStream.close();
+            }
+
+            StringBuilder buf = new StringBuilder();
+            for (byte b : messageDigest.digest()) {
+                buf.append(Character.forDigit((b >> 4) & 0xf, 16));
+                buf.append(Character.forDigit(b & 0xf, 16));
+            }
+            digest = buf.toString();
+        }
+    }
+}
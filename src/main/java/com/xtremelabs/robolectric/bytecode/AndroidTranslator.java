@@ -3,51 +3,132 @@ package com.xtremelabs.robolectric.bytecode;
 import android.net.Uri;
 import com.xtremelabs.robolectric.internal.DoNotInstrument;
 import com.xtremelabs.robolectric.internal.Instrument;
+import com.xtremelabs.robolectric.util.Profiler;
 import javassist.*;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 @SuppressWarnings({"UnusedDeclaration"})
 public class AndroidTranslator implements Translator {
     /**
      * IMPORTANT -- increment this number when the bytecode generated for modified classes changes
-     * so the cache file can be invalidated.
+     * so the cached classes can be invalidated.
      */
-    public static final int CACHE_VERSION = 20;
+    public static final int CACHE_VERSION = 21;
+
+    /**
+     * Set this system property to "true" to have instrumented methods identified by a per-class integer id rather
+     * than by name and parameter type names, so that calls to unshadowed methods allocate nothing.
+     */
+    public static final String METHOD_IDS_PROPERTY = "robolectric.methodIds";
+
+    /**
+     * Name of the static method added to each class instrumented with method ids; it returns the signatures of the
+     * class's instrumented methods, indexed by method id.
+     */
+    public static final String METHOD_SIGNATURES_METHOD_NAME = "__methodSignatures__";
+
+    /**
+     * Set this system property to "true" to only route methods that some default shadow class implements through
+     * {@link ClassHandler}; every other method of an instrumented Android class just returns a default value. Shadows
+     * bound later on for methods that no default shadow implements won't be called, and neither
+     * {@link com.xtremelabs.robolectric.Robolectric#directlyOn(Object)} nor
+     * {@link com.xtremelabs.robolectric.Robolectric#logMissingInvokedShadowMethods()} will see those methods.
+     */
+    public static final String SELECTIVE_INSTRUMENTATION_PROPERTY = "robolectric.selectiveInstrumentation";
+
+    /**
+     * Set this system property to "true" to instrument classes with {@link BytecodeAndroidTranslator}, which writes
+     * bytecode directly instead of compiling generated source.
+     */
+    public static final String BYTECODE_TRANSLATOR_PROPERTY = "robolectric.bytecodeTranslator";
 
     private static final List<ClassHandler> CLASS_HANDLERS = new ArrayList<ClassHandler>();
 
     private ClassHandler classHandler;
     private ClassCache classCache;
-    private static final ArrayList<String> instrumentingList = new ArrayList<String>();
+    private static final CopyOnWriteArrayList<String> instrumentingList = new CopyOnWriteArrayList<String>();
+    private boolean useMethodIds = useMethodIdsByDefault();
+    private List<String> methodSignatures;
+    private ShadowedMethodIndex shadowedMethodIndex;
+    private boolean instrumentingShadowedMethodsOnly;
 
     public AndroidTranslator(ClassHandler classHandler, ClassCache classCache) {
         this.classHandler = classHandler;
         this.classCache = classCache;
         
         // Initialize list
-        instrumentingList.add("android.");
-        instrumentingList.add("com.google.android.maps");
-        instrumentingList.add("org.apache.http.impl.client.DefaultRequestDirector");
+        addCustomShadowClass("android.");
+        addCustomShadowClass("com.google.android.maps");
+        addCustomShadowClass("org.apache.http.impl.client.DefaultRequestDirector");
     }
     
     public AndroidTranslator(ClassHandler classHandler, ClassCache classCache, List<String> customShadowClassNames) {
     	this(classHandler, classCache);
     	if ( customShadowClassNames != null && !customShadowClassNames.isEmpty() ) {
-        	instrumentingList.addAll(customShadowClassNames);    		
+    	    for (String customShadowClassName : customShadowClassNames) {
+    	        addCustomShadowClass(customShadowClassName);
+    	    }
     	}
     }
 
     public void addCustomShadowClass(String customShadowClassName) {
-        if (!instrumentingList.contains(customShadowClassName)) {
-            instrumentingList.add(customShadowClassName);
+        instrumentingList.addIfAbsent(customShadowClassName);
+    }
+
+    /**
+     * @return a description of everything besides a class's own bytes that affects how it gets instrumented, for use
+     *         as part of its {@link ClassCache} key
+     */
+    public String getInstrumentationConfig() {
+        return getInstrumentationVersion() + ":" + instrumentingList;
+    }
+
+    /**
+     * @return a description of how classes are instrumented, regardless of which classes are
+     */
+    public String getInstrumentationVersion() {
+        String version = CACHE_VERSION + ":" + useMethodIds;
+        if (shadowedMethodIndex != null) {
+            version += ":" + shadowedMethodIndex.getDigest();
         }
+        return version;
+    }
+
+    public static boolean useMethodIdsByDefault() {
+        return Boolean.valueOf(System.getProperty(METHOD_IDS_PROPERTY));
+    }
+
+    public void setUseMethodIds(boolean useMethodIds) {
+        this.useMethodIds = useMethodIds;
+    }
+
+    public static boolean useBytecodeTranslatorByDefault() {
+        return Boolean.valueOf(System.getProperty(BYTECODE_TRANSLATOR_PROPERTY));
+    }
+
+    public static boolean useSelectiveInstrumentationByDefault() {
+        return Boolean.valueOf(System.getProperty(SELECTIVE_INSTRUMENTATION_PROPERTY));
+    }
+
+    /**
+     * Only instrument the methods in {@code shadowedMethodIndex} with calls to the {@link ClassHandler}, and stub out
+     * the rest. Classes annotated with {@link Instrument} are still fully instrumented, since tests bind their shadows
+     * as they go. Must be called before any classes are loaded.
+     *
+     * @param shadowedMethodIndex the methods to instrument, or null to instrument all methods
+     */
+    public void setShadowedMethodIndex(ShadowedMethodIndex shadowedMethodIndex) {
+        this.shadowedMethodIndex = shadowedMethodIndex;
     }
 
     public static ClassHandler getClassHandler(int index) {
-        return CLASS_HANDLERS.get(index);
+        synchronized (CLASS_HANDLERS) {
+            return CLASS_HANDLERS.get(index);
+        }
     }
 
     @Override
@@ -72,10 +153,15 @@ public class AndroidTranslator implements Translator {
 
     @Override
     public void onLoad(ClassPool classPool, String className) throws NotFoundException, CannotCompileException {
-        if (classCache.isWriting()) {
-            throw new IllegalStateException("shouldn't be modifying bytecode after we've started writing cache! class=" + className);
+        long start = Profiler.start();
+        try {
+            translate(classPool, className);
+        } finally {
+            Profiler.end("instrumentation", start);
         }
+    }
 
+    private void translate(ClassPool classPool, String className) throws NotFoundException, CannotCompileException {
         if (classHasFromAndroidEquivalent(className)) {
             replaceClassWithFromAndroidEquivalent(classPool, className);
             return;
@@ -88,14 +174,9 @@ public class AndroidTranslator implements Translator {
             throw new IgnorableClassNotFoundException(e);
         }
         
-        boolean wantsToBeInstrumented = ctClass.hasAnnotation(Instrument.class);
-        if (!wantsToBeInstrumented) {
-        	for (String klassName : instrumentingList) {
-        		wantsToBeInstrumented = className.startsWith(klassName);
-        		if (wantsToBeInstrumented) break;
-        	}
-        }
-                
+        boolean isOnInstrumentingList = isOnInstrumentingList(className);
+        boolean wantsToBeInstrumented = isOnInstrumentingList || ctClass.hasAnnotation(Instrument.class);
+
         if (wantsToBeInstrumented && !ctClass.hasAnnotation(DoNotInstrument.class)) {
             int modifiers = ctClass.getModifiers();
             if (Modifier.isFinal(modifiers)) {
@@ -106,17 +187,45 @@ public class AndroidTranslator implements Translator {
 
             classHandler.instrument(ctClass);
 
-            fixConstructors(ctClass);
-            fixMethods(ctClass);
+            methodSignatures = useMethodIds ? new ArrayList<String>() : null;
+            instrumentingShadowedMethodsOnly = shadowedMethodIndex != null && !ctClass.hasAnnotation(Instrument.class);
+            try {
+                fixConstructors(ctClass);
+                fixMethods(ctClass);
+                if (useMethodIds) {
+                    addMethodSignaturesMethod(ctClass, methodSignatures);
+                }
+            } finally {
+                methodSignatures = null;
+                instrumentingShadowedMethodsOnly = false;
+            }
 
+            // only classes on the list are looked for in the cache, so there's no entry for the others
+            String cacheEntryName = isOnInstrumentingList ? classCache.getEntryName(className, getInstrumentationConfig()) : null;
             try {
-                classCache.addClass(className, ctClass.toBytecode());
+                classCache.addClass(className, cacheEntryName, ctClass.toBytecode());
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
         }
     }
 
+    /**
+     * @return whether {@code className} is instrumented because of its name, rather than an {@link Instrument}
+     *         annotation, and so is worth looking for in the {@link ClassCache} before its bytes are read
+     */
+    public boolean isOnInstrumentingList(String className) {
+        if (classHasFromAndroidEquivalent(className)) {
+            return false;
+        }
+        for (String klassName : instrumentingList) {
+            if (className.startsWith(klassName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private boolean classHasFromAndroidEquivalent(String className) {
         return className.startsWith(Uri.class.getName());
     }
@@ -171,6 +280,46 @@ public class AndroidTranslator implements Translator {
         }
     }
 
+    /**
+     * Adds a static method, {@value #METHOD_SIGNATURES_METHOD_NAME}, to {@code ctClass} which returns the signature of
+     * each of its method ids.
+     */
+    protected void addMethodSignaturesMethod(CtClass ctClass, List<String> methodSignatures) throws CannotCompileException {
+        StringBuilder buf = new StringBuilder();
+        buf.append("public static String[] ").append(METHOD_SIGNATURES_METHOD_NAME).append("() {\n");
+        buf.append("return new String[] {");
+        for (int i = 0; i < methodSignatures.size(); i++) {
+            if (i > 0) buf.append(", ");
+            buf.append("\"").append(methodSignatures.get(i)).append("\"");
+        }
+        buf.append("};\n}");
+        ctClass.addMethod(CtNewMethod.make(buf.toString(), ctClass));
+    }
+
+    /**
+     * @return whether the class being instrumented identifies its methods by method id
+     */
+    protected boolean isAssigningMethodIds() {
+        return methodSignatures != null;
+    }
+
+    private int assignMethodId(CtMethod ctMethod) throws NotFoundException {
+        return assignMethodId(ctMethod.getName(), ctMethod.getParameterTypes());
+    }
+
+    protected int assignMethodId(String methodName, CtClass[] parameterTypes) {
+        StringBuilder buf = new StringBuilder();
+        buf.append(methodName).append("(");
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (i > 0) buf.append(",");
+            buf.append(parameterTypes[i].getName());
+        }
+        buf.append(")");
+
+        methodSignatures.add(buf.toString());
+        return methodSignatures.size() - 1;
+    }
+
     private void addBypassShadowField(CtClass ctClass, String fieldName) {
         try {
             try {
@@ -207,15 +356,23 @@ public class AndroidTranslator implements Translator {
         }
 
         if (!hasDefault) {
-            String methodBody = generateConstructorBody(ctClass, new CtClass[0]);
-            ctClass.addConstructor(CtNewConstructor.make(new CtClass[0], new CtClass[0], "{\n" + methodBody + "}\n", ctClass));
+            addDefaultConstructor(ctClass);
         }
     }
 
     private boolean fixConstructor(CtClass ctClass, boolean needsDefault, CtConstructor ctConstructor) throws NotFoundException, CannotCompileException {
+        instrumentConstructor(ctClass, ctConstructor);
+        return needsDefault;
+    }
+
+    protected void addDefaultConstructor(CtClass ctClass) throws NotFoundException, CannotCompileException {
+        String methodBody = generateConstructorBody(ctClass, new CtClass[0]);
+        ctClass.addConstructor(CtNewConstructor.make(new CtClass[0], new CtClass[0], "{\n" + methodBody + "}\n", ctClass));
+    }
+
+    protected void instrumentConstructor(CtClass ctClass, CtConstructor ctConstructor) throws NotFoundException, CannotCompileException {
         String methodBody = generateConstructorBody(ctClass, ctConstructor.getParameterTypes());
         ctConstructor.setBody("{\n" + methodBody + "}\n");
-        return needsDefault;
     }
 
     private String generateConstructorBody(CtClass ctClass, CtClass[] parameterTypes) throws NotFoundException {
@@ -270,45 +427,73 @@ public class AndroidTranslator implements Translator {
                 ctMethod.setModifiers(newModifiers);
             }
 
-            CtClass returnCtClass = ctMethod.getReturnType();
-            Type returnType = Type.find(returnCtClass);
-
-            String methodName = ctMethod.getName();
-            CtClass[] paramTypes = ctMethod.getParameterTypes();
-
-//            if (!isAbstract) {
-//                if (methodName.startsWith("set") && paramTypes.length == 1) {
-//                    String fieldName = "__" + methodName.substring(3);
-//                    if (declareField(ctClass, fieldName, paramTypes[0])) {
-//                        methodBody = fieldName + " = $1;\n" + methodBody;
-//                    }
-//                } else if (methodName.startsWith("get") && paramTypes.length == 0) {
-//                    String fieldName = "__" + methodName.substring(3);
-//                    if (declareField(ctClass, fieldName, returnType)) {
-//                        methodBody = "return " + fieldName + ";\n";
-//                    }
+            if (instrumentingShadowedMethodsOnly && !shadowedMethodIndex.isShadowed(ctMethod)) {
+                stubMethod(ctClass, ctMethod, wasFoundInClass, wasDeclaredInClass);
+                return;
+            }
+
+            boolean isStatic = Modifier.isStatic(originalModifiers);
+            instrumentMethod(ctClass, ctMethod, newModifiers, wasNative, wasAbstract, isStatic, wasFoundInClass, wasDeclaredInClass);
+        } catch (Exception e) {
+            throw new RuntimeException("problem instrumenting " + describeBefore, e);
+        }
+    }
+
+    /**
+     * Adds the call to the {@link ClassHandler} to a method.
+     *
+     * @param wasFoundInClass    false if this is an equals(), hashCode() or toString() that might be inherited
+     * @param wasDeclaredInClass whether {@code ctClass} declares the method itself
+     */
+    protected void instrumentMethod(CtClass ctClass, CtMethod ctMethod, int newModifiers, boolean wasNative, boolean wasAbstract, boolean isStatic, boolean wasFoundInClass, boolean wasDeclaredInClass) throws NotFoundException, CannotCompileException {
+        CtClass returnCtClass = ctMethod.getReturnType();
+        Type returnType = Type.find(returnCtClass);
+
+        String methodName = ctMethod.getName();
+        CtClass[] paramTypes = ctMethod.getParameterTypes();
+
+//        if (!isAbstract) {
+//            if (methodName.startsWith("set") && paramTypes.length == 1) {
+//                String fieldName = "__" + methodName.substring(3);
+//                if (declareField(ctClass, fieldName, paramTypes[0])) {
+//                    methodBody = fieldName + " = $1;\n" + methodBody;
+//                }
+//            } else if (methodName.startsWith("get") && paramTypes.length == 0) {
+//                String fieldName = "__" + methodName.substring(3);
+//                if (declareField(ctClass, fieldName, returnType)) {
+//                    methodBody = "return " + fieldName + ";\n";
 //                }
 //            }
+//        }
 
-            boolean isStatic = Modifier.isStatic(originalModifiers);
-            String methodBody = generateMethodBody(ctClass, ctMethod, wasNative, wasAbstract, returnCtClass, returnType, isStatic, !wasFoundInClass);
+        String methodBody = generateMethodBody(ctClass, ctMethod, wasNative, wasAbstract, returnCtClass, returnType, isStatic, !wasFoundInClass);
 
-            if (!wasFoundInClass) {
-                CtMethod newMethod = makeNewMethod(ctClass, ctMethod, returnCtClass, methodName, paramTypes, "{\n" + methodBody + generateCallToSuper(methodName, paramTypes) + "\n}");
-                newMethod.setModifiers(newModifiers);
-                if (wasDeclaredInClass) {
-                    ctMethod.insertBefore("{\n" + methodBody + "}\n");
-                } else {
-                    ctClass.addMethod(newMethod);
-                }
-            } else if (wasAbstract || wasNative) {
-                CtMethod newMethod = makeNewMethod(ctClass, ctMethod, returnCtClass, methodName, paramTypes, "{\n" + methodBody + "\n}");
-                ctMethod.setBody(newMethod, null);
-            } else {
+        if (!wasFoundInClass) {
+            CtMethod newMethod = makeNewMethod(ctClass, ctMethod, returnCtClass, methodName, paramTypes, "{\n" + methodBody + generateCallToSuper(methodName, paramTypes) + "\n}");
+            newMethod.setModifiers(newModifiers);
+            if (wasDeclaredInClass) {
                 ctMethod.insertBefore("{\n" + methodBody + "}\n");
+            } else {
+                ctClass.addMethod(newMethod);
             }
-        } catch (Exception e) {
-            throw new RuntimeException("problem instrumenting " + describeBefore, e);
+        } else if (wasAbstract || wasNative) {
+            CtMethod newMethod = makeNewMethod(ctClass, ctMethod, returnCtClass, methodName, paramTypes, "{\n" + methodBody + "\n}");
+            ctMethod.setBody(newMethod, null);
+        } else {
+            ctMethod.insertBefore("{\n" + methodBody + "}\n");
+        }
+    }
+
+    /**
+     * Gives a method that no shadow implements the same behavior as a fully instrumented one would have when its call
+     * to the {@link ClassHandler} returns null, without making that call.
+     */
+    protected void stubMethod(CtClass ctClass, CtMethod ctMethod, boolean wasFoundInClass, boolean wasDeclaredInClass) throws NotFoundException, CannotCompileException {
+        if (wasFoundInClass) {
+            Type returnType = Type.find(ctMethod.getReturnType());
+            ctMethod.setBody(returnType.isVoid() ? "{\n}" : "{\nreturn " + returnType.defaultReturnString() + ";\n}");
+        } else if (wasDeclaredInClass) {
+            ctMethod.setBody("{\n" + generateCallToSuper(ctMethod.getName(), ctMethod.getParameterTypes()) + "\n}");
         }
     }
 
@@ -354,6 +539,10 @@ public class AndroidTranslator implements Translator {
     }
 
     public String generateMethodBody(CtClass ctClass, CtMethod ctMethod, CtClass returnCtClass, Type returnType, boolean isStatic, boolean shouldGenerateCallToSuper) throws NotFoundException {
+        if (methodSignatures != null) {
+            return generateMethodBodyWithMethodId(ctClass, ctMethod, returnCtClass, returnType, isStatic, shouldGenerateCallToSuper, assignMethodId(ctMethod));
+        }
+
         boolean returnsVoid = returnType.isVoid();
         String className = ctClass.getName();
 
@@ -411,6 +600,69 @@ public class AndroidTranslator implements Translator {
         return methodBody;
     }
 
+    /**
+     * Like {@link #generateMethodBody(CtClass, CtMethod, CtClass, Type, boolean, boolean)}, but identifies the method
+     * by an id into the class's method signature table, and only boxes the arguments if a shadow class is bound for the
+     * method.
+     */
+    public String generateMethodBodyWithMethodId(CtClass ctClass, CtMethod ctMethod, CtClass returnCtClass, Type returnType, boolean isStatic, boolean shouldGenerateCallToSuper, int methodId) throws NotFoundException {
+        boolean returnsVoid = returnType.isVoid();
+        String className = ctClass.getName();
+
+        StringBuilder buf = new StringBuilder();
+        buf.append("if (!");
+        buf.append(RobolectricInternals.class.getName());
+        buf.append(".shouldCallDirectly(");
+        buf.append(isStatic ? className + ".class" : "this");
+        buf.append(")) {\n");
+
+        buf.append("if (");
+        buf.append(RobolectricInternals.class.getName());
+        buf.append(".isShadowed(");
+        buf.append(className);
+        buf.append(".class, ");
+        buf.append(methodId);
+        buf.append(")) {\n");
+
+        if (!returnsVoid) {
+            buf.append("Object x = ");
+        }
+        buf.append(RobolectricInternals.class.getName());
+        buf.append(".methodInvoked(\n  ");
+        buf.append(className);
+        buf.append(".class, ");
+        buf.append(methodId);
+        buf.append(", ");
+        buf.append(isStatic ? "null" : "this");
+        buf.append(", ");
+        appendParamArray(buf, ctMethod);
+        buf.append(");\n");
+
+        if (!returnsVoid) {
+            buf.append("if (x != null) return ((");
+            buf.append(returnType.nonPrimitiveClassName(returnCtClass));
+            buf.append(") x)");
+            buf.append(returnType.unboxString());
+            buf.append(";\n");
+        }
+        buf.append("}\n");
+
+        if (!returnsVoid) {
+            if (shouldGenerateCallToSuper) {
+                buf.append(generateCallToSuper(ctMethod.getName(), ctMethod.getParameterTypes()));
+            } else {
+                buf.append("return ");
+                buf.append(returnType.defaultReturnString());
+                buf.append(";\n");
+            }
+        } else {
+            buf.append("return;\n");
+        }
+
+        buf.append("}\n");
+        return buf.toString();
+    }
+
     private void appendParamTypeArray(StringBuilder buf, CtMethod ctMethod) throws NotFoundException {
         CtClass[] parameterTypes = ctMethod.getParameterTypes();
         if (parameterTypes.length == 0) {
@@ -0,0 +1,337 @@
+package com.xtremelabs.robolectric.bytecode;
+
+import javassist.CannotCompileException;
+import javassist.CtBehavior;
+import javassist.CtClass;
+import javassist.CtConstructor;
+import javassist.CtMethod;
+import javassist.CtPrimitiveType;
+import javassist.Modifier;
+import javassist.NotFoundException;
+import javassist.bytecode.AccessFlag;
+import javassist.bytecode.BadBytecode;
+import javassist.bytecode.Bytecode;
+import javassist.bytecode.CodeAttribute;
+import javassist.bytecode.CodeIterator;
+import javassist.bytecode.Descriptor;
+import javassist.bytecode.MethodInfo;
+import javassist.bytecode.Opcode;
+
+import java.util.List;
+
+/**
+ * An {@link AndroidTranslator} that emits the same code as its superclass directly as bytecode, rather than
+ * generating Java source and handing it to javassist's compiler, which is where most of the time instrumenting a
+ * class goes.
+ * <p/>
+ * Set the {@value AndroidTranslator#BYTECODE_TRANSLATOR_PROPERTY} system property to "true" to use it.
+ */
+public class BytecodeAndroidTranslator extends AndroidTranslator {
+    private static final String ROBOLECTRIC_INTERNALS = RobolectricInternals.class.getName();
+    private static final String OBJECT = "java.lang.Object";
+    private static final String STRING = "java.lang.String";
+
+    public BytecodeAndroidTranslator(ClassHandler classHandler, ClassCache classCache) {
+        super(classHandler, classCache);
+    }
+
+    public BytecodeAndroidTranslator(ClassHandler classHandler, ClassCache classCache, List<String> customShadowClassNames) {
+        super(classHandler, classCache, customShadowClassNames);
+    }
+
+    @Override
+    public String getInstrumentationVersion() {
+        return super.getInstrumentationVersion() + ":bytecode";
+    }
+
+    @Override
+    protected void addDefaultConstructor(CtClass ctClass) throws NotFoundException, CannotCompileException {
+        CtConstructor ctConstructor = new CtConstructor(new CtClass[0], ctClass);
+        setCode(ctClass, ctConstructor, generateConstructorCode(ctClass, new CtClass[0]), false);
+        ctClass.addConstructor(ctConstructor);
+    }
+
+    @Override
+    protected void instrumentConstructor(CtClass ctClass, CtConstructor ctConstructor) throws NotFoundException, CannotCompileException {
+        setCode(ctClass, ctConstructor, generateConstructorCode(ctClass, ctConstructor.getParameterTypes()), false);
+    }
+
+    @Override
+    protected void instrumentMethod(CtClass ctClass, CtMethod ctMethod, int newModifiers, boolean wasNative, boolean wasAbstract, boolean isStatic, boolean wasFoundInClass, boolean wasDeclaredInClass) throws NotFoundException, CannotCompileException {
+        Bytecode code = newBytecode(ctClass);
+        addMethodCode(code, ctClass, ctMethod, wasNative, wasAbstract, isStatic, !wasFoundInClass);
+
+        if (!wasFoundInClass) {
+            if (wasDeclaredInClass) {
+                insertBefore(ctClass, ctMethod, code);
+            } else {
+                addCallToSuper(code, ctClass, ctMethod);
+                CtMethod newMethod = new CtMethod(ctMethod.getReturnType(), ctMethod.getName(), ctMethod.getParameterTypes(), ctClass);
+                newMethod.setExceptionTypes(ctMethod.getExceptionTypes());
+                newMethod.setModifiers(newModifiers);
+                setCode(ctClass, newMethod, code, isStatic);
+                ctClass.addMethod(newMethod);
+            }
+        } else if (wasAbstract || wasNative) {
+            // addMethodCode() has already ended the code with a return of the default value
+            setCode(ctClass, ctMethod, code, isStatic);
+        } else {
+            insertBefore(ctClass, ctMethod, code);
+        }
+    }
+
+    @Override
+    protected void stubMethod(CtClass ctClass, CtMethod ctMethod, boolean wasFoundInClass, boolean wasDeclaredInClass) throws NotFoundException, CannotCompileException {
+        boolean isStatic = Modifier.isStatic(ctMethod.getModifiers());
+        Bytecode code = newBytecode(ctClass);
+        if (wasFoundInClass) {
+            addDefaultReturn(code, ctMethod.getReturnType());
+            setCode(ctClass, ctMethod, code, isStatic);
+        } else if (wasDeclaredInClass) {
+            addCallToSuper(code, ctClass, ctMethod);
+            setCode(ctClass, ctMethod, code, isStatic);
+        }
+    }
+
+    @Override
+    protected void addMethodSignaturesMethod(CtClass ctClass, List<String> methodSignatures) throws CannotCompileException {
+        Bytecode code = newBytecode(ctClass);
+        code.addIconst(methodSignatures.size());
+        code.addAnewarray(STRING);
+        for (int i = 0; i < methodSignatures.size(); i++) {
+            code.addOpcode(Opcode.DUP);
+            code.addIconst(i);
+            code.addLdc(methodSignatures.get(i));
+            code.addOpcode(Opcode.AASTORE);
+        }
+        code.addOpcode(Opcode.ARETURN);
+        code.setMaxLocals(0);
+
+        MethodInfo methodInfo = new MethodInfo(ctClass.getClassFile().getConstPool(), METHOD_SIGNATURES_METHOD_NAME, "()[Ljava/lang/String;");
+        methodInfo.setAccessFlags(AccessFlag.PUBLIC | AccessFlag.STATIC);
+        CodeAttribute codeAttribute = code.toCodeAttribute();
+        methodInfo.setCodeAttribute(codeAttribute);
+        try {
+            codeAttribute.computeMaxStack();
+            methodInfo.rebuildStackMapIf6(ctClass.getClassPool(), ctClass.getClassFile2());
+        } catch (BadBytecode e) {
+            throw new CannotCompileException(e);
+        }
+        ctClass.addMethod(CtMethod.make(methodInfo, ctClass));
+    }
+
+    private Bytecode generateConstructorCode(CtClass ctClass, CtClass[] parameterTypes) throws NotFoundException {
+        // like javassist's compiler, call the superclass's default constructor first
+        Bytecode code = newBytecode(ctClass);
+        code.addAload(0);
+        code.addInvokespecial(ctClass.getSuperclass(), "<init>", "()V");
+        addDispatch(code, ctClass, "<init>", parameterTypes, CtClass.voidType, false, null);
+        code.addOpcode(Opcode.RETURN);
+        return code;
+    }
+
+    /**
+     * The bytecode equivalent of {@link #generateMethodBody(CtClass, CtMethod, CtClass, Type, boolean, boolean)},
+     * including the default return value it adds for abstract and native methods.
+     */
+    private void addMethodCode(Bytecode code, CtClass ctClass, CtMethod ctMethod, boolean wasNative, boolean wasAbstract, boolean isStatic, boolean shouldGenerateCallToSuper) throws NotFoundException {
+        CtClass returnCtClass = ctMethod.getReturnType();
+        if (wasAbstract) {
+            addDefaultReturn(code, returnCtClass);
+        } else {
+            addDispatch(code, ctClass, ctMethod.getName(), ctMethod.getParameterTypes(), returnCtClass, isStatic,
+                    shouldGenerateCallToSuper ? ctMethod : null);
+        }
+
+        if (wasNative) {
+            addDefaultReturn(code, returnCtClass);
+        }
+    }
+
+    /**
+     * Emits:
+     * <pre>
+     * if (!RobolectricInternals.shouldCallDirectly(this)) {
+     *     [if (RobolectricInternals.isShadowed(C.class, id)) {]
+     *         Object x = RobolectricInternals.methodInvoked(C.class, "name"|id, this, [paramTypes,] params);
+     *         if (x != null) return (R) x;
+     *     [}]
+     *     return [default value|super.name(params)];
+     * }
+     * </pre>
+     *
+     * @param superMethod the method to call on the superclass if no shadow method returns a value, or null to return a
+     *                    default value instead
+     */
+    private void addDispatch(Bytecode code, CtClass ctClass, String methodName, CtClass[] paramTypes, CtClass returnCtClass, boolean isStatic, CtMethod superMethod) throws NotFoundException {
+        boolean returnsVoid = returnCtClass == CtClass.voidType;
+
+        if (isStatic) {
+            addClassConstant(code, ctClass);
+        } else {
+            code.addAload(0);
+        }
+        code.addInvokestatic(ROBOLECTRIC_INTERNALS, "shouldCallDirectly", "(Ljava/lang/Object;)Z");
+        int callDirectlyBranch = addBranch(code, Opcode.IFNE);
+
+        int notShadowedBranch = -1;
+        if (isAssigningMethodIds()) {
+            int methodId = assignMethodId(methodName, paramTypes);
+
+            addClassConstant(code, ctClass);
+            code.addIconst(methodId);
+            code.addInvokestatic(ROBOLECTRIC_INTERNALS, "isShadowed", "(Ljava/lang/Class;I)Z");
+            notShadowedBranch = addBranch(code, Opcode.IFEQ);
+
+            addClassConstant(code, ctClass);
+            code.addIconst(methodId);
+            addInstance(code, isStatic);
+            addParamArray(code, paramTypes, isStatic);
+            code.addInvokestatic(ROBOLECTRIC_INTERNALS, "methodInvoked", "(Ljava/lang/Class;ILjava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;");
+        } else {
+            addClassConstant(code, ctClass);
+            code.addLdc(methodName);
+            addInstance(code, isStatic);
+            addParamTypeArray(code, paramTypes);
+            addParamArray(code, paramTypes, isStatic);
+            code.addInvokestatic(ROBOLECTRIC_INTERNALS, "methodInvoked", "(Ljava/lang/Class;Ljava/lang/String;Ljava/lang/Object;[Ljava/lang/String;[Ljava/lang/Object;)Ljava/lang/Object;");
+        }
+
+        if (returnsVoid) {
+            code.addOpcode(Opcode.POP);
+        } else {
+            // if (x != null) return (R) x;
+            code.addOpcode(Opcode.DUP);
+            int nullResultBranch = addBranch(code, Opcode.IFNULL);
+            addUnboxedReturn(code, returnCtClass);
+            setBranchTarget(code, nullResultBranch);
+            code.addOpcode(Opcode.POP);
+        }
+
+        if (notShadowedBranch != -1) {
+            setBranchTarget(code, notShadowedBranch);
+        }
+
+        if (returnsVoid) {
+            code.addOpcode(Opcode.RETURN);
+        } else if (superMethod != null) {
+            addCallToSuper(code, ctClass, superMethod);
+        } else {
+            addDefaultReturn(code, returnCtClass);
+        }
+
+        setBranchTarget(code, callDirectlyBranch);
+    }
+
+    private void addInstance(Bytecode code, boolean isStatic) {
+        if (isStatic) {
+            code.addOpcode(Opcode.ACONST_NULL);
+        } else {
+            code.addAload(0);
+        }
+    }
+
+    private void addParamTypeArray(Bytecode code, CtClass[] paramTypes) {
+        code.addIconst(paramTypes.length);
+        code.addAnewarray(STRING);
+        for (int i = 0; i < paramTypes.length; i++) {
+            code.addOpcode(Opcode.DUP);
+            code.addIconst(i);
+            code.addLdc(paramTypes[i].getName());
+            code.addOpcode(Opcode.AASTORE);
+        }
+    }
+
+    private void addParamArray(Bytecode code, CtClass[] paramTypes, boolean isStatic) {
+        code.addIconst(paramTypes.length);
+        code.addAnewarray(OBJECT);
+        int slot = isStatic ? 0 : 1;
+        for (int i = 0; i < paramTypes.length; i++) {
+            CtClass paramType = paramTypes[i];
+            code.addOpcode(Opcode.DUP);
+            code.addIconst(i);
+            slot += code.addLoad(slot, paramType);
+            String boxedDescriptor = paramType.isPrimitive() ? Descriptor.of(paramType) : "Ljava/lang/Object;";
+            code.addInvokestatic(ROBOLECTRIC_INTERNALS, "autobox", "(" + boxedDescriptor + ")Ljava/lang/Object;");
+            code.addOpcode(Opcode.AASTORE);
+        }
+    }
+
+    private void addUnboxedReturn(Bytecode code, CtClass returnCtClass) {
+        if (returnCtClass.isPrimitive()) {
+            CtPrimitiveType primitiveType = (CtPrimitiveType) returnCtClass;
+            code.addCheckcast(primitiveType.getWrapperName());
+            code.addInvokevirtual(primitiveType.getWrapperName(), primitiveType.getGetMethodName(), primitiveType.getGetMethodDescriptor());
+        } else {
+            code.addCheckcast(returnCtClass);
+        }
+        code.addReturn(returnCtClass);
+    }
+
+    private void addDefaultReturn(Bytecode code, CtClass returnCtClass) {
+        if (returnCtClass != CtClass.voidType) {
+            code.addConstZero(returnCtClass);
+        }
+        code.addReturn(returnCtClass);
+    }
+
+    private void addCallToSuper(Bytecode code, CtClass ctClass, CtMethod ctMethod) throws NotFoundException {
+        code.addAload(0);
+        code.addLoadParameters(ctMethod.getParameterTypes(), 1);
+        code.addInvokespecial(ctClass.getSuperclass(), ctMethod.getName(), ctMethod.getSignature());
+        code.addReturn(ctMethod.getReturnType());
+    }
+
+    private void addClassConstant(Bytecode code, CtClass ctClass) {
+        if (ctClass.getClassFile2().getMajorVersion() >= 49) {
+            code.addLdc(code.getConstPool().addClassInfo(ctClass));
+        } else {
+            // class literals need Java 5 class files
+            code.addLdc(ctClass.getName());
+            code.addInvokestatic("java.lang.Class", "forName", "(Ljava/lang/String;)Ljava/lang/Class;");
+        }
+    }
+
+    private int addBranch(Bytecode code, int opcode) {
+        int branchPc = code.currentPc();
+        code.addOpcode(opcode);
+        code.addIndex(0);
+        return branchPc;
+    }
+
+    private void setBranchTarget(Bytecode code, int branchPc) {
+        code.write16bit(branchPc + 1, code.currentPc() - branchPc);
+    }
+
+    private Bytecode newBytecode(CtClass ctClass) {
+        return new Bytecode(ctClass.getClassFile().getConstPool());
+    }
+
+    private void insertBefore(CtClass ctClass, CtBehavior ctBehavior, Bytecode code) throws CannotCompileException {
+        MethodInfo methodInfo = ctBehavior.getMethodInfo();
+        CodeAttribute codeAttribute = methodInfo.getCodeAttribute();
+        try {
+            // insertEx() so that any jumps back to the start of the method don't run the inserted code again
+            CodeIterator iterator = codeAttribute.iterator();
+            iterator.insertEx(code.get());
+            codeAttribute.computeMaxStack();
+            methodInfo.rebuildStackMapIf6(ctClass.getClassPool(), ctClass.getClassFile2());
+        } catch (BadBytecode e) {
+            throw new CannotCompileException(e);
+        }
+    }
+
+    private void setCode(CtClass ctClass, CtBehavior ctBehavior, Bytecode code, boolean isStatic) throws NotFoundException, CannotCompileException {
+        MethodInfo methodInfo = ctBehavior.getMethodInfo();
+        code.setMaxLocals(isStatic, ctBehavior.getParameterTypes(), 0);
+        CodeAttribute codeAttribute = code.toCodeAttribute();
+        methodInfo.setCodeAttribute(codeAttribute);
+        methodInfo.setAccessFlags(methodInfo.getAccessFlags() & ~AccessFlag.ABSTRACT);
+        try {
+            codeAttribute.computeMaxStack();
+            methodInfo.rebuildStackMapIf6(ctClass.getClassPool(), ctClass.getClassFile2());
+        } catch (BadBytecode e) {
+            throw new CannotCompileException(e);
+        }
+    }
+}
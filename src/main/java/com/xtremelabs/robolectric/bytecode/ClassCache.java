@@ -1,131 +1,211 @@
 package com.xtremelabs.robolectric.bytecode;
 
+import javassist.bytecode.ClassFile;
+
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Enumeration;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.jar.Attributes;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
-import java.util.jar.JarOutputStream;
-import java.util.jar.Manifest;
 
+/**
+ * Caches instrumented class bytes on disk across JVM runs.
+ * <p/>
+ * Each entry is stored in its own file named after the class and a hash of the original bytes of the class and its
+ * superclasses plus the instrumentation configuration, so a change to one class (or to the way classes are
+ * instrumented) only invalidates the affected entries. The superclasses count since whether a class inherits
+ * {@code equals()}, {@code hashCode()} and {@code toString()} changes how it's instrumented. Entries are read lazily when a class is loaded and written as soon as a class is instrumented,
+ * via a temp file and a rename, so several JVMs can share the same cache directory.
+ */
 public class ClassCache {
-    private static final Attributes.Name VERSION_ATTRIBUTE = new Attributes.Name("version");
+    /**
+     * Set this system property to change where instrumented classes are cached.
+     */
+    public static final String CACHE_DIRECTORY_PROPERTY = "robolectric.classCacheDirectory";
+    public static final String DEFAULT_CACHE_DIRECTORY = "target/cached-robolectric-classes";
+
+    private final File cacheDirectory;
+    private final ClassLoader originalClassLoader;
+    private final Map<String, String> classDigests = new HashMap<String, String>();
+
+    public ClassCache(String cacheDirectory, ClassLoader originalClassLoader) {
+        this.cacheDirectory = new File(cacheDirectory);
+        this.originalClassLoader = originalClassLoader;
+    }
 
-    private Map<String, byte[]> cachedClasses = new HashMap<String, byte[]>();
-    private boolean startedWriting = false;
+    public static String getDefaultCacheDirectory() {
+        return System.getProperty(CACHE_DIRECTORY_PROPERTY, DEFAULT_CACHE_DIRECTORY);
+    }
 
-    public ClassCache(String classCachePath, final int expectedCacheVersion) {
-        final File cacheJarFile = new File(classCachePath);
-        JarFile cacheFile;
+    /**
+     * @param className             the class being loaded
+     * @param instrumentationConfig a description of everything other than the original class bytes that affects the
+     *                              instrumented bytecode
+     * @return the cached instrumented bytes for the class, or null if it hasn't been instrumented with this config
+     */
+    public byte[] getClassBytesFor(String className, String instrumentationConfig) {
+        return getClassBytes(getEntryName(className, instrumentationConfig));
+    }
+
+    /**
+     * @return the cached instrumented bytes for the entry, or null if there aren't any
+     */
+    public byte[] getClassBytes(String entryName) {
+        if (entryName == null) {
+            return null;
+        }
+
+        File entryFile = new File(cacheDirectory, entryName);
+        if (!entryFile.exists()) {
+            return null;
+        }
         try {
-            cacheFile = new JarFile(cacheJarFile);
-            int cacheVersion = 0;
-            Manifest manifest = cacheFile.getManifest();
-            if (manifest != null) {
-                Attributes attributes = manifest.getEntries().get("robolectric");
-                if (attributes != null) {
-                    String cacheVersionStr = (String) attributes.get(VERSION_ATTRIBUTE);
-                    if (cacheVersionStr != null) {
-                        cacheVersion = Integer.parseInt(cacheVersionStr);
-                    }
-                }
-            }
-            if (cacheVersion != expectedCacheVersion) {
-                cacheJarFile.delete();
-            } else {
-                readEntries(cacheFile);
-            }
+            return readFully(entryFile);
         } catch (IOException e) {
-            // no problem
+            // no problem, we'll just instrument it again
+            return null;
         }
+    }
 
-        Runtime.getRuntime().addShutdownHook(new Thread() {
-            @Override public void run() {
-                Manifest manifest = new Manifest();
-                Attributes attributes = new Attributes();
-                attributes.put(VERSION_ATTRIBUTE, String.valueOf(expectedCacheVersion));
-                manifest.getEntries().put("robolectric", attributes);
+    /**
+     * Stores the instrumented bytes for a class, to be found by {@link #getClassBytes(String)}.
+     *
+     * @param entryName the class's entry, from {@link #getEntryName(String, String)}; nothing is stored if it's null
+     */
+    public void addClass(String className, String entryName, byte[] classBytes) {
+        if (entryName == null) {
+            return;
+        }
 
-                saveAllClassesToCache(cacheJarFile, manifest);
+        File tempFile = null;
+        try {
+            if (!cacheDirectory.exists()) {
+                cacheDirectory.mkdirs();
+            }
+
+            tempFile = File.createTempFile(className, ".tmp", cacheDirectory);
+            FileOutputStream outputStream = new FileOutputStream(tempFile);
+            try {
+                outputStream.write(classBytes);
+            } finally {
+                outputStream.close();
+            }
+
+            // if another JVM beat us to it, its entry has the same contents as ours
+            if (tempFile.renameTo(new File(cacheDirectory, entryName))) {
+                tempFile = null;
+            }
+        } catch (IOException e) {
+            // no problem, we'll just instrument it again next time
+        } finally {
+            if (tempFile != null) {
+                tempFile.delete();
             }
-        });
+        }
     }
 
-    public byte[] getClassBytesFor(String name) {
-        return cachedClasses.get(name);
+    /**
+     * The original class bytes are read and hashed once, however many times this is called for the class.
+     *
+     * @return the name of the class's entry for {@code instrumentationConfig}, or null if the original class, or one
+     *         of its superclasses, can't be found
+     */
+    public String getEntryName(String className, String instrumentationConfig) {
+        String classDigest = getClassDigest(className);
+        if (classDigest == null) {
+            return null;
+        }
+        return className + "." + hash(instrumentationConfig, classDigest.getBytes()) + ".class";
     }
 
-    public boolean isWriting() {
-        synchronized (this) {
-            return startedWriting;
+    private synchronized String getClassDigest(String className) {
+        if (classDigests.containsKey(className)) {
+            return classDigests.get(className);
+        }
+
+        String classDigest = null;
+        byte[] originalClassBytes = readOriginalClassBytes(className);
+        if (originalClassBytes != null) {
+            String superclassName = getSuperclassName(originalClassBytes);
+            // the JDK's classes are taken to be the same from one run to the next
+            String superclassDigest = superclassName == null || superclassName.startsWith("java.")
+                    ? String.valueOf(superclassName)
+                    : getClassDigest(superclassName);
+            if (superclassDigest != null) {
+                classDigest = hash(superclassDigest, originalClassBytes);
+            }
         }
+        classDigests.put(className, classDigest);
+        return classDigest;
     }
 
-    public void addClass(String className, byte[] classBytes) {
-        cachedClasses.put(className, classBytes);
+    private static String getSuperclassName(byte[] classBytes) {
+        try {
+            return new ClassFile(new DataInputStream(new ByteArrayInputStream(classBytes))).getSuperclass();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
     }
 
-    private void readEntries(JarFile cacheFile) {
-        Enumeration<JarEntry> entries = cacheFile.entries();
+    private byte[] readOriginalClassBytes(String className) {
+        InputStream inputStream = originalClassLoader.getResourceAsStream(className.replace('.', '/') + ".class");
+        if (inputStream == null) {
+            return null;
+        }
         try {
-            while (entries.hasMoreElements()) {
-                JarEntry entry = entries.nextElement();
-                String className = entry.getName();
-                if (className.endsWith(".class")) {
-                    int classSize = (int) entry.getSize();
-                    InputStream inputStream = cacheFile.getInputStream(entry);
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream(classSize);
-                    int c;
-                    while ((c = inputStream.read()) != -1) {
-                        baos.write(c);
-                    }
-                    className = className.substring(0, className.indexOf(".class")).replace('/', '.');
-                    addClass(className, baos.toByteArray());
+            try {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int count;
+                while ((count = inputStream.read(buffer)) != -1) {
+                    baos.write(buffer, 0, count);
                 }
-
+                return baos.toByteArray();
+            } finally {
+                inputStream.close();
             }
         } catch (IOException e) {
-            // no problem, we didn't want those bytes that much anyway
+            return null;
         }
     }
 
-    protected void saveAllClassesToCache(File file, Manifest manifest) {
-        synchronized (this) {
-            startedWriting = true;
-    
-            if (cachedClasses.size() > 0) {
-                JarOutputStream jarOutputStream = null;
-                try {
-                    File cacheJarDir = file.getParentFile();
-                    if (!cacheJarDir.exists()) {
-                        cacheJarDir.mkdirs();
-                    }
-    
-                    jarOutputStream = new JarOutputStream(new FileOutputStream(file), manifest);
-                    for (Map.Entry<String, byte[]> entry : cachedClasses.entrySet()) {
-                        String key = entry.getKey();
-                        jarOutputStream.putNextEntry(new JarEntry(key.replace('.', '/') + ".class"));
-                        jarOutputStream.write(entry.getValue());
-                        jarOutputStream.closeEntry();
-                    }
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                } finally {
-                    if (jarOutputStream != null) {
-                        try {
-                            jarOutputStream.close();
-                        } catch (IOException ignore) {
-                        }
-                    }
-                }
-            }
-            startedWriting = false;
+    private static byte[] readFully(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        DataInputStream inputStream = new DataInputStream(new FileInputStream(file));
+        try {
+            inputStream.readFully(bytes);
+        } finally {
+            inputStream.close();
+        }
+        return bytes;
+    }
+
+    private static String hash(String prefix, byte[] bytes) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        try {
+            digest.update(prefix.getBytes("UTF-8"));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        digest.update(bytes);
+
+        StringBuilder buf = new StringBuilder();
+        for (byte b : digest.digest()) {
+            buf.append(Character.forDigit((b >> 4) & 0xf, 16));
+            buf.append(Character.forDigit(b & 0xf, 16));
         }
+        return buf.toString();
     }
 }
@@ -14,4 +14,8 @@ public interface ClassHandler {
     void afterTest();
 
     Object methodInvoked(Class clazz, String methodName, Object instance, String[] paramTypes, Object[] params) throws Throwable;
+
+    boolean isShadowed(Class clazz, int methodId);
+
+    Object methodInvoked(Class clazz, int methodId, Object instance, Object[] params) throws Throwable;
 }
@@ -1,32 +1,64 @@
 package com.xtremelabs.robolectric.bytecode;
 
+import com.xtremelabs.robolectric.util.Profiler;
 import javassist.CannotCompileException;
 import javassist.ClassPool;
 import javassist.LoaderClassPath;
 import javassist.NotFoundException;
 
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
 import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
 
 public class RobolectricClassLoader extends javassist.Loader {
+    /**
+     * Set this system property to the path of a jar written by {@link AndroidJarInstrumenter} to load
+     * pre-instrumented classes from it.
+     */
+    public static final String INSTRUMENTED_JAR_PROPERTY = "robolectric.instrumentedJar";
+
     private ClassCache classCache;
+    private ClassPool classPool;
     private AndroidTranslator androidTranslator;
+    private JarFile instrumentedJar;
+    private boolean instrumentedJarOpened;
 
     public RobolectricClassLoader(ClassHandler classHandler) {
     	this(classHandler, null);
     }
     
     public RobolectricClassLoader(ClassHandler classHandler, List<String> customClassNames) {
-        super(RobolectricClassLoader.class.getClassLoader(), null);
+        this(classHandler, customClassNames, RobolectricClassLoader.class.getClassLoader());
+    }
+
+    /**
+     * @param parent the class loader to load the original application and Android classes from
+     */
+    public RobolectricClassLoader(ClassHandler classHandler, List<String> customClassNames, ClassLoader parent) {
+        super(parent, null);
 
         delegateLoadingOf(AndroidTranslator.class.getName());
         delegateLoadingOf(ClassHandler.class.getName());
+        delegateLoadingOf(Sandbox.class.getName());
+        delegateLoadingOf(Profiler.class.getName());
 
-        classCache = new ClassCache("tmp/cached-robolectric-classes.jar", AndroidTranslator.CACHE_VERSION);
+        classCache = new ClassCache(ClassCache.getDefaultCacheDirectory(), parent);
         try {
-            ClassPool classPool = new ClassPool();
-            classPool.appendClassPath(new LoaderClassPath(RobolectricClassLoader.class.getClassLoader()));
+            classPool = new ClassPool();
+            classPool.appendClassPath(new LoaderClassPath(parent));
 
-            androidTranslator = new AndroidTranslator(classHandler, classCache, customClassNames);
+            androidTranslator = AndroidTranslator.useBytecodeTranslatorByDefault()
+                    ? new BytecodeAndroidTranslator(classHandler, classCache, customClassNames)
+                    : new AndroidTranslator(classHandler, classCache, customClassNames);
             addTranslator(classPool, androidTranslator);
         } catch (NotFoundException e) {
             throw new RuntimeException(e);
@@ -35,10 +67,129 @@ public class RobolectricClassLoader extends javassist.Loader {
         }
     }
 
+    private JarFile openInstrumentedJar(String path) {
+        if (path == null) {
+            return null;
+        }
+
+        try {
+            JarFile jarFile = new JarFile(new File(path));
+            Manifest manifest = jarFile.getManifest();
+            Attributes attributes = manifest == null ? null : manifest.getMainAttributes();
+            String instrumentationVersion = attributes == null ? null : attributes.getValue(AndroidJarInstrumenter.INSTRUMENTATION_VERSION_ATTRIBUTE);
+            if (!androidTranslator.getInstrumentationVersion().equals(instrumentationVersion)) {
+                System.out.println("Warning: ignoring " + path + " since it was instrumented by a different version of Robolectric");
+                jarFile.close();
+                return null;
+            }
+            if (!inputJarsAreUnchanged(attributes.getValue(AndroidJarInstrumenter.INPUT_JARS_ATTRIBUTE))) {
+                System.out.println("Warning: ignoring " + path + " since it was instrumented from different jars than the ones on the class path");
+                jarFile.close();
+                return null;
+            }
+            return jarFile;
+        } catch (IOException e) {
+            System.out.println("Warning: couldn't open " + path + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * @param inputJarsDescription the instrumented jar's {@link AndroidJarInstrumenter#INPUT_JARS_ATTRIBUTE}
+     * @return whether each class named there still comes from a jar with the digest recorded for it
+     */
+    private boolean inputJarsAreUnchanged(String inputJarsDescription) throws IOException {
+        if (inputJarsDescription == null) {
+            return false;
+        }
+        for (String inputJar : inputJarsDescription.split(" ")) {
+            int equalsIndex = inputJar.lastIndexOf('=');
+            if (equalsIndex == -1) {
+                return false;
+            }
+            URL classUrl = getParent().getResource(inputJar.substring(0, equalsIndex));
+            if (classUrl == null || !classUrl.getProtocol().equals("jar")) {
+                return false;
+            }
+            URL jarUrl = ((JarURLConnection) classUrl.openConnection()).getJarFileURL();
+            File jar;
+            try {
+                jar = new File(jarUrl.toURI());
+            } catch (URISyntaxException e) {
+                return false;
+            }
+            if (!AndroidJarInstrumenter.getJarDigest(jar).equals(inputJar.substring(equalsIndex + 1))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private synchronized byte[] getInstrumentedJarBytesFor(String name) {
+        // opened lazily, since its instrumentation version depends on how we're configured before loading any classes
+        if (!instrumentedJarOpened) {
+            instrumentedJar = openInstrumentedJar(System.getProperty(INSTRUMENTED_JAR_PROPERTY));
+            instrumentedJarOpened = true;
+        }
+        if (instrumentedJar == null) {
+            return null;
+        }
+
+        JarEntry entry = instrumentedJar.getJarEntry(name.replace('.', '/') + ".class");
+        if (entry == null) {
+            return null;
+        }
+
+        try {
+            byte[] classBytes = new byte[(int) entry.getSize()];
+            InputStream inputStream = instrumentedJar.getInputStream(entry);
+            try {
+                new DataInputStream(inputStream).readFully(classBytes);
+            } finally {
+                inputStream.close();
+            }
+            return classBytes;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Lets go of the files this class loader holds open. Classes it has yet to load will be instrumented from scratch
+     * instead of coming from the instrumented jar.
+     */
+    public synchronized void close() {
+        if (instrumentedJar != null) {
+            try {
+                instrumentedJar.close();
+            } catch (IOException e) {
+                System.out.println("Warning: couldn't close " + instrumentedJar.getName() + ": " + e);
+            }
+            instrumentedJar = null;
+        }
+        instrumentedJarOpened = true;
+    }
+
     public void addCustomShadowClass(String classOrPackageToBeInstrumented) {
         androidTranslator.addCustomShadowClass(classOrPackageToBeInstrumented);
     }
 
+    /**
+     * Stub out every method of the instrumented Android classes that none of {@code shadowClasses} implements. See
+     * {@link AndroidTranslator#setShadowedMethodIndex(ShadowedMethodIndex)}.
+     */
+    public void instrumentOnlyMethodsShadowedBy(List<Class<?>> shadowClasses) {
+        androidTranslator.setShadowedMethodIndex(newShadowedMethodIndex(classPool, shadowClasses));
+    }
+
+    static ShadowedMethodIndex newShadowedMethodIndex(ClassPool classPool, List<Class<?>> shadowClasses) {
+        ShadowedMethodIndex shadowedMethodIndex = new ShadowedMethodIndex(classPool);
+        for (Class<?> shadowClass : shadowClasses) {
+            shadowedMethodIndex.addShadowClass(shadowClass.getName());
+        }
+        return shadowedMethodIndex;
+    }
+
     @Override
     public Class loadClass(String name) throws ClassNotFoundException {
         boolean shouldComeFromThisClassLoader = !(name.startsWith("org.junit") || name.startsWith("org.hamcrest")  
@@ -65,10 +216,18 @@ public class RobolectricClassLoader extends javassist.Loader {
     }
 
     @Override protected Class findClass(String name) throws ClassNotFoundException {
-        byte[] classBytes = classCache.getClassBytesFor(name);
-        if (classBytes != null) {
-            return defineClass(name, classBytes, 0, classBytes.length);
+        long start = Profiler.start();
+        try {
+            byte[] classBytes = getInstrumentedJarBytesFor(name);
+            if (classBytes == null && androidTranslator.isOnInstrumentingList(name)) {
+                classBytes = classCache.getClassBytesFor(name, androidTranslator.getInstrumentationConfig());
+            }
+            if (classBytes != null) {
+                return defineClass(name, classBytes, 0, classBytes.length);
+            }
+            return super.findClass(name);
+        } finally {
+            Profiler.end("classLoading", start);
         }
-        return super.findClass(name);
     }
 }
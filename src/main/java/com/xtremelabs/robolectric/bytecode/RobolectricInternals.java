@@ -4,7 +4,10 @@ import com.xtremelabs.robolectric.internal.Implements;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 @SuppressWarnings({"UnusedDeclaration"})
@@ -40,13 +43,42 @@ public class RobolectricInternals {
     }
 
     public static void bindShadowClass(Class<?> shadowClass) {
+        Class<?> realClass = getRealClass(shadowClass);
+        if (realClass != null) {
+            ShadowWrangler.getInstance().bindShadowClass(realClass, shadowClass);
+        }
+    }
+
+    /**
+     * Binds {@code shadowClasses} as the {@link ShadowWrangler}'s default shadow classes. Their {@link Implements}
+     * annotations are only read the first time; after that, this just switches the defaults back on.
+     */
+    public static void bindDefaultShadowClasses(List<Class<?>> shadowClasses) {
+        ShadowWrangler shadowWrangler = ShadowWrangler.getInstance();
+        if (!shadowWrangler.hasDefaultShadowClassMap()) {
+            Map<String, String> shadowClassMap = new HashMap<String, String>();
+            for (Class<?> shadowClass : shadowClasses) {
+                Class<?> realClass = getRealClass(shadowClass);
+                if (realClass != null) {
+                    shadowClassMap.put(realClass.getName(), shadowClass.getName());
+                }
+            }
+            shadowWrangler.setDefaultShadowClassMap(shadowClassMap);
+        }
+        shadowWrangler.bindDefaultShadowClasses();
+    }
+
+    /**
+     * @return the class {@code shadowClass} implements, or null if it isn't available in this version of Android
+     */
+    private static Class<?> getRealClass(Class<?> shadowClass) {
         Implements realClass = shadowClass.getAnnotation(Implements.class);
         if (realClass == null) {
             throw new IllegalArgumentException(shadowClass + " is not annotated with @Implements");
         }
 
         try {
-            ShadowWrangler.getInstance().bindShadowClass(realClass.value(), shadowClass);
+            return realClass.value();
         } catch (TypeNotPresentException typeLoadingException) {
             String unloadableClassName = shadowClass.getSimpleName();
             if (isIgnorableClassLoadingException(typeLoadingException)) {
@@ -54,6 +86,7 @@ public class RobolectricInternals {
                 if (unloadableClassNames.add(unloadableClassName)) {
                     System.out.println("Warning: an error occurred while binding shadow class: " + unloadableClassName);
                 }
+                return null;
             } else {
                 throw typeLoadingException;
             }
@@ -114,6 +147,20 @@ public class RobolectricInternals {
         }
     }
 
+    @SuppressWarnings({"UnusedDeclaration"})
+    public static boolean isShadowed(Class clazz, int methodId) {
+        return classHandler.isShadowed(clazz, methodId);
+    }
+
+    @SuppressWarnings({"UnusedDeclaration"})
+    public static Object methodInvoked(Class clazz, int methodId, Object instance, Object[] params) throws Throwable {
+        try {
+          return classHandler.methodInvoked(clazz, methodId, instance, params);
+        } catch(java.lang.LinkageError e) {
+          throw new Exception(e);
+        }
+    }
+
     @SuppressWarnings({"UnusedDeclaration"})
     public static Object autobox(Object o) {
         return o;
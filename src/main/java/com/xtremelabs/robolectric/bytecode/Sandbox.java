@@ -0,0 +1,76 @@
+package com.xtremelabs.robolectric.bytecode;
+
+import java.util.concurrent.Callable;
+
+/**
+ * An isolated copy of Robolectric's runtime: its own {@link ShadowWrangler}, and its own
+ * {@link RobolectricClassLoader}, through which Robolectric itself, the shadows, the instrumented Android classes and
+ * the tests get loaded again, so that their static state (the application, the scheduler, the database connection,
+ * the log and so on) isn't shared with any other sandbox.
+ * <p/>
+ * Test runners constructed and run within {@link #run(Callable)} use the sandbox's class handler and class loader
+ * instead of the default ones, so tests in different sandboxes can run at the same time on different threads. Threads
+ * started from within a sandbox belong to it too. Tests within one sandbox must still run one at a time.
+ */
+public class Sandbox {
+    private static final ThreadLocal<Sandbox> CURRENT = new InheritableThreadLocal<Sandbox>();
+
+    private final ShadowWrangler shadowWrangler = new ShadowWrangler();
+    private RobolectricClassLoader classLoader;
+
+    /**
+     * @return the sandbox the current thread is running in, or null if it isn't running in one
+     */
+    public static Sandbox getCurrent() {
+        return CURRENT.get();
+    }
+
+    public ShadowWrangler getShadowWrangler() {
+        return shadowWrangler;
+    }
+
+    /**
+     * @return the class loader test runners in this sandbox load their tests with, or null if none has been set yet
+     */
+    public RobolectricClassLoader getClassLoader() {
+        return classLoader;
+    }
+
+    /**
+     * Also makes {@code classLoader} the context class loader of the current thread, if it's running in this sandbox.
+     */
+    public void setClassLoader(RobolectricClassLoader classLoader) {
+        this.classLoader = classLoader;
+        if (CURRENT.get() == this) {
+            Thread.currentThread().setContextClassLoader(classLoader);
+        }
+    }
+
+    /**
+     * Closes the sandbox's class loader, once nothing more is going to be run in the sandbox.
+     */
+    public void close() {
+        if (classLoader != null) {
+            classLoader.close();
+        }
+    }
+
+    /**
+     * Calls {@code callable} on the current thread, within this sandbox, with the sandbox's class loader, once it has
+     * one, as the thread's context class loader.
+     */
+    public <T> T run(Callable<T> callable) throws Exception {
+        Sandbox previousSandbox = CURRENT.get();
+        ClassLoader previousContextClassLoader = Thread.currentThread().getContextClassLoader();
+        CURRENT.set(this);
+        if (classLoader != null) {
+            Thread.currentThread().setContextClassLoader(classLoader);
+        }
+        try {
+            return callable.call();
+        } finally {
+            CURRENT.set(previousSandbox);
+            Thread.currentThread().setContextClassLoader(previousContextClassLoader);
+        }
+    }
+}
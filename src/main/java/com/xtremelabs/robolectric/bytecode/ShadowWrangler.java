@@ -17,6 +17,7 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -30,19 +31,37 @@ public class ShadowWrangler implements ClassHandler {
     private boolean strictI18n = false;
     
     private final Map<Class, MetaShadow> metaShadowMap = new HashMap<Class, MetaShadow>();
+    private final Map<Class, ShadowConstructor> shadowConstructors = new HashMap<Class, ShadowConstructor>();
+    private Map<String, String> defaultShadowClassMap;
+    private boolean defaultShadowClassesBound;
+    // bindings made during the current test, on top of the defaults
     private Map<String, String> shadowClassMap = new HashMap<String, String>();
+    private boolean shadowClassMapChanged;
+    // the bindings the cached invocation plans were made with
+    private boolean invocationPlansUseDefaultShadowClasses;
+    private Map<String, String> invocationPlansShadowClassMap = new HashMap<String, String>();
     private Map<Class, Field> shadowFieldMap = new HashMap<Class, Field>();
+    private final Map<MethodSignature, InvocationPlan> invocationPlans = new HashMap<MethodSignature, InvocationPlan>();
+    private final Map<Class, InvocationPlan[]> invocationPlansByMethodId = new HashMap<Class, InvocationPlan[]>();
+    private final Map<Class, MethodSignature[]> methodSignaturesMap = new HashMap<Class, MethodSignature[]>();
+    private long dispatchCacheHits;
+    private long dispatchCacheMisses;
     private boolean logMissingShadowMethods = false;
 
     // sorry! it really only makes sense to have one per ClassLoader anyway though [xw/hu]
     public static ShadowWrangler getInstance() {
+        Sandbox sandbox = Sandbox.getCurrent();
+        if (sandbox != null) {
+            return sandbox.getShadowWrangler();
+        }
+
         if (singleton == null) {
             singleton = new ShadowWrangler();
         }
         return singleton;
     }
 
-    private ShadowWrangler() {
+    ShadowWrangler() {
     }
     
     @Override
@@ -68,9 +87,17 @@ public class ShadowWrangler implements ClassHandler {
         }
     }
 
+    /**
+     * Invocation plans are kept from one test to the next as long as the next one ends up binding the same shadow
+     * classes, which it usually does.
+     */
     @Override
     public void beforeTest() {
-        shadowClassMap.clear();
+        synchronized (invocationPlans) {
+            shadowClassMap.clear();
+            defaultShadowClassesBound = false;
+            shadowClassMapChanged = true;
+        }
     }
 
     @Override
@@ -78,32 +105,222 @@ public class ShadowWrangler implements ClassHandler {
     }
 
     public void bindShadowClass(Class<?> realClass, Class<?> shadowClass) {
-        shadowClassMap.put(realClass.getName(), shadowClass.getName());
+        synchronized (invocationPlans) {
+            String previousShadowClassName = shadowClassMap.put(realClass.getName(), shadowClass.getName());
+            if (!shadowClass.getName().equals(previousShadowClassName)) {
+                shadowClassMapChanged = true;
+            }
+        }
         if (debug) System.out.println("shadow " + realClass + " with " + shadowClass);
     }
 
+    /**
+     * @return whether {@link #setDefaultShadowClassMap(Map)} has been called yet
+     */
+    public boolean hasDefaultShadowClassMap() {
+        return defaultShadowClassMap != null;
+    }
+
+    /**
+     * Sets the shadow classes {@link #bindDefaultShadowClasses()} binds. They're the same for every test, so this
+     * only needs to be done once.
+     *
+     * @param defaultShadowClassMap shadow class names, by the names of the classes they shadow
+     */
+    public void setDefaultShadowClassMap(Map<String, String> defaultShadowClassMap) {
+        synchronized (invocationPlans) {
+            this.defaultShadowClassMap = Collections.unmodifiableMap(new HashMap<String, String>(defaultShadowClassMap));
+            shadowClassMapChanged = true;
+            invalidateInvocationPlans();
+        }
+    }
+
+    /**
+     * Binds the default shadow classes for the rest of the current test, underneath any bound with
+     * {@link #bindShadowClass(Class, Class)}.
+     */
+    public void bindDefaultShadowClasses() {
+        if (defaultShadowClassMap == null) {
+            throw new IllegalStateException("no default shadow classes have been set");
+        }
+        synchronized (invocationPlans) {
+            if (!defaultShadowClassesBound) {
+                defaultShadowClassesBound = true;
+                shadowClassMapChanged = true;
+            }
+        }
+        if (debug) System.out.println("shadow " + defaultShadowClassMap.size() + " default classes");
+    }
+
     @Override
     public Object methodInvoked(Class clazz, String methodName, Object instance, String[] paramTypes, Object[] params) throws Throwable {
-        InvocationPlan invocationPlan = new InvocationPlan(clazz, methodName, instance, paramTypes);
-        if (!invocationPlan.prepare()) {
-            reportNoShadowMethodFound(clazz, methodName, paramTypes);
+        return invoke(getInvocationPlan(new MethodSignature(clazz, methodName, paramTypes)), instance, params);
+    }
+
+    @Override
+    public boolean isShadowed(Class clazz, int methodId) {
+        return logMissingShadowMethods || getInvocationPlan(clazz, methodId, true).hasShadowClass();
+    }
+
+    @Override
+    public Object methodInvoked(Class clazz, int methodId, Object instance, Object[] params) throws Throwable {
+        // isShadowed() already looked the plan up, and counted it, for this call
+        return invoke(getInvocationPlan(clazz, methodId, false), instance, params);
+    }
+
+    private Object invoke(InvocationPlan invocationPlan, Object instance, Object[] params) throws Throwable {
+        MethodSignature methodSignature = invocationPlan.getMethodSignature();
+        if (!invocationPlan.hasShadowClass()) {
+            reportNoShadowMethodFound(methodSignature);
             return null;
         }
-        
-        if (strictI18n && !invocationPlan.isI18nSafe()) {
-        	throw new I18nException("Method " + methodName + " on class " + clazz.getName() + " is not i18n-safe.");
+
+        Object shadow = instance == null ? null : shadowFor(instance);
+        ShadowMethod shadowMethod = invocationPlan.getShadowMethod(shadow);
+        if (shadowMethod == null) {
+            reportNoShadowMethodFound(methodSignature);
+            return null;
+        }
+
+        if (strictI18n && !shadowMethod.i18nSafe) {
+        	throw new I18nException("Method " + methodSignature.methodName + " on class " + methodSignature.clazz.getName() + " is not i18n-safe.");
         }
 
         try {
-            return invocationPlan.getMethod().invoke(invocationPlan.getShadow(), params);
+            return shadowMethod.method.invoke(shadow, params);
         } catch (IllegalArgumentException e) {
-            throw new RuntimeException(invocationPlan.getShadow().getClass().getName() + " is not assignable from " +
+            throw new RuntimeException((shadow == null ? "null" : shadow.getClass().getName()) + " is not assignable from " +
                     invocationPlan.getDeclaredShadowClass().getName(), e);
         } catch (InvocationTargetException e) {
             throw stripStackTrace(e.getCause());
         }
     }
 
+    /**
+     * Returns the cached dispatch information for the given method, building it the first time the method is invoked
+     * after the shadow class mapping last changed.
+     */
+    private InvocationPlan getInvocationPlan(MethodSignature methodSignature) {
+        synchronized (invocationPlans) {
+            validateInvocationPlans();
+            InvocationPlan invocationPlan = invocationPlans.get(methodSignature);
+            if (invocationPlan != null) {
+                dispatchCacheHits++;
+                return invocationPlan;
+            }
+
+            dispatchCacheMisses++;
+            invocationPlan = new InvocationPlan(methodSignature);
+            invocationPlan.prepare();
+            invocationPlans.put(methodSignature, invocationPlan);
+            return invocationPlan;
+        }
+    }
+
+    /**
+     * Returns the cached dispatch information for a method of a class instrumented with method ids.
+     *
+     * @param countLookup whether to count this lookup as a dispatch cache hit or miss; a call is dispatched with two
+     *                    lookups, which should only count once
+     */
+    private InvocationPlan getInvocationPlan(Class clazz, int methodId, boolean countLookup) {
+        synchronized (invocationPlans) {
+            validateInvocationPlans();
+            InvocationPlan[] invocationPlansForClass = invocationPlansByMethodId.get(clazz);
+            if (invocationPlansForClass == null) {
+                invocationPlansForClass = new InvocationPlan[getMethodSignatures(clazz).length];
+                invocationPlansByMethodId.put(clazz, invocationPlansForClass);
+            }
+
+            InvocationPlan invocationPlan = invocationPlansForClass[methodId];
+            if (invocationPlan != null) {
+                if (countLookup) {
+                    dispatchCacheHits++;
+                }
+                return invocationPlan;
+            }
+
+            invocationPlan = getInvocationPlan(getMethodSignatures(clazz)[methodId]);
+            invocationPlansForClass[methodId] = invocationPlan;
+            return invocationPlan;
+        }
+    }
+
+    private MethodSignature[] getMethodSignatures(Class clazz) {
+        MethodSignature[] signatures = methodSignaturesMap.get(clazz);
+        if (signatures == null) {
+            String[] signatureStrings;
+            try {
+                Method method = clazz.getDeclaredMethod(AndroidTranslator.METHOD_SIGNATURES_METHOD_NAME);
+                method.setAccessible(true);
+                signatureStrings = (String[]) method.invoke(null);
+            } catch (Exception e) {
+                throw new RuntimeException(clazz.getName() + " wasn't instrumented with method ids", e);
+            }
+
+            signatures = new MethodSignature[signatureStrings.length];
+            for (int i = 0; i < signatureStrings.length; i++) {
+                signatures[i] = MethodSignature.parse(clazz, signatureStrings[i]);
+            }
+            methodSignaturesMap.put(clazz, signatures);
+        }
+        return signatures;
+    }
+
+    /**
+     * Throws away the cached invocation plans if the shadow class bindings have changed since they were made. Must be
+     * called while holding the lock on {@link #invocationPlans}.
+     */
+    private void validateInvocationPlans() {
+        if (!shadowClassMapChanged) {
+            return;
+        }
+        shadowClassMapChanged = false;
+
+        if (defaultShadowClassesBound != invocationPlansUseDefaultShadowClasses
+                || !shadowClassMap.equals(invocationPlansShadowClassMap)) {
+            invalidateInvocationPlans();
+            invocationPlansUseDefaultShadowClasses = defaultShadowClassesBound;
+            invocationPlansShadowClassMap = new HashMap<String, String>(shadowClassMap);
+        }
+    }
+
+    private void invalidateInvocationPlans() {
+        synchronized (invocationPlans) {
+            invocationPlans.clear();
+            invocationPlansByMethodId.clear();
+        }
+    }
+
+    /**
+     * Forgets everything cached about the classes seen so far, so that a class loader that's no longer used can be
+     * garbage collected.
+     */
+    public void clearCaches() {
+        synchronized (invocationPlans) {
+            invalidateInvocationPlans();
+            methodSignaturesMap.clear();
+        }
+        synchronized (metaShadowMap) {
+            metaShadowMap.clear();
+        }
+        synchronized (shadowConstructors) {
+            shadowConstructors.clear();
+        }
+    }
+
+    public long getDispatchCacheHits() {
+        synchronized (invocationPlans) {
+            return dispatchCacheHits;
+        }
+    }
+
+    public long getDispatchCacheMisses() {
+        synchronized (invocationPlans) {
+            return dispatchCacheMisses;
+        }
+    }
+
     private <T extends Throwable> T stripStackTrace(T throwable) {
         List<StackTraceElement> stackTrace = new ArrayList<StackTraceElement>();
         for (StackTraceElement stackTraceElement : throwable.getStackTrace()) {
@@ -120,10 +337,10 @@ public class ShadowWrangler implements ClassHandler {
         return throwable;
     }
 
-    private void reportNoShadowMethodFound(Class clazz, String methodName, String[] paramTypes) {
+    private void reportNoShadowMethodFound(MethodSignature methodSignature) {
         if (logMissingShadowMethods) {
-            System.out.println("No Shadow method found for " + clazz.getSimpleName() + "." + methodName + "(" +
-                    Join.join(", ", (Object[]) paramTypes) + ")");
+            System.out.println("No Shadow method found for " + methodSignature.clazz.getSimpleName() + "." + methodSignature.methodName + "(" +
+                    Join.join(", ", (Object[]) methodSignature.paramTypes) + ")");
         }
     }
 
@@ -166,16 +383,15 @@ public class ShadowWrangler implements ClassHandler {
         if (debug)
             System.out.println("creating new " + shadowClassName + " as shadow for " + instance.getClass().getName());
         try {
-            Class<?> shadowClass = loadClass(shadowClassName, instance.getClass().getClassLoader());
-            Constructor<?> constructor = findConstructor(instance, shadowClass);
-            if (constructor != null) {
-                shadow = constructor.newInstance(instance);
+            ShadowConstructor shadowConstructor = getShadowConstructor(instance.getClass(), shadowClassName);
+            if (shadowConstructor.constructor != null) {
+                shadow = shadowConstructor.constructor.newInstance(instance);
             } else {
-                shadow = shadowClass.newInstance();
+                shadow = shadowConstructor.shadowClass.newInstance();
             }
             field.set(instance, shadow);
 
-            injectRealObjectOn(shadow, shadowClass, instance);
+            injectRealObjectOn(shadow, shadowConstructor.shadowClass, instance);
 
             return shadow;
         } catch (InstantiationException e) {
@@ -209,13 +425,32 @@ public class ShadowWrangler implements ClassHandler {
         String shadowClassName = null;
         while (shadowClassName == null && clazz != null) {
             shadowClassName = shadowClassMap.get(clazz.getName());
+            if (shadowClassName == null && defaultShadowClassesBound) {
+                shadowClassName = defaultShadowClassMap.get(clazz.getName());
+            }
             clazz = clazz.getSuperclass();
         }
         return shadowClassName;
     }
 
-    private Constructor<?> findConstructor(Object instance, Class<?> shadowClass) {
-        Class clazz = instance.getClass();
+    /**
+     * @return how to make a {@code shadowClassName} for instances of {@code instanceClass}; worked out once per class,
+     *         since looking for the constructor throws an exception for each superclass it doesn't take
+     */
+    private ShadowConstructor getShadowConstructor(Class<?> instanceClass, String shadowClassName) {
+        synchronized (shadowConstructors) {
+            ShadowConstructor shadowConstructor = shadowConstructors.get(instanceClass);
+            if (shadowConstructor == null || !shadowConstructor.shadowClassName.equals(shadowClassName)) {
+                Class<?> shadowClass = loadClass(shadowClassName, instanceClass.getClassLoader());
+                shadowConstructor = new ShadowConstructor(shadowClassName, shadowClass, findConstructor(instanceClass, shadowClass));
+                shadowConstructors.put(instanceClass, shadowConstructor);
+            }
+            return shadowConstructor;
+        }
+    }
+
+    private Constructor<?> findConstructor(Class<?> instanceClass, Class<?> shadowClass) {
+        Class clazz = instanceClass;
 
         Constructor constructor;
         for (constructor = null; constructor == null && clazz != null; clazz = clazz.getSuperclass()) {
@@ -237,6 +472,8 @@ public class ShadowWrangler implements ClassHandler {
             } catch (NoSuchFieldException e) {
                 throw new RuntimeException(instance.getClass().getName() + " has no shadow field", e);
             }
+            // the field may be inherited from a package-private class
+            field.setAccessible(true);
             shadowFieldMap.put(clazz, field);
         }
         return field;
@@ -274,37 +511,56 @@ public class ShadowWrangler implements ClassHandler {
         logMissingShadowMethods = false;
     }
 
-    private class InvocationPlan {
-        private Class clazz;
-        private ClassLoader classLoader;
-        private String methodName;
-        private Object instance;
-        private String[] paramTypes;
-        private Class<?> declaredShadowClass;
-        private Method method;
-        private Object shadow;
+    private static class MethodSignature {
+        private final Class clazz;
+        private final String methodName;
+        private final String[] paramTypes;
 
-        public InvocationPlan(Class clazz, String methodName, Object instance, String... paramTypes) {
+        public MethodSignature(Class clazz, String methodName, String[] paramTypes) {
             this.clazz = clazz;
-            this.classLoader = clazz.getClassLoader();
             this.methodName = methodName;
-            this.instance = instance;
             this.paramTypes = paramTypes;
         }
 
-        public Class<?> getDeclaredShadowClass() {
-            return declaredShadowClass;
+        /**
+         * @param signature a signature as generated by {@link AndroidTranslator}, e.g. {@code "setText(java.lang.CharSequence,int)"}
+         */
+        public static MethodSignature parse(Class clazz, String signature) {
+            int paramsStart = signature.indexOf('(');
+            String methodName = signature.substring(0, paramsStart);
+            String params = signature.substring(paramsStart + 1, signature.length() - 1);
+            String[] paramTypes = params.length() == 0 ? new String[0] : params.split(",");
+            return new MethodSignature(clazz, methodName, paramTypes);
         }
 
-        public Method getMethod() {
-            return method;
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            MethodSignature that = (MethodSignature) o;
+            return clazz.equals(that.clazz) && methodName.equals(that.methodName) && Arrays.equals(paramTypes, that.paramTypes);
         }
 
-        public Object getShadow() {
-            return shadow;
+        @Override
+        public int hashCode() {
+            int result = clazz.hashCode();
+            result = 31 * result + methodName.hashCode();
+            result = 31 * result + Arrays.hashCode(paramTypes);
+            return result;
         }
-        
-        public boolean isI18nSafe() {
+    }
+
+    private static class ShadowMethod {
+        private final Method method;
+        private final boolean i18nSafe;
+
+        public ShadowMethod(Method method) {
+            this.method = method;
+            this.i18nSafe = isI18nSafe(method);
+        }
+
+        private static boolean isI18nSafe(Method method) {
         	// method is loaded by another class loader. So do everything reflectively.
         	Annotation[] annos = method.getAnnotations();
         	for (int i = 0; i < annos.length; i++) {
@@ -318,46 +574,92 @@ public class ShadowWrangler implements ClassHandler {
 					}
         		}
         	}
-        	
-        	return true;	
+
+        	return true;
         }
+    }
 
-        public boolean prepare() {
-            Class<?>[] paramClasses = getParamClasses();
+    /**
+     * Everything needed to dispatch calls to one instrumented method, resolved once per shadow class mapping. Shadow
+     * methods are looked up per concrete shadow class since a subclass may be shadowed by a more specific shadow.
+     */
+    private class InvocationPlan {
+        private MethodSignature methodSignature;
+        private Class clazz;
+        private ClassLoader classLoader;
+        private String methodName;
+        private String[] paramTypes;
+        private Class<?>[] paramClasses;
+        private Class<?> declaredShadowClass;
+        private final Map<Class<?>, ShadowMethod> shadowMethods = new HashMap<Class<?>, ShadowMethod>();
+
+        public InvocationPlan(MethodSignature methodSignature) {
+            this.methodSignature = methodSignature;
+            this.clazz = methodSignature.clazz;
+            this.classLoader = clazz.getClassLoader();
+            this.methodName = methodSignature.methodName;
+            this.paramTypes = methodSignature.paramTypes;
+        }
+
+        public MethodSignature getMethodSignature() {
+            return methodSignature;
+        }
+
+        public Class<?> getDeclaredShadowClass() {
+            return declaredShadowClass;
+        }
+
+        public boolean hasShadowClass() {
+            return declaredShadowClass != null;
+        }
+
+        public void prepare() {
+            paramClasses = getParamClasses();
 
             Class<?> originalClass = loadClass(clazz.getName(), classLoader);
 
             declaredShadowClass = findDeclaredShadowClassForMethod(originalClass, methodName, paramClasses);
-            if (declaredShadowClass == null) {
-                return false;
-            }
 
             if (methodName.equals("<init>")) {
                 methodName = "__constructor__";
             }
+        }
 
-            if (instance != null) {
-                shadow = shadowFor(instance);
-                method = getMethod(shadow.getClass(), methodName, paramClasses);
-            } else {
-                shadow = null;
-                method = getMethod(findShadowClass(clazz), methodName, paramClasses);
+        /**
+         * @param shadow the shadow of the instance the method was invoked on, or null for static methods
+         * @return the shadow method to invoke, or null if the shadow doesn't implement this method
+         */
+        public ShadowMethod getShadowMethod(Object shadow) {
+            Class<?> shadowClass = shadow == null ? null : shadow.getClass();
+            synchronized (shadowMethods) {
+                if (shadowMethods.containsKey(shadowClass)) {
+                    return shadowMethods.get(shadowClass);
+                }
+
+                ShadowMethod shadowMethod = findShadowMethod(shadowClass);
+                shadowMethods.put(shadowClass, shadowMethod);
+                return shadowMethod;
             }
+        }
+
+        private ShadowMethod findShadowMethod(Class<?> shadowClass) {
+            boolean isStatic = shadowClass == null;
+            Method method = getMethod(isStatic ? findShadowClass(clazz) : shadowClass, methodName, paramClasses);
 
             if (method == null) {
                 if (debug) {
                     System.out.println("No method found for " + clazz + "." + methodName + "(" + Arrays.asList(paramClasses) + ") on " + declaredShadowClass.getName());
                 }
-                return false;
+                return null;
             }
 
-            if ((instance == null) != Modifier.isStatic(method.getModifiers())) {
+            if (isStatic != Modifier.isStatic(method.getModifiers())) {
                 throw new RuntimeException("method staticness of " + clazz.getName() + "." + methodName + " and " + declaredShadowClass.getName() + "." + method.getName() + " don't match");
             }
 
             method.setAccessible(true);
 
-            return true;
+            return new ShadowMethod(method);
         }
 
         private Class<?> findDeclaredShadowClassForMethod(Class<?> originalClass, String methodName, Class<?>[] paramClasses) {
@@ -431,8 +733,21 @@ public class ShadowWrangler implements ClassHandler {
 
         @Override
         public String toString() {
-            return "delegating to " + declaredShadowClass.getName() + "." + method.getName()
-                    + "(" + Arrays.toString(method.getParameterTypes()) + ")";
+            return "delegating " + clazz.getName() + "." + methodName + "(" + Arrays.toString(paramClasses) + ") to "
+                    + (declaredShadowClass == null ? "nothing" : declaredShadowClass.getName());
+        }
+    }
+
+    private static class ShadowConstructor {
+        final String shadowClassName;
+        final Class<?> shadowClass;
+        // null if the shadow class has no constructor taking the instance
+        final Constructor<?> constructor;
+
+        ShadowConstructor(String shadowClassName, Class<?> shadowClass, Constructor<?> constructor) {
+            this.shadowClassName = shadowClassName;
+            this.shadowClass = shadowClass;
+            this.constructor = constructor;
         }
     }
 
@@ -0,0 +1,86 @@
+package com.xtremelabs.robolectric.bytecode;
+
+import com.xtremelabs.robolectric.internal.Implements;
+import javassist.ClassPool;
+import javassist.CtBehavior;
+import javassist.CtClass;
+import javassist.CtMethod;
+import javassist.NotFoundException;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The names and parameter types of every method implemented by a set of shadow classes, read from their bytecode
+ * without loading them.
+ * <p/>
+ * {@link ShadowWrangler} will dispatch to any method declared on a shadow class or on one of its {@code @Implements}
+ * superclasses, so all of those count, whether or not they're annotated with {@code @Implementation}. Methods are
+ * matched by name and parameter types only, regardless of which class they shadow, since a shadow method can be
+ * reached through a subclass's shadow.
+ */
+public class ShadowedMethodIndex {
+    private final ClassPool classPool;
+    private final Set<String> signatures = new TreeSet<String>();
+    private String digest;
+
+    public ShadowedMethodIndex(ClassPool classPool) {
+        this.classPool = classPool;
+    }
+
+    public void addShadowClass(String shadowClassName) {
+        try {
+            CtClass shadowCtClass = classPool.get(shadowClassName);
+            while (shadowCtClass != null && shadowCtClass.hasAnnotation(Implements.class)) {
+                for (CtMethod ctMethod : shadowCtClass.getDeclaredMethods()) {
+                    signatures.add(signatureOf(ctMethod));
+                }
+                shadowCtClass = shadowCtClass.getSuperclass();
+            }
+        } catch (NotFoundException e) {
+            throw new RuntimeException("couldn't read shadow class " + shadowClassName, e);
+        }
+        digest = null;
+    }
+
+    public boolean isShadowed(CtBehavior ctBehavior) {
+        return signatures.contains(signatureOf(ctBehavior));
+    }
+
+    /**
+     * @return a hash of the indexed methods, so instrumented classes cached for a different set of shadows can be told
+     *         apart
+     */
+    public String getDigest() {
+        if (digest == null) {
+            MessageDigest messageDigest;
+            try {
+                messageDigest = MessageDigest.getInstance("SHA-1");
+                for (String signature : signatures) {
+                    messageDigest.update(signature.getBytes("UTF-8"));
+                    messageDigest.update((byte) '\n');
+                }
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            } catch (UnsupportedEncodingException e) {
+                throw new RuntimeException(e);
+            }
+
+            StringBuilder buf = new StringBuilder();
+            for (byte b : messageDigest.digest()) {
+                buf.append(Character.forDigit((b >> 4) & 0xf, 16));
+                buf.append(Character.forDigit(b & 0xf, 16));
+            }
+            digest = buf.toString();
+        }
+        return digest;
+    }
+
+    private static String signatureOf(CtBehavior ctBehavior) {
+        String descriptor = ctBehavior.getMethodInfo2().getDescriptor();
+        return ctBehavior.getMethodInfo2().getName() + descriptor.substring(0, descriptor.indexOf(')') + 1);
+    }
+}
@@ -0,0 +1,51 @@
+package com.xtremelabs.robolectric.daemon;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Notices when the class files or jars on an application's class path are added, removed or modified.
+ */
+public class ClassPathWatcher {
+    private final List<File> classPath;
+    private long lastModified;
+    private int fileCount;
+
+    public ClassPathWatcher(List<File> classPath) {
+        this.classPath = classPath;
+        scan();
+    }
+
+    /**
+     * @return true if anything on the class path has changed since this watcher was created or since the last time
+     *         this method returned true
+     */
+    public boolean hasChanged() {
+        long previousLastModified = lastModified;
+        int previousFileCount = fileCount;
+        scan();
+        return lastModified != previousLastModified || fileCount != previousFileCount;
+    }
+
+    private void scan() {
+        lastModified = 0;
+        fileCount = 0;
+        for (File file : classPath) {
+            scan(file);
+        }
+    }
+
+    private void scan(File file) {
+        if (file.isDirectory()) {
+            File[] files = file.listFiles();
+            if (files != null) {
+                for (File child : files) {
+                    scan(child);
+                }
+            }
+        } else if (file.exists()) {
+            lastModified = Math.max(lastModified, file.lastModified());
+            fileCount++;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.xtremelabs.robolectric.daemon;
+
+import org.junit.runner.Runner;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Names the runner {@link RobolectricDaemon} should run a test class annotated with
+ * {@code @RunWith(RobolectricDaemonRunner.class)} with. Test classes without it are run with
+ * {@link com.xtremelabs.robolectric.RobolectricTestRunner}.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface DaemonRunWith {
+    Class<? extends Runner> value();
+}
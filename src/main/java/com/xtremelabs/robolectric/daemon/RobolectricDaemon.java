@@ -0,0 +1,234 @@
+package com.xtremelabs.robolectric.daemon;
+
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.runner.Description;
+import org.junit.runner.Runner;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+import org.junit.runner.notification.RunNotifier;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A long-lived JVM that runs Robolectric tests on behalf of {@link RobolectricDaemonRunner}, so that the instrumented
+ * Android classes, parsed resources and JIT-compiled code from one run are still around for the next.
+ * <p/>
+ * Start it with Robolectric, JUnit and android.jar on its own class path, and your application's and tests' class
+ * directories and jars as its argument; they must not be on its own class path, since that's what lets it load fresh
+ * copies of them. Before each run it checks whether anything on the application class path has changed, and if so
+ * loads the application classes again through a new class loader. Android classes are then defined straight from
+ * the {@link com.xtremelabs.robolectric.bytecode.ClassCache} rather than instrumented again.
+ * <p/>
+ * Usage: {@code java -Drobolectric.daemon.port=7547 com.xtremelabs.robolectric.daemon.RobolectricDaemon
+ * target/classes:target/test-classes:...}
+ */
+public class RobolectricDaemon {
+    /**
+     * Set this system property, in both the daemon and the JVM running the tests, to change the port they talk on.
+     */
+    public static final String PORT_PROPERTY = "robolectric.daemon.port";
+    public static final int DEFAULT_PORT = 7547;
+
+    static final String RUN_COMMAND = "run";
+    static final String STOP_COMMAND = "stop";
+
+    static final String TEST_STARTED = "testStarted";
+    static final String TEST_FINISHED = "testFinished";
+    static final String TEST_FAILURE = "testFailure";
+    static final String TEST_ASSUMPTION_FAILURE = "testAssumptionFailure";
+    static final String TEST_IGNORED = "testIgnored";
+    static final String RUN_FINISHED = "runFinished";
+
+    // DataOutputStream.writeUTF() can't write more than 64k
+    private static final int MAX_TRACE_LENGTH = 16 * 1024;
+
+    private final URL[] classPathUrls;
+    private final ClassPathWatcher classPathWatcher;
+    private ClassLoader applicationClassLoader;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("usage: " + RobolectricDaemon.class.getName() + " <application class path>");
+            System.exit(1);
+        }
+
+        List<File> classPath = new ArrayList<File>();
+        for (String path : args[0].split(File.pathSeparator)) {
+            if (path.length() > 0) {
+                classPath.add(new File(path));
+            }
+        }
+        new RobolectricDaemon(classPath).serve(getPort());
+    }
+
+    public static int getPort() {
+        return Integer.getInteger(PORT_PROPERTY, DEFAULT_PORT);
+    }
+
+    public RobolectricDaemon(List<File> classPath) {
+        classPathUrls = new URL[classPath.size()];
+        for (int i = 0; i < classPath.size(); i++) {
+            try {
+                classPathUrls[i] = classPath.get(i).toURI().toURL();
+            } catch (MalformedURLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        classPathWatcher = new ClassPathWatcher(classPath);
+    }
+
+    /**
+     * Runs test classes as they're requested, one at a time, since tests share global state, until asked to stop.
+     */
+    public void serve(int port) throws IOException {
+        serve(new ServerSocket(port, 50, InetAddress.getByName("127.0.0.1")));
+    }
+
+    void serve(ServerSocket serverSocket) throws IOException {
+        System.out.println("Robolectric daemon listening on port " + serverSocket.getLocalPort());
+        try {
+            boolean running = true;
+            while (running) {
+                Socket socket = serverSocket.accept();
+                try {
+                    running = handle(socket);
+                } catch (IOException e) {
+                    System.out.println("Warning: lost connection to client: " + e);
+                } finally {
+                    socket.close();
+                }
+            }
+        } finally {
+            serverSocket.close();
+        }
+    }
+
+    private boolean handle(Socket socket) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+        String command = in.readUTF();
+        if (STOP_COMMAND.equals(command)) {
+            return false;
+        }
+        if (!RUN_COMMAND.equals(command)) {
+            throw new IOException("unknown command " + command);
+        }
+
+        String testClassName = in.readUTF();
+        String runnerClassName = in.readUTF();
+        run(testClassName, runnerClassName, out);
+        out.flush();
+        return true;
+    }
+
+    private void run(String testClassName, String runnerClassName, DataOutputStream out) throws IOException {
+        long start = System.currentTimeMillis();
+        EventWriter eventWriter = new EventWriter(out);
+        RunNotifier notifier = new RunNotifier();
+        notifier.addListener(eventWriter);
+
+        try {
+            ClassLoader classLoader = getApplicationClassLoader();
+            Class<?> testClass = classLoader.loadClass(testClassName);
+            Class<?> runnerClass = classLoader.loadClass(runnerClassName);
+            Runner runner = (Runner) runnerClass.getConstructor(Class.class).newInstance(testClass);
+            runner.run(notifier);
+        } catch (Throwable e) {
+            notifier.fireTestFailure(new Failure(Description.createSuiteDescription(testClassName), e));
+        }
+
+        if (eventWriter.ioException != null) {
+            throw eventWriter.ioException;
+        }
+        out.writeUTF(RUN_FINISHED);
+        System.out.println("Ran " + testClassName + " in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    private ClassLoader getApplicationClassLoader() {
+        if (applicationClassLoader == null || classPathWatcher.hasChanged()) {
+            if (applicationClassLoader != null) {
+                System.out.println("Application classes changed, reloading");
+            }
+            applicationClassLoader = new URLClassLoader(classPathUrls, RobolectricDaemon.class.getClassLoader());
+            RobolectricTestRunner.resetDefaultLoader(applicationClassLoader);
+        }
+        return applicationClassLoader;
+    }
+
+    /**
+     * Sends test events to the client as they happen.
+     */
+    private static class EventWriter extends RunListener {
+        private final DataOutputStream out;
+        private IOException ioException;
+
+        EventWriter(DataOutputStream out) {
+            this.out = out;
+        }
+
+        @Override public void testStarted(Description description) throws Exception {
+            write(TEST_STARTED, description);
+        }
+
+        @Override public void testFinished(Description description) throws Exception {
+            write(TEST_FINISHED, description);
+        }
+
+        @Override public void testFailure(Failure failure) throws Exception {
+            write(TEST_FAILURE, failure);
+        }
+
+        @Override public void testAssumptionFailure(Failure failure) {
+            write(TEST_ASSUMPTION_FAILURE, failure);
+        }
+
+        @Override public void testIgnored(Description description) throws Exception {
+            write(TEST_IGNORED, description);
+        }
+
+        private void write(String event, Failure failure) {
+            String message = failure.getMessage();
+            write(event, failure.getDescription(), message == null ? "" : message, failure.getTrace());
+        }
+
+        private void write(String event, Description description) {
+            write(event, description, null, null);
+        }
+
+        private void write(String event, Description description, String message, String trace) {
+            if (ioException != null) {
+                return;
+            }
+
+            try {
+                out.writeUTF(event);
+                out.writeUTF(description.getDisplayName());
+                if (trace != null) {
+                    out.writeUTF(truncate(message));
+                    out.writeUTF(truncate(trace));
+                }
+                out.flush();
+            } catch (IOException e) {
+                ioException = e;
+            }
+        }
+
+        private static String truncate(String s) {
+            return s.length() > MAX_TRACE_LENGTH ? s.substring(0, MAX_TRACE_LENGTH) + "..." : s;
+        }
+    }
+}
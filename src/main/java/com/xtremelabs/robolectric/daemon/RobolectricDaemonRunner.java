@@ -0,0 +1,150 @@
+package com.xtremelabs.robolectric.daemon;
+
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runner.Runner;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunNotifier;
+import org.junit.runners.model.FrameworkMethod;
+import org.junit.runners.model.TestClass;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Runs a test class in a {@link RobolectricDaemon}, if there's one listening, and reports the results as if the
+ * tests had been run here. Otherwise, runs it here with the runner named by {@link DaemonRunWith}, or with
+ * {@link RobolectricTestRunner}.
+ * <p/>
+ * Use it in place of your usual runner:
+ * <pre>
+ * &#64;RunWith(RobolectricDaemonRunner.class)
+ * &#64;DaemonRunWith(MyTestRunner.class)
+ * public class MyActivityTest {
+ * </pre>
+ */
+public class RobolectricDaemonRunner extends Runner {
+    private final Class<?> testClass;
+    private final Class<? extends Runner> runnerClass;
+    private final Description description;
+    private final Map<String, Description> descriptionsByDisplayName = new HashMap<String, Description>();
+
+    public RobolectricDaemonRunner(Class<?> testClass) {
+        this.testClass = testClass;
+        DaemonRunWith daemonRunWith = testClass.getAnnotation(DaemonRunWith.class);
+        runnerClass = daemonRunWith == null ? RobolectricTestRunner.class : daemonRunWith.value();
+
+        // the same tests BlockJUnit4ClassRunner would run, found without instrumenting anything
+        description = Description.createSuiteDescription(testClass);
+        descriptionsByDisplayName.put(description.getDisplayName(), description);
+        for (FrameworkMethod method : new TestClass(testClass).getAnnotatedMethods(Test.class)) {
+            Description child = Description.createTestDescription(testClass, method.getName(), method.getAnnotations());
+            description.addChild(child);
+            descriptionsByDisplayName.put(child.getDisplayName(), child);
+        }
+    }
+
+    @Override public Description getDescription() {
+        return description;
+    }
+
+    @Override public void run(RunNotifier notifier) {
+        Socket socket;
+        try {
+            socket = new Socket("127.0.0.1", RobolectricDaemon.getPort());
+        } catch (ConnectException e) {
+            runHere(notifier);
+            return;
+        } catch (IOException e) {
+            notifier.fireTestFailure(new Failure(description, e));
+            return;
+        }
+
+        try {
+            try {
+                runInDaemon(socket, notifier);
+            } finally {
+                socket.close();
+            }
+        } catch (IOException e) {
+            notifier.fireTestFailure(new Failure(description, e));
+        }
+    }
+
+    private void runInDaemon(Socket socket, RunNotifier notifier) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        out.writeUTF(RobolectricDaemon.RUN_COMMAND);
+        out.writeUTF(testClass.getName());
+        out.writeUTF(runnerClass.getName());
+        out.flush();
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        String event;
+        while (!(event = in.readUTF()).equals(RobolectricDaemon.RUN_FINISHED)) {
+            Description eventDescription = getDescription(in.readUTF());
+            if (event.equals(RobolectricDaemon.TEST_STARTED)) {
+                notifier.fireTestStarted(eventDescription);
+            } else if (event.equals(RobolectricDaemon.TEST_FINISHED)) {
+                notifier.fireTestFinished(eventDescription);
+            } else if (event.equals(RobolectricDaemon.TEST_IGNORED)) {
+                notifier.fireTestIgnored(eventDescription);
+            } else if (event.equals(RobolectricDaemon.TEST_FAILURE)) {
+                notifier.fireTestFailure(new Failure(eventDescription, new DaemonFailure(in.readUTF(), in.readUTF())));
+            } else if (event.equals(RobolectricDaemon.TEST_ASSUMPTION_FAILURE)) {
+                notifier.fireTestAssumptionFailed(new Failure(eventDescription, new DaemonFailure(in.readUTF(), in.readUTF())));
+            } else {
+                throw new IOException("unknown event " + event);
+            }
+        }
+    }
+
+    private Description getDescription(String displayName) {
+        Description eventDescription = descriptionsByDisplayName.get(displayName);
+        return eventDescription == null ? Description.createSuiteDescription(displayName) : eventDescription;
+    }
+
+    private void runHere(RunNotifier notifier) {
+        Runner runner;
+        try {
+            runner = runnerClass.getConstructor(Class.class).newInstance(testClass);
+        } catch (InvocationTargetException e) {
+            notifier.fireTestFailure(new Failure(description, e.getCause()));
+            return;
+        } catch (Exception e) {
+            notifier.fireTestFailure(new Failure(description, e));
+            return;
+        }
+        runner.run(notifier);
+    }
+
+    /**
+     * A failure reported by the daemon; its stack trace is the one printed there.
+     */
+    private static class DaemonFailure extends RuntimeException {
+        private final String trace;
+
+        DaemonFailure(String message, String trace) {
+            super(message);
+            this.trace = trace;
+        }
+
+        @Override public void printStackTrace(PrintStream s) {
+            s.print(trace);
+        }
+
+        @Override public void printStackTrace(PrintWriter s) {
+            s.print(trace);
+        }
+    }
+}
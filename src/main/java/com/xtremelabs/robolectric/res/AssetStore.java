@@ -0,0 +1,135 @@
+package com.xtremelabs.robolectric.res;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Where assets and raw resources are read from: a directory, or a zip, {@code .apk} or {@code .aar} archive.
+ * <p/>
+ * Fixtures tend to be read over and over by a suite, so files up to {@link #SMALL_ENTRY_SIZE} are kept in memory once
+ * read, up to {@code robolectric.assetCacheSize} bytes (16MB by default) per store, least recently used first out.
+ * The streams handed out share the cached bytes rather than copying them. Bigger files in a directory are memory
+ * mapped instead, up to {@code robolectric.assetMappedSize} bytes (256MB by default) of them per store.
+ */
+public abstract class AssetStore {
+    public static final String CACHE_SIZE_PROPERTY = "robolectric.assetCacheSize";
+    static final int SMALL_ENTRY_SIZE = 256 * 1024;
+    private static final long DEFAULT_CACHE_SIZE = 16 * 1024 * 1024;
+
+    private final long maxCachedBytes = Long.getLong(CACHE_SIZE_PROPERTY, DEFAULT_CACHE_SIZE);
+    private long cachedBytes;
+    private final LinkedHashMap<String, CachedEntry> cachedEntries = new LinkedHashMap<String, CachedEntry>(16, 0.75f, true);
+
+    /**
+     * @param assets a directory, or an archive whose name ends in {@code .zip}, {@code .jar}, {@code .apk} or
+     *               {@code .aar}; the assets of an {@code .apk} or {@code .aar} are the ones under its
+     *               {@code assets/} directory
+     */
+    public static AssetStore forFile(File assets) {
+        if (assets != null && assets.isFile()) {
+            String name = assets.getName().toLowerCase();
+            if (name.endsWith(".apk") || name.endsWith(".aar")) {
+                return new ZipAssetStore(assets, "assets/");
+            } else if (name.endsWith(".zip") || name.endsWith(".jar")) {
+                return new ZipAssetStore(assets, "");
+            }
+        }
+        return new DirectoryAssetStore(assets);
+    }
+
+    /**
+     * @param path e.g. "docs/hello.txt"; either separator will do
+     * @throws java.io.FileNotFoundException if there's no such file
+     */
+    public abstract InputStream open(String path) throws IOException;
+
+    /**
+     * @return the names of the files and directories in {@code path}, or none if it isn't a directory
+     */
+    public abstract String[] list(String path) throws IOException;
+
+    /**
+     * @return the bytes cached for {@code path}, if they were cached when it had this length and modification time
+     */
+    protected synchronized byte[] getCachedBytes(String path, long length, long lastModified) {
+        CachedEntry cachedEntry = cachedEntries.get(path);
+        if (cachedEntry == null) {
+            return null;
+        }
+        if (cachedEntry.bytes.length != length || cachedEntry.lastModified != lastModified) {
+            cachedEntries.remove(path);
+            cachedBytes -= cachedEntry.bytes.length;
+            return null;
+        }
+        return cachedEntry.bytes;
+    }
+
+    protected synchronized void cacheBytes(String path, long lastModified, byte[] bytes) {
+        CachedEntry oldEntry = cachedEntries.put(path, new CachedEntry(bytes, lastModified));
+        if (oldEntry != null) {
+            cachedBytes -= oldEntry.bytes.length;
+        }
+        cachedBytes += bytes.length;
+
+        for (Iterator<Map.Entry<String, CachedEntry>> iterator = cachedEntries.entrySet().iterator();
+             cachedBytes > maxCachedBytes && iterator.hasNext(); ) {
+            cachedBytes -= iterator.next().getValue().bytes.length;
+            iterator.remove();
+        }
+    }
+
+    protected synchronized void clearCache() {
+        cachedEntries.clear();
+        cachedBytes = 0;
+    }
+
+    /**
+     * @return a stream over {@code bytes}, which are shared with it, not copied
+     */
+    protected static InputStream streamOf(byte[] bytes) {
+        return new ByteArrayInputStream(bytes);
+    }
+
+    protected static byte[] readFully(InputStream in, int length) throws IOException {
+        try {
+            byte[] bytes = new byte[length];
+            int offset = 0;
+            while (offset < length) {
+                int count = in.read(bytes, offset, length - offset);
+                if (count == -1) {
+                    throw new IOException("expected " + length + " bytes but only got " + offset);
+                }
+                offset += count;
+            }
+            return bytes;
+        } finally {
+            in.close();
+        }
+    }
+
+    protected static String normalize(String path) {
+        String normalizedPath = path.replace('\\', '/');
+        while (normalizedPath.startsWith("/")) {
+            normalizedPath = normalizedPath.substring(1);
+        }
+        while (normalizedPath.endsWith("/")) {
+            normalizedPath = normalizedPath.substring(0, normalizedPath.length() - 1);
+        }
+        return normalizedPath;
+    }
+
+    private static class CachedEntry {
+        final byte[] bytes;
+        final long lastModified;
+
+        CachedEntry(byte[] bytes, long lastModified) {
+            this.bytes = bytes;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -3,15 +3,12 @@ package com.xtremelabs.robolectric.res;
 import android.view.View;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
 import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -19,22 +16,64 @@ public class AttrResourceLoader extends XmlLoader {
     private static final String ANDROID_XML_NAMESPACE = "http://schemas.android.com/apk/res/android";
     private static final String ANDROID_PREFIX = "android:";
 
+    /**
+     * Map of top level enum or flag attr name (e.g. "android:gravity") to its values
+     */
     Map<String, EnumDef> enums = new HashMap<String, EnumDef>();
-    Map<String, EnumRef> enumRefs = new HashMap<String, EnumRef>();
+    /**
+     * The childless attrs declared by each declare-styleable, which refer to an enum or flag attr declared elsewhere;
+     * a set, so that reading a values file again doesn't note them twice
+     */
+    Set<EnumRef> enumRefs = new LinkedHashSet<EnumRef>();
     boolean resolved = false;
 
-    Map<String, String> classEnumToValue = new HashMap<String, String>();
-    Set<String> knownClassEnums = new HashSet<String>();
-  
+    /**
+     * Map of declare-styleable name (e.g. "ImageView") to the enum or flag attrs it declares, by attr name
+     */
+    Map<String, Map<String, EnumDef>> styleables = new HashMap<String, Map<String, EnumDef>>();
+
+    /**
+     * The enum and flag attrs of each view class asked about, including the ones of its superclasses
+     */
+    private final Map<Class<?>, ClassAttrs> classAttrs = new HashMap<Class<?>, ClassAttrs>();
+
+    private AttrResourceLoader systemLoader;
+
     public AttrResourceLoader(ResourceExtractor resourceExtractor) {
         super(resourceExtractor);
     }
 
+    /**
+     * @param systemLoader where to look for enums and attrs this loader doesn't have; its references must already be
+     *                     resolved
+     */
+    public void setSystemLoader(AttrResourceLoader systemLoader) {
+        this.systemLoader = systemLoader;
+    }
+
     static class EnumDef {
         final String name;
         final Map<String, String> values = new HashMap<String, String>();
+        /**
+         * The values as ints, parsed when they're added; missing if a value isn't a number
+         */
+        final Map<String, Integer> intValues = new HashMap<String, Integer>();
 
         EnumDef(String name) { this.name = name; }
+
+        void put(String valueName, String value) {
+            values.put(valueName, value);
+            try {
+                intValues.put(valueName, parseInt(value));
+            } catch (NumberFormatException e) {
+                intValues.remove(valueName);
+            }
+        }
+
+        void putAll(EnumDef enumDef) {
+            values.putAll(enumDef.values);
+            intValues.putAll(enumDef.intValues);
+        }
     }
 
     static class EnumRef {
@@ -45,67 +84,166 @@ public class AttrResourceLoader extends XmlLoader {
             this.enumName = enumName;
             this.viewName = viewName;
         }
+
+        @Override public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof EnumRef)) return false;
+            EnumRef enumRef = (EnumRef) o;
+            return viewName.equals(enumRef.viewName) && enumName.equals(enumRef.enumName);
+        }
+
+        @Override public int hashCode() {
+            return 31 * viewName.hashCode() + enumName.hashCode();
+        }
     }
 
-    @Override protected void processResourceXml(File xmlFile, Document document, boolean system) throws Exception {
+    /**
+     * The enum and flag attrs that apply to a view class, with the ones in the "android:" namespace kept apart so
+     * they can be looked up by their bare name
+     */
+    private static class ClassAttrs {
+        final Map<String, EnumDef> attrs = new HashMap<String, EnumDef>();
+        final Map<String, EnumDef> androidAttrs = new HashMap<String, EnumDef>();
 
-        // Pick up inline enum definitions
-        {
-            NodeList nodeList = findNodes(document, "/resources/declare-styleable/attr/enum|/resources/declare-styleable/attr/flag");
-            for (int i = 0; i < nodeList.getLength(); i++) {
-                Node node = nodeList.item(i);
-                String viewName = node.getParentNode().getParentNode().getAttributes().getNamedItem("name").getNodeValue();
-                String enumName = enumName(node.getParentNode().getAttributes().getNamedItem("name").getNodeValue(), system);
-                String name = node.getAttributes().getNamedItem("name").getNodeValue();
-                String value = node.getAttributes().getNamedItem("value").getNodeValue();
-
-                classEnumToValue.put(key(viewName, enumName, name), value);
-                knownClassEnums.add(key(viewName, enumName));
+        void put(String attrName, EnumDef enumDef) {
+            if (attrName.startsWith(ANDROID_PREFIX)) {
+                androidAttrs.put(attrName.substring(ANDROID_PREFIX.length()), enumDef);
+            } else {
+                attrs.put(attrName, enumDef);
             }
         }
 
-        // Look for any global enum definitions.
-        {
-            NodeList nodeList = findNodes(document, "/resources/attr/enum|/resources/attr/flag");
-            for (int i = 0; i < nodeList.getLength(); i++) {
-                Node node = nodeList.item(i);
+        EnumDef get(String namespace, String attrName) {
+            return ANDROID_XML_NAMESPACE.equals(namespace) ? androidAttrs.get(attrName) : attrs.get(attrName);
+        }
+    }
 
-                String enumName = enumName(node.getParentNode().getAttributes().getNamedItem("name").getNodeValue(), system);
-                EnumDef enumDef = enums.get(enumName);
-                if (enumDef == null) {
-                    enumDef = new EnumDef(enumName);
-                    enums.put(enumName, enumDef);
+    @Override protected void processResourceXml(File xmlFile, Document document, boolean system) throws Exception {
+        // walks the document directly; it's only ever a couple of levels deep, and evaluating XPaths over it took
+        // longer than reading it
+        for (Node resources : getChildElements(document, "resources")) {
+            for (Node declareStyleable : getChildElements(resources, "declare-styleable")) {
+                String viewName = getName(declareStyleable);
+                for (Node attr : getChildElements(declareStyleable, "attr")) {
+                    String enumName = enumName(getName(attr), system);
+                    if (attr.hasChildNodes()) {
+                        // Pick up inline enum definitions
+                        EnumDef enumDef = null;
+                        for (Node value : getEnumValueElements(attr)) {
+                            if (enumDef == null) {
+                                enumDef = getStyleableEnumDef(viewName, enumName);
+                            }
+                            enumDef.put(getName(value), value.getAttributes().getNamedItem("value").getNodeValue());
+                        }
+                    } else {
+                        // Note uses of system enums and top level local enums by childless attr nodes
+                        enumRefs.add(new EnumRef(viewName, enumName));
+                    }
                 }
-                enumDef.values.put(node.getAttributes().getNamedItem("name").getNodeValue(),
-                        node.getAttributes().getNamedItem("value").getNodeValue());
             }
+
+            // Look for any global enum definitions.
+            for (Node attr : getChildElements(resources, "attr")) {
+                String enumName = enumName(getName(attr), system);
+                for (Node value : getEnumValueElements(attr)) {
+                    EnumDef enumDef = enums.get(enumName);
+                    if (enumDef == null) {
+                        enumDef = new EnumDef(enumName);
+                        enums.put(enumName, enumDef);
+                    }
+                    enumDef.put(getName(value), value.getAttributes().getNamedItem("value").getNodeValue());
+                }
+            }
+        }
+
+        synchronized (classAttrs) {
+            // attrs may refer to enums in this file, and classes may have new attrs
+            resolved = false;
+            classAttrs.clear();
         }
+    }
 
-        // Note uses of system enums and top level local enums by childless attr nodes
-        {
-            NodeList nodeList = findNodes(document, "/resources/declare-styleable/attr[not(node())]");
-            for (int i = 0; i < nodeList.getLength(); i++) {
-                Node node = nodeList.item(i);
+    public String convertValueToEnum(Class<? extends View> viewClass, String namespace, String attrName, String attrValue) {
+        EnumDef enumDef = getClassAttrs(viewClass).get(namespace, attrName);
+        return enumDef == null ? null : enumDef.values.get(attrValue);
+    }
 
-                String viewName = node.getParentNode().getAttributes().getNamedItem("name").getNodeValue();
-                String enumName = enumName(node.getAttributes().getNamedItem("name").getNodeValue(), system);
+    /**
+     * @return the value of {@code attrValue} as an int, e.g. 17 for "center" of android:gravity, or null if it isn't
+     *         one of the attr's values
+     */
+    public Integer convertValueToInt(Class<? extends View> viewClass, String namespace, String attrName, String attrValue) {
+        EnumDef enumDef = getClassAttrs(viewClass).get(namespace, attrName);
+        return enumDef == null ? null : enumDef.intValues.get(attrValue);
+    }
 
-                enumRefs.put(key(viewName, enumName), new EnumRef(viewName, enumName));
+    public boolean hasAttributeFor(Class<? extends View> viewClass, String namespace, String attrName) {
+        return getClassAttrs(viewClass).get(namespace, attrName) != null;
+    }
+
+    /**
+     * @return {@code value} as an int, reading it as hex if it starts with "0x" the way the platform does
+     */
+    public static int parseInt(String value) {
+        if (value.startsWith("0x")) {
+            // flags like 0x80000000 don't fit in an int as a positive number
+            return (int) Long.parseLong(value.substring(2), 16);
+        }
+        return Integer.parseInt(value);
+    }
+
+    private ClassAttrs getClassAttrs(Class<?> viewClass) {
+        synchronized (classAttrs) {
+            resolveReferences();
+            ClassAttrs attrs = classAttrs.get(viewClass);
+            if (attrs == null) {
+                attrs = new ClassAttrs();
+                if (viewClass != null) {
+                    // a subclass's declaration of an attr replaces its superclass's one
+                    List<Class<?>> classes = new ArrayList<Class<?>>();
+                    for (Class<?> clazz = viewClass; clazz != null; clazz = clazz.getSuperclass()) {
+                        classes.add(0, clazz);
+                    }
+                    for (Class<?> clazz : classes) {
+                        addStyleable(attrs, clazz.getSimpleName());
+                    }
+                }
+                classAttrs.put(viewClass, attrs);
             }
+            return attrs;
         }
     }
 
-    public String convertValueToEnum(Class<? extends View> viewClass, String namespace, String attrName, String attrValue) {
-        resolveReferences();
-        if (ANDROID_XML_NAMESPACE.equals(namespace)) attrName = ANDROID_PREFIX + attrName;
-        String className = findKnownAttrClass(attrName, viewClass).getSimpleName();
-        return classEnumToValue.get(key(className, attrName, attrValue));
+    private void addStyleable(ClassAttrs attrs, String viewName) {
+        Map<String, EnumDef> systemStyleable = systemLoader == null ? null : systemLoader.styleables.get(viewName);
+        Map<String, EnumDef> styleable = styleables.get(viewName);
+        if (systemStyleable == null) {
+            if (styleable != null) {
+                putAll(attrs, styleable);
+            }
+        } else if (styleable == null) {
+            putAll(attrs, systemStyleable);
+        } else {
+            // both declare attrs for this class; where they declare the same one, this loader's values win
+            putAll(attrs, systemStyleable);
+            for (Map.Entry<String, EnumDef> entry : styleable.entrySet()) {
+                EnumDef systemEnumDef = systemStyleable.get(entry.getKey());
+                if (systemEnumDef == null) {
+                    attrs.put(entry.getKey(), entry.getValue());
+                } else {
+                    EnumDef enumDef = new EnumDef(entry.getKey());
+                    enumDef.putAll(systemEnumDef);
+                    enumDef.putAll(entry.getValue());
+                    attrs.put(entry.getKey(), enumDef);
+                }
+            }
+        }
     }
 
-    public boolean hasAttributeFor(Class<? extends View> viewClass, String namespace, String attrName) {
-        resolveReferences();
-        if (ANDROID_XML_NAMESPACE.equals(namespace)) attrName = ANDROID_PREFIX + attrName;
-        return findKnownAttrClass(attrName, viewClass) != null;
+    private static void putAll(ClassAttrs attrs, Map<String, EnumDef> styleable) {
+        for (Map.Entry<String, EnumDef> entry : styleable.entrySet()) {
+            attrs.put(entry.getKey(), entry.getValue());
+        }
     }
 
     private String enumName(String name, boolean system) {
@@ -114,14 +252,33 @@ public class AttrResourceLoader extends XmlLoader {
         return enumName;
     }
 
-    private NodeList findNodes(Document document, String path) throws XPathExpressionException {
-        XPathExpression nestedEnumsXPath = XPathFactory.newInstance().newXPath().compile(path);
-        return (NodeList) nestedEnumsXPath.evaluate(document, XPathConstants.NODESET);
+    private static String getName(Node node) {
+        return node.getAttributes().getNamedItem("name").getNodeValue();
+    }
+
+    private static List<Node> getEnumValueElements(Node attr) {
+        List<Node> valueElements = getChildElements(attr, "enum");
+        valueElements.addAll(getChildElements(attr, "flag"));
+        return valueElements;
     }
 
-    private void resolveReferences() {
+    private EnumDef getStyleableEnumDef(String viewName, String enumName) {
+        Map<String, EnumDef> styleable = styleables.get(viewName);
+        if (styleable == null) {
+            styleable = new HashMap<String, EnumDef>();
+            styleables.put(viewName, styleable);
+        }
+        EnumDef enumDef = styleable.get(enumName);
+        if (enumDef == null) {
+            enumDef = new EnumDef(enumName);
+            styleable.put(enumName, enumDef);
+        }
+        return enumDef;
+    }
+
+    void resolveReferences() {
         if (!resolved) {
-            for (EnumRef enumRef : enumRefs.values()) {
+            for (EnumRef enumRef : enumRefs) {
                 noteEnumUses(enumRef.viewName, enumRef.enumName);
             }
             resolved = true;
@@ -130,29 +287,11 @@ public class AttrResourceLoader extends XmlLoader {
 
     private void noteEnumUses(String viewName, String enumName) {
         EnumDef enumDef = enums.get(enumName);
-        if (enumDef == null) return;
-
-        for (Map.Entry<String, String> entry : enumDef.values.entrySet()) {
-            classEnumToValue.put(key(viewName, enumName, entry.getKey()), entry.getValue());
-        }
-        knownClassEnums.add(key(viewName, enumName));
-    }
-
-    private Class<?> findKnownAttrClass(String attrName, Class<?> clazz) {
-        while (clazz != null) {
-            if (knownClassEnums.contains(key(clazz.getSimpleName(), attrName))) {
-                return clazz;
-            }
-            clazz = clazz.getSuperclass();
+        if (enumDef == null && systemLoader != null) {
+            enumDef = systemLoader.enums.get(enumName);
         }
-        return null;
-    }
-
-    private String key(String viewName, String enumName, String name) {
-        return viewName + "#" + enumName + "#" + name;
-    }
+        if (enumDef == null) return;
 
-    private String key(String viewName, String enunName) {
-        return viewName + "#" + enunName;
+        getStyleableEnumDef(viewName, enumName).putAll(enumDef);
     }
 }
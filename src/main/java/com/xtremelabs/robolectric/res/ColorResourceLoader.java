@@ -7,9 +7,9 @@ import java.util.HashMap;
 import java.util.Map;
 
 public class ColorResourceLoader extends XpathResourceXmlLoader implements ResourceValueConverter {
-    private ResourceReferenceResolver<Integer> colorResolver = new ResourceReferenceResolver<Integer>("color");
+    private ResourceReferenceResolver<Integer> colorResolver;
     private static Map<String, Integer> androidColors = new HashMap<String, Integer>();
-    private static Map<Integer, Integer> androidColorsFromIds = new HashMap<Integer, Integer>();
+    private static IntMap<Integer> androidColorsFromIds = new IntMap<Integer>();
 
     static {
         androidColors.put("black", Color.BLACK);
@@ -45,15 +45,19 @@ public class ColorResourceLoader extends XpathResourceXmlLoader implements Resou
 
     public ColorResourceLoader(ResourceExtractor resourceExtractor) {
         super(resourceExtractor, "/resources/color");
+        colorResolver = new ResourceReferenceResolver<Integer>("color", resourceExtractor);
+    }
+
+    public void setSystemLoader(ColorResourceLoader systemLoader) {
+        colorResolver.setSystemResolver(systemLoader.colorResolver);
     }
 
     public int getValue(int colorId) {
-        if (androidColorsFromIds.containsKey(colorId)) {
-            return androidColorsFromIds.get(colorId);
+        Integer androidColor = androidColorsFromIds.get(colorId);
+        if (androidColor != null) {
+            return androidColor;
         } else {
-            String resourceName = resourceExtractor.getResourceName(colorId);
-            if (resourceName == null) return -1;
-            Integer resolved = colorResolver.getValue(resourceName);
+            Integer resolved = colorResolver.getValue(colorId);
             return resolved == null ? -1 : resolved;
         }
     }
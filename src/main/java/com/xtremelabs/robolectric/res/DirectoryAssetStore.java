@@ -0,0 +1,102 @@
+package com.xtremelabs.robolectric.res;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Assets kept as loose files in a directory. Small files are cached as they're read, and big ones memory mapped, for
+ * as long as their size and modification time stay the same. Mappings are kept for up to
+ * {@code robolectric.assetMappedSize} bytes of files (256MB by default), least recently used first out.
+ */
+public class DirectoryAssetStore extends AssetStore {
+    public static final String MAPPED_SIZE_PROPERTY = "robolectric.assetMappedSize";
+    private static final long DEFAULT_MAPPED_SIZE = 256 * 1024 * 1024;
+
+    private final File dir;
+    private final long maxMappedBytes = Long.getLong(MAPPED_SIZE_PROPERTY, DEFAULT_MAPPED_SIZE);
+    private long mappedBytes;
+    private final LinkedHashMap<String, MappedFile> mappedFiles = new LinkedHashMap<String, MappedFile>(16, 0.75f, true);
+
+    public DirectoryAssetStore(File dir) {
+        this.dir = dir;
+    }
+
+    @Override public InputStream open(String path) throws IOException {
+        File file = new File(dir, path);
+        if (!file.isFile()) {
+            throw new FileNotFoundException(file.getPath());
+        }
+        long length = file.length();
+        long lastModified = file.lastModified();
+        String key = normalize(path);
+
+        if (length <= SMALL_ENTRY_SIZE) {
+            byte[] bytes = getCachedBytes(key, length, lastModified);
+            if (bytes == null) {
+                bytes = readFully(new FileInputStream(file), (int) length);
+                cacheBytes(key, lastModified, bytes);
+            }
+            return streamOf(bytes);
+        }
+        return new ByteBufferInputStream(getMappedBuffer(key, file, length, lastModified));
+    }
+
+    @Override public String[] list(String path) {
+        File file = new File(dir, path);
+        if (file.isDirectory()) {
+            return file.list();
+        }
+        return new String[0];
+    }
+
+    private synchronized ByteBuffer getMappedBuffer(String key, File file, long length, long lastModified) throws IOException {
+        MappedFile mappedFile = mappedFiles.get(key);
+        if (mappedFile == null || mappedFile.buffer.capacity() != length || mappedFile.lastModified != lastModified) {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            try {
+                // the mapping outlives the channel, and is let go when the buffer is garbage collected
+                ByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+                mappedFile = new MappedFile(buffer, lastModified);
+            } finally {
+                randomAccessFile.close();
+            }
+            MappedFile oldMappedFile = mappedFiles.put(key, mappedFile);
+            if (oldMappedFile != null) {
+                mappedBytes -= oldMappedFile.buffer.capacity();
+            }
+            mappedBytes += length;
+
+            // streams still reading a mapping let go of here keep it until they're garbage collected
+            for (Iterator<Map.Entry<String, MappedFile>> iterator = mappedFiles.entrySet().iterator();
+                 mappedBytes > maxMappedBytes && iterator.hasNext(); ) {
+                mappedBytes -= iterator.next().getValue().buffer.capacity();
+                iterator.remove();
+            }
+        }
+        // each stream gets its own position over the same mapping
+        return mappedFile.buffer.duplicate();
+    }
+
+    synchronized long getMappedBytes() {
+        return mappedBytes;
+    }
+
+    private static class MappedFile {
+        final ByteBuffer buffer;
+        final long lastModified;
+
+        MappedFile(ByteBuffer buffer, long lastModified) {
+            this.buffer = buffer;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package com.xtremelabs.robolectric.res;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilder;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the parsed resource XML files of a directory in a compact binary form on disk, so the next JVM can rebuild
+ * the documents instead of parsing them. A file is parsed again if its size or modification time has changed since
+ * it was cached.
+ * <p/>
+ * Off unless the {@code robolectric.resourceCacheDir} system property names a directory to keep the caches in. The
+ * cache for a resource directory is named after its path, so every project on the machine using the same SDK
+ * platform shares the cache of its resources.
+ */
+public class DocumentCache {
+    public static final String CACHE_DIR_PROPERTY = "robolectric.resourceCacheDir";
+
+    private static final int MAGIC = 0x52524443; // "RRDC"
+    private static final int VERSION = 1;
+
+    private static final byte ELEMENT = 1;
+    private static final byte TEXT = 2;
+
+    private static final Map<File, DocumentCache> sharedCaches = new HashMap<File, DocumentCache>();
+    private static Thread saveSharedCachesAtExit;
+
+    private final File cacheFile;
+    private final String path;
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+    private final Set<String> usedFileNames = new HashSet<String>();
+    private boolean changed;
+
+    DocumentCache(File cacheFile, String path) {
+        this.cacheFile = cacheFile;
+        this.path = path;
+    }
+
+    public static File getCacheDir() {
+        String cacheDir = System.getProperty(CACHE_DIR_PROPERTY);
+        return cacheDir == null ? null : new File(cacheDir);
+    }
+
+    /**
+     * @return the cache of the XML files in {@code resourceXmlDir}, or null if caching is off
+     */
+    public static DocumentCache open(File resourceXmlDir) {
+        File cacheDir = getCacheDir();
+        if (cacheDir == null) {
+            return null;
+        }
+
+        String path = resourceXmlDir.getAbsolutePath();
+        DocumentCache documentCache = new DocumentCache(new File(cacheDir,
+                resourceXmlDir.getName() + "-" + Integer.toHexString(path.hashCode()) + ".cache"), path);
+        documentCache.read();
+        return documentCache;
+    }
+
+    /**
+     * For files loaded one at a time, e.g. layouts as they're inflated: the cache of {@code resourceXmlDir} shared by
+     * everything that loads files from it this way. Rather than after every file, shared caches are saved once, by
+     * {@link #saveSharedCaches()} or at exit.
+     *
+     * @return the shared cache of the XML files in {@code resourceXmlDir}, or null if caching is off
+     */
+    public static DocumentCache openShared(File resourceXmlDir) {
+        synchronized (sharedCaches) {
+            File dir = resourceXmlDir.getAbsoluteFile();
+            DocumentCache documentCache = sharedCaches.get(dir);
+            if (documentCache == null) {
+                documentCache = open(dir);
+                if (documentCache == null) {
+                    return null;
+                }
+                sharedCaches.put(dir, documentCache);
+            }
+            if (saveSharedCachesAtExit == null) {
+                saveSharedCachesAtExit = new Thread("robolectric-resource-cache-saver") {
+                    @Override public void run() {
+                        saveSharedCaches();
+                    }
+                };
+                Runtime.getRuntime().addShutdownHook(saveSharedCachesAtExit);
+            }
+            return documentCache;
+        }
+    }
+
+    /**
+     * Writes out the shared caches that have changed since they were read or last saved.
+     */
+    public static void saveSharedCaches() {
+        List<DocumentCache> documentCaches;
+        synchronized (sharedCaches) {
+            documentCaches = new ArrayList<DocumentCache>(sharedCaches.values());
+        }
+        for (DocumentCache documentCache : documentCaches) {
+            documentCache.save();
+        }
+    }
+
+    /**
+     * @return {@code xmlFile}'s document, or null if it isn't cached or has changed since
+     */
+    public Document get(File xmlFile, DocumentBuilder documentBuilder) throws IOException {
+        Entry entry;
+        synchronized (this) {
+            usedFileNames.add(xmlFile.getName());
+            entry = entries.get(xmlFile.getName());
+        }
+        if (entry == null || entry.length != xmlFile.length() || entry.lastModified != xmlFile.lastModified()) {
+            return null;
+        }
+
+        Document document = documentBuilder.newDocument();
+        // the cached documents were well formed when they were parsed, no need to check them again
+        document.setStrictErrorChecking(false);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(entry.bytes, entry.offset, entry.byteCount));
+        String[] strings = new String[in.readInt()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = readString(in);
+        }
+        int childCount = in.readInt();
+        for (int i = 0; i < childCount; i++) {
+            document.appendChild(readNode(in, strings, document));
+        }
+        return document;
+    }
+
+    public void put(File xmlFile, Document document) throws IOException {
+        // names, namespaces and values are written once each, and referred to by index
+        Map<String, Integer> stringIndexes = new LinkedHashMap<String, Integer>();
+        ByteArrayOutputStream nodeBytes = new ByteArrayOutputStream();
+        DataOutputStream nodeOut = new DataOutputStream(nodeBytes);
+        List<Node> elements = new ArrayList<Node>();
+        NodeList childNodes = document.getChildNodes();
+        for (int i = 0; i < childNodes.getLength(); i++) {
+            if (childNodes.item(i).getNodeType() == Node.ELEMENT_NODE) {
+                elements.add(childNodes.item(i));
+            }
+        }
+        nodeOut.writeInt(elements.size());
+        for (Node element : elements) {
+            writeNode(nodeOut, stringIndexes, element);
+        }
+        nodeOut.flush();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(stringIndexes.size());
+        for (String string : stringIndexes.keySet()) {
+            writeString(out, string);
+        }
+        nodeBytes.writeTo(out);
+        out.flush();
+
+        Entry entry = new Entry(xmlFile.length(), xmlFile.lastModified(), bytes.toByteArray(), 0, bytes.size());
+        synchronized (this) {
+            usedFileNames.add(xmlFile.getName());
+            entries.put(xmlFile.getName(), entry);
+            changed = true;
+        }
+    }
+
+    /**
+     * Forgets the files that haven't been asked for since the cache was read, e.g. because they're gone.
+     */
+    public synchronized void removeUnused() {
+        if (entries.keySet().retainAll(usedFileNames)) {
+            changed = true;
+        }
+    }
+
+    /**
+     * Writes the cache back out if it has changed since it was read.
+     */
+    public synchronized void save() {
+        if (!changed) {
+            return;
+        }
+
+        try {
+            cacheFile.getParentFile().mkdirs();
+            // write to a temp file and move it into place, in case another JVM is reading or writing it too
+            File tempFile = File.createTempFile(cacheFile.getName(), ".tmp", cacheFile.getParentFile());
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                writeString(out, path);
+                out.writeInt(entries.size());
+                for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+                    Entry entry = mapEntry.getValue();
+                    writeString(out, mapEntry.getKey());
+                    out.writeLong(entry.length);
+                    out.writeLong(entry.lastModified);
+                    out.writeInt(entry.byteCount);
+                    out.write(entry.bytes, entry.offset, entry.byteCount);
+                }
+            } finally {
+                out.close();
+            }
+            if (!tempFile.renameTo(cacheFile)) {
+                cacheFile.delete();
+                if (!tempFile.renameTo(cacheFile)) {
+                    tempFile.delete();
+                    System.out.println("Warning: couldn't write resource cache " + cacheFile);
+                }
+            }
+            changed = false;
+        } catch (IOException e) {
+            System.out.println("Warning: couldn't write resource cache " + cacheFile + ": " + e);
+        }
+    }
+
+    void read() {
+        if (!cacheFile.exists()) {
+            return;
+        }
+
+        try {
+            byte[] bytes = new byte[(int) cacheFile.length()];
+            DataInputStream fileIn = new DataInputStream(new FileInputStream(cacheFile));
+            try {
+                fileIn.readFully(bytes);
+            } finally {
+                fileIn.close();
+            }
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !path.equals(readString(in))) {
+                return;
+            }
+            int entryCount = in.readInt();
+            for (int i = 0; i < entryCount; i++) {
+                String fileName = readString(in);
+                long length = in.readLong();
+                long lastModified = in.readLong();
+                int byteCount = in.readInt();
+                int offset = bytes.length - in.available();
+                entries.put(fileName, new Entry(length, lastModified, bytes, offset, byteCount));
+                in.skipBytes(byteCount);
+            }
+        } catch (IOException e) {
+            System.out.println("Warning: ignoring unreadable resource cache " + cacheFile + ": " + e);
+            entries.clear();
+        }
+    }
+
+    private static void writeNode(DataOutputStream out, Map<String, Integer> stringIndexes, Node node) throws IOException {
+        if (node.getNodeType() == Node.ELEMENT_NODE) {
+            out.writeByte(ELEMENT);
+            writeStringIndex(out, stringIndexes, node.getNamespaceURI());
+            writeStringIndex(out, stringIndexes, node.getNodeName());
+
+            NamedNodeMap attributes = node.getAttributes();
+            out.writeInt(attributes.getLength());
+            for (int i = 0; i < attributes.getLength(); i++) {
+                Node attribute = attributes.item(i);
+                writeStringIndex(out, stringIndexes, attribute.getNamespaceURI());
+                writeStringIndex(out, stringIndexes, attribute.getNodeName());
+                writeStringIndex(out, stringIndexes, attribute.getNodeValue());
+            }
+
+            List<Node> children = new ArrayList<Node>();
+            NodeList childNodes = node.getChildNodes();
+            for (int i = 0; i < childNodes.getLength(); i++) {
+                if (isCached(childNodes.item(i))) {
+                    children.add(childNodes.item(i));
+                }
+            }
+            out.writeInt(children.size());
+            for (Node child : children) {
+                writeNode(out, stringIndexes, child);
+            }
+        } else {
+            out.writeByte(TEXT);
+            writeStringIndex(out, stringIndexes, node.getNodeValue());
+        }
+    }
+
+    // comments are ignored by the parser anyway, and CDATA sections read back as text
+    private static boolean isCached(Node node) {
+        short nodeType = node.getNodeType();
+        return nodeType == Node.ELEMENT_NODE || nodeType == Node.TEXT_NODE || nodeType == Node.CDATA_SECTION_NODE;
+    }
+
+    private static Node readNode(DataInputStream in, String[] strings, Document document) throws IOException {
+        byte type = in.readByte();
+        if (type == TEXT) {
+            return document.createTextNode(readStringIndex(in, strings));
+        }
+
+        Element element = document.createElementNS(readStringIndex(in, strings), readStringIndex(in, strings));
+        int attributeCount = in.readInt();
+        for (int i = 0; i < attributeCount; i++) {
+            Attr attribute = document.createAttributeNS(readStringIndex(in, strings), readStringIndex(in, strings));
+            attribute.setValue(readStringIndex(in, strings));
+            element.setAttributeNodeNS(attribute);
+        }
+        int childCount = in.readInt();
+        for (int i = 0; i < childCount; i++) {
+            element.appendChild(readNode(in, strings, document));
+        }
+        return element;
+    }
+
+    private static void writeStringIndex(DataOutputStream out, Map<String, Integer> stringIndexes, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        Integer index = stringIndexes.get(s);
+        if (index == null) {
+            index = stringIndexes.size();
+            stringIndexes.put(s, index);
+        }
+        out.writeInt(index);
+    }
+
+    private static String readStringIndex(DataInputStream in, String[] strings) throws IOException {
+        int index = in.readInt();
+        return index == -1 ? null : strings[index];
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static class Entry {
+        final long length;
+        final long lastModified;
+        // the encoded document is bytes[offset, offset + byteCount), so a cache read from disk shares one array
+        final byte[] bytes;
+        final int offset;
+        final int byteCount;
+
+        Entry(long length, long lastModified, byte[] bytes, int offset, int byteCount) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.bytes = bytes;
+            this.offset = offset;
+            this.byteCount = byteCount;
+        }
+    }
+}
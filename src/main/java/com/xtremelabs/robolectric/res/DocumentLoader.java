@@ -6,8 +6,33 @@ import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import java.io.File;
 import java.io.FileFilter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
+import static java.util.Arrays.asList;
+
+/**
+ * Parses each resource XML file once and hands the document to each of its {@link XmlLoader}s in turn. Every loader
+ * sees all of the files before the next one starts, so later loaders can refer to what earlier ones loaded, e.g.
+ * string arrays to strings.
+ * <p/>
+ * Files are parsed ahead of time on a few threads, and processed in order on the calling thread. Set the
+ * {@code robolectric.resourceParserThreads} system property to change how many; the default is one per processor.
+ * <p/>
+ * If {@link DocumentCache caching} is on, files that haven't changed since they were last parsed aren't parsed again.
+ */
 public class DocumentLoader {
+    public static final String PARSER_THREADS_PROPERTY = "robolectric.resourceParserThreads";
+
     private final XmlLoader[] xmlLoaders;
     private final DocumentBuilderFactory documentBuilderFactory;
     private FileFilter xmlFileFilter = new FileFilter() {
@@ -25,43 +50,161 @@ public class DocumentLoader {
         documentBuilderFactory.setIgnoringElementContentWhitespace(true);
     }
 
+    public static int getParserThreadCount() {
+        return Integer.getInteger(PARSER_THREADS_PROPERTY, Runtime.getRuntime().availableProcessors());
+    }
+
     public void loadResourceXmlDirs(File... resourceXmlDirs) throws Exception {
         loadResourceXmlDirs(false, resourceXmlDirs);
     }
 
     public void loadResourceXmlDirs(boolean isSystem, File... resourceXmlDirs) throws Exception {
+        List<File> files = new ArrayList<File>();
+        List<DocumentCache> dirDocumentCaches = new ArrayList<DocumentCache>();
+        Map<File, DocumentCache> documentCaches = new HashMap<File, DocumentCache>();
         for (File resourceXmlDir : resourceXmlDirs) {
-            loadResourceXmlDir(resourceXmlDir, isSystem);
+            if (!resourceXmlDir.exists()) {
+                throw new RuntimeException("no such directory " + resourceXmlDir);
+            }
+            List<File> dirFiles = asList(resourceXmlDir.listFiles(xmlFileFilter));
+            files.addAll(dirFiles);
+
+            DocumentCache documentCache = DocumentCache.open(resourceXmlDir);
+            if (documentCache != null) {
+                dirDocumentCaches.add(documentCache);
+                for (File file : dirFiles) {
+                    documentCaches.put(file, documentCache);
+                }
+            }
+        }
+
+        loadResourceXmlFiles(files, documentCaches, isSystem);
+
+        for (DocumentCache documentCache : dirDocumentCaches) {
+            documentCache.removeUnused();
+            documentCache.save();
+        }
+    }
+
+    /**
+     * Loads a single file, e.g. a layout the first time it's inflated. The cache of the file's directory, if any, is
+     * {@link DocumentCache#openShared(File) shared} with every other file loaded from it this way, and saved at exit.
+     */
+    public void loadResourceXmlFile(boolean isSystem, File xmlFile) throws Exception {
+        Document document = parse(xmlFile, DocumentCache.openShared(xmlFile.getParentFile()));
+        for (XmlLoader xmlLoader : xmlLoaders) {
+            xmlLoader.processResourceXml(xmlFile, document, isSystem);
         }
     }
 
     public void loadResourceXmlDir(File resourceXmlDir) throws Exception {
-        loadResourceXmlDir(resourceXmlDir, false);
+        loadResourceXmlDirs(false, resourceXmlDir);
     }
 
     public void loadSystemResourceXmlDir(File resourceXmlDir) throws Exception {
-        loadResourceXmlDir(resourceXmlDir, true);
+        loadResourceXmlDirs(true, resourceXmlDir);
+    }
+
+    private void loadResourceXmlFiles(List<File> files, Map<File, DocumentCache> documentCaches, boolean isSystem) throws Exception {
+        Parser parser = new Parser(files, documentCaches);
+        try {
+            if (xmlLoaders.length == 1) {
+                // no need to hang on to the documents
+                for (File file : files) {
+                    xmlLoaders[0].processResourceXml(file, parser.next(), isSystem);
+                }
+            } else {
+                List<Document> documents = new ArrayList<Document>();
+                for (int i = 0; i < files.size(); i++) {
+                    documents.add(parser.next());
+                }
+                for (XmlLoader xmlLoader : xmlLoaders) {
+                    for (int i = 0; i < files.size(); i++) {
+                        xmlLoader.processResourceXml(files.get(i), documents.get(i), isSystem);
+                    }
+                }
+            }
+        } finally {
+            parser.close();
+        }
     }
 
-    private void loadResourceXmlDir(File resourceXmlDir, boolean isSystem) throws Exception {
-        if (!resourceXmlDir.exists()) {
-            throw new RuntimeException("no such directory " + resourceXmlDir);
+    private Document parse(File xmlFile, DocumentCache documentCache) throws Exception {
+        DocumentBuilder documentBuilder;
+        synchronized (documentBuilderFactory) {
+            documentBuilder = documentBuilderFactory.newDocumentBuilder();
+        }
+        if (documentCache == null) {
+            return documentBuilder.parse(xmlFile);
         }
 
-        for (File file : resourceXmlDir.listFiles(xmlFileFilter)) {
-            loadResourceXmlFile(file, isSystem);
+        Document document = documentCache.get(xmlFile, documentBuilder);
+        if (document == null) {
+            document = documentBuilder.parse(xmlFile);
+            documentCache.put(xmlFile, document);
         }
+        return document;
     }
 
-    private void loadResourceXmlFile(File file, boolean isSystem) throws Exception {
-        for (XmlLoader xmlLoader : xmlLoaders) {
-            xmlLoader.processResourceXml(file, parse(file), isSystem);
+    /**
+     * Returns the parsed files in order, parsing a few files ahead of the one asked for in the background.
+     */
+    private class Parser {
+        private final List<File> files;
+        private final Map<File, DocumentCache> documentCaches;
+        private final ExecutorService executorService;
+        private final int maxPending;
+        private final LinkedList<Future<Document>> pending = new LinkedList<Future<Document>>();
+        private int nextFile;
+
+        Parser(List<File> files, Map<File, DocumentCache> documentCaches) {
+            this.files = files;
+            this.documentCaches = documentCaches;
+            int threadCount = Math.min(getParserThreadCount(), files.size());
+            executorService = threadCount > 1 ? Executors.newFixedThreadPool(threadCount, new ParserThreadFactory()) : null;
+            maxPending = threadCount * 4;
         }
-    }
 
-    private Document parse(File xmlFile) throws Exception {
-        DocumentBuilder documentBuilder = documentBuilderFactory.newDocumentBuilder();
-        return documentBuilder.parse(xmlFile);
+        Document next() throws Exception {
+            if (executorService == null) {
+                File file = files.get(nextFile++);
+                return parse(file, documentCaches.get(file));
+            }
+
+            while (pending.size() < maxPending && nextFile < files.size()) {
+                final File file = files.get(nextFile++);
+                pending.add(executorService.submit(new Callable<Document>() {
+                    @Override public Document call() throws Exception {
+                        return parse(file, documentCaches.get(file));
+                    }
+                }));
+            }
+
+            try {
+                return pending.removeFirst().get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception) {
+                    throw (Exception) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw e;
+            }
+        }
+
+        void close() {
+            if (executorService != null) {
+                executorService.shutdownNow();
+            }
+        }
     }
 
+    private static class ParserThreadFactory implements ThreadFactory {
+        @Override public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "robolectric-resource-parser");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
 }
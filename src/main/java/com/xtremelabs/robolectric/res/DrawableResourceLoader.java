@@ -1,8 +1,10 @@
 package com.xtremelabs.robolectric.res;
 
 import java.io.File;
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.w3c.dom.Document;
@@ -36,8 +38,10 @@ public class DrawableResourceLoader extends XmlLoader {
 		stateMap.put( "android:state_window_focused", R.attr.state_window_focused );
 	}
 	
-    /** document */
-    protected Map<String, Document> documents = new HashMap<String, Document>();
+    /**
+     * What's needed of each xml drawable, keyed by resource name; its document isn't kept once this is worked out
+     */
+    protected Map<String, XmlDrawable> drawables = new HashMap<String, XmlDrawable>();
 
     /**
      * DrawableResourceLoader constructor.
@@ -57,25 +61,23 @@ public class DrawableResourceLoader extends XmlLoader {
      * @return Boolean
      */
     public boolean isXml(int resourceId) {
-        return documents.containsKey(resourceExtractor.getResourceName(resourceId));
+        return drawables.containsKey(resourceExtractor.getResourceName(resourceId));
     }
 
     public Drawable getXmlDrawable( int resId ) {
     	
-    	if( !isXml( resId ) ) { return null; }
+    	XmlDrawable xmlDrawable = drawables.get( resourceExtractor.getResourceName( resId ) );
+    	if( xmlDrawable == null ) { return null; }
     	
-    	Document xmlDoc = documents.get( resourceExtractor.getResourceName( resId ) );
-    	NodeList nodes = xmlDoc.getElementsByTagName("selector");
-    	if( nodes != null && nodes.getLength() > 0 ) { return buildStateListDrawable( xmlDoc ); } 
+    	if( xmlDrawable.isSelector ) { return buildStateListDrawable( xmlDrawable ); }
 
-    	nodes = xmlDoc.getElementsByTagName("layer-list");
-    	if( nodes != null && nodes.getLength() > 0 ) { return new LayerDrawable( null ); }    	
+    	if( xmlDrawable.isLayerList ) { return new LayerDrawable( null ); }
 
     	return null;
     }
     
     /**
-     * Store document locally keyed by resource name.
+     * Work out what's needed of the drawable and store it keyed by resource name.
      * 
      * @param xmlFile
      *            Xml file
@@ -90,28 +92,38 @@ public class DrawableResourceLoader extends XmlLoader {
     @Override
     protected void processResourceXml(File xmlFile, Document document, boolean isSystem) throws Exception {
         String name = toResourceName(xmlFile);
-        if (!documents.containsKey(name)) {
+        if (!drawables.containsKey(name)) {
             if (isSystem) {
                 name = "android:" + name;
             }
-            documents.put(name, document);
+            drawables.put(name, compile(document, isSystem));
         }
     }
 
     /**
-     * Convert file name to resource name.
+     * Forget a drawable, so that it's stored again the next time its file is loaded.
+     *
+     * @param xmlFile
+     *            Xml file
+     */
+    public void forget(File xmlFile) {
+        drawables.remove(toResourceName(xmlFile));
+    }
+
+    /**
+     * Convert file name to resource name, e.g. "drawable-hdpi/rainbow" for res/drawable-hdpi/rainbow.xml.
      * 
      * @param xmlFile
      *            Xml File
      * @return Resource name
      */
     private String toResourceName(File xmlFile) {
-        try {
-            return xmlFile.getCanonicalPath().replaceAll("[/\\\\\\\\]", "/")
-                    .replaceAll("^.*?/res/", "").replaceAll("\\..+$", "");
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        String fileName = xmlFile.getName();
+        int dotIndex = fileName.indexOf('.');
+        if (dotIndex != -1) {
+            fileName = fileName.substring(0, dotIndex);
         }
+        return xmlFile.getParentFile().getName() + "/" + fileName;
     }
 
     
@@ -124,42 +136,58 @@ public class DrawableResourceLoader extends XmlLoader {
      */
     protected int[] getDrawableIds(int resourceId) {
         String resourceName = resourceExtractor.getResourceName(resourceId);
-        Document document = documents.get(resourceName);
-
-        NodeList items = document.getElementsByTagName("item");
-        int[] drawableIds = new int[items.getLength()];
-
-        for (int i = 0; i < items.getLength(); i++) {
-            if (resourceName.startsWith("android:")) {
-                drawableIds[i] = -1;
-            } else {
-                Node item = items.item(i);
-                Node drawableName = item.getAttributes().getNamedItem("android:drawable");
-                if (drawableName != null) {
-                    drawableIds[i] = resourceExtractor.getResourceId(drawableName.getNodeValue());
-                }
-            }
-        }
+        XmlDrawable xmlDrawable = drawables.get(resourceName);
 
+        int[] drawableIds = new int[xmlDrawable.itemDrawableIds.length];
+        if (resourceName.startsWith("android:")) {
+            Arrays.fill(drawableIds, -1);
+        } else {
+            System.arraycopy(xmlDrawable.itemDrawableIds, 0, drawableIds, 0, drawableIds.length);
+        }
         return drawableIds;
     }
     
-    private StateListDrawable buildStateListDrawable( Document d ) {
+    private StateListDrawable buildStateListDrawable( XmlDrawable xmlDrawable ) {
     	
     	StateListDrawable drawable = new StateListDrawable();
     	ShadowStateListDrawable shDrawable = Robolectric.shadowOf( drawable );
     	
-    	NodeList items = d.getElementsByTagName( "item" );
+    	for (int i = 0; i < xmlDrawable.stateIds.length; i++) {
+    		shDrawable.addState( xmlDrawable.stateIds[i], xmlDrawable.stateDrawableIds[i] );
+    	}
+    	return drawable;
+    }
+
+    private XmlDrawable compile( Document document, boolean isSystem ) {
+
+    	NodeList items = document.getElementsByTagName( "item" );
+    	int[] itemDrawableIds = new int[items.getLength()];
+    	List<Integer> stateIds = new ArrayList<Integer>();
+    	List<Integer> stateDrawableIds = new ArrayList<Integer>();
     	for (int i = 0; i < items.getLength(); i++) {
     		Node node = items.item( i );
     		Node drawableName = node.getAttributes().getNamedItem("android:drawable");
     		if( drawableName != null ) {
-    			int resId = resourceExtractor.getResourceId(drawableName.getNodeValue());
-    			int stateId = getStateId( node );
-    			shDrawable.addState(stateId, resId);
+    			int resId = getDrawableId( drawableName.getNodeValue(), isSystem );
+    			itemDrawableIds[i] = resId;
+    			stateIds.add( getStateId( node ) );
+    			stateDrawableIds.add( resId );
     		}
     	}
-    	return drawable;
+
+    	return new XmlDrawable(
+    			document.getElementsByTagName( "selector" ).getLength() > 0,
+    			document.getElementsByTagName( "layer-list" ).getLength() > 0,
+    			itemDrawableIds, toIntArray( stateIds ), toIntArray( stateDrawableIds ) );
+    }
+
+    private int getDrawableId( String drawableName, boolean isSystem ) {
+    	if( isSystem && drawableName.startsWith( "@" ) && !drawableName.contains( "android:" ) ) {
+    		// the platform's own files leave their package off
+    		drawableName = "@android:" + drawableName.substring( 1 );
+    	}
+    	Integer resId = resourceExtractor.getResourceId( drawableName );
+    	return resId == null ? 0 : resId;
     }
     
     private int getStateId( Node node ) {
@@ -173,4 +201,33 @@ public class DrawableResourceLoader extends XmlLoader {
     	// if a state wasn't specified, return the default state
     	return R.attr.state_active;
     }    
+
+    private static int[] toIntArray( List<Integer> integers ) {
+    	int[] ints = new int[integers.size()];
+    	for (int i = 0; i < ints.length; i++) {
+    		ints[i] = integers.get( i );
+    	}
+    	return ints;
+    }
+
+    /**
+     * The parts of a drawable's xml that drawables are built from. Every {@code <item>} has an entry in
+     * {@code itemDrawableIds}, 0 if it doesn't name a drawable; those that do also have an entry, in order, in
+     * {@code stateIds} and {@code stateDrawableIds}.
+     */
+    protected static class XmlDrawable {
+        final boolean isSelector;
+        final boolean isLayerList;
+        final int[] itemDrawableIds;
+        final int[] stateIds;
+        final int[] stateDrawableIds;
+
+        XmlDrawable(boolean isSelector, boolean isLayerList, int[] itemDrawableIds, int[] stateIds, int[] stateDrawableIds) {
+            this.isSelector = isSelector;
+            this.isLayerList = isLayerList;
+            this.itemDrawableIds = itemDrawableIds;
+            this.stateIds = stateIds;
+            this.stateDrawableIds = stateDrawableIds;
+        }
+    }
 }
@@ -0,0 +1,117 @@
+package com.xtremelabs.robolectric.res;
+
+/**
+ * A map from int keys, such as resource ids, to values, which stores the keys in an array instead of boxing them, so
+ * looking a value up doesn't allocate anything.
+ * <p/>
+ * Keys are found by open addressing with linear probing, and the arrays are doubled when they're half full. Entries
+ * can't be removed, only cleared all at once.
+ */
+public class IntMap<V> {
+    private static final int INITIAL_CAPACITY = 16;
+
+    // 0 marks an empty slot, so a value for key 0 is kept on the side
+    private int[] keys;
+    private Object[] values;
+    private int size;
+    private boolean hasZeroKey;
+    private V zeroKeyValue;
+
+    public IntMap() {
+        clear();
+    }
+
+    public V get(int key) {
+        if (key == 0) {
+            return zeroKeyValue;
+        }
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            int slotKey = keys[i];
+            if (slotKey == key) {
+                //noinspection unchecked
+                return (V) values[i];
+            } else if (slotKey == 0) {
+                return null;
+            }
+        }
+    }
+
+    public boolean containsKey(int key) {
+        if (key == 0) {
+            return hasZeroKey;
+        }
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            int slotKey = keys[i];
+            if (slotKey == key) {
+                return true;
+            } else if (slotKey == 0) {
+                return false;
+            }
+        }
+    }
+
+    public void put(int key, V value) {
+        if (key == 0) {
+            if (!hasZeroKey) {
+                hasZeroKey = true;
+                size++;
+            }
+            zeroKeyValue = value;
+            return;
+        }
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            int slotKey = keys[i];
+            if (slotKey == key) {
+                values[i] = value;
+                return;
+            } else if (slotKey == 0) {
+                keys[i] = key;
+                values[i] = value;
+                if (++size * 2 > keys.length) {
+                    grow();
+                }
+                return;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        keys = new int[INITIAL_CAPACITY];
+        values = new Object[INITIAL_CAPACITY];
+        size = 0;
+        hasZeroKey = false;
+        zeroKeyValue = null;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new Object[oldKeys.length * 2];
+        int mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            int key = oldKeys[j];
+            if (key != 0) {
+                int i = hash(key) & mask;
+                while (keys[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = key;
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    // resource ids of one type are consecutive, and differ from other types only in their high bits, so mix them
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
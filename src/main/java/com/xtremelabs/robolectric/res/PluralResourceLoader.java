@@ -1,29 +1,30 @@
 package com.xtremelabs.robolectric.res;
 
 import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 public class PluralResourceLoader extends XpathResourceXmlLoader implements ResourceValueConverter {
-    Map<String, PluralRules> plurals = new HashMap<String, PluralRules>();
+    IntMap<PluralRules> plurals = new IntMap<PluralRules>();
     private StringResourceLoader stringResourceLoader;
+    private PluralResourceLoader systemLoader;
 
     public PluralResourceLoader(ResourceExtractor resourceExtractor, StringResourceLoader stringResourceLoader) {
         super(resourceExtractor, "/resources/plurals");
         this.stringResourceLoader = stringResourceLoader;
     }
 
+    public void setSystemLoader(PluralResourceLoader systemLoader) {
+        this.systemLoader = systemLoader;
+    }
+
     public String getValue(int resourceId, int quantity) {
-        String name = resourceExtractor.getResourceName(resourceId);
-        PluralRules rules = plurals.get(name);
+        PluralRules rules = plurals.get(resourceId);
+        if (rules == null && systemLoader != null) {
+            rules = systemLoader.plurals.get(resourceId);
+        }
         if (rules != null) {
             Plural p = rules.find(quantity);
             if (p != null) {
@@ -34,11 +35,8 @@ public class PluralResourceLoader extends XpathResourceXmlLoader implements Reso
     }
 
     @Override protected void processNode(Node node, String name, boolean isSystem) throws XPathExpressionException {
-        XPathExpression itemXPath = XPathFactory.newInstance().newXPath().compile("item");
-        NodeList childNodes = (NodeList) itemXPath.evaluate(node, XPathConstants.NODESET);
         PluralRules rules = new PluralRules();
-        for (int j = 0; j < childNodes.getLength(); j++) {
-            Node childNode = childNodes.item(j);
+        for (Node childNode : getChildElements(node, "item")) {
             String value = childNode.getTextContent();
             String quantity = childNode.getAttributes().getNamedItem("quantity").getTextContent();
             if (value.startsWith("@")) {
@@ -48,7 +46,10 @@ public class PluralResourceLoader extends XpathResourceXmlLoader implements Reso
                 rules.add(new Plural(quantity, value));
             }
         }
-        plurals.put("plurals/" + name, rules);
+        Integer resourceId = resourceExtractor.getResourceId((isSystem ? "android:" : "") + "plurals/" + name);
+        if (resourceId != null) {
+            plurals.put(resourceId, rules);
+        }
     }
 
     @Override public Object convertRawValue(String rawValue) {
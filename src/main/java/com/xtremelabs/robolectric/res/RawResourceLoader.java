@@ -1,18 +1,19 @@
 package com.xtremelabs.robolectric.res;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 
 public class RawResourceLoader {
 
     private ResourceExtractor resourceExtractor;
     private File resourceDir;
+    private AssetStore rawResourceStore;
 
     public RawResourceLoader(ResourceExtractor resourceExtractor, File resourceDir) {
         this.resourceExtractor = resourceExtractor;
         this.resourceDir = resourceDir;
+        this.rawResourceStore = new DirectoryAssetStore(new File(resourceDir, "raw"));
     }
 
     public InputStream getValue(int resourceId) {
@@ -34,10 +35,10 @@ public class RawResourceLoader {
                     fileBaseName = name;
                 }
                 if (fileBaseName.equals(resourceName)) {
-                    return new FileInputStream(file);
+                    return rawResourceStore.open(name);
                 }
             }
-        } catch (FileNotFoundException e) {
+        } catch (IOException e) {
             return null;
         }
         return null;
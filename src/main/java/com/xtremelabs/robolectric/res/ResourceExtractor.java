@@ -6,9 +6,13 @@ import java.util.HashMap;
 import java.util.Map;
 
 public class ResourceExtractor {
+    /*
+     * Names are kept the way they're written in resource files too, e.g. "@string/foo" and "@+id/foo" as well as
+     * "string/foo", so looking one up doesn't need to take its prefix off first
+     */
     private Map<String, Integer> localResourceStringToId = new HashMap<String, Integer>();
     private Map<String, Integer> systemResourceStringToId = new HashMap<String, Integer>();
-    private Map<Integer, String> resourceIdToString = new HashMap<Integer, String>();
+    private IntMap<String> resourceIdToString = new IntMap<String>();
 
     public void addLocalRClass(Class rClass) throws Exception {
         addRClass(rClass, false);
@@ -31,10 +35,14 @@ public class ResourceExtractor {
                     }
 
                     if (!section.equals("styleable")) {
-                        if (isSystemRClass) {
-                            systemResourceStringToId.put(name, value);
-                        } else {
-                            localResourceStringToId.put(name, value);
+                        // the same names are used over and over by every test, so they're only kept once
+                        name = name.intern();
+                        Integer id = value;
+                        Map<String, Integer> resourceStringToId = isSystemRClass ? systemResourceStringToId : localResourceStringToId;
+                        resourceStringToId.put(name, id);
+                        resourceStringToId.put("@" + name, id);
+                        if (section.equals("id")) {
+                            resourceStringToId.put("@+" + name, id);
                         }
 
                         if (resourceIdToString.containsKey(value)) {
@@ -64,13 +72,6 @@ public class ResourceExtractor {
         if (resourceName == null) {
             return null;
         }
-        if (resourceName.startsWith("@+id")) {
-            resourceName = resourceName.substring(2);
-        } else if (resourceName.startsWith("@+android:id")) {
-            resourceName = resourceName.substring(2);
-        } else if (resourceName.startsWith("@")) {
-            resourceName = resourceName.substring(1);
-        }
 
         if (isSystemResource) {
             return systemResourceStringToId.get(resourceName);
@@ -82,4 +83,4 @@ public class ResourceExtractor {
     public String getResourceName(int resourceId) {
         return resourceIdToString.get(resourceId);
     }
-}
\ No newline at end of file
+}
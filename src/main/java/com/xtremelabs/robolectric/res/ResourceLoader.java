@@ -13,6 +13,7 @@ import com.xtremelabs.robolectric.Robolectric;
 import com.xtremelabs.robolectric.shadows.ShadowContextWrapper;
 import com.xtremelabs.robolectric.util.I18nException;
 import com.xtremelabs.robolectric.util.PropertiesHelper;
+import com.xtremelabs.robolectric.util.Profiler;
 
 import java.io.*;
 import java.lang.reflect.Field;
@@ -21,13 +22,15 @@ import java.util.*;
 import static com.xtremelabs.robolectric.Robolectric.shadowOf;
 
 public class ResourceLoader {
+    public static final String WATCH_RESOURCES_PROPERTY = "robolectric.watchResources";
+
     private static final FileFilter MENU_DIR_FILE_FILTER = new FileFilter() {
         @Override
         public boolean accept(File file) {
             return isMenuDirectory(file.getPath());
         }
     };
-    private static final FileFilter LAYOUT_DIR_FILE_FILTER = new FileFilter() {
+    static final FileFilter LAYOUT_DIR_FILE_FILTER = new FileFilter() {
         @Override
         public boolean accept(File file) {
             return isLayoutDirectory(file.getPath());
@@ -42,6 +45,7 @@ public class ResourceLoader {
 
     private List<File> resourcePath;
     private File assetsDir;
+    private AssetStore assetStore;
     private int sdkVersion;
     private Class rClass;
 
@@ -56,11 +60,22 @@ public class ResourceLoader {
     private final ColorResourceLoader colorResourceLoader;
     private final DrawableResourceLoader drawableResourceLoader;
     private final List<RawResourceLoader> rawResourceLoaders = new ArrayList<RawResourceLoader>();
+    private File systemResourceDir;
+    private SystemResources systemResources;
+    private ResourceWatcher resourceWatcher;
     private boolean isInitialized = false;
+    private boolean valueResourcesLoaded = false;
+    private boolean menuResourcesLoaded = false;
+    private boolean drawableResourcesLoaded = false;
+    private boolean preferenceResourcesLoaded = false;
+    private RuntimeException valueResourcesFailure;
+    private RuntimeException menuResourcesFailure;
+    private RuntimeException drawableResourcesFailure;
+    private RuntimeException preferenceResourcesFailure;
     private boolean strictI18n = false;
 
     // TODO: get these value from the xml resources instead [xw 20101011]
-    public final Map<Integer, Integer> dimensions = new HashMap<Integer, Integer>();
+    public final IntMap<Integer> dimensions = new IntMap<Integer>();
 
     @Deprecated
     public ResourceLoader(int sdkVersion, Class rClass, File resourceDir, File assetsDir) throws Exception {
@@ -104,70 +119,232 @@ public class ResourceLoader {
         }
 
         if (!resourcePath.isEmpty()) {
+            viewLoader = new ViewLoader(resourceExtractor, attrResourceLoader);
+            menuLoader = new MenuLoader(resourceExtractor, attrResourceLoader);
+            preferenceLoader = new PreferenceLoader(resourceExtractor);
+
+            viewLoader.setStrictI18n(strictI18n);
+            menuLoader.setStrictI18n(strictI18n);
+            preferenceLoader.setStrictI18n(strictI18n);
+
+            long start = Profiler.start();
             try {
-                viewLoader = new ViewLoader(resourceExtractor, attrResourceLoader);
-                menuLoader = new MenuLoader(resourceExtractor, attrResourceLoader);
-                preferenceLoader = new PreferenceLoader(resourceExtractor);
-                
-                viewLoader.setStrictI18n(strictI18n);
-                menuLoader.setStrictI18n(strictI18n);
-                preferenceLoader.setStrictI18n(strictI18n);
-
-                File systemResourceDir = getSystemResourceDir(getPathToAndroidResources());
-                File systemValueResourceDir = getValueResourceDir(systemResourceDir);
-
-                loadStringResources(systemValueResourceDir, stringResourceLoader, true);
-                loadPluralsResources(systemValueResourceDir, true);
-                loadValueResources(systemValueResourceDir, stringArrayResourceLoader, colorResourceLoader, attrResourceLoader, true);
-                loadViewResources(systemResourceDir, viewLoader, true);
+                if (Boolean.getBoolean(WATCH_RESOURCES_PROPERTY)) {
+                    // noted before anything is read, so no edit is missed
+                    resourceWatcher = new ResourceWatcher(resourcePath);
+                }
 
-                for (File resourceDir : resourcePath) {
-                    File localValueResourceDir = getValueResourceDir(resourceDir);
-                    RawResourceLoader rawResourceLoader = new RawResourceLoader(resourceExtractor, resourceDir);
-                    File preferenceDir = getPreferenceResourceDir(resourceDir);
-
-                    loadStringResources(localValueResourceDir, stringResourceLoader, false);
-                    loadPluralsResources(localValueResourceDir, false);
-                    loadValueResources(localValueResourceDir, stringArrayResourceLoader, colorResourceLoader, attrResourceLoader, false);
-                    loadViewResources(resourceDir, viewLoader, false);
-                    loadMenuResources(resourceDir, menuLoader);
-                    loadDrawableResources(resourceDir);
-                    loadPreferenceResources(preferenceDir);
-
-                    rawResourceLoaders.add(rawResourceLoader);
+                systemResourceDir = getSystemResourceDir(getPathToAndroidResources());
+                if (systemResourceDir != null) {
+                    // the SDK's resources are the same for every test, so they're loaded once and shared
+                    systemResources = SystemResources.forDirectory(systemResourceDir);
+                    stringResourceLoader.setSystemLoader(systemResources.stringResourceLoader);
+                    pluralResourceLoader.setSystemLoader(systemResources.pluralResourceLoader);
+                    stringArrayResourceLoader.setSystemLoader(systemResources.stringArrayResourceLoader);
+                    colorResourceLoader.setSystemLoader(systemResources.colorResourceLoader);
+                    attrResourceLoader.setSystemLoader(systemResources.attrResourceLoader);
+                    viewLoader.setSystemViewLoader(systemResources.viewLoader);
                 }
 
-            } catch(I18nException e) {
-                throw e;
-            } catch (Exception e) {
-                throw new RuntimeException(e);
+                // layouts are only listed here; each is parsed the first time it's inflated
+                for (File resourceDir : resourcePath) {
+                    addLayoutDirs(resourceDir);
+                    rawResourceLoaders.add(new RawResourceLoader(resourceExtractor, resourceDir));
+                }
+            } finally {
+                Profiler.end("resourceIndex", start);
             }
         }
         isInitialized = true;
     }
 
-    private File getSystemResourceDir(String pathToAndroidResources) {
-        return pathToAndroidResources != null ? new File(pathToAndroidResources) : null;
+    /*
+     * Each kind of resource is loaded the first time one of them is asked for, so tests only pay for what they use.
+     * A kind that fails to load part way through isn't loaded again on top of what it got through; asking for it again
+     * fails the same way.
+     */
+
+    private void initValueResources() {
+        init();
+        if (valueResourcesFailure != null) {
+            throw valueResourcesFailure;
+        }
+        if (valueResourcesLoaded || resourcePath.isEmpty()) {
+            return;
+        }
+
+        long start = Profiler.start();
+        valueResourcesLoaded = true;
+        try {
+            if (systemResources != null) {
+                systemResources.loadValueResources();
+            }
+            for (File resourceDir : resourcePath) {
+                loadValueResources(getValueResourceDir(resourceDir));
+            }
+        } catch (RuntimeException e) {
+            throw valueResourcesFailure = e;
+        } catch (Exception e) {
+            throw valueResourcesFailure = new RuntimeException(e);
+        } finally {
+            Profiler.end("valueResources", start);
+        }
     }
 
-    private void loadStringResources(File resourceDir, StringResourceLoader stringResourceLoader, boolean system) throws Exception {
-        DocumentLoader stringResourceDocumentLoader = new DocumentLoader(stringResourceLoader);
-        loadValueResourcesFromDirs(stringResourceDocumentLoader, resourceDir, system);
+    private void initMenuResources() {
+        init();
+        if (menuResourcesFailure != null) {
+            throw menuResourcesFailure;
+        }
+        if (menuResourcesLoaded || resourcePath.isEmpty()) {
+            return;
+        }
+
+        long start = Profiler.start();
+        menuResourcesLoaded = true;
+        try {
+            for (File resourceDir : resourcePath) {
+                loadMenuResources(resourceDir, menuLoader);
+            }
+        } catch (RuntimeException e) {
+            throw menuResourcesFailure = e;
+        } catch (Exception e) {
+            throw menuResourcesFailure = new RuntimeException(e);
+        } finally {
+            Profiler.end("menuResources", start);
+        }
     }
 
-    private void loadPluralsResources(File resourceDir, boolean system) throws Exception {
-        DocumentLoader stringResourceDocumentLoader = new DocumentLoader(this.pluralResourceLoader);
-        loadValueResourcesFromDirs(stringResourceDocumentLoader, resourceDir, system);
+    private void initDrawableResources() {
+        init();
+        if (drawableResourcesFailure != null) {
+            throw drawableResourcesFailure;
+        }
+        if (drawableResourcesLoaded || resourcePath.isEmpty()) {
+            return;
+        }
+
+        long start = Profiler.start();
+        drawableResourcesLoaded = true;
+        try {
+            for (File resourceDir : resourcePath) {
+                loadDrawableResources(resourceDir);
+            }
+        } catch (RuntimeException e) {
+            throw drawableResourcesFailure = e;
+        } catch (Exception e) {
+            throw drawableResourcesFailure = new RuntimeException(e);
+        } finally {
+            Profiler.end("drawableResources", start);
+        }
     }
 
-    private void loadValueResources(File resourceDir, StringArrayResourceLoader stringArrayResourceLoader, ColorResourceLoader colorResourceLoader, AttrResourceLoader attrResourceLoader, boolean system) throws Exception {
-        DocumentLoader valueResourceLoader = new DocumentLoader(stringArrayResourceLoader, colorResourceLoader, attrResourceLoader);
-        loadValueResourcesFromDirs(valueResourceLoader, resourceDir, system);
+    private void initPreferenceResources() {
+        init();
+        if (preferenceResourcesFailure != null) {
+            throw preferenceResourcesFailure;
+        }
+        if (preferenceResourcesLoaded || resourcePath.isEmpty()) {
+            return;
+        }
+
+        long start = Profiler.start();
+        preferenceResourcesLoaded = true;
+        try {
+            for (File resourceDir : resourcePath) {
+                loadPreferenceResources(getPreferenceResourceDir(resourceDir));
+            }
+        } catch (RuntimeException e) {
+            throw preferenceResourcesFailure = e;
+        } catch (Exception e) {
+            throw preferenceResourcesFailure = new RuntimeException(e);
+        } finally {
+            Profiler.end("preferenceResources", start);
+        }
     }
 
-    private void loadViewResources(File resourceDir, ViewLoader viewLoader, boolean system) throws Exception {
-        DocumentLoader viewDocumentLoader = new DocumentLoader(viewLoader);
-        loadLayoutResourceXmlSubDirs(viewDocumentLoader, resourceDir, system);
+    /**
+     * If the {@code robolectric.watchResources} system property is true, reloads the resource files that have been
+     * changed, added or deleted since the last call, so a loader kept between test runs (e.g. in an IDE) picks up
+     * edits without loading everything again. Kinds of resources that haven't been loaded yet are left alone.
+     * <p/>
+     * Values that are deleted from a file are kept, as are values copied by reference from a value that's changed;
+     * start a new JVM to be rid of them.
+     */
+    public void reloadChangedResources() {
+        if (resourceWatcher == null) {
+            return;
+        }
+
+        long start = Profiler.start();
+        try {
+            List<File> changedValueFiles = new ArrayList<File>();
+            int firstChangedValuesDir = resourcePath.size();
+            for (File file : resourceWatcher.getChangedFiles()) {
+                if (!file.getName().endsWith(".xml")) {
+                    continue;
+                }
+                File dir = file.getParentFile();
+                boolean exists = file.exists();
+                if (isLayoutDirectory(dir.getPath())) {
+                    viewLoader.reloadLayout(false, file.getName().replace(".xml", ""));
+                } else if (dir.getName().equals("values")) {
+                    if (valueResourcesLoaded && exists) {
+                        changedValueFiles.add(file);
+                        firstChangedValuesDir = Math.min(firstChangedValuesDir, resourcePath.indexOf(dir.getParentFile()));
+                    }
+                } else if (isMenuDirectory(dir.getPath())) {
+                    if (menuResourcesLoaded && exists) {
+                        new DocumentLoader(menuLoader).loadResourceXmlFile(false, file);
+                    }
+                } else if (isDrawableDirectory(dir.getPath())) {
+                    if (drawableResourcesLoaded) {
+                        drawableResourceLoader.forget(file);
+                        if (exists) {
+                            new DocumentLoader(drawableResourceLoader).loadResourceXmlFile(false, file);
+                        }
+                    }
+                } else if (dir.getName().equals("xml")) {
+                    if (preferenceResourcesLoaded && exists) {
+                        new DocumentLoader(preferenceLoader).loadResourceXmlFile(false, file);
+                    }
+                }
+            }
+
+            if (!changedValueFiles.isEmpty()) {
+                DocumentLoader valueResourceLoader = new DocumentLoader(stringResourceLoader, pluralResourceLoader, stringArrayResourceLoader, colorResourceLoader, attrResourceLoader);
+                for (File file : changedValueFiles) {
+                    valueResourceLoader.loadResourceXmlFile(false, file);
+                }
+                // values in later resource directories override the ones just reloaded
+                for (File resourceDir : resourcePath.subList(firstChangedValuesDir + 1, resourcePath.size())) {
+                    loadValueResourcesFromDir(valueResourceLoader, getValueResourceDir(resourceDir));
+                }
+            }
+        } catch (I18nException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            Profiler.end("resourceReload", start);
+        }
+    }
+
+    private File getSystemResourceDir(String pathToAndroidResources) {
+        return pathToAndroidResources != null ? new File(pathToAndroidResources) : null;
+    }
+
+    private void loadValueResources(File resourceDir) throws Exception {
+        // strings come first, since plurals and string arrays refer to them
+        DocumentLoader valueResourceLoader = new DocumentLoader(stringResourceLoader, pluralResourceLoader, stringArrayResourceLoader, colorResourceLoader, attrResourceLoader);
+        loadValueResourcesFromDir(valueResourceLoader, resourceDir);
+    }
+
+    private void addLayoutDirs(File resourceDir) {
+        File[] layoutDirs = resourceDir.listFiles(LAYOUT_DIR_FILE_FILTER);
+        if (layoutDirs != null) {
+            viewLoader.addLayoutDirs(false, layoutDirs);
+        }
     }
 
     private void loadMenuResources(File xmlResourceDir, MenuLoader menuLoader) throws Exception {
@@ -187,12 +364,6 @@ public class ResourceLoader {
         }
     }
 
-    private void loadLayoutResourceXmlSubDirs(DocumentLoader layoutDocumentLoader, File xmlResourceDir, boolean isSystem) throws Exception {
-        if (xmlResourceDir != null) {
-            layoutDocumentLoader.loadResourceXmlDirs(isSystem, xmlResourceDir.listFiles(LAYOUT_DIR_FILE_FILTER));
-        }
-    }
-
     private void loadMenuResourceXmlDirs(DocumentLoader menuDocumentLoader, File xmlResourceDir) throws Exception {
         if (xmlResourceDir != null) {
             menuDocumentLoader.loadResourceXmlDirs(xmlResourceDir.listFiles(MENU_DIR_FILE_FILTER));
@@ -205,26 +376,12 @@ public class ResourceLoader {
         }
     }
 
-    private void loadValueResourcesFromDirs(DocumentLoader documentLoader, File resourceDir, boolean system) throws Exception {
-        if (system) {
-            loadSystemResourceXmlDir(documentLoader, resourceDir);
-        } else {
-            loadValueResourcesFromDir(documentLoader, resourceDir);
-        }
-    }
-
     private void loadValueResourcesFromDir(DocumentLoader documentloader, File xmlResourceDir) throws Exception {
         if (xmlResourceDir != null && xmlResourceDir.exists()) {
             documentloader.loadResourceXmlDir(xmlResourceDir);
         }
     }
 
-    private void loadSystemResourceXmlDir(DocumentLoader documentLoader, File stringResourceDir) throws Exception {
-        if (stringResourceDir != null) {
-            documentLoader.loadSystemResourceXmlDir(stringResourceDir);
-        }
-    }
-
     private File getValueResourceDir(File xmlResourceDir) {
         return xmlResourceDir != null ? new File(xmlResourceDir, "values")
                 : null;
@@ -358,7 +515,8 @@ public class ResourceLoader {
     }
 
     public View inflateView(Context context, int resource, ViewGroup viewGroup) {
-        init();
+        // views look up their attrs' enum values
+        initValueResources();
 
         View viewNode = viewLoader.inflateView(context, resource, viewGroup);
         if (viewNode != null) return viewNode;
@@ -367,7 +525,7 @@ public class ResourceLoader {
     }
 
     public int getColorValue(int id) {
-        init();
+        initValueResources();
 
         int value = colorResourceLoader.getValue(id);
         if (value != -1) return value;
@@ -376,7 +534,7 @@ public class ResourceLoader {
     }
 
     public String getStringValue(int id) {
-        init();
+        initValueResources();
 
         String value = stringResourceLoader.getValue(id);
         if (value != null) return value;
@@ -385,21 +543,22 @@ public class ResourceLoader {
     }
 
     public String getPluralStringValue(int id, int quantity) {
-        init();
+        initValueResources();
         return pluralResourceLoader.getValue(id, quantity);
     }
     
     public boolean isDrawableXml(int resourceId) {
-        init();
+        initDrawableResources();
         return drawableResourceLoader.isXml(resourceId);
     }
 
     public int[] getDrawableIds(int resourceId) {
-        init();
+        initDrawableResources();
         return drawableResourceLoader.getDrawableIds(resourceId);
     }
     
     public Drawable getXmlDrawable( int resourceId ) {
+    	initDrawableResources();
     	return drawableResourceLoader.getXmlDrawable( resourceId );
     }
     
@@ -450,7 +609,7 @@ public class ResourceLoader {
     }
 
     public String[] getStringArrayValue(int id) {
-        init();
+        initValueResources();
 
         String[] arrayValue = stringArrayResourceLoader.getArrayValue(id);
         if (arrayValue != null) return arrayValue;
@@ -459,7 +618,8 @@ public class ResourceLoader {
     }
 
     public void inflateMenu(Context context, int resource, Menu root) {
-        init();
+        initValueResources();
+        initMenuResources();
 
         if (menuLoader.inflateMenu(context, resource, root)) return;
 
@@ -467,7 +627,7 @@ public class ResourceLoader {
     }
 
     public PreferenceScreen inflatePreferences(Context context, int resourceId) {
-        init();
+        initPreferenceResources();
         return preferenceLoader.inflatePreferences(context, resourceId);
     }
 
@@ -475,6 +635,16 @@ public class ResourceLoader {
         return assetsDir;
     }
 
+    /**
+     * @return where the assets are read from; the assets "directory" may also be a zip, {@code .apk} or {@code .aar}
+     */
+    public synchronized AssetStore getAssetStore() {
+        if (assetStore == null) {
+            assetStore = AssetStore.forFile(assetsDir);
+        }
+        return assetStore;
+    }
+
     @SuppressWarnings("rawtypes")
 	public Class getLocalRClass() { return rClass; }
     
@@ -485,6 +655,7 @@ public class ResourceLoader {
     }
 
     public ViewLoader.ViewNode getLayoutViewNode(String layoutName) {
-        return viewLoader.viewNodesByLayoutName.get(layoutName);
+        init();
+        return viewLoader.getViewNode(layoutName);
     }
 }
@@ -7,15 +7,41 @@ import java.util.Map;
 
 class ResourceReferenceResolver<T> {
     private Map<String, T> attributeNamesToValues = new HashMap<String, T>();
+    /**
+     * The same values, by resource id, so looking one up by id doesn't go through its name
+     */
+    private IntMap<T> resourceIdsToValues = new IntMap<T>();
     private Map<String, List<String>> unresolvedReferences = new HashMap<String, List<String>>();
     private String prefix;
+    private ResourceExtractor resourceExtractor;
+    private ResourceReferenceResolver<T> systemResolver;
 
-    ResourceReferenceResolver(String prefix) {
+    ResourceReferenceResolver(String prefix, ResourceExtractor resourceExtractor) {
         this.prefix = prefix;
+        this.resourceExtractor = resourceExtractor;
+    }
+
+    /**
+     * @param systemResolver where to look for values this resolver doesn't have, e.g. "android:color/black"
+     */
+    void setSystemResolver(ResourceReferenceResolver<T> systemResolver) {
+        this.systemResolver = systemResolver;
     }
 
     public T getValue(String resourceName) {
-        return attributeNamesToValues.get(resourceName);
+        T value = attributeNamesToValues.get(resourceName);
+        if (value == null && systemResolver != null) {
+            value = systemResolver.getValue(resourceName);
+        }
+        return value;
+    }
+
+    public T getValue(int resourceId) {
+        T value = resourceIdsToValues.get(resourceId);
+        if (value == null && systemResolver != null) {
+            value = systemResolver.getValue(resourceId);
+        }
+        return value;
     }
 
     public void processResource(String name, String rawValue, ResourceValueConverter loader, boolean isSystem) {
@@ -31,17 +57,25 @@ class ResourceReferenceResolver<T> {
     }
 
     public void addAttribute(String valuePointer, T value) {
-        attributeNamesToValues.put(valuePointer, value);
+        putValue(valuePointer, value);
         resolveUnresolvedReferences(valuePointer, value);
     }
 
+    private void putValue(String valuePointer, T value) {
+        attributeNamesToValues.put(valuePointer, value);
+        Integer resourceId = resourceExtractor.getResourceId(valuePointer);
+        if (resourceId != null) {
+            resourceIdsToValues.put(resourceId, value);
+        }
+    }
+
     private void resolveUnresolvedReferences(String attributeName, T value) {
         List<String> references = unresolvedReferences.remove(attributeName);
         if (references == null) {
             return;
         }
         for (String reference : references) {
-            attributeNamesToValues.put(reference, value);
+            putValue(reference, value);
         }
     }
 
@@ -56,11 +90,11 @@ class ResourceReferenceResolver<T> {
 
     private void addAttributeReference(String rawValue, String valuePointer) {
         String attributeName = rawValue.substring(1);
-        T value = attributeNamesToValues.get(attributeName);
+        T value = getValue(attributeName);
         if (value == null) {
             addUnresolvedReference(valuePointer, attributeName);
         } else {
-            attributeNamesToValues.put(valuePointer, value);
+            putValue(valuePointer, value);
         }
     }
 }
@@ -0,0 +1,89 @@
+package com.xtremelabs.robolectric.res;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Notices which resource files have been added, changed or deleted since it last looked, going by their size and
+ * modification time, so a {@link ResourceLoader} kept for the life of the JVM (e.g. by an IDE rerunning tests) can
+ * reload just those files.
+ * <p/>
+ * It looks when asked, rather than having a thread watch the directories: looking at a project's resource files
+ * takes a few milliseconds, and they're only looked at between tests.
+ */
+class ResourceWatcher {
+    private final List<File> resourceDirs;
+    private Map<File, FileState> fileStates;
+
+    /**
+     * @param resourceDirs the res directories to watch, e.g. {@code res}; files in their subdirectories are watched
+     */
+    ResourceWatcher(List<File> resourceDirs) {
+        this.resourceDirs = resourceDirs;
+        fileStates = scan();
+    }
+
+    /**
+     * @return the files that have been added, changed or deleted since the last call, or since the watcher was made
+     */
+    List<File> getChangedFiles() {
+        Map<File, FileState> newFileStates = scan();
+        List<File> changedFiles = new ArrayList<File>();
+        for (Map.Entry<File, FileState> entry : newFileStates.entrySet()) {
+            FileState oldState = fileStates.get(entry.getKey());
+            if (oldState == null || !oldState.equals(entry.getValue())) {
+                changedFiles.add(entry.getKey());
+            }
+        }
+        for (File file : fileStates.keySet()) {
+            if (!newFileStates.containsKey(file)) {
+                changedFiles.add(file);
+            }
+        }
+        fileStates = newFileStates;
+        return changedFiles;
+    }
+
+    private Map<File, FileState> scan() {
+        Map<File, FileState> states = new HashMap<File, FileState>();
+        for (File resourceDir : resourceDirs) {
+            File[] subdirs = resourceDir.listFiles();
+            if (subdirs == null) {
+                continue;
+            }
+            for (File subdir : subdirs) {
+                File[] files = subdir.listFiles();
+                if (files == null) {
+                    continue;
+                }
+                for (File file : files) {
+                    states.put(file, new FileState(file.length(), file.lastModified()));
+                }
+            }
+        }
+        return states;
+    }
+
+    private static class FileState {
+        final long length;
+        final long lastModified;
+
+        FileState(long length, long lastModified) {
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+
+        @Override public boolean equals(Object o) {
+            if (!(o instanceof FileState)) return false;
+            FileState that = (FileState) o;
+            return length == that.length && lastModified == that.lastModified;
+        }
+
+        @Override public int hashCode() {
+            return (int) (length ^ lastModified);
+        }
+    }
+}
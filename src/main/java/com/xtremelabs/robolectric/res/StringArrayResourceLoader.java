@@ -1,38 +1,36 @@
 package com.xtremelabs.robolectric.res;
 
 import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 public class StringArrayResourceLoader extends XpathResourceXmlLoader {
-    Map<String, String[]> stringArrayValues = new HashMap<String, String[]>();
+    IntMap<String[]> stringArrayValues = new IntMap<String[]>();
     private StringResourceLoader stringResourceLoader;
+    private StringArrayResourceLoader systemLoader;
 
     public StringArrayResourceLoader(ResourceExtractor resourceExtractor, StringResourceLoader stringResourceLoader) {
         super(resourceExtractor, "/resources/string-array");
         this.stringResourceLoader = stringResourceLoader;
     }
 
+    public void setSystemLoader(StringArrayResourceLoader systemLoader) {
+        this.systemLoader = systemLoader;
+    }
+
     public String[] getArrayValue(int resourceId) {
-        String resourceName = resourceExtractor.getResourceName(resourceId);
-        return stringArrayValues.get(resourceName);
+        String[] arrayValue = stringArrayValues.get(resourceId);
+        if (arrayValue == null && systemLoader != null) {
+            arrayValue = systemLoader.stringArrayValues.get(resourceId);
+        }
+        return arrayValue;
     }
 
     @Override protected void processNode(Node node, String name, boolean isSystem) throws XPathExpressionException {
-        XPathExpression itemXPath = XPathFactory.newInstance().newXPath().compile("item");
-        NodeList childNodes = (NodeList) itemXPath.evaluate(node, XPathConstants.NODESET);
         List<String> arrayValues = new ArrayList<String>();
-        for (int j = 0; j < childNodes.getLength(); j++) {
-            Node childNode = childNodes.item(j);
-
+        for (Node childNode : getChildElements(node, "item")) {
             String value = childNode.getTextContent();
             if (value.startsWith("@")) {
                 value = value.substring(1);
@@ -41,7 +39,9 @@ public class StringArrayResourceLoader extends XpathResourceXmlLoader {
                 arrayValues.add(value);
             }
         }
-        String valuePointer = (isSystem ? "android:" : "") + "array/" + name;
-        stringArrayValues.put(valuePointer, arrayValues.toArray(new String[arrayValues.size()]));
+        Integer resourceId = resourceExtractor.getResourceId((isSystem ? "android:" : "") + "array/" + name);
+        if (resourceId != null) {
+            stringArrayValues.put(resourceId, arrayValues.toArray(new String[arrayValues.size()]));
+        }
     }
 }
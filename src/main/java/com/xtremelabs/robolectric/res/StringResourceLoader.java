@@ -3,14 +3,19 @@ package com.xtremelabs.robolectric.res;
 import org.w3c.dom.Node;
 
 public class StringResourceLoader extends XpathResourceXmlLoader implements ResourceValueConverter {
-    private ResourceReferenceResolver<String> stringResolver = new ResourceReferenceResolver<String>("string");
+    private ResourceReferenceResolver<String> stringResolver;
 
     public StringResourceLoader(ResourceExtractor resourceExtractor) {
         super(resourceExtractor, "/resources/string");
+        stringResolver = new ResourceReferenceResolver<String>("string", resourceExtractor);
+    }
+
+    public void setSystemLoader(StringResourceLoader systemLoader) {
+        stringResolver.setSystemResolver(systemLoader.stringResolver);
     }
 
     public String getValue(int resourceId) {
-        return stringResolver.getValue(resourceExtractor.getResourceName(resourceId));
+        return stringResolver.getValue(resourceId);
     }
 
     public String getValue(String resourceName, boolean isSystem) {
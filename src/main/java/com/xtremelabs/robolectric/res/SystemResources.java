@@ -0,0 +1,103 @@
+package com.xtremelabs.robolectric.res;
+
+import android.R;
+import com.xtremelabs.robolectric.util.Profiler;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The resources of an Android SDK platform (the "android:" ones), loaded once per platform and shared by every
+ * {@link ResourceLoader} using it, whatever app resources they have. The app's loaders look here for anything they
+ * don't have themselves.
+ * <p/>
+ * Nothing changes once it's loaded, apart from layouts being parsed the first time they're asked for, which is
+ * synchronized, so the resources are safe to share between threads. Each instrumenting class loader has its own.
+ */
+public class SystemResources {
+    private static final Map<File, SystemResources> systemResourcesByDir = new HashMap<File, SystemResources>();
+
+    private final File resourceDir;
+    final StringResourceLoader stringResourceLoader;
+    final PluralResourceLoader pluralResourceLoader;
+    final StringArrayResourceLoader stringArrayResourceLoader;
+    final ColorResourceLoader colorResourceLoader;
+    final AttrResourceLoader attrResourceLoader;
+    final ViewLoader viewLoader;
+    private boolean valueResourcesLoaded = false;
+    private RuntimeException valueResourcesFailure;
+
+    private SystemResources(File resourceDir) throws Exception {
+        this.resourceDir = resourceDir;
+
+        ResourceExtractor resourceExtractor = new ResourceExtractor();
+        resourceExtractor.addSystemRClass(R.class);
+
+        stringResourceLoader = new StringResourceLoader(resourceExtractor);
+        pluralResourceLoader = new PluralResourceLoader(resourceExtractor, stringResourceLoader);
+        stringArrayResourceLoader = new StringArrayResourceLoader(resourceExtractor, stringResourceLoader);
+        colorResourceLoader = new ColorResourceLoader(resourceExtractor);
+        attrResourceLoader = new AttrResourceLoader(resourceExtractor);
+        viewLoader = new ViewLoader(resourceExtractor, attrResourceLoader);
+
+        // layouts are only listed here; each is parsed the first time it's inflated
+        File[] layoutDirs = resourceDir.listFiles(ResourceLoader.LAYOUT_DIR_FILE_FILTER);
+        if (layoutDirs != null) {
+            viewLoader.addLayoutDirs(true, layoutDirs);
+        }
+    }
+
+    /**
+     * @return the resources in {@code resourceDir}, e.g. {@code platforms/android-10/data/res}
+     */
+    public static SystemResources forDirectory(File resourceDir) {
+        File canonicalResourceDir;
+        try {
+            // however the path to it is spelled
+            canonicalResourceDir = resourceDir.getCanonicalFile();
+        } catch (IOException e) {
+            canonicalResourceDir = resourceDir.getAbsoluteFile();
+        }
+        synchronized (systemResourcesByDir) {
+            SystemResources systemResources = systemResourcesByDir.get(canonicalResourceDir);
+            if (systemResources == null) {
+                try {
+                    systemResources = new SystemResources(canonicalResourceDir);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                systemResourcesByDir.put(canonicalResourceDir, systemResources);
+            }
+            return systemResources;
+        }
+    }
+
+    public synchronized void loadValueResources() {
+        if (valueResourcesFailure != null) {
+            // not loaded again on top of whatever got loaded before it failed
+            throw valueResourcesFailure;
+        }
+        if (valueResourcesLoaded) {
+            return;
+        }
+
+        long start = Profiler.start();
+        try {
+            File valueResourceDir = new File(resourceDir, "values");
+            // strings come first, since plurals and string arrays refer to them
+            new DocumentLoader(stringResourceLoader, pluralResourceLoader, stringArrayResourceLoader, colorResourceLoader, attrResourceLoader)
+                    .loadSystemResourceXmlDir(valueResourceDir);
+            // done now, rather than on first use, so nothing changes after this
+            attrResourceLoader.resolveReferences();
+            valueResourcesLoaded = true;
+        } catch (RuntimeException e) {
+            throw valueResourcesFailure = e;
+        } catch (Exception e) {
+            throw valueResourcesFailure = new RuntimeException(e);
+        } finally {
+            Profiler.end("systemResources", start);
+        }
+    }
+}
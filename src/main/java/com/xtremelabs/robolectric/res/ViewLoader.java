@@ -20,6 +20,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import org.w3c.dom.Document;
@@ -30,17 +31,40 @@ import org.w3c.dom.NodeList;
 import static com.xtremelabs.robolectric.Robolectric.shadowOf;
 
 public class ViewLoader extends XmlLoader {
+    private static Method onFinishInflate;
+
     /**
      * Map of "layout/foo" to the View nodes for that layout file
      */
     protected Map<String, ViewNode> viewNodesByLayoutName = new HashMap<String, ViewNode>();
+    /**
+     * Map of "foo" (or "android:foo") to the layout files named foo.xml that haven't been loaded yet, in the order
+     * they'd have been loaded in up front
+     */
+    private Map<String, List<File>> unloadedLayoutFiles = new HashMap<String, List<File>>();
+    private List<File> layoutDirs = new ArrayList<File>();
+    private List<File> systemLayoutDirs = new ArrayList<File>();
+    private DocumentLoader documentLoader;
     private AttrResourceLoader attrResourceLoader;
+    /**
+     * Map of element name to the View class it stands for, or to null if there isn't one, so the class loader isn't
+     * asked again for each node with that name
+     */
+    private final Map<String, Class<? extends View>> viewClassesByName = new HashMap<String, Class<? extends View>>();
+    /**
+     * Where "android:layout/foo" layouts come from, if they aren't in this loader
+     */
+    private ViewLoader systemViewLoader;
 
     public ViewLoader(ResourceExtractor resourceExtractor, AttrResourceLoader attrResourceLoader) {
         super(resourceExtractor);
         this.attrResourceLoader = attrResourceLoader;
     }
 
+    public void setSystemViewLoader(ViewLoader systemViewLoader) {
+        this.systemViewLoader = systemViewLoader;
+    }
+
     @Override
     protected void processResourceXml(File xmlFile, Document document, boolean isSystem) throws Exception {
         ViewNode topLevelNode = new ViewNode("top-level", new HashMap<String, String>(), isSystem);
@@ -60,6 +84,91 @@ public class ViewLoader extends XmlLoader {
         viewNodesByLayoutName.put(specificLayoutName, topLevelNode.getChildren().get(0));
     }
 
+    /**
+     * Notes the layouts in {@code layoutDirs} without parsing them; each is loaded the first time it's asked for.
+     */
+    public void addLayoutDirs(boolean isSystem, File... layoutDirs) {
+        if (documentLoader == null) {
+            documentLoader = new DocumentLoader(this);
+        }
+        for (File layoutDir : layoutDirs) {
+            (isSystem ? systemLayoutDirs : this.layoutDirs).add(layoutDir);
+            File[] files = layoutDir.listFiles();
+            if (files == null) {
+                throw new RuntimeException("no such directory " + layoutDir);
+            }
+            for (File file : files) {
+                if (file.getName().endsWith(".xml")) {
+                    String key = (isSystem ? "android:" : "") + file.getName().replace(".xml", "");
+                    List<File> layoutFiles = unloadedLayoutFiles.get(key);
+                    if (layoutFiles == null) {
+                        layoutFiles = new ArrayList<File>();
+                        unloadedLayoutFiles.put(key, layoutFiles);
+                    }
+                    layoutFiles.add(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets the loaded versions of the layouts named {@code name}, e.g. "foo" for {@code layout/foo.xml} and
+     * {@code layout-land/foo.xml}, after one of them has been changed, added or deleted; whichever of them exist are
+     * loaded again the next time they're asked for.
+     */
+    public synchronized void reloadLayout(boolean isSystem, String name) {
+        String prefix = isSystem ? "android:" : "";
+        for (Iterator<String> iterator = viewNodesByLayoutName.keySet().iterator(); iterator.hasNext(); ) {
+            String layoutName = iterator.next();
+            if (layoutName.startsWith("android:") == isSystem && layoutName.endsWith("/" + name)) {
+                iterator.remove();
+            }
+        }
+
+        List<File> layoutFiles = new ArrayList<File>();
+        for (File layoutDir : isSystem ? systemLayoutDirs : layoutDirs) {
+            File layoutFile = new File(layoutDir, name + ".xml");
+            if (layoutFile.exists()) {
+                layoutFiles.add(layoutFile);
+            }
+        }
+        if (layoutFiles.isEmpty()) {
+            unloadedLayoutFiles.remove(prefix + name);
+        } else {
+            unloadedLayoutFiles.put(prefix + name, layoutFiles);
+        }
+    }
+
+    /**
+     * @param layoutName e.g. "layout/foo", "layout-land/foo" or "android:layout/foo"
+     */
+    public ViewNode getViewNode(String layoutName) {
+        if (layoutName == null) {
+            return null;
+        }
+        ViewNode viewNode = getOwnViewNode(layoutName);
+        if (viewNode == null && systemViewLoader != null && layoutName.startsWith("android:")) {
+            viewNode = systemViewLoader.getViewNode(layoutName);
+        }
+        return viewNode;
+    }
+
+    private synchronized ViewNode getOwnViewNode(String layoutName) {
+        boolean isSystem = layoutName.startsWith("android:");
+        String key = (isSystem ? "android:" : "") + layoutName.substring(layoutName.lastIndexOf('/') + 1);
+        List<File> layoutFiles = unloadedLayoutFiles.remove(key);
+        if (layoutFiles != null) {
+            try {
+                for (File layoutFile : layoutFiles) {
+                    documentLoader.loadResourceXmlFile(isSystem, layoutFile);
+                }
+            } catch (Exception e) {
+                throw new RuntimeException("error loading " + layoutName, e);
+            }
+        }
+        return viewNodesByLayoutName.get(layoutName);
+    }
+
     private void processChildren(NodeList childNodes, ViewNode parent) {
         for (int i = 0; i < childNodes.getLength(); i++) {
             Node node = childNodes.item(i);
@@ -108,14 +217,7 @@ public class ViewLoader extends XmlLoader {
             throw new RuntimeException("Could not find layout " + layoutName);
         }
         try {
-            if (attributes != null) {
-                for (Map.Entry<String, String> entry : attributes.entrySet()) {
-                    if (!entry.getKey().equals("layout")) {
-                        viewNode.attributes.put(entry.getKey(), entry.getValue());
-                    }
-                }
-            }
-            return viewNode.inflate(context, parent);
+            return viewNode.inflate(context, parent, attributes);
         } catch (I18nException e) {
             throw e;
         } catch (Exception e) {
@@ -133,13 +235,13 @@ public class ViewLoader extends XmlLoader {
         if (context instanceof Activity) {
             final int orientation = ((Activity) context).getRequestedOrientation();
             if (orientation == ActivityInfo.SCREEN_ORIENTATION_LANDSCAPE) {
-                viewNode = viewNodesByLayoutName.get(layoutName.replace("layout/", "layout-land/"));
+                viewNode = getViewNode(layoutName.replace("layout/", "layout-land/"));
             } else if (orientation == ActivityInfo.SCREEN_ORIENTATION_PORTRAIT) {
-                viewNode = viewNodesByLayoutName.get(layoutName.replace("layout/", "layout-port/"));
+                viewNode = getViewNode(layoutName.replace("layout/", "layout-port/"));
             }
         }
         if (viewNode == null) {
-            viewNode = viewNodesByLayoutName.get(layoutName);
+            viewNode = getViewNode(layoutName);
         }
         return viewNode;
     }
@@ -152,6 +254,9 @@ public class ViewLoader extends XmlLoader {
         boolean requestFocusOverride = false;
         boolean isSystem = false;
 
+        // worked out the first time the node is inflated, and reused after that, possibly by other threads
+        private volatile InflationPlan inflationPlan;
+
         public ViewNode(String name, Map<String, String> attributes, boolean isSystem) {
             this.name = name;
             this.attributes = attributes;
@@ -167,10 +272,18 @@ public class ViewLoader extends XmlLoader {
         }
 
         public View inflate(Context context, View parent) throws Exception {
-            View view = create(context, (ViewGroup) parent);
+            return inflate(context, parent, null);
+        }
+
+        /**
+         * @param attributeOverrides attributes of the {@code <include>} this layout is included by, if any, which
+         *                           take the place of the ones of this node
+         */
+        private View inflate(Context context, View parent, Map<String, String> attributeOverrides) throws Exception {
+            View view = create(context, (ViewGroup) parent, attributeOverrides);
 
             for (ViewNode child : children) {
-                child.inflate(context, view);
+                child.inflate(context, view, null);
             }
 
             if (view != null) {
@@ -180,29 +293,51 @@ public class ViewLoader extends XmlLoader {
         }
 
         private void invokeOnFinishInflate(View view) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
-            Method onFinishInflate = View.class.getDeclaredMethod("onFinishInflate");
-            onFinishInflate.setAccessible(true);
+            if (onFinishInflate == null) {
+                Method method = View.class.getDeclaredMethod("onFinishInflate");
+                method.setAccessible(true);
+                onFinishInflate = method;
+            }
             onFinishInflate.invoke(view);
         }
 
-        private View create(Context context, ViewGroup parent) throws Exception {
+        private View create(Context context, ViewGroup parent, Map<String, String> attributeOverrides) throws Exception {
+            Map<String, String> attributes = getAttributes(attributeOverrides);
             if (name.equals("include")) {
-                String layout = attributes.get("layout");
-                return inflateView(context, layout.substring(1), attributes, parent);
+                String layoutName = attributes.get("layout").substring(1);
+                if (isSystem && !layoutName.startsWith("android:")) {
+                    // an SDK layout including another by "@layout/foo" means the SDK's one
+                    layoutName = "android:" + layoutName;
+                }
+                return inflateView(context, layoutName, attributes, parent);
             } else if (name.equals("merge")) {
                 return parent;
             } else if (name.equals("fragment")) {
-                return inflateFragment(context, parent);
+                return inflateFragment(context, parent, attributes);
             } else {
                 applyFocusOverride(parent);
-                View view = constructView(context);
+                View view = constructView(context, attributeOverrides == null ? null : attributes);
                 addToParent(parent, view);
                 shadowOf(view).applyFocus();
                 return view;
             }
         }
 
-        private View inflateFragment(Context context, ViewGroup parent) throws InstantiationException, IllegalAccessException, ClassNotFoundException {
+        private Map<String, String> getAttributes(Map<String, String> attributeOverrides) {
+            if (attributeOverrides == null) {
+                return attributes;
+            }
+            // the node is shared, so it's left as it is and the overrides go in a copy
+            Map<String, String> mergedAttributes = new HashMap<String, String>(attributes);
+            for (Map.Entry<String, String> entry : attributeOverrides.entrySet()) {
+                if (!entry.getKey().equals("layout")) {
+                    mergedAttributes.put(entry.getKey(), entry.getValue());
+                }
+            }
+            return mergedAttributes;
+        }
+
+        private View inflateFragment(Context context, ViewGroup parent, Map<String, String> attributes) throws InstantiationException, IllegalAccessException, ClassNotFoundException {
             final String className = attributes.get("android:name");
             final int id = resourceExtractor.getResourceId(attributes.get("android:id"));
             final String tag = attributes.get("android:tag");
@@ -225,19 +360,42 @@ public class ViewLoader extends XmlLoader {
             }
         }
 
-        private View constructView(Context context) throws InstantiationException, IllegalAccessException, InvocationTargetException, NoSuchMethodException {
-            Class<? extends View> clazz = pickViewClass();
+        /**
+         * @param mergedAttributes this node's attributes with those of an {@code <include>} over them, or null if
+         *                         there's no {@code <include>}
+         */
+        private View constructView(Context context, Map<String, String> mergedAttributes) throws InstantiationException, IllegalAccessException, InvocationTargetException, NoSuchMethodException {
+            InflationPlan plan = inflationPlan;
+            if (plan == null) {
+                Class<? extends View> viewClass = pickViewClass();
+                plan = new InflationPlan(viewClass, pickConstructor(viewClass));
+                inflationPlan = plan;
+            }
+            // each view gets an attribute set of its own, since a view's free to put() attributes into it
+            TestAttributeSet attributeSet = new TestAttributeSet(
+                    mergedAttributes == null ? new HashMap<String, String>(attributes) : mergedAttributes,
+                    resourceExtractor, attrResourceLoader, plan.viewClass, isSystem);
+            if (strictI18n) {
+                attributeSet.validateStrictI18n();
+            }
+
+            if (plan.parameterTypes.length == 1) {
+                return plan.constructor.newInstance(context);
+            } else if (plan.parameterTypes[1] == AttributeSet.class) {
+                return plan.constructor.newInstance(context, attributeSet);
+            } else {
+                return plan.constructor.newInstance(context, "");
+            }
+        }
+
+        private Constructor<? extends View> pickConstructor(Class<? extends View> viewClass) throws NoSuchMethodException {
             try {
-                TestAttributeSet attributeSet = new TestAttributeSet(attributes, resourceExtractor, attrResourceLoader, clazz, isSystem);
-                if (strictI18n) {
-                    attributeSet.validateStrictI18n();
-                }
-                return ((Constructor<? extends View>) clazz.getConstructor(Context.class, AttributeSet.class)).newInstance(context, attributeSet);
+                return viewClass.getConstructor(Context.class, AttributeSet.class);
             } catch (NoSuchMethodException e) {
                 try {
-                    return ((Constructor<? extends View>) clazz.getConstructor(Context.class)).newInstance(context);
+                    return viewClass.getConstructor(Context.class);
                 } catch (NoSuchMethodException e1) {
-                    return ((Constructor<? extends View>) clazz.getConstructor(Context.class, String.class)).newInstance(context, "");
+                    return viewClass.getConstructor(Context.class, String.class);
                 }
             }
         }
@@ -264,12 +422,23 @@ public class ViewLoader extends XmlLoader {
         }
 
         private Class<? extends View> loadClass(String className) {
+            synchronized (viewClassesByName) {
+                if (viewClassesByName.containsKey(className)) {
+                    return viewClassesByName.get(className);
+                }
+            }
+
+            Class<? extends View> clazz;
             try {
                 //noinspection unchecked
-                return (Class<? extends View>) getClass().getClassLoader().loadClass(className);
+                clazz = (Class<? extends View>) getClass().getClassLoader().loadClass(className);
             } catch (ClassNotFoundException e) {
-                return null;
+                clazz = null;
+            }
+            synchronized (viewClassesByName) {
+                viewClassesByName.put(className, clazz);
             }
+            return clazz;
         }
 
         public void applyFocusOverride(ViewParent parent) {
@@ -282,4 +451,19 @@ public class ViewLoader extends XmlLoader {
             }
         }
     }
+
+    /**
+     * What to construct for a view node, and how.
+     */
+    private static class InflationPlan {
+        final Class<? extends View> viewClass;
+        final Constructor<? extends View> constructor;
+        final Class<?>[] parameterTypes;
+
+        InflationPlan(Class<? extends View> viewClass, Constructor<? extends View> constructor) {
+            this.viewClass = viewClass;
+            this.constructor = constructor;
+            this.parameterTypes = constructor.getParameterTypes();
+        }
+    }
 }
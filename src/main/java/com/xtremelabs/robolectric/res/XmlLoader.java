@@ -1,18 +1,62 @@
 package com.xtremelabs.robolectric.res;
 
 import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
 
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public abstract class XmlLoader {
     protected ResourceExtractor resourceExtractor;
     protected boolean strictI18n = false;
+    private XPath xPath;
+    private final Map<String, XPathExpression> xPathExpressions = new HashMap<String, XPathExpression>();
 
     public XmlLoader(ResourceExtractor resourceExtractor) {
         this.resourceExtractor = resourceExtractor;
     }
 
     protected abstract void processResourceXml(File xmlFile, Document document, boolean isSystem) throws Exception;
+
+    /**
+     * @return {@code expression}, compiled the first time it's asked for; looking up an {@code XPathFactory} and
+     *         compiling an expression for every file or node was where most of the time loading resources went
+     */
+    protected XPathExpression compileXPath(String expression) throws XPathExpressionException {
+        XPathExpression xPathExpression = xPathExpressions.get(expression);
+        if (xPathExpression == null) {
+            if (xPath == null) {
+                xPath = XPathFactory.newInstance().newXPath();
+            }
+            xPathExpression = xPath.compile(expression);
+            xPathExpressions.put(expression, xPathExpression);
+        }
+        return xPathExpression;
+    }
+
+    /**
+     * @return the child elements of {@code node} named {@code name}; cheaper than evaluating an XPath relative to
+     *         {@code node}, which walks the whole document
+     */
+    protected static List<Node> getChildElements(Node node, String name) {
+        List<Node> childElements = new ArrayList<Node>();
+        NodeList childNodes = node.getChildNodes();
+        for (int i = 0; i < childNodes.getLength(); i++) {
+            Node childNode = childNodes.item(i);
+            if (childNode.getNodeType() == Node.ELEMENT_NODE && name.equals(childNode.getNodeName())) {
+                childElements.add(childNode);
+            }
+        }
+        return childElements;
+    }
     
     public void setStrictI18n(boolean strict) {
     	this.strictI18n = strict;
@@ -1,32 +1,58 @@
 package com.xtremelabs.robolectric.res;
 
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public abstract class XpathResourceXmlLoader extends XmlLoader {
+    private static final Pattern SIMPLE_EXPRESSION = Pattern.compile("/resources/([\\w-]+)");
+
     private String expression;
+    // the element name, if the expression is just "/resources/<element>", which can be found without an XPath engine
+    private String resourceElementName;
 
     public XpathResourceXmlLoader(ResourceExtractor resourceExtractor, String expression) {
         super(resourceExtractor);
         this.expression = expression;
+
+        Matcher matcher = SIMPLE_EXPRESSION.matcher(expression);
+        if (matcher.matches()) {
+            resourceElementName = matcher.group(1);
+        }
     }
 
     @Override protected void processResourceXml(File xmlFile, Document document, boolean isSystem) throws Exception {
-        XPathExpression stringsXPath = XPathFactory.newInstance().newXPath().compile(expression);
-        NodeList nodes = (NodeList) stringsXPath.evaluate(document, XPathConstants.NODESET);
-        for (int i = 0; i < nodes.getLength(); i++) {
-            Node node = nodes.item(i);
+        for (Node node : findNodes(document)) {
             String name = node.getAttributes().getNamedItem("name").getNodeValue();
             processNode(node, name, isSystem);
         }
     }
 
+    private List<Node> findNodes(Document document) throws XPathExpressionException {
+        if (resourceElementName != null) {
+            Element root = document.getDocumentElement();
+            if (root == null || !root.getNodeName().equals("resources")) {
+                return new ArrayList<Node>();
+            }
+            return getChildElements(root, resourceElementName);
+        }
+
+        NodeList nodeList = (NodeList) compileXPath(expression).evaluate(document, XPathConstants.NODESET);
+        List<Node> nodes = new ArrayList<Node>();
+        for (int i = 0; i < nodeList.getLength(); i++) {
+            nodes.add(nodeList.item(i));
+        }
+        return nodes;
+    }
+
     protected abstract void processNode(Node node, String name, boolean isSystem) throws XPathExpressionException;
 }
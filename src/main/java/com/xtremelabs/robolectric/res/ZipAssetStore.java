@@ -0,0 +1,165 @@
+package com.xtremelabs.robolectric.res;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Assets inside a zip archive, such as a built {@code .apk} or a library's {@code .aar}. Small entries are cached
+ * once they've been inflated; big ones are inflated each time they're opened. The archive is opened again if it
+ * changes, and the old one closed once the streams already opened from it have been.
+ */
+public class ZipAssetStore extends AssetStore {
+    private final File archive;
+    private final String prefix;
+    private OpenArchive openArchive;
+    private long archiveLastModified;
+    /**
+     * Map of directory path (e.g. "" or "docs") to the names in it, worked out from the entries' names, since archives
+     * don't always have entries for directories
+     */
+    private Map<String, Set<String>> directories;
+
+    /**
+     * @param prefix where in the archive the assets are, e.g. "assets/", or "" for the whole archive
+     */
+    public ZipAssetStore(File archive, String prefix) {
+        this.archive = archive;
+        this.prefix = prefix;
+    }
+
+    @Override public InputStream open(String path) throws IOException {
+        String entryName = prefix + normalize(path);
+        ZipEntry entry;
+        boolean isSmall;
+        InputStream in;
+        synchronized (this) {
+            OpenArchive openArchive = getOpenArchive();
+            entry = openArchive.zipFile.getEntry(entryName);
+            if (entry == null || entry.isDirectory()) {
+                throw new FileNotFoundException(archive.getPath() + "!/" + entryName);
+            }
+
+            long size = entry.getSize();
+            isSmall = size >= 0 && size <= SMALL_ENTRY_SIZE;
+            if (isSmall) {
+                byte[] bytes = getCachedBytes(entryName, size, entry.getTime());
+                if (bytes != null) {
+                    return streamOf(bytes);
+                }
+            }
+            in = openArchive.getInputStream(entry);
+        }
+
+        if (isSmall) {
+            byte[] bytes = readFully(in, (int) entry.getSize());
+            cacheBytes(entryName, entry.getTime(), bytes);
+            return streamOf(bytes);
+        }
+        return in;
+    }
+
+    @Override public synchronized String[] list(String path) throws IOException {
+        getOpenArchive();
+        Set<String> names = directories.get(normalize(path));
+        return names == null ? new String[0] : names.toArray(new String[names.size()]);
+    }
+
+    private OpenArchive getOpenArchive() throws IOException {
+        if (openArchive == null || archive.lastModified() != archiveLastModified) {
+            if (openArchive != null) {
+                openArchive.replaced = true;
+                openArchive.closeIfUnused();
+            }
+            if (!archive.isFile()) {
+                throw new FileNotFoundException(archive.getPath());
+            }
+            archiveLastModified = archive.lastModified();
+            openArchive = new OpenArchive(new ZipFile(archive));
+            clearCache();
+            directories = indexDirectories(openArchive.zipFile);
+        }
+        return openArchive;
+    }
+
+    private Map<String, Set<String>> indexDirectories(ZipFile zipFile) {
+        Map<String, Set<String>> directories = new HashMap<String, Set<String>>();
+        for (Enumeration<? extends ZipEntry> entries = zipFile.entries(); entries.hasMoreElements(); ) {
+            String name = entries.nextElement().getName();
+            if (!name.startsWith(prefix)) {
+                continue;
+            }
+            List<String> pathElements = new ArrayList<String>();
+            for (String pathElement : normalize(name.substring(prefix.length())).split("/")) {
+                if (pathElement.length() > 0) {
+                    pathElements.add(pathElement);
+                }
+            }
+            String dirPath = "";
+            for (String pathElement : pathElements) {
+                Set<String> names = directories.get(dirPath);
+                if (names == null) {
+                    names = new LinkedHashSet<String>();
+                    directories.put(dirPath, names);
+                }
+                names.add(pathElement);
+                dirPath = dirPath.length() == 0 ? pathElement : dirPath + "/" + pathElement;
+            }
+        }
+        return directories;
+    }
+
+    /**
+     * The archive as it was when it was opened, which is kept open, even once it's changed, until the streams read
+     * from it have been closed.
+     */
+    private class OpenArchive {
+        final ZipFile zipFile;
+        int openStreams;
+        boolean replaced;
+
+        OpenArchive(ZipFile zipFile) {
+            this.zipFile = zipFile;
+        }
+
+        /**
+         * Called with the store locked.
+         */
+        InputStream getInputStream(ZipEntry entry) throws IOException {
+            InputStream in = zipFile.getInputStream(entry);
+            openStreams++;
+            return new FilterInputStream(in) {
+                private boolean closed;
+
+                @Override public void close() throws IOException {
+                    synchronized (ZipAssetStore.this) {
+                        if (closed) {
+                            return;
+                        }
+                        closed = true;
+                        openStreams--;
+                        super.close();
+                        closeIfUnused();
+                    }
+                }
+            };
+        }
+
+        void closeIfUnused() throws IOException {
+            if (replaced && openStreams == 0) {
+                zipFile.close();
+            }
+        }
+    }
+}
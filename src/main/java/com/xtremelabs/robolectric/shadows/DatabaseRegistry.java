@@ -0,0 +1,245 @@
+package com.xtremelabs.robolectric.shadows;
+
+import com.xtremelabs.robolectric.util.DatabaseConfig;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The databases open at the moment, by path: everything that opens the same path shares the same connection, and so
+ * the same database, and different paths get different ones. A database, other than one opened at {@code :memory:},
+ * which is never shared, stays open until everything that opened it has closed it, or until {@link #reset()} closes
+ * everything between tests.
+ * <p/>
+ * With {@code robolectric.fileBackedDatabases} set, and a database map that can keep databases in files, databases are
+ * kept in temp files rather than on the heap. Those
+ * outlive being closed, so a database that's closed and opened again still has what was put in it. With
+ * {@code SQLiteMap}, a path naming an existing file, e.g. a prebuilt fixture database, is opened as a copy of that
+ * file; other maps can't read SQLite's files, and refuse to open such a path. The files are deleted by
+ * {@link #reset()}.
+ */
+class DatabaseRegistry {
+    static final String MEMORY_PATH = ":memory:";
+    private static final String SQLITE_DRIVER = "org.sqlite.JDBC";
+
+    private static final Map<String, Entry> sharedEntries = new HashMap<String, Entry>();
+    private static final List<Entry> openEntries = new ArrayList<Entry>();
+    private static final Map<String, File> files = new HashMap<String, File>();
+    private static final Map<String, Integer> versions = new HashMap<String, Integer>();
+    private static File directory;
+    private static boolean warnedNotFileBacked;
+
+    /**
+     * @return the database at {@code path}, which is the caller's until it's given back to {@link #close(Entry)}
+     */
+    static synchronized Entry open(String path) {
+        boolean shared = isShared(path);
+        Entry entry = shared ? sharedEntries.get(path) : null;
+        if (entry == null) {
+            entry = new Entry(path, connect(path, shared));
+            if (shared) {
+                sharedEntries.put(path, entry);
+            }
+            openEntries.add(entry);
+        }
+        entry.references++;
+        return entry;
+    }
+
+    /**
+     * Gives back a database got from {@link #open(String)}; it's closed once everyone who opened it has.
+     */
+    static synchronized void close(Entry entry) {
+        if (!entry.open || --entry.references > 0) {
+            return;
+        }
+        if (sharedEntries.get(entry.path) == entry) {
+            sharedEntries.remove(entry.path);
+        }
+        openEntries.remove(entry);
+        if (!files.containsKey(entry.path)) {
+            // its data is gone with its connection
+            versions.remove(entry.path);
+        }
+        entry.closeConnection();
+    }
+
+    static synchronized List<Entry> getOpenDatabases() {
+        return new ArrayList<Entry>(openEntries);
+    }
+
+    /**
+     * @return the version a {@code SQLiteOpenHelper} last created or upgraded the database at {@code path} to, or 0 if
+     *         it hasn't been yet; like {@code PRAGMA user_version}, which not every database understands
+     */
+    static synchronized int getVersion(String path) {
+        Integer version = isShared(path) ? versions.get(path) : null;
+        return version == null ? 0 : version;
+    }
+
+    static synchronized void setVersion(String path, int version) {
+        if (isShared(path)) {
+            versions.put(path, version);
+        }
+    }
+
+    /**
+     * Closes every database, whoever still has it open, and deletes the files they were kept in.
+     */
+    static synchronized void reset() {
+        RuntimeException failure = null;
+        try {
+            for (Entry entry : openEntries) {
+                entry.references = 0;
+                try {
+                    entry.closeConnection();
+                } catch (RuntimeException e) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        System.out.println("Warning: couldn't close database " + entry.path + ": " + e.getCause());
+                    }
+                }
+            }
+        } finally {
+            openEntries.clear();
+            sharedEntries.clear();
+            versions.clear();
+            files.clear();
+            deleteFiles();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static boolean isShared(String path) {
+        return path != null && !path.equals(MEMORY_PATH);
+    }
+
+    private static Connection connect(String path, boolean shared) {
+        if (!shared || !Boolean.getBoolean(ShadowSQLiteDatabase.FILE_BACKED_PROPERTY)) {
+            return DatabaseConfig.getMemoryConnection();
+        }
+        if (!DatabaseConfig.canKeepDatabasesInFiles()) {
+            // not noted in files, so the database's version goes with its data when it's closed
+            if (!warnedNotFileBacked) {
+                System.out.println("Warning: " + ShadowSQLiteDatabase.FILE_BACKED_PROPERTY + " is set, but "
+                        + DatabaseConfig.getDatabaseMap().getClass().getSimpleName()
+                        + " can't keep databases in files, so they're kept in memory");
+                warnedNotFileBacked = true;
+            }
+            return DatabaseConfig.getMemoryConnection();
+        }
+        File file = files.get(path);
+        if (file == null) {
+            file = new File(getDirectory(), files.size() + "-" + new File(path).getName().replaceAll("[^\\w.-]", "_"));
+            File existingFile = new File(path);
+            if (existingFile.isFile()) {
+                if (!DatabaseConfig.getDatabaseMap().getDriverClassName().equals(SQLITE_DRIVER)) {
+                    // anything else would quietly open an empty database of its own alongside the copy
+                    throw new RuntimeException("can't open " + path + ": only SQLiteMap can open a copy of an existing "
+                            + "database file, not " + DatabaseConfig.getDatabaseMap().getClass().getSimpleName());
+                }
+                copy(existingFile, file);
+            }
+            files.put(path, file);
+        }
+        return DatabaseConfig.getFileConnection(file);
+    }
+
+    private static File getDirectory() {
+        if (directory == null) {
+            try {
+                directory = File.createTempFile("robolectric-databases", "");
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            directory.delete();
+            directory.mkdirs();
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    deleteFiles();
+                    directory.delete();
+                }
+            });
+        }
+        return directory;
+    }
+
+    private static void deleteFiles() {
+        File[] directoryFiles = directory == null ? null : directory.listFiles();
+        if (directoryFiles != null) {
+            // the database's own files, and whatever else the database put next to them
+            for (File file : directoryFiles) {
+                file.delete();
+            }
+        }
+    }
+
+    private static void copy(File from, File to) {
+        try {
+            FileChannel in = new FileInputStream(from).getChannel();
+            try {
+                FileChannel out = new FileOutputStream(to).getChannel();
+                try {
+                    long position = 0;
+                    long size = in.size();
+                    while (position < size) {
+                        position += in.transferTo(position, size - position, out);
+                    }
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("couldn't copy database " + from, e);
+        }
+    }
+
+    /**
+     * A database that's open, with the statements prepared on its connection.
+     */
+    static class Entry {
+        final String path;
+        final Connection connection;
+        final PreparedStatementCache statementCache;
+        private int references;
+        private boolean open = true;
+
+        private Entry(String path, Connection connection) {
+            this.path = path;
+            this.connection = connection;
+            this.statementCache = new PreparedStatementCache(connection);
+        }
+
+        boolean isOpen() {
+            return open;
+        }
+
+        private void closeConnection() {
+            open = false;
+            try {
+                try {
+                    statementCache.close();
+                } finally {
+                    connection.close();
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException("SQL exception in close", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.xtremelabs.robolectric.shadows;
+
+import com.xtremelabs.robolectric.util.DatabaseConfig;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * The statements prepared on a database's connection, kept by their sql so that the same sql run over and over
+ * doesn't have to be prepared over and over. Like the statement cache of a real {@code SQLiteDatabase}, it holds up to
+ * 25 statements by default, least recently used first out; they're closed when they fall out of it or when it's
+ * closed.
+ * <p/>
+ * A statement is only handed out to one user at a time, e.g. a {@code SQLiteStatement} or a cursor still reading its
+ * results; anyone else asking for the same sql meanwhile gets a statement of their own, which is closed when they give
+ * it back. The statements and cursors that are still out are kept track of, so they can be reported as leaks.
+ */
+class PreparedStatementCache {
+    static final int DEFAULT_SIZE = 25;
+
+    /**
+     * How a statement is to be prepared, which is part of what it's cached by
+     */
+    enum Kind {
+        UPDATE, INSERT, QUERY
+    }
+
+    private final Connection connection;
+    private int maxSize = DEFAULT_SIZE;
+    private final LinkedHashMap<String, CachedStatement> statements = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true);
+    private final Map<PreparedStatement, CachedStatement> statementsInUse = new IdentityHashMap<PreparedStatement, CachedStatement>();
+    private final WeakHashMap<ShadowSQLiteCursor, Object> openCursors = new WeakHashMap<ShadowSQLiteCursor, Object>();
+
+    PreparedStatementCache(Connection connection) {
+        this.connection = connection;
+    }
+
+    synchronized void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        evict();
+    }
+
+    /**
+     * @return a statement for {@code sql}, with no parameters bound, that's the caller's until it's given back to
+     *         {@link #release(java.sql.PreparedStatement)}
+     */
+    synchronized PreparedStatement acquire(String sql, Kind kind) throws SQLException {
+        String key = kind.name() + ":" + sql;
+        CachedStatement cachedStatement = statements.get(key);
+        if (cachedStatement != null && !cachedStatement.inUse) {
+            cachedStatement.statement.clearParameters();
+            cachedStatement.inUse = true;
+        } else {
+            cachedStatement = new CachedStatement(prepare(sql, kind), cachedStatement == null);
+            cachedStatement.inUse = true;
+            if (cachedStatement.cached) {
+                statements.put(key, cachedStatement);
+                evict();
+            }
+        }
+        statementsInUse.put(cachedStatement.statement, cachedStatement);
+        return cachedStatement.statement;
+    }
+
+    /**
+     * Gives back a statement got from {@link #acquire(String, Kind)}; it mustn't be used after this.
+     */
+    synchronized void release(PreparedStatement statement) {
+        CachedStatement cachedStatement = statementsInUse.remove(statement);
+        if (cachedStatement == null) {
+            return;
+        }
+        cachedStatement.inUse = false;
+        if (!cachedStatement.cached) {
+            close(statement);
+        }
+    }
+
+    synchronized void cursorOpened(ShadowSQLiteCursor cursor) {
+        openCursors.put(cursor, null);
+    }
+
+    synchronized void cursorClosed(ShadowSQLiteCursor cursor) {
+        openCursors.remove(cursor);
+    }
+
+    synchronized int getOpenStatementCount() {
+        return statementsInUse.size();
+    }
+
+    synchronized int getOpenCursorCount() {
+        return openCursors.size();
+    }
+
+    /**
+     * @return a description of the statements and cursors still in use, or null if there aren't any
+     */
+    synchronized String describeLeaks() {
+        if (statementsInUse.isEmpty() && openCursors.isEmpty()) {
+            return null;
+        }
+        return statementsInUse.size() + " statement(s) and " + openCursors.size() + " cursor(s) left open";
+    }
+
+    /**
+     * Closes every statement, whether it's in use or not.
+     */
+    synchronized void close() {
+        Set<PreparedStatement> statementsToClose = Collections.newSetFromMap(new IdentityHashMap<PreparedStatement, Boolean>());
+        for (CachedStatement cachedStatement : statements.values()) {
+            statementsToClose.add(cachedStatement.statement);
+        }
+        statementsToClose.addAll(statementsInUse.keySet());
+        for (PreparedStatement statement : statementsToClose) {
+            close(statement);
+        }
+        statements.clear();
+        statementsInUse.clear();
+        openCursors.clear();
+    }
+
+    private PreparedStatement prepare(String sql, Kind kind) throws SQLException {
+        switch (kind) {
+            case INSERT:
+                return connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+            case QUERY:
+                return connection.prepareStatement(sql, DatabaseConfig.getResultSetType(), ResultSet.CONCUR_READ_ONLY);
+            default:
+                return connection.prepareStatement(sql);
+        }
+    }
+
+    private void evict() {
+        List<CachedStatement> evicted = new ArrayList<CachedStatement>();
+        for (Iterator<CachedStatement> iterator = statements.values().iterator(); statements.size() > maxSize && iterator.hasNext(); ) {
+            evicted.add(iterator.next());
+            iterator.remove();
+        }
+        for (CachedStatement cachedStatement : evicted) {
+            // one that's in use is closed when it's given back
+            cachedStatement.cached = false;
+            if (!cachedStatement.inUse) {
+                close(cachedStatement.statement);
+            }
+        }
+    }
+
+    private static void close(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            throw new RuntimeException("SQL exception in close", e);
+        }
+    }
+
+    private static class CachedStatement {
+        final PreparedStatement statement;
+        boolean cached;
+        boolean inUse;
+
+        CachedStatement(PreparedStatement statement, boolean cached) {
+            this.statement = statement;
+            this.cached = cached;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.xtremelabs.robolectric.shadows;
+
+import java.io.UnsupportedEncodingException;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The rows read so far from a query's {@code ResultSet}, kept column by column the way a {@code CursorWindow} keeps
+ * them: whole numbers in a {@code long[]} and real numbers in a {@code double[]} per column, and everything else,
+ * strings, blobs and whatever else the driver hands back, in an {@code Object[]}. The same string read twice is only
+ * kept once.
+ */
+class ResultSetWindow {
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_LONG = 1;
+    private static final byte TYPE_DOUBLE = 2;
+    private static final byte TYPE_STRING = 3;
+    private static final byte TYPE_BLOB = 4;
+    private static final byte TYPE_OBJECT = 5;
+
+    private final int columnCount;
+    private int rowCount;
+    private int capacity;
+    private final byte[][] types;
+    private final long[][] longs;
+    private final double[][] doubles;
+    private final Object[][] objects;
+    private Map<String, String> strings = new HashMap<String, String>();
+
+    ResultSetWindow(int columnCount) {
+        this.columnCount = columnCount;
+        types = new byte[columnCount][];
+        longs = new long[columnCount][];
+        doubles = new double[columnCount][];
+        objects = new Object[columnCount][];
+    }
+
+    int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Reads up to {@code maxRows} more rows from {@code resultSet}.
+     *
+     * @return false if {@code resultSet} ran out of rows
+     */
+    boolean fill(ResultSet resultSet, int maxRows) throws SQLException {
+        for (int i = 0; i < maxRows; i++) {
+            if (!resultSet.next()) {
+                strings = null;
+                return false;
+            }
+            ensureCapacity(rowCount + 1);
+            for (int column = 0; column < columnCount; column++) {
+                put(rowCount, column, resultSet.getObject(column + 1));
+            }
+            rowCount++;
+        }
+        return true;
+    }
+
+    private void put(int row, int column, Object value) throws SQLException {
+        if (value == null) {
+            types[column][row] = TYPE_NULL;
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            types[column][row] = TYPE_LONG;
+            getLongs(column)[row] = ((Number) value).longValue();
+        } else if (value instanceof Double || value instanceof Float) {
+            types[column][row] = TYPE_DOUBLE;
+            getDoubles(column)[row] = ((Number) value).doubleValue();
+        } else if (value instanceof String) {
+            types[column][row] = TYPE_STRING;
+            getObjects(column)[row] = share((String) value);
+        } else if (value instanceof Clob) {
+            types[column][row] = TYPE_STRING;
+            Clob clob = (Clob) value;
+            getObjects(column)[row] = share(clob.getSubString(1, (int) clob.length()));
+        } else if (value instanceof byte[]) {
+            types[column][row] = TYPE_BLOB;
+            getObjects(column)[row] = value;
+        } else if (value instanceof Blob) {
+            types[column][row] = TYPE_BLOB;
+            Blob blob = (Blob) value;
+            getObjects(column)[row] = blob.getBytes(1, (int) blob.length());
+        } else {
+            types[column][row] = TYPE_OBJECT;
+            getObjects(column)[row] = value;
+        }
+    }
+
+    private String share(String string) {
+        if (strings == null) {
+            return string;
+        }
+        String sharedString = strings.get(string);
+        if (sharedString == null) {
+            strings.put(string, string);
+            sharedString = string;
+        }
+        return sharedString;
+    }
+
+    private void ensureCapacity(int rows) {
+        if (rows <= capacity) {
+            return;
+        }
+        capacity = Math.max(rows, capacity == 0 ? 16 : capacity * 2);
+        for (int column = 0; column < columnCount; column++) {
+            types[column] = types[column] == null ? new byte[capacity] : Arrays.copyOf(types[column], capacity);
+            if (longs[column] != null) {
+                longs[column] = Arrays.copyOf(longs[column], capacity);
+            }
+            if (doubles[column] != null) {
+                doubles[column] = Arrays.copyOf(doubles[column], capacity);
+            }
+            if (objects[column] != null) {
+                objects[column] = Arrays.copyOf(objects[column], capacity);
+            }
+        }
+    }
+
+    // a column's arrays are only made once it has a value of their kind
+
+    private long[] getLongs(int column) {
+        if (longs[column] == null) {
+            longs[column] = new long[capacity];
+        }
+        return longs[column];
+    }
+
+    private double[] getDoubles(int column) {
+        if (doubles[column] == null) {
+            doubles[column] = new double[capacity];
+        }
+        return doubles[column];
+    }
+
+    private Object[] getObjects(int column) {
+        if (objects[column] == null) {
+            objects[column] = new Object[capacity];
+        }
+        return objects[column];
+    }
+
+    boolean isNull(int row, int column) {
+        return types[column][row] == TYPE_NULL;
+    }
+
+    long getLong(int row, int column) {
+        switch (types[column][row]) {
+            case TYPE_NULL:
+                return 0;
+            case TYPE_LONG:
+                return longs[column][row];
+            case TYPE_DOUBLE:
+                return (long) doubles[column][row];
+            default:
+                return new Long(objects[column][row].toString());
+        }
+    }
+
+    double getDouble(int row, int column) {
+        switch (types[column][row]) {
+            case TYPE_NULL:
+                return 0;
+            case TYPE_LONG:
+                return longs[column][row];
+            case TYPE_DOUBLE:
+                return doubles[column][row];
+            default:
+                return new Double(objects[column][row].toString());
+        }
+    }
+
+    String getString(int row, int column) {
+        switch (types[column][row]) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_LONG:
+                return String.valueOf(longs[column][row]);
+            case TYPE_DOUBLE:
+                return String.valueOf(doubles[column][row]);
+            case TYPE_STRING:
+                return (String) objects[column][row];
+            case TYPE_BLOB:
+                // like sqlite3_column_text(), which reads the blob's bytes as UTF-8
+                try {
+                    return new String((byte[]) objects[column][row], "UTF-8");
+                } catch (UnsupportedEncodingException e) {
+                    throw new RuntimeException(e);
+                }
+            default:
+                return String.valueOf(objects[column][row]);
+        }
+    }
+
+    byte[] getBlob(int row, int column) {
+        switch (types[column][row]) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_LONG:
+            case TYPE_DOUBLE:
+                throw new ClassCastException("column " + column + " of row " + row + " is a number, not a blob");
+            default:
+                return (byte[]) objects[column][row];
+        }
+    }
+}
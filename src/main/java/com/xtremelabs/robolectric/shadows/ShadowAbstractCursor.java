@@ -18,11 +18,9 @@ public class ShadowAbstractCursor {
     @RealObject
     private AbstractCursor realAbstractCursor;
 
-    protected Map<String, Object> currentRow;
     protected int currentRowNumber = -1;
     protected Map<String, Integer> columnNames = new HashMap<String, Integer>();
     protected String[] columnNameArray;
-    protected Map<Integer, Map<String, Object>> rows = new HashMap<Integer, Map<String, Object>>();
     protected int rowCount;
     protected Uri notificationUri;
 
@@ -63,17 +61,12 @@ public class ShadowAbstractCursor {
     }
 
     /**
-     * Set currentRowNumber(Int) and currentRow (Map)
+     * Set currentRowNumber(Int)
      *
      * @param pos = the position to set
      */
     private void setPosition(int pos) {
         currentRowNumber = pos;
-        if ((-1 == currentRowNumber) || (rowCount == currentRowNumber)) {
-            currentRow = null;
-        } else {
-            currentRow = rows.get(currentRowNumber);
-        }
     }
 
     @Implementation
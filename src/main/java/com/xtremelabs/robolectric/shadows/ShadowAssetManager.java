@@ -5,8 +5,6 @@ import com.xtremelabs.robolectric.internal.Implementation;
 import com.xtremelabs.robolectric.internal.Implements;
 import com.xtremelabs.robolectric.res.ResourceLoader;
 
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -26,16 +24,12 @@ public final class ShadowAssetManager {
 
     @Implementation
     public final String[] list(String path) throws IOException {
-        File file = new File(resourceLoader.getAssetsBase(), path);
-        if (file.isDirectory()) {
-            return file.list();
-        }
-        return new String[0];
+        return resourceLoader.getAssetStore().list(path);
     }
 
     @Implementation
     public final InputStream open(String fileName) throws IOException {
-        return new FileInputStream(new File(resourceLoader.getAssetsBase(), fileName));
+        return resourceLoader.getAssetStore().open(fileName);
     }
 
 }
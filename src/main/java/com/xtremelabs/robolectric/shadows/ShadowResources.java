@@ -194,8 +194,9 @@ public class ShadowResources {
     @Implementation
     public float getDimension(int id) throws Resources.NotFoundException {
         // todo: get this value from the xml resources and scale it by display metrics [xw 20101011]
-        if (resourceLoader.dimensions.containsKey(id)) {
-            return resourceLoader.dimensions.get(id);
+        Integer dimension = resourceLoader.dimensions.get(id);
+        if (dimension != null) {
+            return dimension;
         }
         return id - 0x7f000000;
     }
@@ -4,22 +4,28 @@ import android.database.sqlite.SQLiteCursor;
 import com.xtremelabs.robolectric.internal.Implementation;
 import com.xtremelabs.robolectric.internal.Implements;
 
-import java.sql.Clob;
-import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
-import java.sql.Statement;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
- * Simulates an Android Cursor object, by wrapping a JDBC ResultSet.
+ * Simulates an Android Cursor object, by wrapping a JDBC ResultSet. The query is only run once; its rows are read
+ * as the cursor moves through them.
  */
 @Implements(SQLiteCursor.class)
 public class ShadowSQLiteCursor extends ShadowAbstractCursor {
 
+    /**
+     * How many rows are read from the result set at a time, the way a {@code CursorWindow} is filled
+     */
+    static final int ROWS_PER_WINDOW = 1024;
+
     private ResultSet resultSet;
+    private ResultSetWindow window;
+    private boolean moreRows;
+    private PreparedStatement statement;
+    private PreparedStatementCache statementCache;
     
     
     /**
@@ -67,6 +73,16 @@ public class ShadowSQLiteCursor extends ShadowAbstractCursor {
         return columnIndex;
     }
 
+    @Implementation
+    @Override
+    public int getCount() {
+        hasRow(Integer.MAX_VALUE);
+        return rowCount;
+    }
+
+    // rows are only read from the result set as the cursor gets to them, so moving doesn't ask for the count
+    // unless it has to
+
     @Implementation
     @Override
     public final boolean moveToLast() {
@@ -76,95 +92,110 @@ public class ShadowSQLiteCursor extends ShadowAbstractCursor {
     @Implementation
     @Override
     public final boolean moveToFirst() {
-        return super.moveToFirst();
+        currentRowNumber = 0;
+        return hasRow(0);
     }
 
     @Implementation
     @Override
     public boolean moveToNext() {
-        return super.moveToNext();
+        if (!hasRow(currentRowNumber + 1)) {
+            currentRowNumber = rowCount;
+            return false;
+        }
+        currentRowNumber++;
+        return true;
     }
     
     @Implementation
     @Override
     public boolean moveToPrevious() {
-        return super.moveToPrevious();
+        if (currentRowNumber < 0 || !hasRow(0)) {
+            return false;
+        }
+        currentRowNumber--;
+        return true;
     }
     
     @Implementation
     @Override
     public boolean moveToPosition(int pos) {
-    	return super.moveToPosition(pos);
+        if (pos >= 0 && !hasRow(pos)) {
+            return false;
+        }
+        currentRowNumber = pos;
+        return true;
     }
 
     @Implementation
     public byte[] getBlob(int columnIndex) {
     	checkPosition();
-        return (byte[]) this.currentRow.get(getColumnNames()[columnIndex]);
+        return window.getBlob(currentRowNumber, columnIndex);
     }
 
     @Implementation
     public String getString(int columnIndex) {
         checkPosition();
-        Object value = this.currentRow.get(getColumnNames()[columnIndex]);
-        if (value instanceof Clob) {
-            try {
-                return ((Clob) value).getSubString(1, (int)((Clob) value).length());
-            } catch (SQLException x) {
-                throw new RuntimeException(x);
-            }
-        } else {
-            return (String)value;
-        }
+        return window.getString(currentRowNumber, columnIndex);
     }
 	
 	@Implementation
 	public short getShort(int columnIndex) {
 		checkPosition();
-		Object o =this.currentRow.get(getColumnNames()[columnIndex]);
-    	if (o==null) return 0;
-        return new Short(o.toString());
+        return (short) window.getLong(currentRowNumber, columnIndex);
 	}
 	
     @Implementation
     public int getInt(int columnIndex) {
     	checkPosition();
-    	Object o =this.currentRow.get(getColumnNames()[columnIndex]);
-    	if (o==null) return 0;
-        return new Integer(o.toString());
+        return (int) window.getLong(currentRowNumber, columnIndex);
     }
 
     @Implementation
     public long getLong(int columnIndex) {
     	checkPosition();
-    	Object o =this.currentRow.get(getColumnNames()[columnIndex]);
-    	if (o==null) return 0;
-        return new Long(o.toString());
+        return window.getLong(currentRowNumber, columnIndex);
     }
 
     @Implementation
     public float getFloat(int columnIndex) {
     	checkPosition();
-    	Object o =this.currentRow.get(getColumnNames()[columnIndex]);
-    	if (o==null) return 0;
-        return new Float(o.toString());
-        
+        return (float) window.getDouble(currentRowNumber, columnIndex);
     }
 
     @Implementation
     public double getDouble(int columnIndex) {
     	checkPosition();
-    	Object o =this.currentRow.get(getColumnNames()[columnIndex]);
-    	if (o==null) return 0;
-    	return new Double(o.toString());
+    	return window.getDouble(currentRowNumber, columnIndex);
     }
     
     private void checkPosition() {
-        if (-1 == currentRowNumber || getCount() == currentRowNumber) {      
+        if (currentRowNumber < 0 || !hasRow(currentRowNumber)) {
             throw new IndexOutOfBoundsException(currentRowNumber + " " + getCount());
         }
     }
 
+    /**
+     * Reads rows from the result set, a window at a time, until there are more than {@code pos} of them or it runs out.
+     *
+     * @return whether there's a row at {@code pos}
+     */
+    private boolean hasRow(int pos) {
+        while (pos >= rowCount && moreRows) {
+            try {
+                moreRows = window.fill(resultSet, ROWS_PER_WINDOW);
+                if (!moreRows) {
+                    resultSet.close();
+                    releaseStatement();
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException("SQL exception in fillWindow", e);
+            }
+            rowCount = window.getRowCount();
+        }
+        return pos < rowCount;
+    }
+
     @Implementation
     public void close() {
         if (resultSet == null) {
@@ -174,8 +205,12 @@ public class ShadowSQLiteCursor extends ShadowAbstractCursor {
         try {
             resultSet.close();
             resultSet = null;
-            rows = null;
-            currentRow = null;
+            window = null;
+            moreRows = false;
+            releaseStatement();
+            if (statementCache != null) {
+                statementCache.cursorClosed(this);
+            }
         } catch (SQLException e) {
             throw new RuntimeException("SQL exception in close", e);
         }
@@ -188,8 +223,7 @@ public class ShadowSQLiteCursor extends ShadowAbstractCursor {
 
     @Implementation
     public boolean isNull(int columnIndex) {
-        Object o = this.currentRow.get(getColumnNames()[columnIndex]);
-        return o == null;
+        return window.isNull(currentRowNumber, columnIndex);
     }
 
     /**
@@ -213,50 +247,33 @@ public class ShadowSQLiteCursor extends ShadowAbstractCursor {
     }    
     
     /**
-     * loads a row's values
-     * @param rs
-     * @return
-     * @throws SQLException
+     * Like {@link #setResultSet(java.sql.ResultSet, String)}, for a result set of {@code statement}, which is given back
+     * to {@code statementCache} once all of its rows have been read, or the cursor is closed.
      */
-    private Map<String,Object> fillRowValues(ResultSet rs) throws SQLException {
-    	Map<String,Object> row = new HashMap<String,Object>();
-    	for (String s : getColumnNames()) {
-			  row.put(s, rs.getObject(s));
-    	}
-    	return row;
+    void setResultSet(ResultSet result, String sql, PreparedStatement statement, PreparedStatementCache statementCache) {
+        this.statement = statement;
+        this.statementCache = statementCache;
+        statementCache.cursorOpened(this);
+        setResultSet(result, sql);
     }
-    private void fillRows(String sql, Connection connection) throws SQLException {
-    	//ResultSets in SQLite\Android are only TYPE_FORWARD_ONLY. Android caches results in the WindowedCursor to allow moveToPrevious() to function.
-    	//Robolectric will have to cache the results too. In the rows map.
-    	Statement statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
-        ResultSet rs = statement.executeQuery(sql);
-        int count = 0;
-        if (rs.next()) {  
-        	     do {
-        	    	Map<String,Object> row = fillRowValues(rs);
-         	    	rows.put(count, row);
-        	    	count++;
-        	     } while (rs.next());  
-        	 } else {  
-        		 rs.close(); 
-        	 } 
-        
-        rowCount = count;
-        
+
+    private void releaseStatement() {
+        if (statement != null) {
+            statementCache.release(statement);
+            statement = null;
+        }
     }
-    
+
     public void setResultSet(ResultSet result, String sql) {
         this.resultSet = result;
         rowCount = 0;
 
-        //Cache all rows.  Caching rows should be thought of as a simple replacement for ShadowCursorWindow
+        //Rows are cached as they're read.  Caching rows should be thought of as a simple replacement for ShadowCursorWindow
         if (resultSet != null) {
         	cacheColumnNames(resultSet);
-        	try {
-        		fillRows(sql, result.getStatement().getConnection());
-			} catch (SQLException e) {
-			    throw new RuntimeException("SQL exception in setResultSet", e);
-			}
+        	window = new ResultSetWindow(columnNameArray.length);
+        	moreRows = true;
+        	hasRow(0);
         }
     }
 }
@@ -7,7 +7,6 @@ import android.database.sqlite.SQLiteClosable;
 import android.database.sqlite.SQLiteCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteDatabaseCorruptException;
-import android.database.sqlite.SQLiteQueryBuilder;
 import android.database.sqlite.SQLiteStatement;
 import com.xtremelabs.robolectric.Robolectric;
 import com.xtremelabs.robolectric.internal.Implementation;
@@ -21,7 +20,9 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.WeakHashMap;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -30,17 +31,24 @@ import static com.xtremelabs.robolectric.Robolectric.shadowOf;
 import static com.xtremelabs.robolectric.util.SQLite.buildDeleteString;
 import static com.xtremelabs.robolectric.util.SQLite.buildInsertString;
 import static com.xtremelabs.robolectric.util.SQLite.buildUpdateString;
-import static com.xtremelabs.robolectric.util.SQLite.buildWhereClause;
+import static com.xtremelabs.robolectric.util.SQLite.checkWhereArgs;
 
 /**
  * Shadow for {@code SQLiteDatabase} that simulates the movement of a {@code Cursor} through database tables.
  * Implemented as a wrapper around an embedded SQL database, accessed via JDBC.  The JDBC connection is
  * made available to test cases for use in fixture setup and assertions.
+ * <p/>
+ * Each database is bound to the connection for its path; databases opened at the same path share one, and are reset
+ * between tests. They're kept in memory unless {@code robolectric.fileBackedDatabases} is set, in which case they're
+ * kept in temp files, and a path naming an existing database file opens a copy of it.
  */
 @Implements(SQLiteDatabase.class)
 public class ShadowSQLiteDatabase  {
+    public static final String REPORT_LEAKS_PROPERTY = "robolectric.reportDatabaseLeaks";
+    public static final String FILE_BACKED_PROPERTY = "robolectric.fileBackedDatabases";
+
 	@RealObject	SQLiteDatabase realSQLiteDatabase;
-    private static Connection connection;
+    private DatabaseRegistry.Entry registryEntry;
     private final ReentrantLock mLock = new ReentrantLock(true);
     private boolean mLockingEnabled = true;
     private WeakHashMap<SQLiteClosable, Object> mPrograms;
@@ -63,8 +71,17 @@ public class ShadowSQLiteDatabase  {
     
     @Implementation
     public static SQLiteDatabase openDatabase(String path, SQLiteDatabase.CursorFactory factory, int flags) {
-     	connection = DatabaseConfig.getMemoryConnection();
-        return newInstanceOf(SQLiteDatabase.class);
+        SQLiteDatabase database = newInstanceOf(SQLiteDatabase.class);
+        shadowOf(database).registryEntry = DatabaseRegistry.open(path);
+        return database;
+    }
+
+    /**
+     * Closes every database, whether or not it was closed, and deletes any files they were kept in. Called between
+     * tests.
+     */
+    public static void reset() {
+        DatabaseRegistry.reset();
     }
     
     @Implementation
@@ -83,20 +100,24 @@ public class ShadowSQLiteDatabase  {
 
         try {
             SQLStringAndBindings sqlInsertString = buildInsertString(table, initialValues, conflictAlgorithm);
-            PreparedStatement insert = connection.prepareStatement(sqlInsertString.sql, Statement.RETURN_GENERATED_KEYS);
-            Iterator<Object> columns = sqlInsertString.columnValues.iterator();
-            int i = 1;
-            long result = -1;
-            while (columns.hasNext()) {
-                insert.setObject(i++, columns.next());
-            }
-            insert.executeUpdate();
-            ResultSet resultSet = insert.getGeneratedKeys();
-            if (resultSet.next()) {
-                result = resultSet.getLong(1);
+            PreparedStatement insert = getStatementCache().acquire(sqlInsertString.sql, PreparedStatementCache.Kind.INSERT);
+            try {
+                Iterator<Object> columns = sqlInsertString.columnValues.iterator();
+                int i = 1;
+                long result = -1;
+                while (columns.hasNext()) {
+                    insert.setObject(i++, columns.next());
+                }
+                insert.executeUpdate();
+                ResultSet resultSet = insert.getGeneratedKeys();
+                if (resultSet.next()) {
+                    result = resultSet.getLong(1);
+                }
+                resultSet.close();
+                return result;
+            } finally {
+                getStatementCache().release(insert);
             }
-            resultSet.close();
-            return result;
         } catch (SQLException e) {
             return -1; // this is how SQLite behaves, unlike H2 which throws exceptions
         }
@@ -107,25 +128,16 @@ public class ShadowSQLiteDatabase  {
                         String selection, String[] selectionArgs, String groupBy,
                         String having, String orderBy, String limit) {
 
-        String where = selection;
-        if (selection != null && selectionArgs != null) {
-            where = buildWhereClause(selection, selectionArgs);
-        }
-
-        String sql = SQLiteQueryBuilder.buildQueryString(distinct, table,
-                columns, where, groupBy, having, orderBy, limit);
+        SQLStringAndBindings query = ShadowSQLiteQueryBuilder.buildQueryStringAndBindings(distinct, table,
+                columns, selection, selectionArgs, groupBy, having, orderBy, limit);
 
-        ResultSet resultSet;
         try {
-            Statement statement = connection.createStatement(DatabaseConfig.getResultSetType(), ResultSet.CONCUR_READ_ONLY);
-            resultSet = statement.executeQuery(sql);
+            PreparedStatement statement = getStatementCache().acquire(query.sql, PreparedStatementCache.Kind.QUERY);
+            bind(statement, query.columnValues);
+            return newCursor(statement, query.sql);
         } catch (SQLException e) {
             throw new RuntimeException("SQL exception in query", e);
         }
-
-        SQLiteCursor cursor = new SQLiteCursor(null, null, null, null);
-        shadowOf(cursor).setResultSet(resultSet,sql);
-        return cursor;
     }
 
     @Implementation
@@ -147,14 +159,13 @@ public class ShadowSQLiteDatabase  {
         SQLStringAndBindings sqlUpdateString = buildUpdateString(table, values, whereClause, whereArgs);
 
         try {
-            PreparedStatement statement = connection.prepareStatement(sqlUpdateString.sql);
-            Iterator<Object> columns = sqlUpdateString.columnValues.iterator();
-            int i = 1;
-            while (columns.hasNext()) {
-                statement.setObject(i++, columns.next());
+            PreparedStatement statement = getStatementCache().acquire(sqlUpdateString.sql, PreparedStatementCache.Kind.UPDATE);
+            try {
+                bind(statement, sqlUpdateString.columnValues);
+                return statement.executeUpdate();
+            } finally {
+                getStatementCache().release(statement);
             }
-
-            return statement.executeUpdate();
         } catch (SQLException e) {
             throw new RuntimeException("SQL exception in update", e);
         }
@@ -162,10 +173,16 @@ public class ShadowSQLiteDatabase  {
 
     @Implementation
     public int delete(String table, String whereClause, String[] whereArgs) {
-        String sql = buildDeleteString(table, whereClause, whereArgs);
+        SQLStringAndBindings sqlDeleteString = buildDeleteString(table, whereClause, whereArgs);
 
         try {
-            return connection.prepareStatement(sql).executeUpdate();
+            PreparedStatement statement = getStatementCache().acquire(sqlDeleteString.sql, PreparedStatementCache.Kind.UPDATE);
+            try {
+                bind(statement, sqlDeleteString.columnValues);
+                return statement.executeUpdate();
+            } finally {
+                getStatementCache().release(statement);
+            }
         } catch (SQLException e) {
             throw new RuntimeException("SQL exception in delete", e);
         }
@@ -179,7 +196,12 @@ public class ShadowSQLiteDatabase  {
 
         try {
         	String scrubbedSql= DatabaseConfig.getScrubSQL(sql);
-            connection.createStatement().execute(scrubbedSql);
+            Statement statement = getConnection().createStatement();
+            try {
+                statement.execute(scrubbedSql);
+            } finally {
+                statement.close();
+            }
         } catch (java.sql.SQLException e) {
             android.database.SQLException ase = new android.database.SQLException();
             ase.initCause(e);
@@ -217,36 +239,58 @@ public class ShadowSQLiteDatabase  {
 
     @Implementation
     public Cursor rawQuery (String sql, String[] selectionArgs){
-    	String sqlBody = sql;
         if (sql != null) {
-        	sqlBody = buildWhereClause(sql, selectionArgs);
+            checkWhereArgs(sql, selectionArgs);
+        }
+
+        try {
+            PreparedStatement statement = getStatementCache().acquire(DatabaseConfig.getScrubSQL(sql), PreparedStatementCache.Kind.QUERY);
+            if (selectionArgs != null) {
+                bind(statement, Arrays.<Object>asList(selectionArgs));
+            }
+            return newCursor(statement, sql);
+        } catch (SQLException e) {
+            throw new RuntimeException("SQL exception in query", e);
+        }
+    }
+
+    /**
+     * Binds {@code values} to {@code statement}'s parameters, in order; if that fails, the statement is given back to
+     * the statement cache.
+     */
+    private void bind(PreparedStatement statement, List<Object> values) throws SQLException {
+        try {
+            int i = 1;
+            for (Object value : values) {
+                statement.setObject(i++, value);
+            }
+        } catch (SQLException e) {
+            getStatementCache().release(statement);
+            throw e;
         }
-    	
+    }
+
+    /**
+     * Runs {@code statement} and hands it over to a cursor over its results, which gives it back to the statement
+     * cache once it's done with it.
+     */
+    private Cursor newCursor(PreparedStatement statement, String sql) throws SQLException {
         ResultSet resultSet;
         try {
-          	SQLiteStatement stmt = compileStatement(sql);
-          	
-          	 int numArgs = selectionArgs == null ? 0
-                     : selectionArgs.length;
-             for (int i = 0; i < numArgs; i++) {
-            		stmt.bindString(i + 1, selectionArgs[i]);
-             }
-          
-              resultSet = Robolectric.shadowOf(stmt).getStatement().executeQuery();
-          } catch (SQLException e) {
-              throw new RuntimeException("SQL exception in query", e);
-          }
-          //TODO: assert rawquery with args returns actual values
-          
-          
+            resultSet = statement.executeQuery();
+        } catch (SQLException e) {
+            getStatementCache().release(statement);
+            throw e;
+        }
+
         SQLiteCursor cursor = new SQLiteCursor(null, null, null, null);
-        shadowOf(cursor).setResultSet(resultSet, sqlBody);
+        shadowOf(cursor).setResultSet(resultSet, sql, statement, getStatementCache());
         return cursor;
     }
     
     @Implementation
     public boolean isOpen() {
-        return (connection != null);
+        return registryEntry != null && registryEntry.isOpen();
     }
 
     @Implementation
@@ -254,18 +298,15 @@ public class ShadowSQLiteDatabase  {
         if (!isOpen()) {
             return;
         }
-        try {
-            connection.close();
-            connection = null;
-        } catch (SQLException e) {
-            throw new RuntimeException("SQL exception in close", e);
-        }
+        DatabaseRegistry.Entry entry = registryEntry;
+        registryEntry = null;
+        DatabaseRegistry.close(entry);
     }
 
 	@Implementation
 	public void beginTransaction() {
 		try {
-			connection.setAutoCommit(false);
+			getConnection().setAutoCommit(false);
 		} catch (SQLException e) {
 			throw new RuntimeException("SQL exception in beginTransaction", e);
 		}
@@ -286,11 +327,11 @@ public class ShadowSQLiteDatabase  {
 		try {
 			if (transactionSuccess) {
 				transactionSuccess = false;
-				connection.commit();
+				getConnection().commit();
 			} else {
-				connection.rollback();
+				getConnection().rollback();
 			}
-			connection.setAutoCommit(true);
+			getConnection().setAutoCommit(true);
 		} catch (SQLException e) {
 			throw new RuntimeException("SQL exception in beginTransaction", e);
 		}
@@ -311,7 +352,55 @@ public class ShadowSQLiteDatabase  {
      * @return the connection
      */
     public Connection getConnection() {
-        return connection;
+        return registryEntry == null ? null : registryEntry.connection;
+    }
+
+    PreparedStatementCache getStatementCache() {
+        return registryEntry == null ? null : registryEntry.statementCache;
+    }
+
+    @Implementation
+    public void setMaxSqlCacheSize(int cacheSize) {
+        if (cacheSize > SQLiteDatabase.MAX_SQL_CACHE_SIZE || cacheSize < 0) {
+            throw new IllegalStateException("expected value between 0 and " + SQLiteDatabase.MAX_SQL_CACHE_SIZE);
+        }
+        getStatementCache().setMaxSize(cacheSize);
+    }
+
+    /**
+     * Allows test cases to check that they close what they open.
+     *
+     * @return how many statements compiled or queried through this database haven't been closed, or read to the end
+     */
+    public int getOpenStatementCount() {
+        return isOpen() ? getStatementCache().getOpenStatementCount() : 0;
+    }
+
+    /**
+     * Allows test cases to check that they close what they open.
+     *
+     * @return how many cursors returned by this database haven't been closed
+     */
+    public int getOpenCursorCount() {
+        return isOpen() ? getStatementCache().getOpenCursorCount() : 0;
+    }
+
+    /**
+     * Prints a warning if statements or cursors were left open, when {@code robolectric.reportDatabaseLeaks} is set.
+     * Called after each test.
+     *
+     * @param testName the test that just ran
+     */
+    public static void reportLeaks(String testName) {
+        if (!Boolean.getBoolean(REPORT_LEAKS_PROPERTY)) {
+            return;
+        }
+        for (DatabaseRegistry.Entry entry : DatabaseRegistry.getOpenDatabases()) {
+            String leaks = entry.statementCache.describeLeaks();
+            if (leaks != null) {
+                System.out.println("Warning: " + testName + " " + leaks + " on database " + entry.path);
+            }
+        }
     }
     
     @Implementation
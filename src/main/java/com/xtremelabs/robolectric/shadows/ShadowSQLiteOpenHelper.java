@@ -7,23 +7,45 @@ import android.database.sqlite.SQLiteOpenHelper;
 import com.xtremelabs.robolectric.internal.Implementation;
 import com.xtremelabs.robolectric.internal.Implements;
 import com.xtremelabs.robolectric.internal.RealObject;
+import com.xtremelabs.robolectric.util.DatabaseConfig;
+import com.xtremelabs.robolectric.util.DatabaseTemplates;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import static com.xtremelabs.robolectric.Robolectric.shadowOf;
 
 /**
  * Shadow for {@code SQLiteOpenHelper}.  Provides basic support for retrieving
  * databases and partially implements the subclass contract.  (Currently,
  * support for {@code #onUpgrade} is missing).
+ * <p/>
+ * Each helper opens the database with its name, or a database of its own if it has none. {@code onCreate()} is only
+ * called for a database that no helper has created yet.
+ * <p/>
+ * When {@code robolectric.databaseTemplates} is set, the database {@code onCreate()} leaves behind is saved as a
+ * template, and later databases for the same helper class, database name and version are copied from it instead of
+ * being created again. A helper's templates are let go of when its class file changes, or that of one of its
+ * superclasses or of a class nested in one of them. Changes to anything else {@code onCreate()} uses, such as a schema
+ * file or another class, aren't noticed; set {@code robolectric.databaseTemplateVersion} and change it when those
+ * change. Anything else {@code onCreate()} does, other than to the database, won't happen for those later databases.
  */
 @Implements(SQLiteOpenHelper.class)
 public class ShadowSQLiteOpenHelper {
 
     @RealObject private SQLiteOpenHelper realHelper;
-    private static SQLiteDatabase database;
+    private SQLiteDatabase database;
+    private static final Map<Class, String> classFileChecksums = new HashMap<Class, String>();
+    private String name;
+    private int version;
 
     public void __constructor__(Context context, String name, CursorFactory factory, int version) {
-        if (database != null) {
-            database.close();
-        }
-        database = null;
+        this.name = name;
+        this.version = version;
     }
 
     @Implementation
@@ -36,9 +58,8 @@ public class ShadowSQLiteOpenHelper {
 
     @Implementation
     public synchronized SQLiteDatabase getReadableDatabase() {
-        if (database == null) {
-            database = SQLiteDatabase.openDatabase("path", null, 0);
-            realHelper.onCreate(database);
+        if (database == null || !database.isOpen()) {
+            database = createDatabase();
         }
 
         realHelper.onOpen(database);
@@ -47,12 +68,96 @@ public class ShadowSQLiteOpenHelper {
 
     @Implementation
     public synchronized SQLiteDatabase getWritableDatabase() {
-        if (database == null) {
-            database = SQLiteDatabase.openDatabase("path", null, 0);
-            realHelper.onCreate(database);
+        if (database == null || !database.isOpen()) {
+            database = createDatabase();
         }
 
         realHelper.onOpen(database);
         return database;
     }
+
+    private SQLiteDatabase createDatabase() {
+        String path = name == null ? DatabaseRegistry.MEMORY_PATH : name;
+        SQLiteDatabase database = SQLiteDatabase.openDatabase(path, null, 0);
+        if (DatabaseRegistry.getVersion(path) != 0) {
+            return database;
+        }
+
+        if (!DatabaseTemplates.isEnabled()) {
+            realHelper.onCreate(database);
+        } else {
+            String templateName = getTemplateName();
+            Connection connection = shadowOf(database).getConnection();
+            if (!DatabaseTemplates.restore(templateName, connection)) {
+                realHelper.onCreate(database);
+                DatabaseTemplates.save(templateName, connection);
+            }
+        }
+        DatabaseRegistry.setVersion(path, version);
+        return database;
+    }
+
+    /**
+     * @return a name for the database {@code onCreate()} makes, which changes whenever it might
+     */
+    private String getTemplateName() {
+        Class helperClass = realHelper.getClass();
+        String templateName = helperClass.getName() + "-" + name + "-" + version + "-"
+                + DatabaseConfig.getDatabaseMap().getClass().getSimpleName() + "-" + getClassFileChecksum(helperClass);
+        String userVersion = System.getProperty(DatabaseTemplates.VERSION_PROPERTY);
+        if (userVersion != null) {
+            templateName += "-" + userVersion;
+        }
+        return templateName.replaceAll("[^\\w.-]", "_");
+    }
+
+    private static synchronized String getClassFileChecksum(Class helperClass) {
+        String checksum = classFileChecksums.get(helperClass);
+        if (checksum == null) {
+            CRC32 crc = new CRC32();
+            for (Class c = helperClass; c != null && c != SQLiteOpenHelper.class; c = c.getSuperclass()) {
+                addClassFiles(crc, c);
+            }
+            checksum = Long.toHexString(crc.getValue());
+            classFileChecksums.put(helperClass, checksum);
+        }
+        return checksum;
+    }
+
+    /**
+     * Adds {@code c}'s class file to {@code crc}, along with those of the classes nested in it, named or anonymous.
+     */
+    private static void addClassFiles(CRC32 crc, Class c) {
+        ClassLoader classLoader = c.getClassLoader();
+        String resourceName = c.getName().replace('.', '/');
+        if (!addClassFile(crc, classLoader, resourceName + ".class")) {
+            crc.update(c.getName().getBytes());
+        }
+        for (Class nestedClass : c.getDeclaredClasses()) {
+            addClassFiles(crc, nestedClass);
+        }
+        for (int i = 1; addClassFile(crc, classLoader, resourceName + "$" + i + ".class"); i++) {
+        }
+    }
+
+    private static boolean addClassFile(CRC32 crc, ClassLoader classLoader, String resourceName) {
+        InputStream in = classLoader == null ? null : classLoader.getResourceAsStream(resourceName);
+        if (in == null) {
+            return false;
+        }
+        try {
+            try {
+                byte[] buffer = new byte[8192];
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    crc.update(buffer, 0, count);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return true;
+    }
 }
@@ -10,7 +10,6 @@ import com.xtremelabs.robolectric.internal.RealObject;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.sql.Statement;
 
 @Implements(SQLiteProgram.class)
 public abstract class ShadowSQLiteProgram {
@@ -18,19 +17,32 @@ public abstract class ShadowSQLiteProgram {
 	protected SQLiteDatabase mDatabase;
 	Connection connection;
 	PreparedStatement actualDBstatement;
+	private PreparedStatementCache statementCache;
 	public void init(SQLiteDatabase db, String sql) {
 	 mDatabase = db;
 	 connection = Robolectric.shadowOf(db).getConnection();
+	 statementCache = Robolectric.shadowOf(db).getStatementCache();
 
 	 try {
-			actualDBstatement = connection.prepareStatement(sql,
-					Statement.RETURN_GENERATED_KEYS);
+			actualDBstatement = statementCache.acquire(sql, PreparedStatementCache.Kind.INSERT);
 		} catch (SQLException e) {
 			throw new RuntimeException(e);
 		}
 	 
         compile(sql, false);
 	}
+
+	/**
+	 * Gives the statement back to the database's statement cache, for the next program compiled from the same sql.
+	 */
+	@Implementation
+	public void close() {
+		if (actualDBstatement == null) {
+			return;
+		}
+		statementCache.release(actualDBstatement);
+		actualDBstatement = null;
+	}
 	
 	@Implementation
 	public void compile(String sql, boolean forceCompilation) {
@@ -4,6 +4,12 @@ import android.database.sqlite.SQLiteQueryBuilder;
 import com.xtremelabs.robolectric.internal.Implementation;
 import com.xtremelabs.robolectric.internal.Implements;
 import com.xtremelabs.robolectric.util.Join;
+import com.xtremelabs.robolectric.util.SQLite;
+import com.xtremelabs.robolectric.util.SQLite.SQLStringAndBindings;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Shadow for {@code SQLiteQueryBuilder}.
@@ -40,6 +46,26 @@ public class ShadowSQLiteQueryBuilder {
         return sb.toString();
     }
 
+    /**
+     * Like {@link #buildQueryString(boolean, String, String[], String, String, String, String, String)}, but with the
+     * values of the args in {@code where} to be bound to the statement rather than put in its sql, so the same
+     * statement can be run whatever they are.
+     *
+     * @param whereArgs values for the args in {@code where}, or null if they're not to be checked
+     * @return the query, and the values to bind to it
+     */
+    public static SQLStringAndBindings buildQueryStringAndBindings(boolean distinct, String tables,
+                                                                   String[] columns, String where, String[] whereArgs,
+                                                                   String groupBy, String having, String orderBy, String limit) {
+        List<Object> bindings = new ArrayList<Object>();
+        if (where != null && whereArgs != null) {
+            SQLite.checkWhereArgs(where, whereArgs);
+            bindings.addAll(Arrays.asList(whereArgs));
+        }
+        String sql = buildQueryString(distinct, tables, columns, where, groupBy, having, orderBy, limit);
+        return new SQLStringAndBindings(sql, bindings);
+    }
+
     private static void conditionallyAppend(StringBuilder sb, String keyword, String value) {
         if (value != null) {
             sb.append(keyword);
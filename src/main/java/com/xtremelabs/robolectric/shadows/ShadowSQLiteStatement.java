@@ -36,10 +36,14 @@ public class ShadowSQLiteStatement extends ShadowSQLiteProgram {
             actualDBstatement.executeUpdate();
             ResultSet resultSet = actualDBstatement.getGeneratedKeys();
 
-            if (resultSet.next()) {
-                return resultSet.getLong(1);
-            } else {
-                throw new RuntimeException("Could not retrive generatedKeys");
+            try {
+                if (resultSet.next()) {
+                    return resultSet.getLong(1);
+                } else {
+                    throw new RuntimeException("Could not retrive generatedKeys");
+                }
+            } finally {
+                resultSet.close();
             }
         } catch (SQLException e) {
             throw new RuntimeException(e);
@@ -51,8 +55,12 @@ public class ShadowSQLiteStatement extends ShadowSQLiteProgram {
         ResultSet rs;
         try {
             rs = actualDBstatement.executeQuery();
-            rs.next();
-            return rs.getLong(1);
+            try {
+                rs.next();
+                return rs.getLong(1);
+            } finally {
+                rs.close();
+            }
         } catch (SQLException e) {
              handleException(e);
              throw new RuntimeException(e);
@@ -64,8 +72,12 @@ public class ShadowSQLiteStatement extends ShadowSQLiteProgram {
         ResultSet rs;
         try {
             rs = actualDBstatement.executeQuery();
-            rs.next();
-            return rs.getString(1);
+            try {
+                rs.next();
+                return rs.getString(1);
+            } finally {
+                rs.close();
+            }
         } catch (SQLException e) {
             handleException(e);
             throw new RuntimeException(e);
@@ -66,12 +66,11 @@ public class TestAttributeSet implements AttributeSet {
         String value = getAttributeValueInMap(namespace, attribute);
 
         if (attrResourceLoader.hasAttributeFor(viewClass, namespace, attribute)) {
-            value = attrResourceLoader.convertValueToEnum(viewClass, namespace, attribute, value);
+            Integer enumValue = (value != null) ? attrResourceLoader.convertValueToInt(viewClass, namespace, attribute, value) : null;
+            return (enumValue != null) ? enumValue : defaultValue;
         }
 
-        if (value != null && value.startsWith("0x")) value = value.substring(2);
-
-        return (value != null) ? Integer.valueOf(value) : defaultValue;
+        return (value != null) ? AttrResourceLoader.parseInt(value) : defaultValue;
     }
 
     @Override
@@ -200,14 +199,18 @@ public class TestAttributeSet implements AttributeSet {
     private String getAttributeValueInMap(String namespace, String attribute) {
         String value = null;
         for (String key : attributes.keySet()) {
-            String[] mappedKeys = {null, key};
-            if (key.contains(":")) {
-                mappedKeys = key.split(":");
+            // matches the key against "prefix:attribute" or "attribute" without splitting it, which was most of the
+            // time spent inflating views
+            int prefixEnd = key.indexOf(':');
+            int nameStart = prefixEnd + 1;
+            int nameEnd = prefixEnd == -1 ? key.length() : key.indexOf(':', nameStart);
+            if (nameEnd == -1) {
+                nameEnd = key.length();
             }
 
-            if (mappedKeys[1].equals(attribute) && (
+            if (nameEnd - nameStart == attribute.length() && key.startsWith(attribute, nameStart) && (
                     namespace == null || namespace != "android" ||
-                    (namespace.equals("android") && namespace.equals(mappedKeys[0])) )) {
+                    (prefixEnd == namespace.length() && key.startsWith(namespace)) )) {
                 value = attributes.get(key);
                 break;
             }
@@ -1,5 +1,6 @@
 package com.xtremelabs.robolectric.util;
 
+import java.io.File;
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Inherited;
 import java.lang.annotation.Retention;
@@ -72,6 +73,32 @@ public class DatabaseConfig {
         }
     }
 
+    /**
+     * @return whether the map in use can keep databases in files, for {@link #getFileConnection(File)}
+     */
+    public static boolean canKeepDatabasesInFiles() {
+        if (isMapNull()) throw new NullDatabaseMapException("No database map set!");
+        return dbMap instanceof FileDatabaseMap;
+    }
+
+    /**
+     * Gets a connection to a database kept in {@code file}, or an in memory one if the map in use can't keep databases
+     * in files.  Will load DB Driver if not already loaded.
+     *
+     * @return Connection to the database in {@code file}.
+     */
+    public static Connection getFileConnection(File file) {
+        if (!isMapLoaded()) LoadSQLiteDriver();
+        if (!(dbMap instanceof FileDatabaseMap)) {
+            return getMemoryConnection();
+        }
+        try {
+            return DriverManager.getConnection(((FileDatabaseMap) dbMap).getConnectionString(file));
+        } catch (SQLException e) {
+            throw new CannotLoadDatabaseMapDriverException("Error in DatabaseConfig, could not retrieve connection to database in " + file + ".", e);
+        }
+    }
+
     /**
      * Makes any edits necessary in the SQL string for it to be compatible with the database in use.
      *
@@ -105,6 +132,13 @@ public class DatabaseConfig {
         int getResultSetType();
     }
 
+    /**
+     * A {@code DatabaseMap} for a database that can be kept in a file as well as in memory.
+     */
+    public interface FileDatabaseMap extends DatabaseMap {
+        String getConnectionString(File file);
+    }
+
     public static class NullDatabaseMapException extends RuntimeException {
         private static final long serialVersionUID = -4580960157495617424L;
 
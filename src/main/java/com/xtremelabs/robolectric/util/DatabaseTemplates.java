@@ -0,0 +1,121 @@
+package com.xtremelabs.robolectric.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Snapshots of databases, kept as files, so a database can be put back the way it was without running whatever made
+ * it that way again. Used by {@code ShadowSQLiteOpenHelper} to skip {@code onCreate()} once a helper has been created
+ * once.
+ * <p/>
+ * Off unless {@code robolectric.databaseTemplates} is set to the directory to keep the snapshots in. SQLite databases
+ * are snapshotted with the driver's {@code backup}/{@code restore} commands, which need it to be running natively, and
+ * H2 ones with {@code SCRIPT}/{@code RUNSCRIPT}.
+ */
+public class DatabaseTemplates {
+    public static final String DIRECTORY_PROPERTY = "robolectric.databaseTemplates";
+    /**
+     * Anything set here is made part of every template's name, so changing it lets go of the templates made so far.
+     */
+    public static final String VERSION_PROPERTY = "robolectric.databaseTemplateVersion";
+
+    private static final String SQLITE_DRIVER = "org.sqlite.JDBC";
+    private static final String H2_DRIVER = "org.h2.Driver";
+
+    private static boolean warnedUnsupported;
+
+    /**
+     * @return whether templates are turned on, and can be made of the databases in use
+     */
+    public static boolean isEnabled() {
+        if (System.getProperty(DIRECTORY_PROPERTY) == null || warnedUnsupported || DatabaseConfig.isMapNull()) {
+            return false;
+        }
+        String driver = DatabaseConfig.getDatabaseMap().getDriverClassName();
+        return driver.equals(SQLITE_DRIVER) || driver.equals(H2_DRIVER);
+    }
+
+    /**
+     * Puts the database saved as {@code name} into {@code connection}'s.
+     *
+     * @return false if there's no template called {@code name}
+     */
+    public static boolean restore(String name, Connection connection) {
+        File file = getFile(name);
+        if (!file.isFile()) {
+            return false;
+        }
+        try {
+            if (isSQLite()) {
+                execute(connection, "restore from " + quote(file));
+            } else {
+                execute(connection, "RUNSCRIPT FROM " + quote(file));
+            }
+            return true;
+        } catch (SQLException e) {
+            throw new RuntimeException("couldn't restore database template " + file, e);
+        }
+    }
+
+    /**
+     * Saves {@code connection}'s database as the template called {@code name}.
+     */
+    public static void save(String name, Connection connection) {
+        File file = getFile(name);
+        file.getParentFile().mkdirs();
+        File tempFile;
+        try {
+            tempFile = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        try {
+            if (isSQLite()) {
+                // the backup goes into a new file, not over the top of an empty one
+                tempFile.delete();
+                execute(connection, "backup to " + quote(tempFile));
+            } else {
+                execute(connection, "SCRIPT TO " + quote(tempFile));
+            }
+            if (!tempFile.renameTo(file)) {
+                file.delete();
+                tempFile.renameTo(file);
+            }
+        } catch (SQLException e) {
+            // e.g. the SQLite driver is running in pure java mode, which can't do backups
+            System.out.println("Warning: not using database templates, since they can't be made: " + e.getMessage());
+            warnedUnsupported = true;
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    private static File getFile(String name) {
+        return new File(System.getProperty(DIRECTORY_PROPERTY), name + (isSQLite() ? ".db" : ".sql"));
+    }
+
+    private static boolean isSQLite() {
+        return DatabaseConfig.getDatabaseMap().getDriverClassName().equals(SQLITE_DRIVER);
+    }
+
+    private static String quote(File file) {
+        return "'" + file.getAbsolutePath().replace("'", "''") + "'";
+    }
+
+    private static void execute(Connection connection, String sql) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            if (isSQLite()) {
+                // the driver only looks for its backup and restore commands here
+                statement.executeUpdate(sql);
+            } else {
+                statement.execute(sql);
+            }
+        } finally {
+            statement.close();
+        }
+    }
+}
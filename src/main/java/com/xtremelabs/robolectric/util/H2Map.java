@@ -1,12 +1,13 @@
 package com.xtremelabs.robolectric.util;
 
+import java.io.File;
 import java.sql.Driver;
 import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 
 
-public class H2Map implements DatabaseConfig.DatabaseMap {
+public class H2Map implements DatabaseConfig.FileDatabaseMap {
 
     @Override
     public String getDriverClassName() {
@@ -18,6 +19,14 @@ public class H2Map implements DatabaseConfig.DatabaseMap {
         return "jdbc:h2:mem:";
     }
 
+    /**
+     * @param file where the database is to be kept; H2 adds its own extensions to the name
+     */
+    @Override
+    public String getConnectionString(File file) {
+        return "jdbc:h2:" + file.getAbsolutePath();
+    }
+
     /**
      * Maps the SQL to the H2 Implementation
      *
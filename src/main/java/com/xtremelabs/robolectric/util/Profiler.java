@@ -0,0 +1,244 @@
+package com.xtremelabs.robolectric.util;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Times the phases of getting a test class running (instrumenting and loading classes, loading resources, binding
+ * shadows, creating the application, and the tests themselves), per test class.
+ * <p/>
+ * Off unless the {@code robolectric.profile} system property is true, in which case a summary is printed when the JVM
+ * exits. Set {@code robolectric.profile.report} to a file name to also write a JSON report there, like this:
+ * <pre>
+ * {"testClasses": [
+ *   {"name": "com.example.FooTest", "phases": {
+ *     "classLoading": {"count": 412, "totalMillis": 903.215, "selfMillis": 211.872},
+ *     ...
+ * </pre>
+ * Phases nest; a phase's self time excludes the time spent in phases started within it, so self times add up to the
+ * total time profiled.
+ * <p/>
+ * Shared by the instrumenting class loaders, so timings from both sides of them end up in the same report.
+ */
+public class Profiler {
+    public static final String PROFILE_PROPERTY = "robolectric.profile";
+    public static final String REPORT_PROPERTY = "robolectric.profile.report";
+
+    private static final String NO_TEST_CLASS = "(none)";
+
+    private static volatile boolean enabled = Boolean.getBoolean(PROFILE_PROPERTY);
+    private static final Map<String, Map<String, PhaseStats>> statsByTestClass = new LinkedHashMap<String, Map<String, PhaseStats>>();
+
+    private static final ThreadLocal<String> currentTestClass = new ThreadLocal<String>();
+    private static final ThreadLocal<Frames> frames = new ThreadLocal<Frames>() {
+        @Override protected Frames initialValue() {
+            return new Frames();
+        }
+    };
+
+    static {
+        if (enabled) {
+            Runtime.getRuntime().addShutdownHook(new Thread("robolectric-profiler") {
+                @Override public void run() {
+                    System.out.print(getSummary());
+                    String reportPath = System.getProperty(REPORT_PROPERTY);
+                    if (reportPath != null) {
+                        writeReport(new File(reportPath));
+                    }
+                }
+            });
+        }
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        Profiler.enabled = enabled;
+    }
+
+    /**
+     * Attributes phases run on this thread from now on to {@code testClassName}.
+     *
+     * @return the test class phases were attributed to before, to pass back in when done
+     */
+    public static String setTestClass(String testClassName) {
+        String previousTestClassName = currentTestClass.get();
+        currentTestClass.set(testClassName);
+        return previousTestClassName;
+    }
+
+    /**
+     * Starts timing a phase. Pass the result to {@link #end(String, long)}, in a finally block.
+     */
+    public static long start() {
+        if (!enabled) {
+            return 0;
+        }
+        frames.get().push();
+        return System.nanoTime();
+    }
+
+    public static void end(String phase, long start) {
+        if (start == 0) {
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+        long self = elapsed - frames.get().pop(elapsed);
+        record(phase, elapsed, self);
+    }
+
+    private static void record(String phase, long elapsed, long self) {
+        String testClassName = currentTestClass.get();
+        if (testClassName == null) {
+            testClassName = NO_TEST_CLASS;
+        }
+
+        synchronized (statsByTestClass) {
+            Map<String, PhaseStats> phases = statsByTestClass.get(testClassName);
+            if (phases == null) {
+                phases = new LinkedHashMap<String, PhaseStats>();
+                statsByTestClass.put(testClassName, phases);
+            }
+            PhaseStats stats = phases.get(phase);
+            if (stats == null) {
+                stats = new PhaseStats();
+                phases.put(phase, stats);
+            }
+            stats.count++;
+            stats.totalNanos += elapsed;
+            stats.selfNanos += self;
+        }
+    }
+
+    public static void reset() {
+        synchronized (statsByTestClass) {
+            statsByTestClass.clear();
+        }
+    }
+
+    public static void writeReport(File file) {
+        try {
+            FileWriter writer = new FileWriter(file);
+            try {
+                writeJson(writer);
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            System.out.println("Warning: couldn't write profile to " + file + ": " + e);
+        }
+    }
+
+    public static void writeJson(Writer writer) throws IOException {
+        writer.write("{\"testClasses\": [");
+        synchronized (statsByTestClass) {
+            boolean firstTestClass = true;
+            for (Map.Entry<String, Map<String, PhaseStats>> testClassEntry : statsByTestClass.entrySet()) {
+                writer.write(firstTestClass ? "\n" : ",\n");
+                firstTestClass = false;
+                writer.write("  {\"name\": " + quote(testClassEntry.getKey()) + ", \"phases\": {");
+
+                boolean firstPhase = true;
+                for (Map.Entry<String, PhaseStats> phaseEntry : testClassEntry.getValue().entrySet()) {
+                    PhaseStats stats = phaseEntry.getValue();
+                    writer.write(firstPhase ? "\n" : ",\n");
+                    firstPhase = false;
+                    writer.write("    " + quote(phaseEntry.getKey()) + ": {\"count\": " + stats.count
+                            + ", \"totalMillis\": " + millis(stats.totalNanos)
+                            + ", \"selfMillis\": " + millis(stats.selfNanos) + "}");
+                }
+                writer.write("}}");
+            }
+        }
+        writer.write("\n]}\n");
+    }
+
+    /**
+     * @return the self time of each phase over all test classes, and the test classes that took longest
+     */
+    public static String getSummary() {
+        Map<String, PhaseStats> totalsByPhase = new LinkedHashMap<String, PhaseStats>();
+        final Map<String, Long> selfNanosByTestClass = new LinkedHashMap<String, Long>();
+        synchronized (statsByTestClass) {
+            for (Map.Entry<String, Map<String, PhaseStats>> testClassEntry : statsByTestClass.entrySet()) {
+                long testClassSelfNanos = 0;
+                for (Map.Entry<String, PhaseStats> phaseEntry : testClassEntry.getValue().entrySet()) {
+                    PhaseStats total = totalsByPhase.get(phaseEntry.getKey());
+                    if (total == null) {
+                        total = new PhaseStats();
+                        totalsByPhase.put(phaseEntry.getKey(), total);
+                    }
+                    total.count += phaseEntry.getValue().count;
+                    total.selfNanos += phaseEntry.getValue().selfNanos;
+                    testClassSelfNanos += phaseEntry.getValue().selfNanos;
+                }
+                selfNanosByTestClass.put(testClassEntry.getKey(), testClassSelfNanos);
+            }
+        }
+
+        StringBuilder buf = new StringBuilder("Robolectric profile (self time by phase):\n");
+        for (Map.Entry<String, PhaseStats> entry : totalsByPhase.entrySet()) {
+            buf.append(String.format(Locale.US, "  %-24s %10sms %8d calls%n", entry.getKey(), millis(entry.getValue().selfNanos), entry.getValue().count));
+        }
+
+        List<String> testClassNames = new ArrayList<String>(selfNanosByTestClass.keySet());
+        Collections.sort(testClassNames, new Comparator<String>() {
+            @Override public int compare(String a, String b) {
+                return selfNanosByTestClass.get(b).compareTo(selfNanosByTestClass.get(a));
+            }
+        });
+        buf.append("Slowest test classes:\n");
+        for (String testClassName : testClassNames.subList(0, Math.min(10, testClassNames.size()))) {
+            buf.append(String.format(Locale.US, "  %10sms %s%n", millis(selfNanosByTestClass.get(testClassName)), testClassName));
+        }
+        return buf.toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.US, "%.3f", nanos / 1000000.0);
+    }
+
+    private static String quote(String s) {
+        return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private static class PhaseStats {
+        int count;
+        long totalNanos;
+        long selfNanos;
+    }
+
+    /**
+     * The time spent in phases nested within each of the phases running on a thread.
+     */
+    private static class Frames {
+        private long[] nestedNanos = new long[16];
+        private int depth;
+
+        void push() {
+            if (++depth == nestedNanos.length) {
+                long[] newNestedNanos = new long[nestedNanos.length * 2];
+                System.arraycopy(nestedNanos, 0, newNestedNanos, 0, nestedNanos.length);
+                nestedNanos = newNestedNanos;
+            }
+            nestedNanos[depth] = 0;
+        }
+
+        long pop(long elapsed) {
+            long nested = nestedNanos[depth--];
+            nestedNanos[depth] += elapsed;
+            return nested;
+        }
+    }
+}
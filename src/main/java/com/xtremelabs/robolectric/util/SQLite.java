@@ -5,6 +5,7 @@ import android.database.sqlite.SQLiteException;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
@@ -50,7 +51,7 @@ public class SQLite {
      * @param table       table name
      * @param values      column name/value pairs
      * @param whereClause SQL where clause fragment
-     * @param whereArgs   Array of substitutions for args in whereClause
+     * @param whereArgs   Array of values for the args in whereClause, which are bound after the column values
      * @return update string
      */
     public static SQLStringAndBindings buildUpdateString(String table, ContentValues values, String whereClause, String[] whereArgs) {
@@ -63,76 +64,123 @@ public class SQLite {
         SQLStringAndBindings columnAssignmentsClause = buildColumnAssignmentsClause(values);
         sb.append(columnAssignmentsClause.sql);
 
-        if (whereClause != null) {
-            String where = whereClause;
-            if (whereArgs != null) {
-                where = buildWhereClause(whereClause, whereArgs);
-            }
-            sb.append(" WHERE ");
-            sb.append(where);
-        }
+        List<Object> bindings = columnAssignmentsClause.columnValues;
+        appendWhereClause(sb, bindings, whereClause, whereArgs);
         sb.append(";");
 
-        return new SQLStringAndBindings(sb.toString(), columnAssignmentsClause.columnValues);
+        return new SQLStringAndBindings(sb.toString(), bindings);
     }
 
     /**
-     * Create a SQL DELETE string.
+     * Create a SQL DELETE string.  Returned values are then bound via
+     * JDBC.
      *
      * @param table       table name
      * @param whereClause SQL where clause fragment
-     * @param whereArgs   Array of substitutions for args in whereClause
+     * @param whereArgs   Array of values for the args in whereClause
      * @return delete string
      */
-    public static String buildDeleteString(String table, String whereClause, String[] whereArgs) {
+    public static SQLStringAndBindings buildDeleteString(String table, String whereClause, String[] whereArgs) {
         StringBuilder sb = new StringBuilder();
 
         sb.append("DELETE FROM ");
         sb.append(table);
 
+        List<Object> bindings = new ArrayList<Object>();
+        appendWhereClause(sb, bindings, whereClause, whereArgs);
+        sb.append(";");
+
+        return new SQLStringAndBindings(sb.toString(), bindings);
+    }
+
+    /**
+     * Appends " WHERE " and {@code whereClause}, if there is one, leaving its args to be bound rather than putting
+     * their values in the sql; they're added to {@code bindings}.
+     */
+    private static void appendWhereClause(StringBuilder sb, List<Object> bindings, String whereClause, String[] whereArgs) {
         if (whereClause != null) {
-            String where = whereClause;
+            sb.append(" WHERE ");
+            sb.append(whereClause);
             if (whereArgs != null) {
-                where = buildWhereClause(whereClause, whereArgs);
+                checkWhereArgs(whereClause, whereArgs);
+                bindings.addAll(Arrays.asList(whereArgs));
             }
-            sb.append(" WHERE ");
-            sb.append(where);
         }
-        sb.append(";");
-
-        return sb.toString();
     }
 
     /**
-     * Build a WHERE clause used in SELECT, UPDATE and DELETE statements.
+     * Build a WHERE clause used in SELECT, UPDATE and DELETE statements, with the values of its args quoted in
+     * it.  The database shadows bind args instead, so the same statement can be used whatever their values.
      *
      * @param selection     SQL where clause fragment
      * @param selectionArgs Array of substitutions for args in selection
      * @return where clause
      */
     public static String buildWhereClause(String selection, String[] selectionArgs) throws SQLiteException {
-        String whereClause = selection;
-        int argsNeeded = 0;
-        int args = 0;
+        checkWhereArgs(selection, selectionArgs);
+        if (selectionArgs == null || selectionArgs.length == 0) {
+            return selection;
+        }
 
-        for (char c : selection.toCharArray()) {
-            if (c == '?') argsNeeded++;
+        StringBuilder whereClause = new StringBuilder(selection.length() + 16 * selectionArgs.length);
+        int arg = 0;
+        char quote = 0;
+        for (int i = 0; i < selection.length(); i++) {
+            char c = selection.charAt(i);
+            if (quote == 0 && c == '?') {
+                whereClause.append('\'').append(selectionArgs[arg++].replace("'", "''")).append('\'');
+                continue;
+            }
+            if (quote == 0 && (c == '\'' || c == '"' || c == '`')) {
+                quote = c;
+            } else if (c == quote) {
+                quote = 0;
+            }
+            whereClause.append(c);
         }
+        return whereClause.toString();
+    }
+
+    /**
+     * Checks that there's a value for each arg in a selection, and no more.
+     *
+     * @param selection     SQL where clause fragment
+     * @param selectionArgs Array of values for the args in selection
+     * @throws IllegalArgumentException if one of the values is null
+     * @throws SQLiteException if there are too many or too few values
+     */
+    public static void checkWhereArgs(String selection, String[] selectionArgs) throws SQLiteException {
+        int args = 0;
         if (selectionArgs != null) {
             for (int x = 0; x < selectionArgs.length; x++) {
                 if (selectionArgs[x] == null) {
                     throw new IllegalArgumentException("the bind value at index " + x + " is null");
-                } else {
-                    args++;
                 }
-                whereClause = whereClause.replaceFirst("\\?", "'" + selectionArgs[x] + "'");
+                args++;
             }
         }
-        if (argsNeeded != args) {
+        if (countArgs(selection) != args) {
             throw new SQLiteException("bind or column index out of range: count of selectionArgs does not match count of (?) placeholders for given sql statement!");
         }
+    }
 
-        return whereClause;
+    /**
+     * @return how many '?'s there are in {@code sql}, leaving out any in quotes
+     */
+    private static int countArgs(String sql) {
+        int args = 0;
+        char quote = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (quote == 0 && c == '?') {
+                args++;
+            } else if (quote == 0 && (c == '\'' || c == '"' || c == '`')) {
+                quote = c;
+            } else if (c == quote) {
+                quote = 0;
+            }
+        }
+        return args;
     }
 
    /**
@@ -1,8 +1,9 @@
 package com.xtremelabs.robolectric.util;
 
+import java.io.File;
 import java.sql.ResultSet;
 
-public class SQLiteMap implements DatabaseConfig.DatabaseMap {
+public class SQLiteMap implements DatabaseConfig.FileDatabaseMap {
 
     public String getDriverClassName() {
         return "org.sqlite.JDBC";
@@ -12,6 +13,10 @@ public class SQLiteMap implements DatabaseConfig.DatabaseMap {
         return "jdbc:sqlite::memory:";
     }
 
+    public String getConnectionString(File file) {
+        return "jdbc:sqlite:" + file.getAbsolutePath();
+    }
+
     public String getScrubSQL(String sql) {
         return sql;
     }
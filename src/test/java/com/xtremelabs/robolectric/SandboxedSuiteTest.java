@@ -0,0 +1,76 @@
+package com.xtremelabs.robolectric;
+
+import android.app.Application;
+import android.widget.TextView;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Request;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class SandboxedSuiteTest {
+    @Test
+    public void shouldRunEachTestClassInItsOwnSandboxConcurrently() throws Exception {
+        String previousSandboxCount = System.getProperty(SandboxedSuite.SANDBOX_COUNT_PROPERTY);
+        System.setProperty(SandboxedSuite.SANDBOX_COUNT_PROPERTY, "2");
+        try {
+            // make sure there's a default class loader the sandboxes could wrongly share
+            new WithTestDefaultsRunner(FirstExample.class);
+
+            SandboxedSuite suite = new SandboxedSuite(ExampleSuite.class);
+            assertEquals(4, suite.getDescription().testCount());
+
+            Result result = new JUnitCore().run(Request.runner(suite));
+            assertEquals(result.getFailures().toString(), 0, result.getFailureCount());
+            assertEquals(4, result.getRunCount());
+        } finally {
+            if (previousSandboxCount == null) {
+                System.clearProperty(SandboxedSuite.SANDBOX_COUNT_PROPERTY);
+            } else {
+                System.setProperty(SandboxedSuite.SANDBOX_COUNT_PROPERTY, previousSandboxCount);
+            }
+        }
+    }
+
+    @Suite.SuiteClasses({FirstExample.class, SecondExample.class})
+    public static class ExampleSuite {
+    }
+
+    @RunWith(WithTestDefaultsRunner.class)
+    public static class FirstExample {
+        @Test public void shouldKeepItsApplication() throws Exception {
+            assertApplicationIsUndisturbed("first");
+        }
+
+        @Test public void shouldKeepItsApplicationAgain() throws Exception {
+            assertApplicationIsUndisturbed("first again");
+        }
+    }
+
+    @RunWith(WithTestDefaultsRunner.class)
+    public static class SecondExample {
+        @Test public void shouldKeepItsApplication() throws Exception {
+            assertApplicationIsUndisturbed("second");
+        }
+
+        @Test public void shouldKeepItsApplicationAgain() throws Exception {
+            assertApplicationIsUndisturbed("second again");
+        }
+    }
+
+    private static void assertApplicationIsUndisturbed(String text) throws InterruptedException {
+        Application application = Robolectric.application;
+        TextView textView = new TextView(application);
+        textView.setText(text);
+
+        // long enough for a test in the other sandbox to reset Robolectric's state, if it were shared
+        Thread.sleep(200);
+
+        assertSame(application, Robolectric.application);
+        assertEquals(text, textView.getText().toString());
+    }
+}
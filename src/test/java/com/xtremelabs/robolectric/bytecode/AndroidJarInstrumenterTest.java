@@ -0,0 +1,177 @@
+package com.xtremelabs.robolectric.bytecode;
+
+import android.graphics.Color;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class AndroidJarInstrumenterTest {
+    // whichever of these the suite is run with, these tests instrument the plain way
+    private static final String[] CONFIGURATION_PROPERTIES = {
+            AndroidTranslator.SELECTIVE_INSTRUMENTATION_PROPERTY,
+            AndroidTranslator.BYTECODE_TRANSLATOR_PROPERTY,
+            AndroidTranslator.METHOD_IDS_PROPERTY,
+            RobolectricClassLoader.INSTRUMENTED_JAR_PROPERTY,
+            ClassCache.CACHE_DIRECTORY_PROPERTY
+    };
+    private static final String CACHE_DIRECTORY = "target/instrumenter-test-class-cache";
+
+    private final Map<String, String> savedProperties = new HashMap<String, String>();
+
+    @Before
+    public void setUp() throws Exception {
+        for (String property : CONFIGURATION_PROPERTIES) {
+            savedProperties.put(property, System.getProperty(property));
+            System.clearProperty(property);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (String property : CONFIGURATION_PROPERTIES) {
+            String value = savedProperties.get(property);
+            if (value != null) {
+                System.setProperty(property, value);
+            }
+        }
+    }
+
+    @Test
+    public void shouldWriteInstrumentedClassesToJar() throws Exception {
+        File inputJar = new File("target/instrumenter-test-input.jar");
+        File outputJar = new File("target/instrumenter-test-output.jar");
+        writeJar(inputJar, Foo.class, ClassCacheTest.class);
+
+        AndroidJarInstrumenter instrumenter = new AndroidJarInstrumenter(Arrays.asList(inputJar), 2);
+        instrumenter.instrument();
+        instrumenter.write(outputJar);
+
+        JarFile jarFile = new JarFile(outputJar);
+        try {
+            assertNotNull(jarFile.getJarEntry("com/xtremelabs/robolectric/bytecode/Foo.class"));
+            assertNull(jarFile.getJarEntry("com/xtremelabs/robolectric/bytecode/ClassCacheTest.class"));
+            assertEquals(new AndroidTranslator(null, null).getInstrumentationVersion(),
+                    jarFile.getManifest().getMainAttributes().getValue(AndroidJarInstrumenter.INSTRUMENTATION_VERSION_ATTRIBUTE));
+            assertEquals("com/xtremelabs/robolectric/bytecode/Foo.class=" + AndroidJarInstrumenter.getJarDigest(inputJar),
+                    jarFile.getManifest().getMainAttributes().getValue(AndroidJarInstrumenter.INPUT_JARS_ATTRIBUTE));
+        } finally {
+            jarFile.close();
+        }
+    }
+
+    @Test
+    public void shouldHaveTheClassLoaderDefineAndroidClassesFromTheInstrumentedJar() throws Exception {
+        File inputJar = new File("target/instrumenter-test-android.jar");
+        writeJar(inputJar, Color.class);
+        instrumentForClassLoader(inputJar);
+
+        assertEquals(0, loadFromInstrumentedJar(inputJar, Color.class.getName()));
+    }
+
+    @Test
+    public void shouldHaveTheClassLoaderIgnoreTheInstrumentedJarOnceAnInputJarHasChanged() throws Exception {
+        File inputJar = new File("target/instrumenter-test-android.jar");
+        writeJar(inputJar, Color.class);
+        instrumentForClassLoader(inputJar);
+        writeJar(inputJar, Color.class, Foo.class);
+
+        assertEquals(1, loadFromInstrumentedJar(inputJar, Color.class.getName()));
+    }
+
+    private void instrumentForClassLoader(File inputJar) throws Exception {
+        File outputJar = new File("target/instrumenter-test-android-instrumented.jar");
+        AndroidJarInstrumenter instrumenter = new AndroidJarInstrumenter(Arrays.asList(inputJar), 1);
+        instrumenter.instrument();
+        instrumenter.write(outputJar);
+        System.setProperty(RobolectricClassLoader.INSTRUMENTED_JAR_PROPERTY, outputJar.getPath());
+    }
+
+    /**
+     * @return how many times the class had to be instrumented as it was loaded, rather than coming from the
+     *         instrumented jar
+     */
+    private int loadFromInstrumentedJar(File inputJar, String className) throws Exception {
+        File cacheDirectory = new File(CACHE_DIRECTORY);
+        File[] cachedFiles = cacheDirectory.listFiles();
+        if (cachedFiles != null) {
+            for (File cachedFile : cachedFiles) {
+                cachedFile.delete();
+            }
+        }
+        System.setProperty(ClassCache.CACHE_DIRECTORY_PROPERTY, CACHE_DIRECTORY);
+
+        ClassLoader parent = new InputJarFirstClassLoader(inputJar);
+        RobolectricClassLoader classLoader = new RobolectricClassLoader(ShadowWrangler.getInstance(), null, parent);
+        try {
+            assertSame(classLoader, classLoader.loadClass(className).getClassLoader());
+        } finally {
+            classLoader.close();
+        }
+
+        // classes instrumented as they're loaded go in the cache
+        int instrumentedCount = 0;
+        cachedFiles = cacheDirectory.listFiles();
+        if (cachedFiles != null) {
+            for (File cachedFile : cachedFiles) {
+                if (cachedFile.getName().startsWith(className + ".")) {
+                    instrumentedCount++;
+                }
+            }
+        }
+        return instrumentedCount;
+    }
+
+    private void writeJar(File jar, Class<?>... classes) throws Exception {
+        jar.getParentFile().mkdirs();
+        JarOutputStream jarOutputStream = new JarOutputStream(new FileOutputStream(jar));
+        try {
+            for (Class<?> clazz : classes) {
+                String entryName = clazz.getName().replace('.', '/') + ".class";
+                jarOutputStream.putNextEntry(new JarEntry(entryName));
+                InputStream inputStream = getClass().getClassLoader().getResourceAsStream(entryName);
+                byte[] buffer = new byte[8192];
+                int count;
+                while ((count = inputStream.read(buffer)) != -1) {
+                    jarOutputStream.write(buffer, 0, count);
+                }
+                inputStream.close();
+                jarOutputStream.closeEntry();
+            }
+        } finally {
+            jarOutputStream.close();
+        }
+    }
+
+    /**
+     * Finds the classes in the input jar there, rather than wherever the test's class path has them.
+     */
+    private static class InputJarFirstClassLoader extends URLClassLoader {
+        InputJarFirstClassLoader(File inputJar) throws MalformedURLException {
+            super(new URL[]{inputJar.toURI().toURL()}, AndroidJarInstrumenterTest.class.getClassLoader());
+        }
+
+        @Override
+        public URL getResource(String name) {
+            URL url = findResource(name);
+            return url != null ? url : super.getResource(name);
+        }
+    }
+}
@@ -6,6 +6,8 @@ import org.junit.Before;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class AndroidTranslatorUnitTest {
     private ClassPool classPool;
@@ -71,6 +73,37 @@ public class AndroidTranslatorUnitTest {
                 "}\n", methodBody);
     }
 
+    @Test
+    public void whenUsingMethodIds_shouldGenerateMethodBodyThatOnlyBoxesParamsForShadowedMethods() throws Exception {
+        CtClass ctClass = classPool.get("java.lang.String");
+        String methodBody = androidTranslator.generateMethodBodyWithMethodId(
+                ctClass, ctClass.getDeclaredMethod("substring", new CtClass[]{CtClass.intType}),
+                ctClass, Type.OBJECT, false, false, 3);
+        assertEquals("if (!com.xtremelabs.robolectric.bytecode.RobolectricInternals.shouldCallDirectly(this)) {\n" +
+                "if (com.xtremelabs.robolectric.bytecode.RobolectricInternals.isShadowed(java.lang.String.class, 3)) {\n" +
+                "Object x = com.xtremelabs.robolectric.bytecode.RobolectricInternals.methodInvoked(\n" +
+                "  java.lang.String.class, 3, this, new Object[] {com.xtremelabs.robolectric.bytecode.RobolectricInternals.autobox($1)});\n" +
+                "if (x != null) return ((java.lang.String) x);\n" +
+                "}\n" +
+                "return null;\n" +
+                "}\n", methodBody);
+    }
+
+    @Test
+    public void whenUsingMethodIdsAndMethodReturnsVoid_shouldGenerateMethodBody() throws Exception {
+        CtClass ctClass = classPool.get("java.lang.Object");
+        String methodBody = androidTranslator.generateMethodBodyWithMethodId(
+                ctClass, ctClass.getDeclaredMethod("wait"),
+                ctClass, Type.VOID, false, false, 0);
+        assertEquals("if (!com.xtremelabs.robolectric.bytecode.RobolectricInternals.shouldCallDirectly(this)) {\n" +
+                "if (com.xtremelabs.robolectric.bytecode.RobolectricInternals.isShadowed(java.lang.Object.class, 0)) {\n" +
+                "com.xtremelabs.robolectric.bytecode.RobolectricInternals.methodInvoked(\n" +
+                "  java.lang.Object.class, 0, this, new Object[] {com.xtremelabs.robolectric.bytecode.RobolectricInternals.autobox($1)});\n" +
+                "}\n" +
+                "return;\n" +
+                "}\n", methodBody);
+    }
+
     @Test
     public void shouldGenerateParameterList() throws Exception {
         assertEquals(androidTranslator.makeParameterReplacementList(0), "");
@@ -90,4 +123,13 @@ public class AndroidTranslatorUnitTest {
                 "if (x != null) return ((java.lang.Boolean) x).booleanValue();\n" +
                 "return super.equals($1);}\n", methodBody);
     }
+
+    @Test
+    public void shouldOnlyPutClassesInstrumentedBecauseOfTheirNameOnTheInstrumentingList() throws Exception {
+        assertTrue(androidTranslator.isOnInstrumentingList("android.view.View"));
+        assertTrue(androidTranslator.isOnInstrumentingList("com.google.android.maps.MapView"));
+        assertFalse(androidTranslator.isOnInstrumentingList("android.net.Uri"));
+        assertFalse(androidTranslator.isOnInstrumentingList(Foo.class.getName()));
+        assertFalse(androidTranslator.isOnInstrumentingList("java.lang.String"));
+    }
 }
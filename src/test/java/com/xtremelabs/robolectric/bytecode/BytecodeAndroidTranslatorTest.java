@@ -0,0 +1,98 @@
+package com.xtremelabs.robolectric.bytecode;
+
+import com.xtremelabs.robolectric.RobolectricConfig;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.Loader;
+import javassist.LoaderClassPath;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class BytecodeAndroidTranslatorTest {
+    private RecordingClassHandler classHandler;
+    private Class<?> fooClass;
+
+    @Before public void setUp() throws Exception {
+        classHandler = new RecordingClassHandler();
+
+        ClassLoader parent = getClass().getClassLoader();
+        ClassPool classPool = new ClassPool();
+        classPool.appendClassPath(new LoaderClassPath(parent));
+        Loader loader = new Loader(parent, classPool);
+        loader.delegateLoadingOf(AndroidTranslator.class.getName());
+        loader.delegateLoadingOf(ClassHandler.class.getName());
+        BytecodeAndroidTranslator translator = new BytecodeAndroidTranslator(classHandler, new ClassCache("target/test-class-cache", parent));
+        translator.setUseMethodIds(useMethodIds());
+        loader.addTranslator(classPool, translator);
+
+        fooClass = loader.loadClass(Foo.class.getName());
+    }
+
+    protected boolean useMethodIds() {
+        return false;
+    }
+
+    @Test
+    public void shouldDelegateConstructorsAndMethodsToClassHandler() throws Exception {
+        Object foo = fooClass.getConstructor(String.class).newInstance("bar");
+        classHandler.result = "shadow name";
+
+        assertEquals("shadow name", fooClass.getMethod("getName").invoke(foo));
+        assertEquals(asList("<init>(java.lang.String)[bar]", "getName()[]"), classHandler.invocations);
+    }
+
+    @Test
+    public void shouldReturnDefaultValueWhenClassHandlerReturnsNull() throws Exception {
+        Object foo = fooClass.getConstructor(String.class).newInstance("bar");
+
+        assertNull(fooClass.getMethod("getName").invoke(foo));
+        fooClass.getMethod("findFooById", int.class).invoke(foo, 42);
+        assertEquals("findFooById(int)[42]", classHandler.invocations.get(2));
+    }
+
+    public static class RecordingClassHandler implements ClassHandler {
+        List<String> invocations = new ArrayList<String>();
+        Object result;
+
+        @Override public void configure(RobolectricConfig robolectricConfig) {
+        }
+
+        @Override public void instrument(CtClass ctClass) {
+        }
+
+        @Override public void beforeTest() {
+        }
+
+        @Override public void afterTest() {
+        }
+
+        @Override
+        public Object methodInvoked(Class clazz, String methodName, Object instance, String[] paramTypes, Object[] params) throws Throwable {
+            StringBuilder buf = new StringBuilder(methodName).append("(");
+            for (int i = 0; i < paramTypes.length; i++) {
+                if (i > 0) buf.append(",");
+                buf.append(paramTypes[i]);
+            }
+            invocations.add(buf.append(")").append(asList(params)).toString());
+            return result;
+        }
+
+        @Override public boolean isShadowed(Class clazz, int methodId) {
+            return true;
+        }
+
+        @Override
+        public Object methodInvoked(Class clazz, int methodId, Object instance, Object[] params) throws Throwable {
+            String[] methodSignatures = (String[]) clazz.getMethod(AndroidTranslator.METHOD_SIGNATURES_METHOD_NAME).invoke(null);
+            invocations.add(methodSignatures[methodId] + asList(params));
+            return result;
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package com.xtremelabs.robolectric.bytecode;
+
+public class BytecodeAndroidTranslatorWithMethodIdsTest extends BytecodeAndroidTranslatorTest {
+    @Override protected boolean useMethodIds() {
+        return true;
+    }
+}
@@ -1,124 +1,124 @@
 package com.xtremelabs.robolectric.bytecode;
 
-import org.junit.Assert;
+import org.junit.Before;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
 public class ClassCacheTest {
+    private static final String CACHE_DIRECTORY = "target/test-class-cache";
+    private static final String CONFIG = "config";
+
+    private String className;
+    private byte[] instrumentedBytes;
+
+    @Before
+    public void setUp() throws Exception {
+        File cacheDirectory = new File(CACHE_DIRECTORY);
+        File[] files = cacheDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
 
+        className = Foo.class.getName();
+        instrumentedBytes = new byte[]{1, 2, 3};
+    }
 
     @Test
-    public void fixForCorberturaAndSonarCodeCoverage() throws InterruptedException {
-        final ClassCache classCache = new ClassCache("target/test.txt", AndroidTranslator.CACHE_VERSION);
-        
-        // Substitute this LOCK with your monitor (could be you object you are
-        // testing etc.)
-        Thread locker = new Thread() {
-            @Override
-            public void run() {
-                synchronized (classCache) {
-                    try {
-                        Thread.sleep(Long.MAX_VALUE);
-                    } catch (InterruptedException e) {
-                        return;
-                    }
-                }
-            }
-        };
+    public void shouldNotFindClassesThatWereNeverAdded() throws Exception {
+        assertNull(newClassCache().getClassBytesFor(className, CONFIG));
+    }
 
-        locker.start();
-
-        TestThreadIsWriting attempt = new TestThreadIsWriting(classCache);
-        
-        try {
-            int timeToWait = 500;
-            locker.join(timeToWait, 0);
-
-            attempt.start();
-            long before = System.currentTimeMillis();
-            attempt.join(timeToWait, 0);
-            long after = System.currentTimeMillis();
-            Assert.assertEquals(false, attempt.ready);
-            Assert.assertEquals(1, (after - before) / timeToWait);
-            locker.interrupt();
-        } finally {
-            
-        }
+    @Test
+    public void shouldFindClassesAddedByAnotherInstance() throws Exception {
+        ClassCache writer = newClassCache();
+        writer.addClass(className, writer.getEntryName(className, CONFIG), instrumentedBytes);
+
+        assertArrayEquals(instrumentedBytes, newClassCache().getClassBytesFor(className, CONFIG));
+    }
+
+    @Test
+    public void shouldNotFindClassesAddedWithADifferentInstrumentationConfig() throws Exception {
+        ClassCache writer = newClassCache();
+        writer.addClass(className, writer.getEntryName(className, CONFIG), instrumentedBytes);
+
+        assertNull(newClassCache().getClassBytesFor(className, "other " + CONFIG));
+    }
+
+    @Test
+    public void shouldNotAddClassesItCantFindTheOriginalOf() throws Exception {
+        ClassCache writer = newClassCache();
+        writer.addClass("com.example.NoSuchClass", writer.getEntryName("com.example.NoSuchClass", CONFIG), instrumentedBytes);
+
+        File[] files = new File(CACHE_DIRECTORY).listFiles();
+        assertEquals(0, files == null ? 0 : files.length);
+    }
+
+    @Test
+    public void shouldAllowSeveralWritersToAddTheSameClass() throws Exception {
+        ClassCache writer1 = newClassCache();
+        ClassCache writer2 = newClassCache();
+        writer1.addClass(className, writer1.getEntryName(className, CONFIG), instrumentedBytes);
+        writer2.addClass(className, writer2.getEntryName(className, CONFIG), instrumentedBytes);
+
+        assertArrayEquals(instrumentedBytes, newClassCache().getClassBytesFor(className, CONFIG));
+        assertEquals(1, new File(CACHE_DIRECTORY).listFiles().length);
     }
 
     @Test
-    public void fixForCorberturaAndSonarCodeCoverageTheOtherWayAround() throws InterruptedException {
-        final ClassCache classCache = new ClassCache("target/test.txt", AndroidTranslator.CACHE_VERSION);
-        
-        // Substitute this LOCK with your monitor (could be you object you are
-        // testing etc.)
-        Thread locker = new Thread() {
-            @Override
-            public void run() {
-                synchronized (classCache) {
-                    try {
-                        Thread.sleep(Long.MAX_VALUE);
-                    } catch (InterruptedException e) {
-                        return;
-                    }
+    public void shouldNotFindClassesWhoseSuperclassHasChanged() throws Exception {
+        ClassCache writer = newClassCache();
+        String subclassName = Subclass.class.getName();
+        writer.addClass(subclassName, writer.getEntryName(subclassName, CONFIG), instrumentedBytes);
+
+        // the superclass is read as Foo instead
+        ClassLoader changedSuperclassLoader = new ClassLoader(getClass().getClassLoader()) {
+            @Override public InputStream getResourceAsStream(String name) {
+                if (name.equals(Superclass.class.getName().replace('.', '/') + ".class")) {
+                    name = Foo.class.getName().replace('.', '/') + ".class";
                 }
+                return super.getResourceAsStream(name);
             }
         };
-
-        locker.start();
-
-        TestThreadSaveAllClassesToCache attempt = new TestThreadSaveAllClassesToCache(classCache);
-        
-        try {
-            int timeToWait = 500;
-            locker.join(timeToWait, 0);
-
-            attempt.start();
-            long before = System.currentTimeMillis();
-            attempt.join(timeToWait, 0);
-            long after = System.currentTimeMillis();
-            Assert.assertEquals(false, attempt.ready);
-            Assert.assertEquals(1, (after - before) / timeToWait);
-            locker.interrupt();
-                        
-        } finally {
-            
-        }
+        assertNull(new ClassCache(CACHE_DIRECTORY, changedSuperclassLoader).getClassBytesFor(subclassName, CONFIG));
+        assertArrayEquals(instrumentedBytes, newClassCache().getClassBytesFor(subclassName, CONFIG));
     }
 
-    class TestThreadIsWriting extends  Thread {
-        public boolean ready = false;
-        final ClassCache classCache;
-        
-        
-        public TestThreadIsWriting(ClassCache classCache) {
-            super();
-            this.classCache = classCache;
-        }
+    @Test
+    public void shouldReadEachOriginalClassOnlyOnce() throws Exception {
+        final List<String> readResources = new ArrayList<String>();
+        ClassLoader recordingLoader = new ClassLoader(getClass().getClassLoader()) {
+            @Override public InputStream getResourceAsStream(String name) {
+                readResources.add(name);
+                return super.getResourceAsStream(name);
+            }
+        };
+        ClassCache classCache = new ClassCache(CACHE_DIRECTORY, recordingLoader);
 
+        assertNull(classCache.getClassBytesFor(className, CONFIG));
+        classCache.addClass(className, classCache.getEntryName(className, CONFIG), instrumentedBytes);
+        assertArrayEquals(instrumentedBytes, classCache.getClassBytesFor(className, CONFIG));
 
-        @Override
-        public void run() {
-            classCache.isWriting();
-            ready = true;
-        }
-    };
-
-    class TestThreadSaveAllClassesToCache extends  Thread {
-        public boolean ready = false;
-        final ClassCache classCache;
-        
-        
-        public TestThreadSaveAllClassesToCache(ClassCache classCache) {
-            super();
-            this.classCache = classCache;
-        }
+        assertEquals(Arrays.asList(className.replace('.', '/') + ".class"), readResources);
+    }
 
+    private ClassCache newClassCache() {
+        return new ClassCache(CACHE_DIRECTORY, getClass().getClassLoader());
+    }
 
-        @Override
-        public void run() {
-            classCache.saveAllClassesToCache(null, null);
-            ready = true;
-        }
-    };
+    public static class Superclass {
+    }
 
+    public static class Subclass extends Superclass {
+    }
 }
@@ -0,0 +1,90 @@
+package com.xtremelabs.robolectric.bytecode;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class SandboxTest {
+    @Test
+    public void shouldUseTheDefaultShadowWranglerOutsideOfSandboxes() throws Exception {
+        assertNull(Sandbox.getCurrent());
+        assertSame(ShadowWrangler.getInstance(), ShadowWrangler.getInstance());
+    }
+
+    @Test
+    public void shouldGiveEachSandboxItsOwnShadowWrangler() throws Exception {
+        final Sandbox sandbox = new Sandbox();
+        ShadowWrangler shadowWrangler = sandbox.run(new Callable<ShadowWrangler>() {
+            @Override public ShadowWrangler call() throws Exception {
+                assertSame(sandbox, Sandbox.getCurrent());
+                return ShadowWrangler.getInstance();
+            }
+        });
+
+        assertSame(sandbox.getShadowWrangler(), shadowWrangler);
+        assertNotSame(new Sandbox().getShadowWrangler(), shadowWrangler);
+        assertNotSame(ShadowWrangler.getInstance(), shadowWrangler);
+        assertNull(Sandbox.getCurrent());
+    }
+
+    @Test
+    public void shouldRunWithItsClassLoaderAsTheContextClassLoader() throws Exception {
+        ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        final Sandbox sandbox = new Sandbox();
+        final RobolectricClassLoader classLoader = new RobolectricClassLoader(sandbox.getShadowWrangler());
+        sandbox.setClassLoader(classLoader);
+        assertSame(contextClassLoader, Thread.currentThread().getContextClassLoader());
+
+        ClassLoader seenContextClassLoader = sandbox.run(new Callable<ClassLoader>() {
+            @Override public ClassLoader call() throws Exception {
+                return Thread.currentThread().getContextClassLoader();
+            }
+        });
+
+        assertSame(classLoader, seenContextClassLoader);
+        assertSame(contextClassLoader, Thread.currentThread().getContextClassLoader());
+        sandbox.close();
+    }
+
+    @Test
+    public void shouldUseAClassLoaderSetWithinTheSandboxAsTheContextClassLoader() throws Exception {
+        ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        final Sandbox sandbox = new Sandbox();
+        final RobolectricClassLoader classLoader = new RobolectricClassLoader(sandbox.getShadowWrangler());
+
+        ClassLoader seenContextClassLoader = sandbox.run(new Callable<ClassLoader>() {
+            @Override public ClassLoader call() throws Exception {
+                sandbox.setClassLoader(classLoader);
+                return Thread.currentThread().getContextClassLoader();
+            }
+        });
+
+        assertSame(classLoader, seenContextClassLoader);
+        assertSame(contextClassLoader, Thread.currentThread().getContextClassLoader());
+        sandbox.close();
+    }
+
+    @Test
+    public void threadsStartedWithinASandboxShouldBelongToIt() throws Exception {
+        final Sandbox sandbox = new Sandbox();
+        final Sandbox[] sandboxSeenByThread = new Sandbox[1];
+        sandbox.run(new Callable<Void>() {
+            @Override public Void call() throws Exception {
+                Thread thread = new Thread() {
+                    @Override public void run() {
+                        sandboxSeenByThread[0] = Sandbox.getCurrent();
+                    }
+                };
+                thread.start();
+                thread.join();
+                return null;
+            }
+        });
+
+        assertSame(sandbox, sandboxSeenByThread[0]);
+    }
+}
@@ -16,6 +16,7 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 
+import static java.util.Collections.singletonMap;
 import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.core.StringContains.containsString;
@@ -150,6 +151,76 @@ public class ShadowWranglerTest {
         assertThat(stackTrace, not(containsString(RobolectricInternals.class.getName() + ".")));
     }
     
+    @Test
+    public void shouldReuseInvocationPlanForRepeatedCalls() throws Exception {
+        Robolectric.bindShadowClass(ShadowFoo.class);
+        ShadowWrangler shadowWrangler = ShadowWrangler.getInstance();
+
+        Foo foo = new Foo(name);
+        foo.getName();
+        long hits = shadowWrangler.getDispatchCacheHits();
+        long misses = shadowWrangler.getDispatchCacheMisses();
+
+        assertSame(name, foo.getName());
+        assertEquals(hits + 1, shadowWrangler.getDispatchCacheHits());
+        assertEquals(misses, shadowWrangler.getDispatchCacheMisses());
+    }
+
+    @Test
+    public void shouldInvalidateInvocationPlansWhenShadowClassIsRebound() throws Exception {
+        Robolectric.bindShadowClass(ShadowFoo_WithDefaultConstructorAndNoConstructorDelegate.class);
+        assertNull(new Foo(name).getName());
+
+        Robolectric.bindShadowClass(ShadowFoo.class);
+        long misses = ShadowWrangler.getInstance().getDispatchCacheMisses();
+
+        assertSame(name, new Foo(name).getName());
+        assertTrue(ShadowWrangler.getInstance().getDispatchCacheMisses() > misses);
+    }
+
+    @Test
+    public void shouldKeepInvocationPlansForTheNextTestIfItBindsTheSameShadowClasses() throws Exception {
+        ShadowWrangler shadowWrangler = ShadowWrangler.getInstance();
+        Robolectric.bindShadowClass(ShadowFoo.class);
+        new Foo(name).getName();
+
+        shadowWrangler.beforeTest();
+        Robolectric.bindShadowClass(ShadowFoo.class);
+        long misses = shadowWrangler.getDispatchCacheMisses();
+
+        assertSame(name, new Foo(name).getName());
+        assertEquals(misses, shadowWrangler.getDispatchCacheMisses());
+    }
+
+    @Test
+    public void shouldInvalidateInvocationPlansForTheNextTestIfItBindsDifferentShadowClasses() throws Exception {
+        ShadowWrangler shadowWrangler = ShadowWrangler.getInstance();
+        Robolectric.bindShadowClass(ShadowFoo.class);
+        assertSame(name, new Foo(name).getName());
+
+        shadowWrangler.beforeTest();
+        long misses = shadowWrangler.getDispatchCacheMisses();
+
+        assertNull(new Foo(name).getName());
+        assertTrue(shadowWrangler.getDispatchCacheMisses() > misses);
+    }
+
+    @Test
+    public void shouldBindShadowClassesOnTopOfTheDefaultsUntilTheNextTest() throws Exception {
+        ShadowWrangler shadowWrangler = new Sandbox().getShadowWrangler();
+        shadowWrangler.setDefaultShadowClassMap(singletonMap(Foo.class.getName(), ShadowFoo.class.getName()));
+
+        shadowWrangler.bindDefaultShadowClasses();
+        assertThat(shadowWrangler.shadowFor(new Foo(name)), instanceOf(ShadowFoo.class));
+
+        shadowWrangler.bindShadowClass(Foo.class, ShadowFoo_WithDefaultConstructorAndNoConstructorDelegate.class);
+        assertThat(shadowWrangler.shadowFor(new Foo(name)), instanceOf(ShadowFoo_WithDefaultConstructorAndNoConstructorDelegate.class));
+
+        shadowWrangler.beforeTest();
+        shadowWrangler.bindDefaultShadowClasses();
+        assertThat(shadowWrangler.shadowFor(new Foo(name)), instanceOf(ShadowFoo.class));
+    }
+
     @Test(expected=RuntimeException.class)
     @EnableStrictI18n
     public void shouldThrowExceptionOnI18nStrictMode() {
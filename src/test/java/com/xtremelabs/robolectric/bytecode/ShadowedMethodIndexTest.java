@@ -0,0 +1,44 @@
+package com.xtremelabs.robolectric.bytecode;
+
+import javassist.ClassPool;
+import javassist.CtClass;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ShadowedMethodIndexTest {
+    private ClassPool classPool;
+    private CtClass fooCtClass;
+
+    @Before public void setUp() throws Exception {
+        classPool = new ClassPool(true);
+        fooCtClass = classPool.get(Foo.class.getName());
+    }
+
+    @Test
+    public void shouldIndexMethodsDeclaredOnShadowClassAndItsShadowSuperclasses() throws Exception {
+        ShadowedMethodIndex index = new ShadowedMethodIndex(classPool);
+        index.addShadowClass(ShadowFoo.class.getName());
+
+        assertTrue(index.isShadowed(fooCtClass.getDeclaredMethod("getName")));
+        assertFalse(index.isShadowed(fooCtClass.getDeclaredMethod("findFooById")));
+        assertTrue(index.isShadowed(classPool.get(ShadowWranglerTest.ShadowFooParent.class.getName()).getDeclaredMethod("__constructor__")));
+    }
+
+    @Test
+    public void digestShouldDependOnIndexedMethods() throws Exception {
+        ShadowedMethodIndex index = new ShadowedMethodIndex(classPool);
+        index.addShadowClass(ShadowWranglerTest.ShadowFooParent.class.getName());
+        String parentDigest = index.getDigest();
+
+        ShadowedMethodIndex otherIndex = new ShadowedMethodIndex(classPool);
+        otherIndex.addShadowClass(ShadowWranglerTest.ShadowFooParent.class.getName());
+        assertEquals(parentDigest, otherIndex.getDigest());
+
+        index.addShadowClass(ShadowFoo.class.getName());
+        assertFalse(parentDigest.equals(index.getDigest()));
+    }
+}
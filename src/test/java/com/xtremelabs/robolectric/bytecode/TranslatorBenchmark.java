@@ -0,0 +1,53 @@
+package com.xtremelabs.robolectric.bytecode;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares how many classes per second {@link AndroidTranslator} and {@link BytecodeAndroidTranslator} can instrument,
+ * on a single thread, by instrumenting every class in the given jars with each of them in turn.
+ * <p/>
+ * Not run with the rest of the tests. Usage, with the test classes on the class path:
+ * {@code java com.xtremelabs.robolectric.bytecode.TranslatorBenchmark <rounds> android.jar [maps.jar ...]}
+ */
+public class TranslatorBenchmark {
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("usage: " + TranslatorBenchmark.class.getName() + " <rounds> <input jar> [<input jar> ...]");
+            System.exit(1);
+        }
+
+        int rounds = Integer.parseInt(args[0]);
+        List<File> inputJars = new ArrayList<File>();
+        for (int i = 1; i < args.length; i++) {
+            inputJars.add(new File(args[i]));
+        }
+
+        // the first round of each lets the JIT warm up, so it isn't counted unless it's the only one
+        double bestSourceRate = 0;
+        double bestBytecodeRate = 0;
+        for (int round = 0; round < rounds; round++) {
+            double sourceRate = instrument(inputJars, false);
+            double bytecodeRate = instrument(inputJars, true);
+            System.out.println(String.format("round %d: javassist compiler %.0f classes/s, bytecode %.0f classes/s",
+                    round + 1, sourceRate, bytecodeRate));
+            if (round > 0 || rounds == 1) {
+                bestSourceRate = Math.max(bestSourceRate, sourceRate);
+                bestBytecodeRate = Math.max(bestBytecodeRate, bytecodeRate);
+            }
+        }
+
+        System.out.println(String.format("best: javassist compiler %.0f classes/s, bytecode %.0f classes/s (%.1fx)",
+                bestSourceRate, bestBytecodeRate, bestBytecodeRate / bestSourceRate));
+    }
+
+    private static double instrument(List<File> inputJars, boolean useBytecodeTranslator) throws Exception {
+        AndroidJarInstrumenter instrumenter = new AndroidJarInstrumenter(inputJars, 1);
+        instrumenter.setUseBytecodeTranslator(useBytecodeTranslator);
+        long start = System.nanoTime();
+        instrumenter.instrument();
+        long elapsed = System.nanoTime() - start;
+        return instrumenter.getInstrumentedClassCount() / (elapsed / 1e9);
+    }
+}
@@ -0,0 +1,64 @@
+package com.xtremelabs.robolectric.daemon;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static com.xtremelabs.robolectric.util.TestUtil.delete;
+import static com.xtremelabs.robolectric.util.TestUtil.writeFile;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ClassPathWatcherTest {
+    private static final byte[] CLASS_BYTES = {1, 2, 3};
+
+    private File classesDirectory;
+    private File fooClass;
+    private ClassPathWatcher watcher;
+
+    @Before
+    public void setUp() throws Exception {
+        classesDirectory = new File("target/test-class-path-watcher");
+        delete(classesDirectory);
+        fooClass = new File(classesDirectory, "com/example/Foo.class");
+        writeFile(fooClass, CLASS_BYTES);
+
+        watcher = new ClassPathWatcher(asList(classesDirectory));
+    }
+
+    @Test
+    public void shouldNotReportChangesWhenNothingChanged() throws Exception {
+        assertFalse(watcher.hasChanged());
+    }
+
+    @Test
+    public void shouldReportModifiedFilesOnce() throws Exception {
+        fooClass.setLastModified(fooClass.lastModified() + 2000);
+
+        assertTrue(watcher.hasChanged());
+        assertFalse(watcher.hasChanged());
+    }
+
+    @Test
+    public void shouldReportAddedFiles() throws Exception {
+        File barClass = new File(classesDirectory, "com/example/Bar.class");
+        writeFile(barClass, CLASS_BYTES);
+        barClass.setLastModified(fooClass.lastModified());
+
+        assertTrue(watcher.hasChanged());
+    }
+
+    @Test
+    public void shouldReportRemovedFiles() throws Exception {
+        File barClass = new File(classesDirectory, "com/example/Bar.class");
+        writeFile(barClass, CLASS_BYTES);
+        barClass.setLastModified(0);
+        watcher = new ClassPathWatcher(asList(classesDirectory));
+
+        barClass.delete();
+
+        assertTrue(watcher.hasChanged());
+    }
+}
@@ -0,0 +1,198 @@
+package com.xtremelabs.robolectric.daemon;
+
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import com.xtremelabs.robolectric.bytecode.RobolectricClassLoader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+import org.junit.runner.notification.RunNotifier;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+public class RobolectricDaemonTest {
+    private ServerSocket serverSocket;
+    private Thread daemonThread;
+
+    @Before
+    public void setUp() throws Exception {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        System.setProperty(RobolectricDaemon.PORT_PROPERTY, String.valueOf(serverSocket.getLocalPort()));
+        DaemonTests.threadNames.clear();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (daemonThread != null) {
+            Socket socket = new Socket("127.0.0.1", serverSocket.getLocalPort());
+            try {
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                out.writeUTF(RobolectricDaemon.STOP_COMMAND);
+                out.flush();
+            } finally {
+                socket.close();
+            }
+            daemonThread.join(10000);
+            // the daemon gave Robolectric a default loader of its own
+            RobolectricTestRunner.resetDefaultLoader(RobolectricClassLoader.class.getClassLoader());
+        }
+        serverSocket.close();
+        System.clearProperty(RobolectricDaemon.PORT_PROPERTY);
+    }
+
+    @Test
+    public void shouldReportTheEventsOfTestsRunInTheDaemon() throws Exception {
+        startDaemon();
+
+        RobolectricDaemonRunner runner = new RobolectricDaemonRunner(DaemonTests.class);
+        EventRecorder recorder = run(runner);
+
+        assertThat(DaemonTests.threadNames, equalTo(asList("robolectric-daemon", "robolectric-daemon", "robolectric-daemon")));
+        assertEquals(asList(
+                "started failingTest", "failure failingTest", "finished failingTest",
+                "started assumingTest", "assumption failure assumingTest", "finished assumingTest",
+                "ignored ignoredTest",
+                "started passingTest", "finished passingTest"), recorder.sortedByTest());
+
+        Failure failure = recorder.failures.get(0);
+        assertSame(getChild(runner, "failingTest"), failure.getDescription());
+        assertThat(failure.getMessage(), equalTo("expected:<1> but was:<2>"));
+        assertThat(failure.getTrace(), containsString("DaemonTests.failingTest"));
+    }
+
+    @Test
+    public void shouldRunTestsHereWhenNoDaemonIsListening() throws Exception {
+        serverSocket.close();
+
+        EventRecorder recorder = run(new RobolectricDaemonRunner(DaemonTests.class));
+
+        String here = Thread.currentThread().getName();
+        assertThat(DaemonTests.threadNames, equalTo(asList(here, here, here)));
+        assertThat(recorder.sortedByTest().size(), equalTo(9));
+        assertThat(recorder.failures.get(0).getMessage(), equalTo("expected:<1> but was:<2>"));
+    }
+
+    private void startDaemon() {
+        final RobolectricDaemon daemon = new RobolectricDaemon(new ArrayList<File>());
+        daemonThread = new Thread("robolectric-daemon") {
+            @Override public void run() {
+                try {
+                    daemon.serve(serverSocket);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        daemonThread.start();
+    }
+
+    private EventRecorder run(RobolectricDaemonRunner runner) {
+        RunNotifier notifier = new RunNotifier();
+        EventRecorder recorder = new EventRecorder();
+        notifier.addListener(recorder);
+        runner.run(notifier);
+        return recorder;
+    }
+
+    private Description getChild(RobolectricDaemonRunner runner, String methodName) {
+        for (Description child : runner.getDescription().getChildren()) {
+            if (child.getMethodName().equals(methodName)) {
+                return child;
+            }
+        }
+        throw new AssertionError("no test called " + methodName);
+    }
+
+    private static List<String> asList(String... strings) {
+        List<String> list = new ArrayList<String>();
+        for (String string : strings) {
+            list.add(string);
+        }
+        return list;
+    }
+
+    private static class EventRecorder extends RunListener {
+        private final List<String> events = new ArrayList<String>();
+        private final List<Failure> failures = new ArrayList<Failure>();
+
+        @Override public void testStarted(Description description) throws Exception {
+            events.add("started " + description.getMethodName());
+        }
+
+        @Override public void testFinished(Description description) throws Exception {
+            events.add("finished " + description.getMethodName());
+        }
+
+        @Override public void testFailure(Failure failure) throws Exception {
+            events.add("failure " + failure.getDescription().getMethodName());
+            failures.add(failure);
+        }
+
+        @Override public void testAssumptionFailure(Failure failure) {
+            events.add("assumption failure " + failure.getDescription().getMethodName());
+        }
+
+        @Override public void testIgnored(Description description) throws Exception {
+            events.add("ignored " + description.getMethodName());
+        }
+
+        /**
+         * @return the events, grouped by test, since JUnit doesn't promise an order to run tests in
+         */
+        List<String> sortedByTest() {
+            List<String> sorted = new ArrayList<String>();
+            for (String methodName : new String[]{"failingTest", "assumingTest", "ignoredTest", "passingTest"}) {
+                for (String event : events) {
+                    if (event.endsWith(" " + methodName)) {
+                        sorted.add(event);
+                    }
+                }
+            }
+            return sorted;
+        }
+    }
+
+    @DaemonRunWith(BlockJUnit4ClassRunner.class)
+    public static class DaemonTests {
+        static final List<String> threadNames = new ArrayList<String>();
+
+        @Test
+        public void passingTest() throws Exception {
+            threadNames.add(Thread.currentThread().getName());
+        }
+
+        @Test
+        public void failingTest() throws Exception {
+            threadNames.add(Thread.currentThread().getName());
+            assertEquals(1, 2);
+        }
+
+        @Test
+        public void assumingTest() throws Exception {
+            threadNames.add(Thread.currentThread().getName());
+            assumeTrue(false);
+        }
+
+        @Ignore
+        @Test
+        public void ignoredTest() throws Exception {
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.xtremelabs.robolectric.res;
+
+import com.xtremelabs.robolectric.util.Strings;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static com.xtremelabs.robolectric.util.TestUtil.resourceFile;
+import static com.xtremelabs.robolectric.util.TestUtil.writeFile;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AssetStoreTest {
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = new File("target/test-asset-store");
+        dir.mkdirs();
+    }
+
+    @Test
+    public void shouldReadFilesFromADirectory() throws Exception {
+        AssetStore assetStore = AssetStore.forFile(resourceFile("assets"));
+
+        assertThat(Strings.fromStream(assetStore.open("assetsHome.txt")), equalTo("assetsHome!"));
+        assertThat(Strings.fromStream(assetStore.open("docs/extra/testing/hello.txt")), equalTo("hello!"));
+        assertTrue(Arrays.asList(assetStore.list("")).contains("docs"));
+    }
+
+    @Test
+    public void shouldReadFilesTooBigToCacheFromADirectory() throws Exception {
+        byte[] bytes = bigBytes();
+        writeFile(new File(dir, "big.bin"), bytes);
+        AssetStore assetStore = AssetStore.forFile(dir);
+
+        assertArrayEquals(bytes, read(assetStore.open("big.bin")));
+        assertArrayEquals(bytes, read(assetStore.open("big.bin")));
+    }
+
+    @Test
+    public void shouldLetGoOfTheLeastRecentlyUsedMappingsPastTheMappedSize() throws Exception {
+        byte[] bytes = bigBytes();
+        writeFile(new File(dir, "big1.bin"), bytes);
+        writeFile(new File(dir, "big2.bin"), bytes);
+        System.setProperty(DirectoryAssetStore.MAPPED_SIZE_PROPERTY, String.valueOf(bytes.length + 1));
+        DirectoryAssetStore assetStore;
+        try {
+            assetStore = new DirectoryAssetStore(dir);
+        } finally {
+            System.clearProperty(DirectoryAssetStore.MAPPED_SIZE_PROPERTY);
+        }
+
+        InputStream big1 = assetStore.open("big1.bin");
+        assertThat(assetStore.getMappedBytes(), equalTo((long) bytes.length));
+        assertArrayEquals(bytes, read(assetStore.open("big2.bin")));
+        assertThat(assetStore.getMappedBytes(), equalTo((long) bytes.length));
+        assertArrayEquals(bytes, read(big1));
+    }
+
+    @Test
+    public void shouldReadFilesAgainWhenTheyChange() throws Exception {
+        File file = new File(dir, "changing.txt");
+        writeFile(file, "before");
+        file.setLastModified(1000000000000L);
+        AssetStore assetStore = AssetStore.forFile(dir);
+        assertThat(Strings.fromStream(assetStore.open("changing.txt")), equalTo("before"));
+
+        writeFile(file, "after");
+        file.setLastModified(1000000002000L);
+        assertThat(Strings.fromStream(assetStore.open("changing.txt")), equalTo("after"));
+    }
+
+    @Test
+    public void shouldReadTheAssetsOfAnApk() throws Exception {
+        File apk = new File(dir, "test.apk");
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(apk));
+        try {
+            addEntry(out, "AndroidManifest.xml", "<manifest/>");
+            addEntry(out, "assets/assetsHome.txt", "assetsHome!");
+            addEntry(out, "assets/docs/extra/testing/hello.txt", "hello!");
+        } finally {
+            out.close();
+        }
+        AssetStore assetStore = AssetStore.forFile(apk);
+
+        assertThat(Strings.fromStream(assetStore.open("assetsHome.txt")), equalTo("assetsHome!"));
+        assertThat(Strings.fromStream(assetStore.open("docs" + File.separator + "extra/testing/hello.txt")), equalTo("hello!"));
+        assertThat(Arrays.asList(assetStore.list("")), equalTo(Arrays.asList("assetsHome.txt", "docs")));
+        assertThat(Arrays.asList(assetStore.list("docs/extra")), equalTo(Arrays.asList("testing")));
+        assertThat(assetStore.list("assetsHome.txt").length, equalTo(0));
+        try {
+            assetStore.open("AndroidManifest.xml");
+            fail("only the assets should be readable");
+        } catch (FileNotFoundException expected) {
+        }
+    }
+
+    @Test
+    public void shouldKeepReadingStreamsFromAnArchiveThatChanged() throws Exception {
+        byte[] bytes = bigBytes();
+        File zip = new File(dir, "changing.zip");
+        writeZip(zip, "big.bin", bytes);
+        zip.setLastModified(1000000000000L);
+        AssetStore assetStore = AssetStore.forFile(zip);
+        InputStream big = assetStore.open("big.bin");
+
+        // replaced, rather than written over, the way a build would
+        File newZip = new File(dir, "changing.zip.new");
+        writeZip(newZip, "small.txt", "small".getBytes());
+        assertTrue(newZip.renameTo(zip));
+        zip.setLastModified(1000000002000L);
+        assertThat(Strings.fromStream(assetStore.open("small.txt")), equalTo("small"));
+
+        assertArrayEquals(bytes, AssetStore.readFully(big, bytes.length));
+    }
+
+    private byte[] bigBytes() {
+        byte[] bytes = new byte[AssetStore.SMALL_ENTRY_SIZE * 2 + 1];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+
+    private void writeZip(File zip, String name, byte[] contents) throws Exception {
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip));
+        try {
+            out.putNextEntry(new ZipEntry(name));
+            out.write(contents);
+            out.closeEntry();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void addEntry(ZipOutputStream out, String name, String contents) throws Exception {
+        out.putNextEntry(new ZipEntry(name));
+        out.write(contents.getBytes());
+        out.closeEntry();
+    }
+
+    private byte[] read(InputStream in) throws Exception {
+        byte[] bytes = new byte[in.available()];
+        assertThat(in.read(bytes), equalTo(bytes.length));
+        assertThat(in.read(), equalTo(-1));
+        in.close();
+        return bytes;
+    }
+}
@@ -11,6 +11,7 @@ import org.junit.Test;
 import static com.xtremelabs.robolectric.util.TestUtil.getSystemResourceDir;
 import static com.xtremelabs.robolectric.util.TestUtil.resourceFile;
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.junit.Assert.assertThat;
 
 public class AttrResourceLoaderTest {
@@ -45,6 +46,16 @@ public class AttrResourceLoaderTest {
         assertThat(attrResourceLoader.hasAttributeFor(CustomView.class, "xxx", "otherItemType"), equalTo(false));
     }
 
+    @Test
+    public void shouldNotNoteEnumReferencesTwiceWhenValuesAreLoadedAgain() throws Exception {
+        int enumRefCount = attrResourceLoader.enumRefs.size();
+
+        new DocumentLoader(attrResourceLoader).loadResourceXmlDir(resourceFile("res", "values"));
+
+        assertThat(attrResourceLoader.enumRefs.size(), equalTo(enumRefCount));
+        assertThat(attrResourceLoader.convertValueToEnum(CustomView.class, "xxx", "keycode", "KEYCODE_SOFT_RIGHT"), equalTo("2"));
+    }
+
     @Test
     public void testAttributesAreResolvedForSystemAttrs() throws Exception {
         String expected = "" + ImageView.ScaleType.FIT_CENTER.ordinal();
@@ -76,6 +87,14 @@ public class AttrResourceLoaderTest {
         assertThat(attrResourceLoader.convertValueToEnum(CustomView.class, "xxx", "gravity", "fill_vertical"), equalTo("0x70"));
     }
 
+    @Test
+    public void shouldConvertEnumAndFlagValuesToInts() throws Exception {
+        assertThat(attrResourceLoader.convertValueToInt(CustomView.class, "xxx", "itemType", "string"), equalTo(1));
+        assertThat(attrResourceLoader.convertValueToInt(CustomView.class, "xxx", "gravity", "center"), equalTo(0x11));
+        assertThat(attrResourceLoader.convertValueToInt(SubCustomView.class, "xxx", "scrollbars", "horizontal"), equalTo(0x100));
+        assertThat(attrResourceLoader.convertValueToInt(CustomView.class, "xxx", "itemType", "float"), nullValue());
+    }
+
     @Test
     public void shouldResolveAttributesForSubClasses() throws Exception {
         assertThat(attrResourceLoader.convertValueToEnum(SubCustomView.class, "xxx", "itemType", "integer"), equalTo("0"));
@@ -0,0 +1,137 @@
+package com.xtremelabs.robolectric.res;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.xtremelabs.robolectric.util.TestUtil.delete;
+import static com.xtremelabs.robolectric.util.TestUtil.resourceFile;
+import static com.xtremelabs.robolectric.util.TestUtil.writeFile;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DocumentCacheTest {
+    private String previousCacheDir;
+    private File cacheDir;
+    private File resourceDir;
+    private List<String> documents;
+
+    @Before public void setUp() throws Exception {
+        previousCacheDir = System.getProperty(DocumentCache.CACHE_DIR_PROPERTY);
+        cacheDir = new File("target/test-document-cache/cache");
+        resourceDir = new File("target/test-document-cache/values");
+        delete(cacheDir.getParentFile());
+        resourceDir.mkdirs();
+        System.setProperty(DocumentCache.CACHE_DIR_PROPERTY, cacheDir.getPath());
+        documents = new ArrayList<String>();
+    }
+
+    @After public void tearDown() throws Exception {
+        if (previousCacheDir == null) {
+            System.clearProperty(DocumentCache.CACHE_DIR_PROPERTY);
+        } else {
+            System.setProperty(DocumentCache.CACHE_DIR_PROPERTY, previousCacheDir);
+        }
+    }
+
+    @Test
+    public void shouldRebuildTheSameDocumentsFromTheCache() throws Exception {
+        DocumentLoader documentLoader = new DocumentLoader(new DumpingXmlLoader());
+        documentLoader.loadResourceXmlDirs(resourceFile("res", "values"), resourceFile("res", "layout"));
+        List<String> parsedDocuments = new ArrayList<String>(documents);
+        assertEquals(2, cacheDir.list().length);
+
+        documents.clear();
+        documentLoader.loadResourceXmlDirs(resourceFile("res", "values"), resourceFile("res", "layout"));
+        assertEquals(parsedDocuments, documents);
+    }
+
+    @Test
+    public void shouldParseFilesAgainOnlyWhenTheyChange() throws Exception {
+        File stringsFile = new File(resourceDir, "strings.xml");
+        writeStrings(stringsFile, "aaa");
+        stringsFile.setLastModified(1000000000000L);
+        loadResourceDir();
+
+        // same size and time; can't tell it changed, so it should come from the cache
+        writeStrings(stringsFile, "bbb");
+        stringsFile.setLastModified(1000000000000L);
+        loadResourceDir();
+        assertTrue(documents.get(1), documents.get(1).contains("aaa"));
+
+        stringsFile.setLastModified(1000000002000L);
+        loadResourceDir();
+        assertTrue(documents.get(2), documents.get(2).contains("bbb"));
+    }
+
+    @Test
+    public void shouldSaveTheCacheOfFilesLoadedOneAtATimeOnlyWhenAskedTo() throws Exception {
+        File layoutDir = new File(resourceDir.getParentFile(), "layout");
+        writeFile(new File(layoutDir, "first.xml"), "<LinearLayout/>");
+        writeFile(new File(layoutDir, "second.xml"), "<TextView/>");
+
+        DocumentLoader documentLoader = new DocumentLoader(new DumpingXmlLoader());
+        documentLoader.loadResourceXmlFile(false, new File(layoutDir, "first.xml"));
+        documentLoader.loadResourceXmlFile(false, new File(layoutDir, "second.xml"));
+        assertTrue(cacheDir.list() == null || cacheDir.list().length == 0);
+
+        DocumentCache.saveSharedCaches();
+        assertEquals(1, cacheDir.list().length);
+
+        documents.clear();
+        new DocumentLoader(new DumpingXmlLoader()).loadResourceXmlFile(false, new File(layoutDir, "second.xml"));
+        assertTrue(documents.get(0), documents.get(0).contains("TextView"));
+    }
+
+    private void loadResourceDir() throws Exception {
+        new DocumentLoader(new DumpingXmlLoader()).loadResourceXmlDir(resourceDir);
+    }
+
+    private void writeStrings(File file, String value) throws IOException {
+        writeFile(file, "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n"
+                + "<resources xmlns:android=\"http://schemas.android.com/apk/res/android\">\n"
+                + "  <string name=\"hello\" android:foo=\"bar\">" + value + "</string>\n"
+                + "</resources>\n");
+    }
+
+    private class DumpingXmlLoader extends XmlLoader {
+        DumpingXmlLoader() {
+            super(new ResourceExtractor());
+        }
+
+        @Override protected void processResourceXml(File xmlFile, Document document, boolean isSystem) throws Exception {
+            StringBuilder buf = new StringBuilder(xmlFile.getName()).append(":");
+            dump(document.getChildNodes(), buf);
+            documents.add(buf.toString());
+        }
+
+        private void dump(NodeList nodes, StringBuilder buf) {
+            for (int i = 0; i < nodes.getLength(); i++) {
+                Node node = nodes.item(i);
+                if (node.getNodeType() == Node.ELEMENT_NODE) {
+                    buf.append("<{").append(node.getNamespaceURI()).append("}").append(node.getNodeName());
+                    NamedNodeMap attributes = node.getAttributes();
+                    for (int j = 0; j < attributes.getLength(); j++) {
+                        Node attribute = attributes.item(j);
+                        buf.append(" {").append(attribute.getNamespaceURI()).append("}")
+                                .append(attribute.getNodeName()).append("=").append(attribute.getNodeValue());
+                    }
+                    buf.append(">");
+                    dump(node.getChildNodes(), buf);
+                    buf.append("</>");
+                } else {
+                    buf.append(node.getTextContent());
+                }
+            }
+        }
+    }
+}
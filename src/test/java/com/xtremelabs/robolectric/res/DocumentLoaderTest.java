@@ -0,0 +1,94 @@
+package com.xtremelabs.robolectric.res;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.xtremelabs.robolectric.util.TestUtil.resourceFile;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class DocumentLoaderTest {
+    private String previousParserThreads;
+    private List<String> events;
+    private List<Document> documents;
+
+    @Before public void setUp() throws Exception {
+        previousParserThreads = System.getProperty(DocumentLoader.PARSER_THREADS_PROPERTY);
+        events = new ArrayList<String>();
+        documents = new ArrayList<Document>();
+    }
+
+    @After public void tearDown() throws Exception {
+        if (previousParserThreads == null) {
+            System.clearProperty(DocumentLoader.PARSER_THREADS_PROPERTY);
+        } else {
+            System.setProperty(DocumentLoader.PARSER_THREADS_PROPERTY, previousParserThreads);
+        }
+    }
+
+    @Test
+    public void shouldParseEachFileOnceAndGiveEveryFileToEachLoaderInTurn() throws Exception {
+        System.setProperty(DocumentLoader.PARSER_THREADS_PROPERTY, "1");
+        new DocumentLoader(new RecordingXmlLoader("first"), new RecordingXmlLoader("second"))
+                .loadResourceXmlDir(resourceFile("res", "values"));
+
+        List<String> fileNames = getXmlFileNames(resourceFile("res", "values"));
+        List<String> expectedEvents = new ArrayList<String>();
+        for (String loaderName : new String[]{"first", "second"}) {
+            for (String fileName : fileNames) {
+                expectedEvents.add(loaderName + ":" + fileName);
+            }
+        }
+        assertEquals(expectedEvents, events);
+
+        int fileCount = fileNames.size();
+        for (int i = 0; i < fileCount; i++) {
+            assertSame(documents.get(i), documents.get(fileCount + i));
+        }
+    }
+
+    @Test
+    public void shouldProcessFilesFromSeveralDirectoriesInOrderWhenParsingInParallel() throws Exception {
+        System.setProperty(DocumentLoader.PARSER_THREADS_PROPERTY, "4");
+        File[] dirs = {resourceFile("res", "values"), resourceFile("res", "layout")};
+        new DocumentLoader(new RecordingXmlLoader("loader")).loadResourceXmlDirs(dirs);
+
+        List<String> expectedEvents = new ArrayList<String>();
+        for (File dir : dirs) {
+            for (String fileName : getXmlFileNames(dir)) {
+                expectedEvents.add("loader:" + fileName);
+            }
+        }
+        assertEquals(expectedEvents, events);
+    }
+
+    private List<String> getXmlFileNames(File dir) {
+        List<String> fileNames = new ArrayList<String>();
+        for (File file : dir.listFiles()) {
+            if (file.getName().endsWith(".xml")) {
+                fileNames.add(file.getName());
+            }
+        }
+        return fileNames;
+    }
+
+    private class RecordingXmlLoader extends XmlLoader {
+        private final String name;
+
+        RecordingXmlLoader(String name) {
+            super(new ResourceExtractor());
+            this.name = name;
+        }
+
+        @Override protected void processResourceXml(File xmlFile, Document document, boolean isSystem) throws Exception {
+            events.add(name + ":" + xmlFile.getName());
+            documents.add(document);
+        }
+    }
+}
@@ -38,8 +38,8 @@ public class DrawableResourceLoaderTest {
 
     @Test
     public void testProcessResourceXml() throws Exception {
-        assertTrue("drawable/rainbow", resourceLoader.documents.containsKey("drawable/rainbow"));
-        assertEquals("documents.size", 115, resourceLoader.documents.size());
+        assertTrue("drawable/rainbow", resourceLoader.drawables.containsKey("drawable/rainbow"));
+        assertEquals("documents.size", 115, resourceLoader.drawables.size());
     }
 
     @Test
@@ -0,0 +1,39 @@
+package com.xtremelabs.robolectric.res;
+
+import android.view.LayoutInflater;
+import com.xtremelabs.robolectric.R;
+import com.xtremelabs.robolectric.Robolectric;
+import com.xtremelabs.robolectric.WithTestDefaultsRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Inflates a list row layout over and over, the way list-heavy screens do, and reports how many inflations per second
+ * {@link ViewLoader} manages. Not run with the rest of the tests; run it on its own with
+ * {@code mvn test -Dtest=InflationBenchmark}.
+ */
+@RunWith(WithTestDefaultsRunner.class)
+public class InflationBenchmark {
+    private static final int ROUNDS = 5;
+    private static final int INFLATIONS_PER_ROUND = 2000;
+
+    @Test
+    public void inflateRowLayout() throws Exception {
+        LayoutInflater layoutInflater = LayoutInflater.from(Robolectric.application);
+
+        // the first round lets the JIT warm up, so it isn't counted
+        double bestRate = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < INFLATIONS_PER_ROUND; i++) {
+                layoutInflater.inflate(R.layout.text_views, null);
+            }
+            double rate = INFLATIONS_PER_ROUND / ((System.nanoTime() - start) / 1e9);
+            System.out.println(String.format("round %d: %.0f inflations/s", round + 1, rate));
+            if (round > 0) {
+                bestRate = Math.max(bestRate, rate);
+            }
+        }
+        System.out.println(String.format("best: %.0f inflations/s", bestRate));
+    }
+}
@@ -0,0 +1,57 @@
+package com.xtremelabs.robolectric.res;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class IntMapTest {
+    private IntMap<String> intMap;
+
+    @Before
+    public void setUp() throws Exception {
+        intMap = new IntMap<String>();
+    }
+
+    @Test
+    public void shouldFindValuesThatWerePut() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            intMap.put(0x7f050000 + i, "string" + i);
+        }
+        intMap.put(0x7f050010, "replaced");
+
+        assertThat(intMap.size(), equalTo(1000));
+        assertThat(intMap.get(0x7f050000), equalTo("string0"));
+        assertThat(intMap.get(0x7f0503e7), equalTo("string999"));
+        assertThat(intMap.get(0x7f050010), equalTo("replaced"));
+        assertThat(intMap.get(0x7f0503e8), nullValue());
+        assertFalse(intMap.containsKey(0x7f060000));
+    }
+
+    @Test
+    public void shouldHandleZeroAndNegativeKeys() throws Exception {
+        assertFalse(intMap.containsKey(0));
+        intMap.put(0, "zero");
+        intMap.put(-1, "minus one");
+
+        assertTrue(intMap.containsKey(0));
+        assertThat(intMap.get(0), equalTo("zero"));
+        assertThat(intMap.get(-1), equalTo("minus one"));
+        assertThat(intMap.size(), equalTo(2));
+    }
+
+    @Test
+    public void shouldForgetEverythingWhenCleared() throws Exception {
+        intMap.put(0, "zero");
+        intMap.put(1, "one");
+        intMap.clear();
+
+        assertThat(intMap.size(), equalTo(0));
+        assertFalse(intMap.containsKey(0));
+        assertThat(intMap.get(1), nullValue());
+    }
+}
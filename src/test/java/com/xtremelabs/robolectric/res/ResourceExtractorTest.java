@@ -28,4 +28,19 @@ public class ResourceExtractorTest {
     public void shouldPrefixAllSystemResourcesWithAndroid() throws Exception {
         assertThat(resourceExtractor.getResourceId("android:id/text1"), equalTo(android.R.id.text1));
     }
+
+    @Test
+    public void shouldFindResourcesByTheirReferences() throws Exception {
+        assertThat(resourceExtractor.getLocalResourceId("@string/hello"), equalTo(R.string.hello));
+        assertThat(resourceExtractor.getLocalResourceId("@+id/textStyle"), equalTo(R.id.textStyle));
+        assertThat(resourceExtractor.getResourceId("@+android:id/text1"), equalTo(android.R.id.text1));
+        assertThat(resourceExtractor.getResourceId("@android:string/ok"), equalTo(android.R.string.ok));
+        assertThat(resourceExtractor.getLocalResourceId("@+string/hello"), CoreMatchers.<Object>nullValue());
+    }
+
+    @Test
+    public void shouldFindResourceNamesById() throws Exception {
+        assertThat(resourceExtractor.getResourceName(R.string.hello), equalTo("string/hello"));
+        assertThat(resourceExtractor.getResourceName(android.R.id.text1), equalTo("android:id/text1"));
+    }
 }
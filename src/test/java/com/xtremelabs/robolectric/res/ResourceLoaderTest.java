@@ -13,11 +13,16 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import java.io.File;
+import java.io.IOException;
 
 import static com.xtremelabs.robolectric.util.TestUtil.resourceFile;
+import static com.xtremelabs.robolectric.util.TestUtil.writeFile;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 @RunWith(WithTestDefaultsRunner.class)
 public class ResourceLoaderTest {
@@ -65,4 +70,57 @@ public class ResourceLoaderTest {
     	resourceLoader.inflatePreferences(Robolectric.application, R.xml.preferences);
     }
 
+    @Test
+    public void shouldReloadChangedResourcesWhenWatchingThem() throws Exception {
+        File resourceDir = new File("target/test-watched-resources/res");
+        rewriteFile(new File(resourceDir, "values/strings.xml"), "<resources><string name=\"hello\">Hello</string></resources>");
+        rewriteFile(new File(resourceDir, "layout/snippet.xml"), "<TextView/>");
+
+        System.setProperty(ResourceLoader.WATCH_RESOURCES_PROPERTY, "true");
+        ResourceLoader resourceLoader;
+        try {
+            resourceLoader = new ResourceLoader(10, R.class, resourceDir, null);
+            assertEquals("Hello", resourceLoader.getStringValue(R.string.hello));
+        } finally {
+            System.clearProperty(ResourceLoader.WATCH_RESOURCES_PROPERTY);
+        }
+        ViewLoader.ViewNode snippetNode = resourceLoader.getLayoutViewNode("layout/snippet");
+
+        resourceLoader.reloadChangedResources();
+        assertSame(snippetNode, resourceLoader.getLayoutViewNode("layout/snippet"));
+
+        rewriteFile(new File(resourceDir, "values/strings.xml"), "<resources><string name=\"hello\">Howdy</string></resources>");
+        rewriteFile(new File(resourceDir, "layout/snippet.xml"), "<TextView/>");
+        resourceLoader.reloadChangedResources();
+        assertEquals("Howdy", resourceLoader.getStringValue(R.string.hello));
+        assertNotSame(snippetNode, resourceLoader.getLayoutViewNode("layout/snippet"));
+    }
+
+    @Test
+    public void shouldFailTheSameWayEveryTimeIfValuesCantBeLoaded() throws Exception {
+        File resourceDir = new File("target/test-broken-resources/res");
+        writeFile(new File(resourceDir, "values/strings.xml"), "<resources><string name=\"hello\">Hello</string>");
+        ResourceLoader resourceLoader = new ResourceLoader(10, R.class, resourceDir, null);
+
+        RuntimeException firstFailure = null;
+        try {
+            resourceLoader.getStringValue(R.string.hello);
+            fail("values shouldn't have loaded");
+        } catch (RuntimeException e) {
+            firstFailure = e;
+        }
+        try {
+            resourceLoader.getStringValue(R.string.hello);
+            fail("values shouldn't have loaded");
+        } catch (RuntimeException e) {
+            assertSame(firstFailure, e);
+        }
+    }
+
+    private void rewriteFile(File file, String contents) throws IOException {
+        // moves the modification time on, since the file system may only keep it to the second
+        long lastModified = file.exists() ? file.lastModified() + 2000 : System.currentTimeMillis();
+        writeFile(file, contents);
+        file.setLastModified(lastModified);
+    }
 }
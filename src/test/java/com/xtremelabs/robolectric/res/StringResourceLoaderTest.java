@@ -33,4 +33,22 @@ public class StringResourceLoaderTest {
     public void shouldResolveStringReferences() throws Exception {
         assertThat(stringResourceLoader.getValue(R.string.greeting), equalTo("Howdy"));
     }
+
+    @Test
+    public void shouldLookInTheSystemLoaderForStringsItDoesntHave() throws Exception {
+        ResourceExtractor systemResourceExtractor = new ResourceExtractor();
+        systemResourceExtractor.addSystemRClass(android.R.class);
+        StringResourceLoader systemStringResourceLoader = new StringResourceLoader(systemResourceExtractor);
+        new DocumentLoader(systemStringResourceLoader).loadSystemResourceXmlDir(resourceFile("res", "values"));
+
+        ResourceExtractor resourceExtractor = new ResourceExtractor();
+        resourceExtractor.addLocalRClass(R.class);
+        resourceExtractor.addSystemRClass(android.R.class);
+        StringResourceLoader appStringResourceLoader = new StringResourceLoader(resourceExtractor);
+        appStringResourceLoader.setSystemLoader(systemStringResourceLoader);
+        new DocumentLoader(appStringResourceLoader).loadResourceXmlDir(resourceFile("res", "values"));
+
+        assertThat(appStringResourceLoader.getValue(android.R.string.copy), equalTo("Local Copy"));
+        assertThat(appStringResourceLoader.getValue(R.string.hello), equalTo("Hello"));
+    }
 }
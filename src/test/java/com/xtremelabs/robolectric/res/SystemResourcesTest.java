@@ -0,0 +1,70 @@
+package com.xtremelabs.robolectric.res;
+
+import com.xtremelabs.robolectric.R;
+import com.xtremelabs.robolectric.util.Profiler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.StringWriter;
+
+import static com.xtremelabs.robolectric.util.TestUtil.delete;
+import static com.xtremelabs.robolectric.util.TestUtil.writeFile;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SystemResourcesTest {
+    private File dir;
+    private boolean wasProfilerEnabled;
+    private String previousTestClassName;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = new File("target/test-system-resources");
+        delete(dir);
+        wasProfilerEnabled = Profiler.isEnabled();
+        Profiler.setEnabled(true);
+        Profiler.reset();
+        previousTestClassName = Profiler.setTestClass(SystemResourcesTest.class.getName());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Profiler.setTestClass(previousTestClassName);
+        Profiler.reset();
+        Profiler.setEnabled(wasProfilerEnabled);
+    }
+
+    @Test
+    public void shouldReturnTheSameResourcesForTheSameDirectory() throws Exception {
+        File resourceDir = new File(dir, "platforms/android-10/data/res");
+        resourceDir.mkdirs();
+
+        SystemResources systemResources = SystemResources.forDirectory(resourceDir);
+        assertSame(systemResources, SystemResources.forDirectory(resourceDir.getAbsoluteFile()));
+        assertSame(systemResources, SystemResources.forDirectory(new File(resourceDir, "../res")));
+    }
+
+    @Test
+    public void shouldLoadSystemResourcesOnceForEveryResourceLoader() throws Exception {
+        File sdkDir = new File(dir, "sdk");
+        writeFile(new File(sdkDir, "platforms/android-10/data/res/values/strings.xml"),
+                "<resources><string name=\"copy\">Copy</string></resources>");
+        File appResourceDir = new File(dir, "app/res");
+        writeFile(new File(appResourceDir, "values/strings.xml"),
+                "<resources><string name=\"hello\">Hello</string></resources>");
+        // found before any other way of finding the SDK
+        writeFile(new File(dir, "app/local.properties"), "sdk.dir=" + sdkDir.getAbsolutePath().replace('\\', '/'));
+
+        ResourceLoader firstLoader = new ResourceLoader(10, R.class, appResourceDir, null);
+        ResourceLoader secondLoader = new ResourceLoader(10, R.class, appResourceDir, null);
+        assertEquals("Copy", firstLoader.getStringValue(android.R.string.copy));
+        assertEquals("Copy", secondLoader.getStringValue(android.R.string.copy));
+
+        StringWriter json = new StringWriter();
+        Profiler.writeJson(json);
+        assertTrue(json.toString(), json.toString().contains("\"systemResources\": {\"count\": 1, "));
+    }
+}
@@ -131,6 +131,16 @@ public class TestAttributeSetTest {
         assertThat(testAttributeSet.getAttributeIntValue("some namespace", "itemType", 0), equalTo(1));
     }
 
+    @Test
+    public void getAttributeIntValue_shouldReadHexFlagValuesAsHex() throws Exception {
+        attributes.put("scrollbars", "vertical");
+
+        AttrResourceLoader attrResourceLoader = new AttrResourceLoader(resourceExtractor);
+        new DocumentLoader(attrResourceLoader).loadResourceXmlDir(resourceFile("res", "values"));
+        TestAttributeSet testAttributeSet = new TestAttributeSet(attributes, null, attrResourceLoader, CustomView.class, false);
+        assertThat(testAttributeSet.getAttributeIntValue("some namespace", "scrollbars", 0), equalTo(0x200));
+    }
+
     @Test
     public void getAttributeIntValue_shouldReturnValueFromAttributeWhenNotInAttributeSet() throws Exception {
         AttrResourceLoader resourceLoader = new AttrResourceLoader(resourceExtractor);
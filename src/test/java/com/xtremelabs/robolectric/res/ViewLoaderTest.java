@@ -16,6 +16,7 @@ import com.xtremelabs.robolectric.Robolectric;
 import com.xtremelabs.robolectric.WithTestDefaultsRunner;
 import com.xtremelabs.robolectric.shadows.ShadowImageView;
 import com.xtremelabs.robolectric.shadows.ShadowTextView;
+import com.xtremelabs.robolectric.tester.android.util.TestAttributeSet;
 import com.xtremelabs.robolectric.util.CustomView;
 import com.xtremelabs.robolectric.util.CustomView2;
 import com.xtremelabs.robolectric.util.I18nException;
@@ -56,6 +57,21 @@ public class ViewLoaderTest {
         context = new FragmentActivity();
     }
 
+    @Test
+    public void shouldParseLayoutsOnlyWhenTheyreFirstAskedFor() throws Exception {
+        ResourceExtractor resourceExtractor = new ResourceExtractor();
+        resourceExtractor.addLocalRClass(R.class);
+        ViewLoader lazyViewLoader = new ViewLoader(resourceExtractor, new AttrResourceLoader(resourceExtractor));
+        lazyViewLoader.addLayoutDirs(false, resourceFile("res", "layout"), resourceFile("res", "layout-land"));
+        assertTrue(lazyViewLoader.viewNodesByLayoutName.isEmpty());
+
+        ViewLoader.ViewNode landscapeNode = lazyViewLoader.getViewNode("layout-land/multi_orientation");
+        assertNotNull(landscapeNode);
+        assertEquals(2, lazyViewLoader.viewNodesByLayoutName.size());
+        assertNotSame(landscapeNode, lazyViewLoader.getViewNode("layout/multi_orientation"));
+        assertNull(lazyViewLoader.getViewNode("layout/no_such_layout"));
+    }
+
     @Test
     public void testCreatesCorrectClasses() throws Exception {
         ViewGroup view = (ViewGroup) viewLoader.inflateView(context, "layout/media");
@@ -172,6 +188,13 @@ public class ViewLoaderTest {
         TestUtil.assertInstanceOf(TextView.class, mediaView.findViewById(R.id.inner_text));
     }
 
+    @Test
+    public void includeShouldNotOverrideAttributesOfIncludedLayoutWhenInflatedOnItsOwn() throws Exception {
+        viewLoader.inflateView(context, "layout/override_include");
+        View snippetView = viewLoader.inflateView(context, "layout/snippet");
+        assertThat(snippetView.getVisibility(), is(View.GONE));
+    }
+
     @Test
     public void mergeIncludesShouldNotCreateAncestryLoops() throws Exception {
         ViewGroup mediaView = (ViewGroup) viewLoader.inflateView(context, "layout/outer");
@@ -190,6 +213,16 @@ public class ViewLoaderTest {
         assertThat(view.attributeResourceValue, equalTo(R.string.hello));
     }
 
+    @Test
+    public void shouldGiveEachInflatedViewAnAttributeSetOfItsOwn() throws Exception {
+        CustomView firstView = (CustomView) viewLoader.inflateView(context, "layout/custom_layout");
+        ((TestAttributeSet) firstView.attributeSet).put("message", "@string/howdy");
+
+        CustomView secondView = (CustomView) viewLoader.inflateView(context, "layout/custom_layout");
+        assertNotSame(firstView.attributeSet, secondView.attributeSet);
+        assertThat(secondView.attributeResourceValue, equalTo(R.string.hello));
+    }
+
     @Test
     public void testViewVisibilityIsSet() throws Exception {
         View mediaView = viewLoader.inflateView(context, "layout/media");
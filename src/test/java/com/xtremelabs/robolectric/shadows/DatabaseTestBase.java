@@ -3,6 +3,7 @@ package com.xtremelabs.robolectric.shadows;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import com.xtremelabs.robolectric.Robolectric;
 import com.xtremelabs.robolectric.WithTestDefaultsRunner;
 import org.junit.After;
@@ -10,6 +11,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -17,6 +19,7 @@ import java.sql.Statement;
 import static com.xtremelabs.robolectric.Robolectric.shadowOf;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.junit.Assert.*;
 
 
@@ -457,6 +460,63 @@ public abstract class DatabaseTestBase {
         assertThat(database.isOpen(), equalTo(false));
     }
 
+    @Test
+    public void shouldShareADatabaseWithEverythingThatOpensTheSamePath() throws Exception {
+        addChuck();
+        SQLiteDatabase samePathDatabase = SQLiteDatabase.openDatabase("path", null, 0);
+        assertThat(countRows(samePathDatabase, "table_name"), equalTo(1));
+
+        samePathDatabase.close();
+        assertThat(samePathDatabase.isOpen(), equalTo(false));
+        assertThat(database.isOpen(), equalTo(true));
+        assertThat(countRows(database, "table_name"), equalTo(1));
+    }
+
+    @Test
+    public void shouldKeepDatabasesAtDifferentPathsApart() throws Exception {
+        SQLiteDatabase otherDatabase = SQLiteDatabase.openDatabase("other_path", null, 0);
+        otherDatabase.execSQL("CREATE TABLE table_name (id INTEGER PRIMARY KEY, name VARCHAR(255));");
+        addChuck();
+
+        assertThat(countRows(otherDatabase, "table_name"), equalTo(0));
+        assertThat(shadowOf(otherDatabase).getConnection(), not(sameInstance(shDatabase.getConnection())));
+        otherDatabase.close();
+    }
+
+    @Test
+    public void shouldCloseEveryDatabaseOnReset() throws Exception {
+        SQLiteDatabase otherDatabase = SQLiteDatabase.openDatabase("other_path", null, 0);
+
+        ShadowSQLiteDatabase.reset();
+        assertThat(database.isOpen(), equalTo(false));
+        assertThat(otherDatabase.isOpen(), equalTo(false));
+
+        database = SQLiteDatabase.openDatabase("path", null, 0);
+        database.execSQL("CREATE TABLE table_name (id INTEGER PRIMARY KEY, name VARCHAR(255));");
+    }
+
+    @Test
+    public void shouldKeepFileBackedDatabasesAfterTheyAreClosed() throws Exception {
+        System.setProperty(ShadowSQLiteDatabase.FILE_BACKED_PROPERTY, "true");
+        try {
+            SQLiteDatabase fileDatabase = SQLiteDatabase.openDatabase("file_path", null, 0);
+            fileDatabase.execSQL("CREATE TABLE people (id INTEGER PRIMARY KEY, name VARCHAR(255));");
+            fileDatabase.execSQL("INSERT INTO people (id, name) VALUES (1, 'Chuck');");
+            fileDatabase.close();
+
+            fileDatabase = SQLiteDatabase.openDatabase("file_path", null, 0);
+            assertThat(countRows(fileDatabase, "people"), equalTo(1));
+
+            ShadowSQLiteDatabase.reset();
+            fileDatabase = SQLiteDatabase.openDatabase("file_path", null, 0);
+            fileDatabase.execSQL("CREATE TABLE people (id INTEGER PRIMARY KEY, name VARCHAR(255));");
+            assertThat(countRows(fileDatabase, "people"), equalTo(0));
+            fileDatabase.close();
+        } finally {
+            System.clearProperty(ShadowSQLiteDatabase.FILE_BACKED_PROPERTY);
+        }
+    }
+
     @Test
     public void shouldStoreGreatBigHonkinIntegersCorrectly() throws Exception {
         database.execSQL("INSERT INTO table_name(big_int) VALUES(1234567890123456789);");
@@ -465,6 +525,65 @@ public abstract class DatabaseTestBase {
         assertEquals(1234567890123456789L, cursor.getLong(0));
     }
 
+    @Test
+    public void shouldBindSelectionArgsRatherThanQuoteThem() throws Exception {
+        String name = "O'Neil? $1";
+        long id = addChuck();
+        updateName(id, name);
+
+        Cursor cursor = database.query("table_name", new String[]{"id", "name"}, "name=?", new String[]{name}, null, null, null);
+        assertThat(cursor.moveToFirst(), equalTo(true));
+        assertIdAndName(cursor, id, name);
+        cursor.close();
+
+        cursor = database.rawQuery("SELECT id, name FROM table_name WHERE name=? AND id=?", new String[]{name, String.valueOf(id)});
+        assertThat(cursor.getCount(), equalTo(1));
+        cursor.close();
+
+        ContentValues values = new ContentValues();
+        values.put("first_column", "updated");
+        assertThat(database.update("table_name", values, "name=?", new String[]{name}), equalTo(1));
+        assertThat(database.delete("table_name", "name=? AND first_column=?", new String[]{name, "updated"}), equalTo(1));
+    }
+
+    @Test
+    public void shouldReuseStatementsOnceTheyreClosed() throws Exception {
+        String sql = "INSERT INTO table_name (name) VALUES(?);";
+        SQLiteStatement statement = database.compileStatement(sql);
+        PreparedStatement preparedStatement = shadowOf(statement).getStatement();
+
+        SQLiteStatement concurrentStatement = database.compileStatement(sql);
+        assertThat(shadowOf(concurrentStatement).getStatement(), not(sameInstance(preparedStatement)));
+        concurrentStatement.close();
+
+        statement.close();
+        assertThat(shadowOf(database.compileStatement(sql)).getStatement(), sameInstance(preparedStatement));
+    }
+
+    @Test
+    public void shouldKeepTrackOfOpenCursorsAndStatements() throws Exception {
+        addChuck();
+        Cursor cursor = database.query("table_name", new String[]{"id", "name"}, null, null, null, null, null);
+        assertThat(shDatabase.getOpenCursorCount(), equalTo(1));
+
+        // the statement is done with once all the rows have been read, even though the cursor isn't
+        assertThat(cursor.getCount(), equalTo(1));
+        assertThat(shDatabase.getOpenStatementCount(), equalTo(0));
+
+        cursor.close();
+        assertThat(shDatabase.getOpenCursorCount(), equalTo(0));
+
+        SQLiteStatement statement = database.compileStatement("SELECT COUNT(*) FROM table_name;");
+        assertThat(shDatabase.getOpenStatementCount(), equalTo(1));
+        statement.close();
+        assertThat(shDatabase.getOpenStatementCount(), equalTo(0));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void setMaxSqlCacheSize_shouldNotAllowMoreThanTheMaximum() throws Exception {
+        database.setMaxSqlCacheSize(SQLiteDatabase.MAX_SQL_CACHE_SIZE + 1);
+    }
+
     @Test
     public void testSuccessTransaction() throws SQLException {
         assertThat(shDatabase.isTransactionSuccess(), equalTo(false));
@@ -549,6 +668,15 @@ public abstract class DatabaseTestBase {
         return database.update("table_name", values, null, null);
     }
 
+    protected int countRows(SQLiteDatabase database, String table) {
+        Cursor cursor = database.query(table, null, null, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
     protected void assertIdAndName(Cursor cursor, long id, String name) {
         long idValueFromDatabase;
         String stringValueFromDatabase;
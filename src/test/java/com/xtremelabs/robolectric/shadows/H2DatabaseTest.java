@@ -1,13 +1,20 @@
 package com.xtremelabs.robolectric.shadows;
 
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 import com.xtremelabs.robolectric.WithTestDefaultsRunner;
 import com.xtremelabs.robolectric.util.DatabaseConfig;
 import com.xtremelabs.robolectric.util.H2Map;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 @DatabaseConfig.UsingDatabaseMap(H2Map.class)
 @RunWith(WithTestDefaultsRunner.class)
@@ -17,4 +24,33 @@ public class H2DatabaseTest extends DatabaseTestBase {
         assertThat(DatabaseConfig.getDatabaseMap().getClass().getName(), 
                 equalTo(H2Map.class.getName()));
     }
+
+    @Test
+    public void shouldRefuseToOpenAnExistingDatabaseFileWhenFileBacked() throws Exception {
+        File fixture = new File("target/test-databases/h2-fixture.db");
+        fixture.getParentFile().mkdirs();
+        new FileOutputStream(fixture).close();
+
+        System.setProperty(ShadowSQLiteDatabase.FILE_BACKED_PROPERTY, "true");
+        try {
+            SQLiteDatabase.openDatabase(fixture.getPath(), null, 0);
+            fail("H2 can't read a SQLite database file");
+        } catch (RuntimeException expected) {
+            assertThat(expected.getMessage(), containsString("only SQLiteMap can open a copy"));
+        } finally {
+            System.clearProperty(ShadowSQLiteDatabase.FILE_BACKED_PROPERTY);
+        }
+    }
+
+    @Test
+    public void getString_shouldReturnValuesSQLiteDoesntHaveAsStrings() throws Exception {
+        Cursor cursor = database.rawQuery("SELECT CAST(2.50 AS DECIMAL(10, 2)) AS amount, TRUE AS flag, "
+                + "CAST('2012-03-04 05:06:07' AS TIMESTAMP) AS time FROM rawtable", null);
+        assertThat(cursor.moveToFirst(), equalTo(true));
+
+        assertThat(cursor.getString(0), equalTo("2.50"));
+        assertThat(cursor.getString(1), equalTo("true"));
+        assertThat(cursor.getString(2), equalTo("2012-03-04 05:06:07.0"));
+        cursor.close();
+    }
 }
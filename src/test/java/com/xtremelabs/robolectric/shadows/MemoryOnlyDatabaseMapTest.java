@@ -0,0 +1,87 @@
+package com.xtremelabs.robolectric.shadows;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import com.xtremelabs.robolectric.WithTestDefaultsRunner;
+import com.xtremelabs.robolectric.util.DatabaseConfig;
+import com.xtremelabs.robolectric.util.H2Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.sql.SQLException;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+@DatabaseConfig.UsingDatabaseMap(MemoryOnlyDatabaseMapTest.MemoryOnlyMap.class)
+@RunWith(WithTestDefaultsRunner.class)
+public class MemoryOnlyDatabaseMapTest {
+    @Before
+    public void setUp() throws Exception {
+        System.setProperty(ShadowSQLiteDatabase.FILE_BACKED_PROPERTY, "true");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        System.clearProperty(ShadowSQLiteDatabase.FILE_BACKED_PROPERTY);
+    }
+
+    @Test
+    public void shouldCreateTheDatabaseAgainWhenReopenedIfTheMapCantKeepItInAFile() throws Exception {
+        TableCreatingOpenHelper helper = new TableCreatingOpenHelper();
+        helper.getWritableDatabase().execSQL("INSERT INTO people (id, name) VALUES (1, 'Chuck');");
+        helper.close();
+
+        helper = new TableCreatingOpenHelper();
+        SQLiteDatabase database = helper.getWritableDatabase();
+        assertThat(helper.onCreateCalled, equalTo(true));
+        Cursor cursor = database.rawQuery("SELECT COUNT(*) FROM people", null);
+        cursor.moveToFirst();
+        assertThat(cursor.getInt(0), equalTo(0));
+        cursor.close();
+        helper.close();
+    }
+
+    public static class MemoryOnlyMap implements DatabaseConfig.DatabaseMap {
+        private final H2Map h2Map = new H2Map();
+
+        @Override public String getDriverClassName() {
+            return h2Map.getDriverClassName();
+        }
+
+        @Override public String getConnectionString() {
+            return h2Map.getConnectionString();
+        }
+
+        @Override public String getScrubSQL(String sql) throws SQLException {
+            return h2Map.getScrubSQL(sql);
+        }
+
+        @Override public String getSelectLastInsertIdentity() {
+            return h2Map.getSelectLastInsertIdentity();
+        }
+
+        @Override public int getResultSetType() {
+            return h2Map.getResultSetType();
+        }
+    }
+
+    private static class TableCreatingOpenHelper extends SQLiteOpenHelper {
+        boolean onCreateCalled;
+
+        TableCreatingOpenHelper() {
+            super(null, "people.db", null, 1);
+        }
+
+        @Override public void onCreate(SQLiteDatabase database) {
+            onCreateCalled = true;
+            database.execSQL("CREATE TABLE people (id INTEGER PRIMARY KEY, name VARCHAR(255));");
+        }
+
+        @Override public void onUpgrade(SQLiteDatabase database, int oldVersion, int newVersion) {
+        }
+    }
+}
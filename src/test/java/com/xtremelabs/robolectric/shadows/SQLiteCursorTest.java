@@ -324,6 +324,65 @@ public class SQLiteCursorTest {
         assertThat(cursor.isNull(5), equalTo(true));
     }
 
+    @Test
+    public void shouldReadRowsPastTheFirstWindow() throws Exception {
+        setupEmptyResult();
+        int count = ShadowSQLiteCursor.ROWS_PER_WINDOW * 2 + 1;
+        PreparedStatement insert = connection.prepareStatement("INSERT INTO table_name (id, name) VALUES(?, ?);");
+        for (int i = 0; i < count; i++) {
+            insert.setInt(1, i);
+            insert.setString(2, "name" + (i % 10));
+            insert.executeUpdate();
+        }
+        setupCursor();
+
+        int position = 0;
+        while (cursor.moveToNext()) {
+            assertThat(cursor.getInt(0), equalTo(position));
+            assertThat(cursor.getString(1), equalTo("name" + (position % 10)));
+            position++;
+        }
+        assertThat(position, equalTo(count));
+        assertThat(cursor.getCount(), equalTo(count));
+        assertThat(cursor.isAfterLast(), equalTo(true));
+
+        assertThat(cursor.moveToPosition(1), equalTo(true));
+        assertThat(cursor.getInt(0), equalTo(1));
+        assertThat(cursor.moveToLast(), equalTo(true));
+        assertThat(cursor.getInt(0), equalTo(count - 1));
+    }
+
+    @Test
+    public void shouldCountRowsNotReadYet() throws Exception {
+        setupEmptyResult();
+        for (int i = 0; i < ShadowSQLiteCursor.ROWS_PER_WINDOW + 1; i++) {
+            connection.createStatement().executeUpdate("INSERT INTO table_name (id) VALUES(" + i + ");");
+        }
+        setupCursor();
+
+        assertThat(cursor.getCount(), equalTo(ShadowSQLiteCursor.ROWS_PER_WINDOW + 1));
+    }
+
+    @Test
+    public void getString_shouldReturnNumbersAsStrings() throws Exception {
+        cursor.moveToFirst();
+
+        assertThat(cursor.getString(0), equalTo("1234"));
+        assertThat(cursor.getString(2), equalTo("3463"));
+    }
+
+    @Test
+    public void getString_shouldReadBlobsAsUtf8() throws Exception {
+        PreparedStatement statement = connection.prepareStatement("UPDATE table_name set blob_value=? where id=1234");
+        statement.setObject(1, "caf\u00e9".getBytes("UTF-8"));
+        statement.executeUpdate();
+
+        setupCursor();
+        cursor.moveToFirst();
+
+        assertThat(cursor.getString(5), equalTo("caf\u00e9"));
+    }
+
     private void addPeople() throws Exception {
         String[] inserts = {
                 "INSERT INTO table_name (id, name, long_value, float_value, double_value) VALUES(1234, 'Chuck', 3463, 1.5, 3.14159);",
@@ -337,9 +396,12 @@ public class SQLiteCursorTest {
     }
 
     private void setupCursor() throws Exception {
+        setupCursor("SELECT * FROM table_name;");
+    }
+
+    private void setupCursor(String sql) throws Exception {
         Statement statement = connection.createStatement(DatabaseConfig.getResultSetType(), ResultSet.CONCUR_READ_ONLY);
-        String sql ="SELECT * FROM table_name;";
-        resultSet = statement.executeQuery("SELECT * FROM table_name;");
+        resultSet = statement.executeQuery(sql);
         cursor = new SQLiteCursor(null, null, null, null);
         Robolectric.shadowOf(cursor).setResultSet(resultSet, sql);
     }
@@ -1,12 +1,16 @@
 package com.xtremelabs.robolectric.shadows;
 
 import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
 import com.xtremelabs.robolectric.WithTestDefaultsRunner;
 import com.xtremelabs.robolectric.util.DatabaseConfig;
 import com.xtremelabs.robolectric.util.SQLiteMap;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.Statement;
 
@@ -43,4 +47,34 @@ public class SQLiteDatabaseTest extends DatabaseTestBase {
         assertThat(resultSet.next(), equalTo(true));
         assertThat(resultSet.getString(1), equalTo("Norris"));
     }
+
+    @Test
+    public void shouldOpenACopyOfAnExistingDatabaseFileWhenFileBacked() throws Exception {
+        File fixture = new File("target/test-databases/fixture.db");
+        fixture.getParentFile().mkdirs();
+        fixture.delete();
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + fixture.getAbsolutePath());
+        Statement statement = connection.createStatement();
+        statement.executeUpdate("CREATE TABLE people (id INTEGER PRIMARY KEY, name VARCHAR(255))");
+        statement.executeUpdate("INSERT INTO people (id, name) VALUES (1, 'Chuck')");
+        statement.close();
+        connection.close();
+
+        System.setProperty(ShadowSQLiteDatabase.FILE_BACKED_PROPERTY, "true");
+        try {
+            SQLiteDatabase fixtureDatabase = SQLiteDatabase.openDatabase(fixture.getPath(), null, 0);
+            assertThat(countRows(fixtureDatabase, "people"), equalTo(1));
+            fixtureDatabase.execSQL("DELETE FROM people");
+            assertThat(countRows(fixtureDatabase, "people"), equalTo(0));
+            fixtureDatabase.close();
+        } finally {
+            System.clearProperty(ShadowSQLiteDatabase.FILE_BACKED_PROPERTY);
+        }
+
+        connection = DriverManager.getConnection("jdbc:sqlite:" + fixture.getAbsolutePath());
+        ResultSet resultSet = connection.createStatement().executeQuery("SELECT COUNT(*) FROM people");
+        assertThat(resultSet.next(), equalTo(true));
+        assertThat(resultSet.getInt(1), equalTo(1));
+        connection.close();
+    }
 }
@@ -10,7 +10,9 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import static com.xtremelabs.robolectric.Robolectric.shadowOf;
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.junit.Assert.assertThat;
@@ -79,6 +81,27 @@ public class SQLiteOpenHelperTest {
         assertThat(database.isOpen(), equalTo(false));
     }
 
+    @Test
+    public void shouldOnlyCreateADatabaseOnce() throws Exception {
+        SQLiteDatabase database = helper.getWritableDatabase();
+        TestOpenHelper sameNameHelper = new TestOpenHelper(null, "path", null, 1);
+        SQLiteDatabase sameNameDatabase = sameNameHelper.getWritableDatabase();
+
+        assertThat(sameNameHelper.onCreateCalled, equalTo(false));
+        assertThat(shadowOf(sameNameDatabase).getConnection(), sameInstance(shadowOf(database).getConnection()));
+    }
+
+    @Test
+    public void shouldOpenDifferentDatabasesForDifferentNames() throws Exception {
+        SQLiteDatabase database = helper.getWritableDatabase();
+        TestOpenHelper otherHelper = new TestOpenHelper(null, "other_path", null, 1);
+        SQLiteDatabase otherDatabase = otherHelper.getWritableDatabase();
+
+        assertThat(otherHelper.onCreateCalled, equalTo(true));
+        assertThat(shadowOf(otherDatabase).getConnection(), not(sameInstance(shadowOf(database).getConnection())));
+        assertThat(database.isOpen(), equalTo(true));
+    }
+
     private void assertInitialDB(SQLiteDatabase database) {
         assertDatabaseOpened(database);
         assertThat(helper.onCreateCalled, equalTo(true));
@@ -7,9 +7,11 @@ import com.xtremelabs.robolectric.R;
 
 public class CustomView extends LinearLayout {
     public int attributeResourceValue;
+    public AttributeSet attributeSet;
 
     public CustomView(Context context, AttributeSet attrs) {
         super(context, attrs);
+        attributeSet = attrs;
         inflate(context, R.layout.inner_merge, this);
         attributeResourceValue = attrs.getAttributeResourceValue("some namespace", "message", -1);
     }
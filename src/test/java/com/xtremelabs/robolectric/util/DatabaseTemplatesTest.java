@@ -0,0 +1,128 @@
+package com.xtremelabs.robolectric.util;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import com.xtremelabs.robolectric.WithTestDefaultsRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+@DatabaseConfig.UsingDatabaseMap(H2Map.class)
+@RunWith(WithTestDefaultsRunner.class)
+public class DatabaseTemplatesTest {
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = new File("target/test-database-templates");
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        System.setProperty(DatabaseTemplates.DIRECTORY_PROPERTY, dir.getPath());
+        TemplatedOpenHelper.onCreateCount = 0;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        System.clearProperty(DatabaseTemplates.DIRECTORY_PROPERTY);
+        System.clearProperty(DatabaseTemplates.VERSION_PROPERTY);
+    }
+
+    @Test
+    public void shouldRestoreTheDatabaseOnCreateMadeInsteadOfCallingItAgain() throws Exception {
+        assertTrue(DatabaseTemplates.isEnabled());
+        SQLiteDatabase database = new TemplatedOpenHelper(1).getWritableDatabase();
+        assertThat(countPeople(database), equalTo(2));
+        assertThat(TemplatedOpenHelper.onCreateCount, equalTo(1));
+        database.close();
+
+        assertThat(countPeople(new TemplatedOpenHelper(1).getWritableDatabase()), equalTo(2));
+        assertThat(TemplatedOpenHelper.onCreateCount, equalTo(1));
+        assertThat(dir.listFiles().length, equalTo(1));
+    }
+
+    @Test
+    public void shouldCallOnCreateAgainForANewVersion() throws Exception {
+        new TemplatedOpenHelper(1).getWritableDatabase().close();
+        assertThat(countPeople(new TemplatedOpenHelper(2).getWritableDatabase()), equalTo(2));
+
+        assertThat(TemplatedOpenHelper.onCreateCount, equalTo(2));
+        assertThat(dir.listFiles().length, equalTo(2));
+    }
+
+    @Test
+    public void shouldCallOnCreateAgainWhenTheTemplateVersionChanges() throws Exception {
+        System.setProperty(DatabaseTemplates.VERSION_PROPERTY, "schema-1");
+        new TemplatedOpenHelper(1).getWritableDatabase().close();
+        new TemplatedOpenHelper(1).getWritableDatabase().close();
+        assertThat(TemplatedOpenHelper.onCreateCount, equalTo(1));
+
+        System.setProperty(DatabaseTemplates.VERSION_PROPERTY, "schema-2");
+        assertThat(countPeople(new TemplatedOpenHelper(1).getWritableDatabase()), equalTo(2));
+        assertThat(TemplatedOpenHelper.onCreateCount, equalTo(2));
+        assertThat(dir.listFiles().length, equalTo(2));
+    }
+
+    @Test
+    public void shouldKeepTemplatesForDatabaseNamesThatArentFileNames() throws Exception {
+        new TemplatedOpenHelper("data/people:main", 1).getWritableDatabase().close();
+        assertThat(countPeople(new TemplatedOpenHelper("data/people:main", 1).getWritableDatabase()), equalTo(2));
+
+        assertThat(TemplatedOpenHelper.onCreateCount, equalTo(1));
+        assertThat(dir.listFiles().length, equalTo(1));
+    }
+
+    @Test
+    public void shouldCallOnCreateEveryTimeWhenTurnedOff() throws Exception {
+        System.clearProperty(DatabaseTemplates.DIRECTORY_PROPERTY);
+        new TemplatedOpenHelper(1).getWritableDatabase().close();
+        assertThat(countPeople(new TemplatedOpenHelper(1).getWritableDatabase()), equalTo(2));
+
+        assertThat(TemplatedOpenHelper.onCreateCount, equalTo(2));
+    }
+
+    private int countPeople(SQLiteDatabase database) {
+        Cursor cursor = database.rawQuery("SELECT * FROM people", null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static class TemplatedOpenHelper extends SQLiteOpenHelper {
+        static int onCreateCount;
+
+        TemplatedOpenHelper(int version) {
+            this("templated", version);
+        }
+
+        TemplatedOpenHelper(String name, int version) {
+            super((Context) null, name, null, version);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase database) {
+            onCreateCount++;
+            database.execSQL("CREATE TABLE people (id INTEGER PRIMARY KEY, name VARCHAR(255))");
+            database.execSQL("INSERT INTO people (id, name) VALUES (1, 'Chuck')");
+            database.execSQL("INSERT INTO people (id, name) VALUES (2, 'Julie')");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase database, int oldVersion, int newVersion) {
+        }
+    }
+}
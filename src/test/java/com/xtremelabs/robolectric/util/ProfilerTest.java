@@ -0,0 +1,99 @@
+package com.xtremelabs.robolectric.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringWriter;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class ProfilerTest {
+    private boolean wasEnabled;
+    private String previousTestClassName;
+
+    @Before
+    public void setUp() throws Exception {
+        wasEnabled = Profiler.isEnabled();
+        Profiler.setEnabled(true);
+        Profiler.reset();
+        previousTestClassName = Profiler.setTestClass("com.example.FooTest");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Profiler.setTestClass(previousTestClassName);
+        Profiler.reset();
+        Profiler.setEnabled(wasEnabled);
+    }
+
+    @Test
+    public void shouldReportPhasesByTestClass() throws Exception {
+        long start = Profiler.start();
+        Profiler.end("classLoading", start);
+        Profiler.setTestClass("com.example.BarTest");
+        start = Profiler.start();
+        Profiler.end("test", start);
+
+        String json = toJson();
+        assertTrue(json, json.startsWith("{\"testClasses\": [\n  {\"name\": \"com.example.FooTest\", \"phases\": {\n    \"classLoading\": {\"count\": 1, "));
+        assertTrue(json, json.contains("{\"name\": \"com.example.BarTest\", \"phases\": {\n    \"test\": {\"count\": 1, "));
+    }
+
+    @Test
+    public void shouldNotChargeNestedPhasesToTheirParentsSelfTime() throws Exception {
+        long outerStart = Profiler.start();
+        long innerStart = Profiler.start();
+        Thread.sleep(50);
+        Profiler.end("inner", innerStart);
+        Profiler.end("outer", outerStart);
+
+        double outerTotal = getMillis("outer", "totalMillis");
+        double outerSelf = getMillis("outer", "selfMillis");
+        double innerTotal = getMillis("inner", "totalMillis");
+
+        assertTrue(outerTotal >= 50);
+        assertEquals(innerTotal, getMillis("inner", "selfMillis"), 0.001);
+        assertEquals(outerTotal - innerTotal, outerSelf, 0.002);
+    }
+
+    @Test
+    public void shouldRecordNothingWhenDisabled() throws Exception {
+        Profiler.setEnabled(false);
+        long start = Profiler.start();
+        Profiler.end("classLoading", start);
+
+        assertThat(start, equalTo(0L));
+        assertThat(toJson(), equalTo("{\"testClasses\": [\n]}\n"));
+    }
+
+    @Test
+    public void shouldSummarizeSelfTimeByPhaseAndTestClass() throws Exception {
+        long start = Profiler.start();
+        Profiler.end("instrumentation", start);
+
+        String summary = Profiler.getSummary();
+        assertTrue(summary, summary.contains("instrumentation"));
+        assertTrue(summary, summary.contains("com.example.FooTest"));
+    }
+
+    private String toJson() throws Exception {
+        StringWriter writer = new StringWriter();
+        Profiler.writeJson(writer);
+        return writer.toString();
+    }
+
+    private double getMillis(String phase, String field) throws Exception {
+        String json = toJson();
+        String phaseJson = json.substring(json.indexOf("\"" + phase + "\": {"));
+        int fieldStart = phaseJson.indexOf("\"" + field + "\": ") + field.length() + 4;
+        int fieldEnd = fieldStart;
+        while (Character.isDigit(phaseJson.charAt(fieldEnd)) || phaseJson.charAt(fieldEnd) == '.') {
+            fieldEnd++;
+        }
+        return Double.parseDouble(phaseJson.substring(fieldStart, fieldEnd));
+    }
+}
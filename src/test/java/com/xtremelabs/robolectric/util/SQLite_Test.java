@@ -2,11 +2,14 @@ package com.xtremelabs.robolectric.util;
 
 import android.content.ContentValues;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import com.xtremelabs.robolectric.WithTestDefaultsRunner;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.Arrays;
+
 import static com.xtremelabs.robolectric.util.SQLite.*;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.junit.Assert.assertThat;
@@ -36,14 +39,16 @@ public class SQLite_Test {
     @Test
     public void testBuildUpdateString() {
         SQLite.SQLStringAndBindings insertString = buildUpdateString("table_name", values, "id=?", new String[]{"1234"});
-        assertThat(insertString.sql, equalTo("UPDATE table_name SET float_value=?, byte_data=?, name=?, int_value=? WHERE id='1234';"));
-        SQLiteTestHelper.verifyColumnValues(insertString.columnValues);
+        assertThat(insertString.sql, equalTo("UPDATE table_name SET float_value=?, byte_data=?, name=?, int_value=? WHERE id=?;"));
+        SQLiteTestHelper.verifyColumnValues(insertString.columnValues.subList(0, 4));
+        assertThat(insertString.columnValues.get(4), equalTo((Object) "1234"));
     }
 
     @Test
     public void testBuildDeleteString() {
-        String deleteString = buildDeleteString("table_name", "id=?", new String[]{"1234"});
-        assertThat(deleteString, equalTo("DELETE FROM table_name WHERE id='1234';"));
+        SQLStringAndBindings deleteString = buildDeleteString("table_name", "id=?", new String[]{"1234"});
+        assertThat(deleteString.sql, equalTo("DELETE FROM table_name WHERE id=?;"));
+        assertThat(deleteString.columnValues, equalTo(Arrays.<Object>asList("1234")));
     }
 
     @Test
@@ -52,6 +57,17 @@ public class SQLite_Test {
         assertThat(whereClause, equalTo("id='1234' AND name='Chuck' AND int_value='33'"));
     }
 
+    @Test
+    public void buildWhereClause_shouldQuoteValuesAndLeaveQuotedQuestionMarksAlone() {
+        String whereClause = buildWhereClause("name=? AND note='what?' AND id=?", new String[]{"O'Neil $1?", "7"});
+        assertThat(whereClause, equalTo("name='O''Neil $1?' AND note='what?' AND id='7'"));
+    }
+
+    @Test(expected = SQLiteException.class)
+    public void checkWhereArgs_shouldThrowIfThereAreTooFewValues() {
+        checkWhereArgs("id=? AND name=?", new String[]{"1234"});
+    }
+
     @Test
     public void testBuildColumnValuesClause() {
         SQLStringAndBindings columnValuesClause = buildColumnValuesClause(values);
@@ -5,6 +5,7 @@ import com.xtremelabs.robolectric.RobolectricConfig;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -114,4 +115,37 @@ public abstract class TestUtil {
         }
         return writer.toString();
     }
+
+    /**
+     * Writes {@code contents} to {@code file}, making its directory first if need be.
+     */
+    public static void writeFile(File file, String contents) throws IOException {
+        writeFile(file, contents.getBytes("UTF-8"));
+    }
+
+    /**
+     * Writes {@code contents} to {@code file}, making its directory first if need be.
+     */
+    public static void writeFile(File file, byte[] contents) throws IOException {
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(contents);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Deletes {@code file}, and everything in it if it's a directory.
+     */
+    public static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
 }